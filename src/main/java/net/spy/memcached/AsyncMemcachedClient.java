@@ -0,0 +1,599 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.internal.DirectFuture;
+import net.spy.memcached.internal.NearCache;
+import net.spy.memcached.ops.CASOperationStatus;
+import net.spy.memcached.ops.CancelledOperationStatus;
+import net.spy.memcached.ops.ConcatenationType;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.Mutator;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.ops.TimedOutOperationStatus;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.StringUtils;
+
+/**
+ * Sends the operations of an {@link AsyncMemcachedClientIF} through the
+ * connections of a {@link MemcachedClient}.
+ *
+ * <p>The futures share the near cache, the operation timeout and the
+ * transcoder of the client. They are completed and run their callbacks on
+ * the IO thread, unless an executor is given, in which case that is where
+ * values are decoded and callbacks run:</p>
+ *
+ * <pre>
+ * AsyncMemcachedClientIF async = new AsyncMemcachedClient(client);
+ * async.get("someKey").addCallback(new CompletionCallback&lt;Object&gt;() {
+ *   ...
+ * });
+ * </pre>
+ */
+public class AsyncMemcachedClient extends SpyObject
+  implements AsyncMemcachedClientIF {
+
+  private final MemcachedClient client;
+  private final Executor executor;
+
+  /**
+   * Complete the futures of the operations on the IO thread.
+   *
+   * @param c the client sending the operations
+   */
+  public AsyncMemcachedClient(MemcachedClient c) {
+    this(c, null);
+  }
+
+  /**
+   * Complete the futures of the operations on the given executor.
+   *
+   * @param c the client sending the operations
+   * @param e the executor completing the futures, or null to complete them
+   *          on the IO thread
+   */
+  public AsyncMemcachedClient(MemcachedClient c, Executor e) {
+    client = c;
+    executor = e;
+  }
+
+  private <T> DirectFuture<T> newFuture() {
+    return new DirectFuture<T>(client.operationTimeout, executor);
+  }
+
+  private <T> DirectFuture<T> enqueue(String key, Operation op,
+      DirectFuture<T> rv) {
+    rv.setOperation(op);
+    client.mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  @Override
+  public DirectFuture<Object> get(String key) {
+    return get(key, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<T> get(final String key, final Transcoder<T> tc) {
+    final NearCache nearCache = client.nearCache;
+    final DirectFuture<T> rv = newFuture();
+    if (nearCache != null) {
+      Future<T> cached = nearCache.get(key, tc);
+      if (cached != null) {
+        try {
+          rv.set(cached.get(), new OperationStatus(true, "NEAR_CACHE",
+            StatusCode.SUCCESS));
+          rv.signalComplete();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          rv.fail(e);
+        } catch (ExecutionException e) {
+          rv.fail(e.getCause());
+        }
+        return rv;
+      }
+    }
+    final long generation = nearCache == null ? 0 : nearCache.generation(key);
+    Operation op = client.opFact.get(key, new GetOperation.Callback() {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        rv.setStatus(status);
+      }
+
+      @Override
+      public void gotData(String k, int flags, byte[] data) {
+        assert key.equals(k) : "Wrong key returned";
+        CachedData cd = new CachedData(flags, data, tc.getMaxSize());
+        rv.set(cd, tc);
+        if (nearCache != null) {
+          // The future itself holds the decoded value once it completes.
+          nearCache.putIfUnchanged(key, generation, cd, rv, tc);
+        }
+      }
+
+      @Override
+      public void complete() {
+        rv.signalComplete();
+      }
+    });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<CASValue<Object>> gets(String key) {
+    return gets(key, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<CASValue<T>> gets(final String key,
+      final Transcoder<T> tc) {
+    final DirectFuture<CASValue<T>> rv = newFuture();
+    Operation op = client.opFact.gets(key, new GetsOperation.Callback() {
+      private CASValue<T> val;
+
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        rv.set(val, status);
+      }
+
+      @Override
+      public void gotData(String k, int flags, long cas, byte[] data) {
+        assert key.equals(k) : "Wrong key returned";
+        assert cas > 0 : "CAS was less than zero:  " + cas;
+        val = new CASValue<T>(cas, tc.decode(new CachedData(flags, data,
+          tc.getMaxSize())));
+      }
+
+      @Override
+      public void complete() {
+        rv.signalComplete();
+      }
+    });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<CASValue<Object>> getAndTouch(String key, int exp) {
+    return getAndTouch(key, exp, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<CASValue<T>> getAndTouch(final String key,
+      int exp, final Transcoder<T> tc) {
+    final DirectFuture<CASValue<T>> rv = newFuture();
+    client.keyModified(key);
+    Operation op = client.opFact.getAndTouch(key, exp,
+        new GetAndTouchOperation.Callback() {
+          private CASValue<T> val;
+
+          @Override
+          public void receivedStatus(OperationStatus status) {
+            rv.set(val, status);
+          }
+
+          @Override
+          public void gotData(String k, int flags, long cas, byte[] data) {
+            assert k.equals(key) : "Wrong key returned";
+            val = new CASValue<T>(cas, tc.decode(new CachedData(flags, data,
+              tc.getMaxSize())));
+          }
+
+          @Override
+          public void complete() {
+            rv.signalComplete();
+          }
+        });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<Map<String, Object>> getBulk(Collection<String> keys) {
+    return getBulk(keys, client.transcoder);
+  }
+
+  /**
+   * Get the values of several keys, with one operation per node.
+   *
+   * <p>Values are decoded as with {@link MemcachedClient#asyncGetBulk},
+   * and collected once the operations of all nodes have completed.</p>
+   */
+  @Override
+  public <T> DirectFuture<Map<String, T>> getBulk(Collection<String> keys,
+      final Transcoder<T> tc) {
+    final NearCache nearCache = client.nearCache;
+    final Map<String, Future<T>> m = new ConcurrentHashMap<String, Future<T>>();
+    final Map<String, Long> generations = new HashMap<String, Long>();
+    final Map<MemcachedNode, Collection<String>> chunks =
+        new HashMap<MemcachedNode, Collection<String>>();
+    NodeLocator locator = client.mconn.getLocator();
+    for (String key : keys) {
+      StringUtils.validateKey(key,
+        client.opFact instanceof BinaryOperationFactory);
+      if (nearCache != null) {
+        Future<T> cached = nearCache.get(key, tc);
+        if (cached != null) {
+          m.put(key, cached);
+          continue;
+        }
+        generations.put(key, nearCache.generation(key));
+      }
+      MemcachedNode node = client.getNodeForKey(locator, key);
+      Collection<String> ks = chunks.get(node);
+      if (ks == null) {
+        ks = new ArrayList<String>();
+        chunks.put(node, ks);
+      }
+      ks.add(key);
+    }
+
+    // The map is collected by the last operation to complete, so the
+    // executor is only involved once.
+    final DirectFuture<Map<String, T>> rv =
+      new DirectFuture<Map<String, T>>(client.operationTimeout, null);
+    final AtomicInteger pendingChunks = new AtomicInteger(chunks.size());
+    final Runnable collect = new Runnable() {
+      @Override
+      public void run() {
+        Map<String, T> values = new HashMap<String, T>(m.size());
+        try {
+          for (Map.Entry<String, Future<T>> me : m.entrySet()) {
+            values.put(me.getKey(), me.getValue().get());
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          rv.fail(e);
+          return;
+        } catch (ExecutionException e) {
+          rv.fail(e.getCause());
+          return;
+        }
+        rv.set(values, new OperationStatus(true, "END", StatusCode.SUCCESS));
+        rv.signalComplete();
+      }
+    };
+
+    GetOperation.Callback cb = new GetOperation.Callback() {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        if (status.getStatusCode() == StatusCode.ERR_NOT_MY_VBUCKET) {
+          pendingChunks.addAndGet(Integer.parseInt(status.getMessage()));
+        }
+      }
+
+      @Override
+      public void gotData(String k, int flags, byte[] data) {
+        CachedData cd = new CachedData(flags, data, tc.getMaxSize());
+        Future<T> val = client.tcService.decode(tc, cd);
+        m.put(k, val);
+        if (nearCache != null) {
+          nearCache.putIfUnchanged(k, generations.get(k), cd, val, tc);
+        }
+      }
+
+      @Override
+      public void complete() {
+        if (pendingChunks.decrementAndGet() <= 0) {
+          execute(collect);
+        }
+      }
+    };
+
+    Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, Collection<String>> me : chunks.entrySet()) {
+      mops.put(me.getKey(), client.opFact.get(me.getValue(), cb));
+    }
+    rv.setOperations(new ArrayList<Operation>(mops.values()));
+    if (mops.isEmpty()) {
+      execute(collect);
+    } else {
+      client.mconn.checkState();
+      client.mconn.addOperations(mops);
+    }
+    return rv;
+  }
+
+  private void execute(Runnable r) {
+    if (executor == null) {
+      r.run();
+    } else {
+      executor.execute(r);
+    }
+  }
+
+  @Override
+  public DirectFuture<Boolean> touch(final String key, int exp) {
+    final DirectFuture<Boolean> rv = newFuture();
+    client.keyModified(key);
+    Operation op = client.opFact.touch(key, exp, new OperationCallback() {
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        rv.set(status.isSuccess(), status);
+      }
+
+      @Override
+      public void complete() {
+        rv.signalComplete();
+      }
+    });
+    return enqueue(key, op, rv);
+  }
+
+  private <T> DirectFuture<Boolean> store(StoreType storeType,
+      final String key, final int exp, T value, final Transcoder<T> tc) {
+    final CachedData co = tc.encode(value);
+    final DirectFuture<Boolean> rv = newFuture();
+    client.keyModified(key);
+    Operation op = client.opFact.store(storeType, key, co.getFlags(), exp,
+        co.getData(), new StoreOperation.Callback() {
+          @Override
+          public void receivedStatus(OperationStatus val) {
+            if (val.isSuccess() && client.nearCache != null) {
+              client.nearCache.put(key, exp, co, tc);
+            }
+            rv.set(val.isSuccess(), val);
+          }
+
+          @Override
+          public void gotData(String k, long cas) {
+            // The CAS of a store is not part of the result.
+          }
+
+          @Override
+          public void complete() {
+            rv.signalComplete();
+          }
+        });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<Boolean> set(String key, int exp, Object o) {
+    return store(StoreType.set, key, exp, o, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<Boolean> set(String key, int exp, T o,
+      Transcoder<T> tc) {
+    return store(StoreType.set, key, exp, o, tc);
+  }
+
+  @Override
+  public DirectFuture<Boolean> add(String key, int exp, Object o) {
+    return store(StoreType.add, key, exp, o, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<Boolean> add(String key, int exp, T o,
+      Transcoder<T> tc) {
+    return store(StoreType.add, key, exp, o, tc);
+  }
+
+  @Override
+  public DirectFuture<Boolean> replace(String key, int exp, Object o) {
+    return store(StoreType.replace, key, exp, o, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<Boolean> replace(String key, int exp, T o,
+      Transcoder<T> tc) {
+    return store(StoreType.replace, key, exp, o, tc);
+  }
+
+  private <T> DirectFuture<Boolean> cat(ConcatenationType catType, long cas,
+      String key, T value, Transcoder<T> tc) {
+    CachedData co = tc.encode(value);
+    final DirectFuture<Boolean> rv = newFuture();
+    client.keyModified(key);
+    Operation op = client.opFact.cat(catType, cas, key, co.getData(),
+        new OperationCallback() {
+          @Override
+          public void receivedStatus(OperationStatus val) {
+            rv.set(val.isSuccess(), val);
+          }
+
+          @Override
+          public void complete() {
+            rv.signalComplete();
+          }
+        });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<Boolean> append(String key, Object val) {
+    return append(0, key, val, client.transcoder);
+  }
+
+  @Override
+  public DirectFuture<Boolean> append(long cas, String key, Object val) {
+    return append(cas, key, val, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<Boolean> append(long cas, String key, T val,
+      Transcoder<T> tc) {
+    return cat(ConcatenationType.append, cas, key, val, tc);
+  }
+
+  @Override
+  public DirectFuture<Boolean> prepend(String key, Object val) {
+    return prepend(0, key, val, client.transcoder);
+  }
+
+  @Override
+  public DirectFuture<Boolean> prepend(long cas, String key, Object val) {
+    return prepend(cas, key, val, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<Boolean> prepend(long cas, String key, T val,
+      Transcoder<T> tc) {
+    return cat(ConcatenationType.prepend, cas, key, val, tc);
+  }
+
+  @Override
+  public DirectFuture<CASResponse> cas(String key, long casId, Object value) {
+    return cas(key, casId, 0, value, client.transcoder);
+  }
+
+  @Override
+  public DirectFuture<CASResponse> cas(String key, long casId, int exp,
+      Object value) {
+    return cas(key, casId, exp, value, client.transcoder);
+  }
+
+  @Override
+  public <T> DirectFuture<CASResponse> cas(final String key, long casId,
+      final int exp, T value, final Transcoder<T> tc) {
+    final CachedData co = tc.encode(value);
+    final DirectFuture<CASResponse> rv = newFuture();
+    client.keyModified(key);
+    Operation op = client.opFact.cas(StoreType.set, key, casId,
+        co.getFlags(), exp, co.getData(), new StoreOperation.Callback() {
+          @Override
+          public void receivedStatus(OperationStatus val) {
+            if (val instanceof CASOperationStatus) {
+              CASResponse res = ((CASOperationStatus) val).getCASResponse();
+              if (res == CASResponse.OK && client.nearCache != null) {
+                client.nearCache.put(key, exp, co, tc);
+              }
+              rv.set(res, val);
+            } else if (val instanceof CancelledOperationStatus) {
+              getLogger().debug("CAS operation cancelled");
+            } else if (val instanceof TimedOutOperationStatus) {
+              getLogger().debug("CAS operation timed out");
+            } else {
+              throw new RuntimeException("Unhandled state: " + val);
+            }
+          }
+
+          @Override
+          public void gotData(String k, long cas) {
+            // The new CAS is not part of the result.
+          }
+
+          @Override
+          public void complete() {
+            rv.signalComplete();
+          }
+        });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<Boolean> delete(String key) {
+    return delete(key, 0L);
+  }
+
+  @Override
+  public DirectFuture<Boolean> delete(String key, long cas) {
+    final DirectFuture<Boolean> rv = newFuture();
+    client.keyModified(key);
+    DeleteOperation.Callback callback = new DeleteOperation.Callback() {
+      @Override
+      public void receivedStatus(OperationStatus s) {
+        rv.set(s.isSuccess(), s);
+      }
+
+      @Override
+      public void gotData(long c) {
+        // The CAS of a delete is not part of the result.
+      }
+
+      @Override
+      public void complete() {
+        rv.signalComplete();
+      }
+    };
+    Operation op = cas == 0 ? client.opFact.delete(key, callback)
+        : client.opFact.delete(key, cas, callback);
+    return enqueue(key, op, rv);
+  }
+
+  private DirectFuture<Long> mutate(Mutator m, String key, long by, long def,
+      int exp) {
+    if (!(client.opFact instanceof BinaryOperationFactory)
+        && (def != 0 || exp != -1)) {
+      throw new UnsupportedOperationException("Default value or expiration "
+        + "time are not supported on the async mutate methods. Use either the "
+        + "binary protocol or the sync variant.");
+    }
+    final DirectFuture<Long> rv = newFuture();
+    client.keyModified(key);
+    Operation op = client.opFact.mutate(m, key, by, def, exp,
+        new OperationCallback() {
+          @Override
+          public void receivedStatus(OperationStatus s) {
+            rv.set(new Long(s.isSuccess() ? s.getMessage() : "-1"), s);
+          }
+
+          @Override
+          public void complete() {
+            rv.signalComplete();
+          }
+        });
+    return enqueue(key, op, rv);
+  }
+
+  @Override
+  public DirectFuture<Long> incr(String key, long by) {
+    return mutate(Mutator.incr, key, by, 0, -1);
+  }
+
+  @Override
+  public DirectFuture<Long> incr(String key, long by, long def, int exp) {
+    return mutate(Mutator.incr, key, by, def, exp);
+  }
+
+  @Override
+  public DirectFuture<Long> decr(String key, long by) {
+    return mutate(Mutator.decr, key, by, 0, -1);
+  }
+
+  @Override
+  public DirectFuture<Long> decr(String key, long by, long def, int exp) {
+    return mutate(Mutator.decr, key, by, def, exp);
+  }
+}
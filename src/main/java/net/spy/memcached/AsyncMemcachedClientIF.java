@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.Collection;
+import java.util.Map;
+
+import net.spy.memcached.internal.DirectFuture;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * The keyed operations of {@link MemcachedClientIF}, returning futures which
+ * are completed directly by the IO thread.
+ *
+ * <p>Every future is completed by the callback of its operation, without
+ * a thread waiting for it in between, and runs its
+ * {@link net.spy.memcached.internal.CompletionCallback}s right there. The
+ * results are the same as those of the corresponding
+ * {@link MemcachedClientIF} methods.</p>
+ */
+public interface AsyncMemcachedClientIF {
+
+  DirectFuture<Object> get(String key);
+
+  <T> DirectFuture<T> get(String key, Transcoder<T> tc);
+
+  DirectFuture<CASValue<Object>> gets(String key);
+
+  <T> DirectFuture<CASValue<T>> gets(String key, Transcoder<T> tc);
+
+  DirectFuture<CASValue<Object>> getAndTouch(String key, int exp);
+
+  <T> DirectFuture<CASValue<T>> getAndTouch(String key, int exp,
+      Transcoder<T> tc);
+
+  DirectFuture<Map<String, Object>> getBulk(Collection<String> keys);
+
+  <T> DirectFuture<Map<String, T>> getBulk(Collection<String> keys,
+      Transcoder<T> tc);
+
+  DirectFuture<Boolean> touch(String key, int exp);
+
+  DirectFuture<Boolean> set(String key, int exp, Object o);
+
+  <T> DirectFuture<Boolean> set(String key, int exp, T o, Transcoder<T> tc);
+
+  DirectFuture<Boolean> add(String key, int exp, Object o);
+
+  <T> DirectFuture<Boolean> add(String key, int exp, T o, Transcoder<T> tc);
+
+  DirectFuture<Boolean> replace(String key, int exp, Object o);
+
+  <T> DirectFuture<Boolean> replace(String key, int exp, T o,
+      Transcoder<T> tc);
+
+  DirectFuture<Boolean> append(String key, Object val);
+
+  DirectFuture<Boolean> append(long cas, String key, Object val);
+
+  <T> DirectFuture<Boolean> append(long cas, String key, T val,
+      Transcoder<T> tc);
+
+  DirectFuture<Boolean> prepend(String key, Object val);
+
+  DirectFuture<Boolean> prepend(long cas, String key, Object val);
+
+  <T> DirectFuture<Boolean> prepend(long cas, String key, T val,
+      Transcoder<T> tc);
+
+  DirectFuture<CASResponse> cas(String key, long casId, Object value);
+
+  DirectFuture<CASResponse> cas(String key, long casId, int exp,
+      Object value);
+
+  <T> DirectFuture<CASResponse> cas(String key, long casId, int exp, T value,
+      Transcoder<T> tc);
+
+  DirectFuture<Boolean> delete(String key);
+
+  DirectFuture<Boolean> delete(String key, long cas);
+
+  DirectFuture<Long> incr(String key, long by);
+
+  DirectFuture<Long> incr(String key, long by, long def, int exp);
+
+  DirectFuture<Long> decr(String key, long by);
+
+  DirectFuture<Long> decr(String key, long by, long def, int exp);
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.List;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.KeyedOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.ReplicaGetOperation;
+import net.spy.memcached.ops.ReplicaGetsOperation;
+
+/**
+ * Base class for {@link ConnectionSelector}s, which sends all operations
+ * that modify a key over the connection the key hashes to.
+ */
+public abstract class BaseConnectionSelector implements ConnectionSelector {
+
+  public MemcachedNode select(List<MemcachedNode> connections, Operation op) {
+    String key = getOrderedKey(op);
+    if (key == null) {
+      return selectAny(connections, 0, connections.size(), op);
+    }
+    return selectForKey(connections, 0, connections.size(), key);
+  }
+
+  /**
+   * Select the connection for an operation that may be sent over any of
+   * the given range of connections.
+   *
+   * @param connections all connections to the node
+   * @param from the index of the first connection to consider
+   * @param to the index after the last connection to consider
+   * @param op the operation to send
+   * @return the selected connection
+   */
+  protected abstract MemcachedNode selectAny(List<MemcachedNode> connections,
+      int from, int to, Operation op);
+
+  /**
+   * Select the connection the given key hashes to within the given range.
+   *
+   * If that connection is down, the next active one is used, since the
+   * operations queued on it are redistributed anyway.
+   *
+   * @param connections all connections to the node
+   * @param from the index of the first connection to consider
+   * @param to the index after the last connection to consider
+   * @param key the key to select the connection for
+   * @return the selected connection
+   */
+  protected static MemcachedNode selectForKey(List<MemcachedNode> connections,
+      int from, int to, String key) {
+    int count = to - from;
+    int start = (key.hashCode() & Integer.MAX_VALUE) % count;
+    for (int i = 0; i < count; i++) {
+      MemcachedNode node = connections.get(from + (start + i) % count);
+      if (node.isActive()) {
+        return node;
+      }
+    }
+    return connections.get(from + start);
+  }
+
+  /**
+   * Get the key whose modifications have to stay in order.
+   *
+   * @param op the operation to check
+   * @return the first key of the operation, or null if the operation only
+   *         reads or has no key
+   */
+  protected static String getOrderedKey(Operation op) {
+    if (!(op instanceof KeyedOperation) || op instanceof GetOperation
+        || op instanceof GetsOperation || op instanceof ReplicaGetOperation
+        || op instanceof ReplicaGetsOperation) {
+      return null;
+    }
+    for (String key : ((KeyedOperation) op).getKeys()) {
+      return key;
+    }
+    return null;
+  }
+}
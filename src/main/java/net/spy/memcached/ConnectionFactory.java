@@ -133,6 +133,132 @@ public interface ConnectionFactory {
    */
    boolean getKeepAlive();
 
+  /**
+   * If true, operation buffers are written to the socket with a single
+   * gathering write instead of being copied into the write buffer first.
+   *
+   * <p>
+   * Small operations are still copied, since passing a buffer per tiny
+   * operation is more expensive than the copy itself.
+   * </p>
+   */
+  boolean useGatheringWrites();
+
+  /**
+   * The number of bytes each size class of the operation buffer pool may
+   * hold.
+   *
+   * <p>
+   * If zero, operation buffers are not pooled and every operation allocates
+   * its own buffer.
+   * </p>
+   */
+  int getBufferPoolSize();
+
+  /**
+   * If true, the operation buffer pool hands out direct buffers.
+   */
+  boolean useDirectBufferPool();
+
+  /**
+   * The number of microseconds an IO thread waits for more operations
+   * after it has been woken up for new ones, before writing them.
+   *
+   * <p>
+   * While waiting, newly added operations do not wake up the IO thread
+   * again, so they are written together in one pass. If zero, operations
+   * are written as soon as possible.
+   * </p>
+   */
+  long getWriteBatchWindow();
+
+  /**
+   * The number of bytes the client side near cache may hold.
+   *
+   * <p>
+   * Values read by plain gets are kept in process for a short time, so
+   * repeated reads of hot keys do not need a round trip. If zero, the near
+   * cache is disabled.
+   * </p>
+   */
+  long getNearCacheSize();
+
+  /**
+   * The maximum number of milliseconds a value is served from the near
+   * cache.
+   *
+   * <p>
+   * Changes made by other clients become visible after this time at the
+   * latest. Values with a shorter memcached expiration are kept for that
+   * shorter time instead.
+   * </p>
+   */
+  long getNearCacheTTL();
+
+  /**
+   * If true, the near cache holds decoded objects instead of the encoded
+   * {@link net.spy.memcached.CachedData}.
+   *
+   * <p>
+   * Decoded objects save the decoding work on every hit, but the same
+   * instance is handed out to all readers, so it must not be modified.
+   * </p>
+   */
+  boolean useDecodedNearCache();
+
+  /**
+   * If true, a get for a key that is already being fetched with the same
+   * transcoder waits for the pending request instead of sending another one.
+   *
+   * <p>
+   * The futures of coalesced gets share one operation, so cancelling one of
+   * them or letting it time out affects the others as well.
+   * </p>
+   */
+  boolean shouldCoalesceGets();
+
+  /**
+   * The percentile of recent get latencies a hedged read waits for before it
+   * also asks another node.
+   *
+   * <p>
+   * For example, at 95 about one in twenty hedged reads sends a second
+   * request, unless a node is slower than usual.
+   * </p>
+   */
+  double getHedgePercentile();
+
+  /**
+   * The number of connections opened to every node.
+   *
+   * <p>
+   * With more than one connection, a large value on one of them no longer
+   * holds up the small operations on the others. Modifications of a key are
+   * always sent over the same connection, reads are spread over all of them
+   * by the {@link #getConnectionSelector()}.
+   * </p>
+   */
+  int getConnectionsPerNode();
+
+  /**
+   * Get the ConnectionSelector which picks one of the connections to a node
+   * for every operation.
+   */
+  ConnectionSelector getConnectionSelector();
+
+  /**
+   * The number of milliseconds between the checks of an IO thread for
+   * operations which have exceeded the operation timeout.
+   *
+   * <p>
+   * Expired operations are timed out and their futures completed whether or
+   * not a caller waits for them, and the ones which have not been written
+   * yet are removed from the queues. If zero, operations only time out when
+   * they are about to be written or when a caller gives up waiting.
+   * </p>
+   */
+  long getTimeoutTick();
+
   /**
    * Observers that should be established at the time of connection
    * instantiation.
@@ -201,4 +327,12 @@ public interface ConnectionFactory {
    * @return the time in milliseconds.
    */
   long getAuthWaitTime();
+
+  /**
+   * The number of threads (and selectors) the nodes of a connection are
+   * spread across.
+   *
+   * @return the number of IO threads to use.
+   */
+  int getIOThreadCount();
 }
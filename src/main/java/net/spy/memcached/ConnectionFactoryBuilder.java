@@ -62,6 +62,20 @@ public class ConnectionFactoryBuilder {
   protected boolean shouldOptimize = false;
   protected boolean useNagle = false;
   protected boolean keepAlive = false;
+  protected boolean gatheringWrites = false;
+  protected int bufferPoolSize = 0;
+  protected boolean directBufferPool = false;
+  protected long writeBatchWindow = 0;
+  protected long nearCacheSize = 0;
+  protected long nearCacheTTL = DefaultConnectionFactory.DEFAULT_NEAR_CACHE_TTL;
+  protected boolean decodedNearCache = false;
+  protected boolean coalesceGets = false;
+  protected double hedgePercentile =
+      DefaultConnectionFactory.DEFAULT_HEDGE_PERCENTILE;
+  protected int connectionsPerNode =
+      DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_NODE;
+  protected ConnectionSelector connectionSelector = null;
+  protected long timeoutTick = 0;
   protected long maxReconnectDelay =
       DefaultConnectionFactory.DEFAULT_MAX_RECONNECT_DELAY;
 
@@ -77,6 +91,7 @@ public class ConnectionFactoryBuilder {
   protected MetricCollector collector = null;
   protected ExecutorService executorService = null;
   protected long authWaitTime = DefaultConnectionFactory.DEFAULT_AUTH_WAIT_TIME;
+  protected int ioThreadCount = DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT;
 
   /**
    * Set the operation queue factory.
@@ -100,9 +115,22 @@ public class ConnectionFactoryBuilder {
     setTimeoutExceptionThreshold(cf.getTimeoutExceptionThreshold());
     setTranscoder(cf.getDefaultTranscoder());
     setUseNagleAlgorithm(cf.useNagleAlgorithm());
+    setUseGatheringWrites(cf.useGatheringWrites());
+    setBufferPoolSize(cf.getBufferPoolSize());
+    setDirectBufferPool(cf.useDirectBufferPool());
+    setWriteBatchWindow(cf.getWriteBatchWindow());
+    setNearCacheSize(cf.getNearCacheSize());
+    setNearCacheTTL(cf.getNearCacheTTL());
+    setDecodedNearCache(cf.useDecodedNearCache());
+    setCoalesceGets(cf.shouldCoalesceGets());
+    setHedgePercentile(cf.getHedgePercentile());
+    setConnectionsPerNode(cf.getConnectionsPerNode());
+    setConnectionSelector(cf.getConnectionSelector());
+    setTimeoutTick(cf.getTimeoutTick());
     setEnableMetrics(cf.enableMetrics());
     setListenerExecutorService(cf.getListenerExecutorService());
     setAuthWaitTime(cf.getAuthWaitTime());
+    setIOThreadCount(cf.getIOThreadCount());
   }
 
   public ConnectionFactoryBuilder setOpQueueFactory(OperationQueueFactory q) {
@@ -228,6 +256,162 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set to true to write operation buffers with gathering writes instead of
+   * copying them into the write buffer first.
+   */
+  public ConnectionFactoryBuilder setUseGatheringWrites(boolean to) {
+    gatheringWrites = to;
+    return this;
+  }
+
+  /**
+   * Set the number of bytes each size class of the operation buffer pool may
+   * hold.
+   *
+   * Operations borrow their encode buffers from the pool and give them back
+   * once they have been written, which keeps the allocation rate down under
+   * high load.
+   *
+   * @param size the budget per size class in bytes (0 disables pooling).
+   */
+  public ConnectionFactoryBuilder setBufferPoolSize(int size) {
+    assert size >= 0 : "Buffer pool size must not be negative";
+    bufferPoolSize = size;
+    return this;
+  }
+
+  /**
+   * Set to true to pool direct buffers instead of heap buffers.
+   *
+   * Direct buffers can be handed to the socket without an extra copy, which
+   * is most useful together with gathering writes.
+   */
+  public ConnectionFactoryBuilder setDirectBufferPool(boolean to) {
+    directBufferPool = to;
+    return this;
+  }
+
+  /**
+   * Set how long an IO thread waits for more operations before writing the
+   * ones it has been woken up for.
+   *
+   * A short window lets operations added by many threads at about the same
+   * time share one wakeup and one write, at the cost of that much latency.
+   *
+   * @param micros the window in microseconds (0 disables batching).
+   */
+  public ConnectionFactoryBuilder setWriteBatchWindow(long micros) {
+    assert micros >= 0 : "Write batch window must not be negative";
+    writeBatchWindow = micros;
+    return this;
+  }
+
+  /**
+   * Set the number of bytes the client side near cache may hold.
+   *
+   * Values read by plain gets are kept in process, so hot keys can be served
+   * without a round trip. When the cache is full, a new value only replaces
+   * the least recently used one if its key has been read more often.
+   *
+   * @param size the near cache size in bytes (0 disables the near cache).
+   */
+  public ConnectionFactoryBuilder setNearCacheSize(long size) {
+    assert size >= 0 : "Near cache size must not be negative";
+    nearCacheSize = size;
+    return this;
+  }
+
+  /**
+   * Set the maximum number of milliseconds a value is served from the near
+   * cache.
+   *
+   * Writes issued through this client invalidate the near cache right away,
+   * writes from other clients only become visible once this time is up.
+   */
+  public ConnectionFactoryBuilder setNearCacheTTL(long millis) {
+    assert millis > 0 : "Near cache TTL must be positive";
+    nearCacheTTL = millis;
+    return this;
+  }
+
+  /**
+   * Set to true to keep decoded objects in the near cache instead of the
+   * encoded data.
+   *
+   * This saves decoding on every hit, but all readers share the same
+   * instance, so the returned objects must not be modified.
+   */
+  public ConnectionFactoryBuilder setDecodedNearCache(boolean to) {
+    decodedNearCache = to;
+    return this;
+  }
+
+  /**
+   * Set to true to let a get wait for a pending get of the same key instead
+   * of sending another request.
+   *
+   * When many threads miss on the same popular key at once, only one
+   * request per key goes to the server. The futures of coalesced gets share
+   * one operation, so cancelling one of them cancels all of them.
+   */
+  public ConnectionFactoryBuilder setCoalesceGets(boolean to) {
+    coalesceGets = to;
+    return this;
+  }
+
+  /**
+   * Set the percentile of recent get latencies a hedged read waits for
+   * before it also asks another node.
+   *
+   * Lower percentiles cut the tail latency further, but send more
+   * duplicate requests.
+   *
+   * @param pct the percentile, greater than 0 and at most 100
+   */
+  public ConnectionFactoryBuilder setHedgePercentile(double pct) {
+    assert pct > 0 && pct <= 100 : "Hedge percentile must be in (0, 100]";
+    hedgePercentile = pct;
+    return this;
+  }
+
+  /**
+   * Set the number of connections opened to every node.
+   *
+   * @param count the number of connections, at least 1
+   */
+  public ConnectionFactoryBuilder setConnectionsPerNode(int count) {
+    assert count > 0 : "Connections per node must be at least 1";
+    connectionsPerNode = count;
+    return this;
+  }
+
+  /**
+   * Set the ConnectionSelector which spreads the operations for a node over
+   * its connections.
+   *
+   * Only used if more than one connection per node is configured.
+   */
+  public ConnectionFactoryBuilder setConnectionSelector(ConnectionSelector s) {
+    connectionSelector = s;
+    return this;
+  }
+
+  /**
+   * Set how often the IO threads check for operations which have exceeded
+   * the operation timeout.
+   *
+   * A tick of about a hundredth of the operation timeout keeps timeouts
+   * accurate without waking up the IO threads too often.
+   *
+   * @param millis the tick in milliseconds (0 disables the checks).
+   */
+  public ConnectionFactoryBuilder setTimeoutTick(long millis) {
+    assert millis >= 0 : "Timeout tick must not be negative";
+    timeoutTick = millis;
+    return this;
+  }
+
   /**
    * Convenience method to specify the protocol to use.
    */
@@ -326,6 +510,21 @@ public class ConnectionFactoryBuilder {
     return this;
   }
 
+  /**
+   * Set the number of IO threads the nodes are spread across.
+   *
+   * Each thread runs its own selector and handles the reads, writes and
+   * callbacks of the nodes assigned to it, so a node is always served by
+   * the same thread.
+   *
+   * @param count the number of IO threads (defaults to 1).
+   */
+  public ConnectionFactoryBuilder setIOThreadCount(int count) {
+    assert count > 0 : "IO thread count must be a positive number";
+    ioThreadCount = count;
+    return this;
+  }
+
   /**
    * Get the ConnectionFactory set up with the provided parameters.
    */
@@ -415,6 +614,67 @@ public class ConnectionFactoryBuilder {
         return useNagle;
       }
 
+      @Override
+      public boolean useGatheringWrites() {
+        return gatheringWrites;
+      }
+
+      @Override
+      public int getBufferPoolSize() {
+        return bufferPoolSize;
+      }
+
+      @Override
+      public boolean useDirectBufferPool() {
+        return directBufferPool;
+      }
+
+      @Override
+      public long getWriteBatchWindow() {
+        return writeBatchWindow;
+      }
+
+      @Override
+      public long getNearCacheSize() {
+        return nearCacheSize;
+      }
+
+      @Override
+      public long getNearCacheTTL() {
+        return nearCacheTTL;
+      }
+
+      @Override
+      public boolean useDecodedNearCache() {
+        return decodedNearCache;
+      }
+
+      @Override
+      public boolean shouldCoalesceGets() {
+        return coalesceGets;
+      }
+
+      @Override
+      public double getHedgePercentile() {
+        return hedgePercentile;
+      }
+
+      @Override
+      public int getConnectionsPerNode() {
+        return connectionsPerNode;
+      }
+
+      @Override
+      public ConnectionSelector getConnectionSelector() {
+        return connectionSelector == null ? super.getConnectionSelector()
+            : connectionSelector;
+      }
+
+      @Override
+      public long getTimeoutTick() {
+        return timeoutTick;
+      }
+
       @Override
       public long getMaxReconnectDelay() {
         return maxReconnectDelay;
@@ -460,6 +720,11 @@ public class ConnectionFactoryBuilder {
       public long getAuthWaitTime() {
         return authWaitTime;
       }
+
+      @Override
+      public int getIOThreadCount() {
+        return ioThreadCount;
+      }
     };
 
   }
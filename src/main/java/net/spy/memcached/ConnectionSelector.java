@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.List;
+
+import net.spy.memcached.ops.Operation;
+
+/**
+ * Interface for selecting one of several connections to the same node.
+ *
+ * <p>Implementations have to send all operations that modify a key over
+ * the same connection, so they are applied in the order they were issued.
+ * Reads may be spread freely and can overtake a modification of the same
+ * key which is still in flight on another connection.</p>
+ */
+public interface ConnectionSelector {
+
+  /**
+   * Select the connection the given operation is sent over.
+   *
+   * @param connections all connections to the node, at least two
+   * @param op the initialized operation
+   * @return one of the given connections, preferably an active one
+   */
+  MemcachedNode select(List<MemcachedNode> connections, Operation op);
+}
@@ -125,6 +125,28 @@ public class DefaultConnectionFactory extends SpyObject implements
    */
   public static final long DEFAULT_AUTH_WAIT_TIME = 1000;
 
+  /**
+   * By default, all nodes are handled by a single IO thread.
+   */
+  public static final int DEFAULT_IO_THREAD_COUNT = 1;
+
+  /**
+   * Maximum number of milliseconds a value is served from the near cache
+   * by default.
+   */
+  public static final long DEFAULT_NEAR_CACHE_TTL = 1000;
+
+  /**
+   * Hedged reads ask another node when the primary is slower than 95% of
+   * the recent reads by default.
+   */
+  public static final double DEFAULT_HEDGE_PERCENTILE = 95;
+
+  /**
+   * Only a single connection is opened to every node by default.
+   */
+  public static final int DEFAULT_CONNECTIONS_PER_NODE = 1;
+
   protected final int opQueueLen;
   private final int readBufSize;
   private final HashAlgorithm hashAlg;
@@ -278,6 +300,14 @@ public class DefaultConnectionFactory extends SpyObject implements
     return DEFAULT_AUTH_WAIT_TIME;
   }
 
+  /**
+   * @return the number of IO threads the nodes are spread across.
+   */
+  @Override
+  public int getIOThreadCount() {
+    return DEFAULT_IO_THREAD_COUNT;
+  }
+
   /**
    * Returns the stored {@link ExecutorService} for listeners.
    *
@@ -397,6 +427,114 @@ public class DefaultConnectionFactory extends SpyObject implements
     return false;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useGatheringWrites()
+   */
+  public boolean useGatheringWrites() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getBufferPoolSize()
+   */
+  public int getBufferPoolSize() {
+    return 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useDirectBufferPool()
+   */
+  public boolean useDirectBufferPool() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getWriteBatchWindow()
+   */
+  public long getWriteBatchWindow() {
+    return 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getNearCacheSize()
+   */
+  public long getNearCacheSize() {
+    return 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getNearCacheTTL()
+   */
+  public long getNearCacheTTL() {
+    return DEFAULT_NEAR_CACHE_TTL;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#useDecodedNearCache()
+   */
+  public boolean useDecodedNearCache() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#shouldCoalesceGets()
+   */
+  public boolean shouldCoalesceGets() {
+    return false;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getHedgePercentile()
+   */
+  public double getHedgePercentile() {
+    return DEFAULT_HEDGE_PERCENTILE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionsPerNode()
+   */
+  public int getConnectionsPerNode() {
+    return DEFAULT_CONNECTIONS_PER_NODE;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getConnectionSelector()
+   */
+  public ConnectionSelector getConnectionSelector() {
+    return new LeastOutstandingBytesConnectionSelector();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.ConnectionFactory#getTimeoutTick()
+   */
+  public long getTimeoutTick() {
+    return 0;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -473,6 +611,7 @@ public class DefaultConnectionFactory extends SpyObject implements
       + getReadBufSize() + ", Transcoder: " + getDefaultTranscoder()
       + ", Operation Factory: " + getOperationFactory() + " isDaemon: "
       + isDaemon() + ", Optimized: " + shouldOptimize() + ", Using Nagle: "
-      + useNagleAlgorithm() + ", ConnectionFactory: " + getName();
+      + useNagleAlgorithm() + ", IO Threads: " + getIOThreadCount()
+      + ", ConnectionFactory: " + getName();
   }
 }
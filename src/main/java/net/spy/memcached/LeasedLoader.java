@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Implements {@link MemcachedClient#getOrLoad} on top of the regular client
+ * operations.
+ *
+ * <p>A caller that finds a key missing, expired or due for an early refresh
+ * tries to {@code add} a lease key next to it. Whoever gets the lease runs
+ * the loader and stores the result. Everyone else serves the value they
+ * found, or polls for the new one when there was none.</p>
+ *
+ * <p>Values are stored with a small header holding the time it took to
+ * compute them and the time they expire, so readers can refresh them early
+ * with a probability growing towards the expiration and with the cost of
+ * the computation (XFetch). They are told apart by the
+ * {@link LoadedTranscoder#LOADED} flag and should only be read through
+ * {@code getOrLoad}; plain values are accepted and never refreshed early.</p>
+ */
+final class LeasedLoader extends SpyObject {
+
+  static final String LEASE_SUFFIX = ":lease";
+
+  private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+  private static final long MIN_POLL_INTERVAL = 5;
+  private static final long MAX_POLL_INTERVAL = 100;
+
+  private final MemcachedClient client;
+
+  LeasedLoader(MemcachedClient c) {
+    client = c;
+  }
+
+  <T> T getOrLoad(String key, int exp, Callable<T> loader, Transcoder<T> tc,
+      LoadPolicy policy) {
+    LoadedTranscoder<T> ltc = new LoadedTranscoder<T>(tc);
+    long deadline = System.currentTimeMillis() + policy.getWaitTime();
+    long interval = MIN_POLL_INTERVAL;
+    while (true) {
+      Loaded<T> current = client.get(key, ltc);
+      long now = System.currentTimeMillis();
+      if (current != null) {
+        if (needsRefresh(current, now, policy) && acquireLease(key, policy)) {
+          return load(key, exp, loader, ltc, policy, true);
+        }
+        return current.value;
+      }
+      if (acquireLease(key, policy)) {
+        return load(key, exp, loader, ltc, policy, true);
+      }
+      if (now >= deadline) {
+        getLogger().debug("Gave up waiting for %s to be loaded", key);
+        return load(key, exp, loader, ltc, policy, false);
+      }
+      try {
+        Thread.sleep(interval);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted waiting for value", e);
+      }
+      interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+    }
+  }
+
+  /**
+   * Decide whether a value should be recomputed.
+   *
+   * <p>Besides expired values, this picks values whose expiration is near
+   * relative to the time it takes to compute them: the chance grows with
+   * -delta * beta * ln(random) reaching past the expiration.</p>
+   */
+  static boolean needsRefresh(Loaded<?> value, long now, LoadPolicy policy) {
+    if (now >= value.expiresAt) {
+      return true;
+    }
+    double beta = policy.getEarlyRefreshBeta();
+    if (beta == 0 || value.delta == 0) {
+      return false;
+    }
+    return now - value.delta * beta * Math.log(Math.random())
+        >= value.expiresAt;
+  }
+
+  private boolean acquireLease(String key, LoadPolicy policy) {
+    try {
+      return client.add(key + LEASE_SUFFIX, policy.getLeaseTime(), "")
+          .get(client.getOperationTimeout(), TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      getLogger().debug("Could not acquire the lease for %s", key, e);
+      return false;
+    }
+  }
+
+  private <T> T load(String key, int exp, Callable<T> loader,
+      LoadedTranscoder<T> ltc, LoadPolicy policy, boolean leased) {
+    try {
+      long start = System.currentTimeMillis();
+      T value;
+      try {
+        value = loader.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new RuntimeException("Exception loading value", e);
+      }
+      long now = System.currentTimeMillis();
+      Loaded<T> loaded = new Loaded<T>(value, (int) (now - start),
+          expiresAt(exp, now));
+      try {
+        // Wait for the value to be stored, so the next lease holder finds it.
+        client.set(key, storageExpiration(exp, policy, now), loaded, ltc)
+            .get(client.getOperationTimeout(), TimeUnit.MILLISECONDS);
+      } catch (Exception e) {
+        getLogger().warn("Could not store loaded value for %s", key, e);
+      }
+      return value;
+    } finally {
+      if (leased) {
+        client.delete(key + LEASE_SUFFIX);
+      }
+    }
+  }
+
+  /**
+   * Returns the time in milliseconds at which a value stored with the given
+   * expiration should be reloaded.
+   */
+  static long expiresAt(int exp, long now) {
+    if (exp == 0) {
+      return Long.MAX_VALUE;
+    } else if (exp > MAX_RELATIVE_EXPIRATION) {
+      return TimeUnit.SECONDS.toMillis(exp);
+    }
+    return now + TimeUnit.SECONDS.toMillis(exp);
+  }
+
+  /**
+   * Returns the expiration to store a value with, which leaves room for
+   * serving it for a while after it is due.
+   */
+  static int storageExpiration(int exp, LoadPolicy policy, long now) {
+    int stale = policy.getStaleTime();
+    if (exp == 0 || stale == 0) {
+      return exp;
+    } else if (exp > MAX_RELATIVE_EXPIRATION) {
+      return exp + stale;
+    } else if (exp + stale > MAX_RELATIVE_EXPIRATION) {
+      return (int) TimeUnit.MILLISECONDS.toSeconds(now) + exp + stale;
+    }
+    return exp + stale;
+  }
+
+  /**
+   * A loaded value together with what is needed to decide when to reload it.
+   */
+  static final class Loaded<T> {
+    private final T value;
+    private final int delta;
+    private final long expiresAt;
+
+    Loaded(T v, int d, long e) {
+      value = v;
+      delta = d;
+      expiresAt = e;
+    }
+
+    T getValue() {
+      return value;
+    }
+  }
+
+  /**
+   * Prefixes the data of the wrapped transcoder with the computation time
+   * and the expiration of the value, and marks it with the {@link #LOADED}
+   * flag.
+   */
+  static final class LoadedTranscoder<T> extends SpyObject implements
+      Transcoder<Loaded<T>> {
+    // A flag above the ones used by the built-in transcoders.
+    static final int LOADED = 1 << 16;
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 13;
+
+    private final Transcoder<T> tc;
+
+    LoadedTranscoder(Transcoder<T> t) {
+      tc = t;
+    }
+
+    public boolean asyncDecode(CachedData d) {
+      return false;
+    }
+
+    public CachedData encode(Loaded<T> o) {
+      CachedData inner = tc.encode(o.value);
+      if ((inner.getFlags() & LOADED) != 0) {
+        throw new IllegalArgumentException("Flags " + inner.getFlags()
+            + " collide with the getOrLoad flag " + LOADED);
+      }
+      ByteBuffer bb = ByteBuffer.allocate(HEADER_LENGTH
+          + inner.getData().length);
+      bb.put(VERSION).putInt(o.delta).putLong(o.expiresAt)
+          .put(inner.getData());
+      return new CachedData(inner.getFlags() | LOADED, bb.array(),
+          getMaxSize());
+    }
+
+    public Loaded<T> decode(CachedData d) {
+      if ((d.getFlags() & LOADED) == 0) {
+        // Stored without getOrLoad, use as is and never refresh early.
+        return new Loaded<T>(tc.decode(d), 0, Long.MAX_VALUE);
+      }
+      byte[] data = d.getData();
+      if (data.length < HEADER_LENGTH || data[0] != VERSION) {
+        getLogger().warn("Ignoring loaded value with unknown header");
+        return null;
+      }
+      ByteBuffer bb = ByteBuffer.wrap(data);
+      bb.get();
+      int delta = bb.getInt();
+      long expiresAt = bb.getLong();
+      T value = tc.decode(new CachedData(d.getFlags() & ~LOADED,
+          Arrays.copyOfRange(data, HEADER_LENGTH, data.length),
+          tc.getMaxSize()));
+      return new Loaded<T>(value, delta, expiresAt);
+    }
+
+    public int getMaxSize() {
+      return tc.getMaxSize() + HEADER_LENGTH;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.util.List;
+
+import net.spy.memcached.ops.Operation;
+
+/**
+ * ConnectionSelector which sends reads over the active connection with the
+ * fewest request bytes waiting to be written.
+ *
+ * <p>Reads thereby avoid connections which are busy writing large values.
+ * This is the default.</p>
+ */
+public class LeastOutstandingBytesConnectionSelector
+  extends BaseConnectionSelector {
+
+  @Override
+  protected MemcachedNode selectAny(List<MemcachedNode> connections,
+      int from, int to, Operation op) {
+    MemcachedNode rv = null;
+    long least = Long.MAX_VALUE;
+    for (int i = from; i < to; i++) {
+      MemcachedNode node = connections.get(i);
+      long outstanding = node.getOutstandingBytes();
+      if (node.isActive() && outstanding < least) {
+        rv = node;
+        least = outstanding;
+      }
+    }
+    return rv == null ? connections.get(from) : rv;
+  }
+}
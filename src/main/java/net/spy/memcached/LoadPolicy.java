@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * Controls how {@link MemcachedClient#getOrLoad} protects the loader from
+ * concurrent recomputations.
+ *
+ * <p>Only one caller at a time recomputes a missing or expired value, by
+ * holding a short-lived lease on the key. The policy decides what everyone
+ * else does in the meantime, and whether values are refreshed a little
+ * before they expire.</p>
+ */
+public final class LoadPolicy {
+
+  /**
+   * Callers wait for the value, no stale values are served and values are
+   * only reloaded once they expired.
+   */
+  public static final LoadPolicy DEFAULT = new LoadPolicy(10, 0, 0, 2000);
+
+  private final int leaseTime;
+  private final int staleTime;
+  private final double earlyRefreshBeta;
+  private final long waitTime;
+
+  /**
+   * Create a load policy.
+   *
+   * @param lease the number of seconds a caller may take to recompute a
+   *          value before another caller may try
+   * @param stale the number of seconds an expired value is kept and served
+   *          while it is being recomputed (0 to never serve expired values)
+   * @param beta how eagerly values are refreshed before they expire; 1.0 is
+   *          the usual choice, larger values refresh earlier and 0 disables
+   *          early refreshes
+   * @param wait the number of milliseconds a caller waits for another caller
+   *          to load a missing value before loading it itself
+   */
+  public LoadPolicy(int lease, int stale, double beta, long wait) {
+    if (lease <= 0) {
+      throw new IllegalArgumentException("Lease time must be positive");
+    }
+    if (stale < 0 || beta < 0 || wait < 0) {
+      throw new IllegalArgumentException("Stale time, beta and wait time "
+          + "must not be negative");
+    }
+    leaseTime = lease;
+    staleTime = stale;
+    earlyRefreshBeta = beta;
+    waitTime = wait;
+  }
+
+  /**
+   * Get the number of seconds a lease is held at most.
+   */
+  public int getLeaseTime() {
+    return leaseTime;
+  }
+
+  /**
+   * Get the number of seconds expired values are still served.
+   */
+  public int getStaleTime() {
+    return staleTime;
+  }
+
+  /**
+   * Get the factor scaling how early values are refreshed.
+   */
+  public double getEarlyRefreshBeta() {
+    return earlyRefreshBeta;
+  }
+
+  /**
+   * Get the number of milliseconds callers wait for a missing value.
+   */
+  public long getWaitTime() {
+    return waitTime;
+  }
+
+  @Override
+  public String toString() {
+    return "{LoadPolicy lease=" + leaseTime + "s, stale=" + staleTime
+        + "s, beta=" + earlyRefreshBeta + ", wait=" + waitTime + "ms}";
+  }
+}
@@ -27,10 +27,22 @@ import net.spy.memcached.auth.AuthDescriptor;
 import net.spy.memcached.auth.AuthThreadMonitor;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetConsumer;
 import net.spy.memcached.internal.BulkGetFuture;
+import net.spy.memcached.internal.BulkGetIterator;
+import net.spy.memcached.internal.BulkStreamFuture;
+import net.spy.memcached.internal.BulkWriteFuture;
 import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.LatencyWindow;
+import net.spy.memcached.internal.NearCache;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.internal.SingleElementInfiniteIterator;
+import net.spy.memcached.metrics.CounterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricHandles;
+import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.ops.BulkWriteOperation;
 import net.spy.memcached.ops.CASOperationStatus;
 import net.spy.memcached.ops.CancelledOperationStatus;
 import net.spy.memcached.ops.ConcatenationType;
@@ -43,6 +55,7 @@ import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.ReplicaGetOperation;
 import net.spy.memcached.ops.StatsOperation;
 import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.ops.StoreOperation;
@@ -50,7 +63,9 @@ import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.TimedOutOperationStatus;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.transcoders.TranscodeService;
+import net.spy.memcached.transcoders.StreamingTranscoder;
 import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.util.ByteBufferOutputStream;
 import net.spy.memcached.util.StringUtils;
 
 import java.io.IOException;
@@ -62,9 +77,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -72,9 +89,13 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
@@ -137,7 +158,18 @@ import java.util.concurrent.atomic.AtomicReference;
  * System Property to "true".</p>
  */
 public class MemcachedClient extends SpyObject implements MemcachedClientIF,
-    ConnectionObserver {
+    NodeConnectionObserver {
+
+  private static final String COALESCED_GETS_METRIC = "[MEM] Coalesced Gets";
+  private static final String HEDGED_READS_METRIC = "[MEM] Hedged Reads";
+  private static final String HEDGES_SENT_METRIC =
+    "[MEM] Hedged Reads: Hedges Sent";
+  private static final String HEDGE_WINS_METRIC =
+    "[MEM] Hedged Reads: Hedge Wins";
+
+  // Room in front of streamed values for the request header of either
+  // protocol, on top of the key.
+  private static final int STORE_HEADER_SIZE = 64;
 
   protected volatile boolean shuttingDown;
 
@@ -159,6 +191,26 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   protected final ExecutorService executorService;
 
+  protected final NearCache nearCache;
+
+  protected final MetricCollector metrics;
+
+  /**
+   * Gets that are waiting for a response, by key, if gets are coalesced.
+   */
+  private final ConcurrentMap<String, PendingGet<?>> pendingGets;
+
+  private final LeasedLoader leasedLoader = new LeasedLoader(this);
+
+  private final LatencyWindow hedgeLatencies;
+
+  private final CounterHandle coalescedGets;
+  private final CounterHandle hedgedReads;
+  private final CounterHandle hedgesSent;
+  private final CounterHandle hedgeWins;
+
+  private ScheduledExecutorService hedgeTimer;
+
   /**
    * Get a memcache client operating on the specified memcached locations.
    *
@@ -211,6 +263,29 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     operationTimeout = cf.getOperationTimeout();
     authDescriptor = cf.getAuthDescriptor();
     executorService = cf.getListenerExecutorService();
+    metrics = cf.getMetricCollector();
+    nearCache = cf.getNearCacheSize() > 0
+        ? new NearCache(cf.getNearCacheSize(), cf.getNearCacheTTL(),
+          cf.useDecodedNearCache(), tcService, metrics, cf.enableMetrics())
+        : null;
+    pendingGets = cf.shouldCoalesceGets()
+        ? new ConcurrentHashMap<String, PendingGet<?>>() : null;
+    hedgeLatencies = new LatencyWindow(1024, cf.getHedgePercentile());
+    MetricType metricType = cf.enableMetrics();
+    if (metricType.equals(MetricType.DEBUG)
+        || metricType.equals(MetricType.PERFORMANCE)) {
+      coalescedGets = pendingGets != null
+          ? MetricHandles.counter(metrics, COALESCED_GETS_METRIC)
+          : NoopMetricCollector.NOOP_COUNTER;
+      hedgedReads = MetricHandles.counter(metrics, HEDGED_READS_METRIC);
+      hedgesSent = MetricHandles.counter(metrics, HEDGES_SENT_METRIC);
+      hedgeWins = MetricHandles.counter(metrics, HEDGE_WINS_METRIC);
+    } else {
+      coalescedGets = NoopMetricCollector.NOOP_COUNTER;
+      hedgedReads = NoopMetricCollector.NOOP_COUNTER;
+      hedgesSent = NoopMetricCollector.NOOP_COUNTER;
+      hedgeWins = NoopMetricCollector.NOOP_COUNTER;
+    }
     if (authDescriptor != null) {
       addObserver(this);
     }
@@ -299,15 +374,77 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return mconn.broadcastOperation(of, nodes);
   }
 
+  void keyModified(String key) {
+    if (nearCache != null) {
+      nearCache.invalidate(key);
+    }
+    // Gets issued from now on must not see a value read before the change.
+    if (pendingGets != null) {
+      pendingGets.remove(key);
+    }
+  }
+
   private <T> OperationFuture<Boolean> asyncStore(StoreType storeType,
-      String key, int exp, T value, Transcoder<T> tc) {
-    CachedData co = tc.encode(value);
+      final String key, final int exp, T value, final Transcoder<T> tc) {
+    // The near cache keeps the encoded value, so it needs a CachedData.
+    if (nearCache == null && tc instanceof StreamingTranscoder) {
+      return asyncStreamingStore(storeType, key, exp, value,
+        (StreamingTranscoder<T>) tc);
+    }
+    final CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv =
       new OperationFuture<Boolean>(key, latch, operationTimeout,
       executorService);
+    keyModified(key);
     Operation op = opFact.store(storeType, key, co.getFlags(), exp,
         co.getData(), new StoreOperation.Callback() {
+            @Override
+            public void receivedStatus(OperationStatus val) {
+              if (val.isSuccess() && nearCache != null) {
+                nearCache.put(key, exp, co, tc);
+              }
+              rv.set(val.isSuccess(), val);
+            }
+            @Override
+            public void gotData(String key, long cas) {
+              rv.setCas(cas);
+            }
+
+            @Override
+            public void complete() {
+              latch.countDown();
+              rv.signalComplete();
+            }
+          });
+    rv.setOperation(op);
+    mconn.enqueueOperation(key, op);
+    return rv;
+  }
+
+  /**
+   * Store a value encoded straight into the buffer the operation is sent
+   * from.
+   */
+  private <T> OperationFuture<Boolean> asyncStreamingStore(StoreType storeType,
+      String key, int exp, T value, StreamingTranscoder<T> tc) {
+    ByteBufferOutputStream data = new ByteBufferOutputStream(
+      mconn.getBufferPool(), KeyUtil.getKeyBytes(key).length
+        + STORE_HEADER_SIZE, ByteBufferOutputStream.DEFAULT_CAPACITY);
+    int flags;
+    try {
+      flags = tc.encodeTo(value, data);
+    } catch (RuntimeException e) {
+      data.release();
+      throw e;
+    }
+    final CountDownLatch latch = new CountDownLatch(1);
+    final OperationFuture<Boolean> rv =
+      new OperationFuture<Boolean>(key, latch, operationTimeout,
+      executorService);
+    keyModified(key);
+    Operation op = opFact.store(storeType, key, flags, exp, data,
+        new StoreOperation.Callback() {
             @Override
             public void receivedStatus(OperationStatus val) {
               rv.set(val.isSuccess(), val);
@@ -339,6 +476,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
         latch, operationTimeout, executorService);
+    keyModified(key);
     Operation op = opFact.cat(catType, cas, key, co.getData(),
         new OperationCallback() {
           @Override
@@ -391,6 +529,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final OperationFuture<Boolean> rv =
       new OperationFuture<Boolean>(key, latch, operationTimeout,
       executorService);
+    keyModified(key);
 
     Operation op = opFact.touch(key, exp, new OperationCallback() {
       @Override
@@ -619,18 +758,24 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    */
   @Override
   public <T> OperationFuture<CASResponse>
-  asyncCAS(String key, long casId, int exp, T value, Transcoder<T> tc) {
-    CachedData co = tc.encode(value);
+  asyncCAS(final String key, long casId, final int exp, T value,
+      final Transcoder<T> tc) {
+    final CachedData co = tc.encode(value);
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASResponse> rv =
       new OperationFuture<CASResponse>(key, latch, operationTimeout,
       executorService);
+    keyModified(key);
     Operation op = opFact.cas(StoreType.set, key, casId, co.getFlags(), exp,
         co.getData(), new StoreOperation.Callback() {
             @Override
             public void receivedStatus(OperationStatus val) {
               if (val instanceof CASOperationStatus) {
-                rv.set(((CASOperationStatus) val).getCASResponse(), val);
+                CASResponse res = ((CASOperationStatus) val).getCASResponse();
+                if (res == CASResponse.OK && nearCache != null) {
+                  nearCache.put(key, exp, co, tc);
+                }
+                rv.set(res, val);
               } else if (val instanceof CancelledOperationStatus) {
                 getLogger().debug("CAS operation cancelled");
               } else if (val instanceof TimedOutOperationStatus) {
@@ -1003,6 +1148,229 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncStore(StoreType.replace, key, exp, o, transcoder);
   }
 
+  /**
+   * Find the node a multi-key operation should send the given key to.
+   *
+   * <p>
+   * This is the primary node of the key, unless it is not active and another
+   * node in the sequence for the key is.
+   * </p>
+   */
+  MemcachedNode getNodeForKey(NodeLocator locator, String key) {
+    final MemcachedNode primaryNode = locator.getPrimary(key);
+    MemcachedNode node = null;
+    if (primaryNode.isActive()) {
+      node = primaryNode;
+    } else {
+      for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
+          && i.hasNext();) {
+        MemcachedNode n = i.next();
+        if (n.isActive()) {
+          node = n;
+        }
+      }
+      if (node == null) {
+        node = primaryNode;
+      }
+    }
+    assert node != null : "Didn't find a node for " + key;
+    return node;
+  }
+
+  /**
+   * Break the given keys down into groups by node.
+   */
+  private Map<MemcachedNode, List<String>> groupByNode(
+      Collection<String> keys) {
+    final Map<MemcachedNode, List<String>> chunks =
+        new HashMap<MemcachedNode, List<String>>();
+    final NodeLocator locator = mconn.getLocator();
+    for (String key : keys) {
+      StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+      MemcachedNode node = getNodeForKey(locator, key);
+      List<String> ks = chunks.get(node);
+      if (ks == null) {
+        ks = new ArrayList<String>();
+        chunks.put(node, ks);
+      }
+      ks.add(key);
+    }
+    return chunks;
+  }
+
+  /**
+   * Create the callback shared by all operations of a bulk write.
+   *
+   * <p>
+   * Every key reports its status exactly once, also when its operation is
+   * cancelled, times out or gets cloned per key while it is redistributed,
+   * so the future is complete once all keys of all nodes have been heard of.
+   * </p>
+   */
+  private BulkWriteOperation.Callback createBulkWriteCallback(
+      final BulkWriteFuture rv, final CountDownLatch latch, int keyCount) {
+    final AtomicInteger pendingKeys = new AtomicInteger(keyCount);
+    final AtomicBoolean done = new AtomicBoolean(false);
+    return new BulkWriteOperation.Callback() {
+      private volatile boolean failed = false;
+
+      @Override
+      public void receivedStatus(OperationStatus status) {
+        // Keep the first failure rather than the status of the last node.
+        if (!status.isSuccess()) {
+          failed = true;
+          rv.setStatus(status);
+        } else if (!failed) {
+          rv.setStatus(status);
+        }
+      }
+
+      @Override
+      public void gotStatus(String key, OperationStatus status) {
+        if (!status.isSuccess()) {
+          rv.setFailure(key, status);
+        }
+        if (pendingKeys.decrementAndGet() <= 0) {
+          finish();
+        }
+      }
+
+      @Override
+      public void complete() {
+        if (pendingKeys.get() <= 0) {
+          finish();
+        }
+      }
+
+      private void finish() {
+        if (done.compareAndSet(false, true)) {
+          latch.countDown();
+          rv.signalComplete();
+        }
+      }
+    };
+  }
+
+  private <T> BulkWriteFuture asyncStoreBulk(StoreType storeType,
+      Map<String, ? extends T> items, int exp, Transcoder<T> tc) {
+    final Map<String, CachedData> encoded = new HashMap<String, CachedData>();
+    for (Map.Entry<String, ? extends T> me : items.entrySet()) {
+      encoded.put(me.getKey(), tc.encode(me.getValue()));
+    }
+    final Map<MemcachedNode, List<String>> chunks =
+        groupByNode(encoded.keySet());
+    for (String key : encoded.keySet()) {
+      keyModified(key);
+    }
+
+    final CountDownLatch latch = new CountDownLatch(chunks.isEmpty() ? 0 : 1);
+    final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
+    final BulkWriteFuture rv = new BulkWriteFuture(ops, latch,
+        executorService);
+    BulkWriteOperation.Callback cb =
+        createBulkWriteCallback(rv, latch, encoded.size());
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, List<String>> me : chunks.entrySet()) {
+      Map<String, CachedData> chunk = new HashMap<String, CachedData>();
+      for (String k : me.getValue()) {
+        chunk.put(k, encoded.get(k));
+      }
+      Operation op = opFact.storeBulk(storeType, chunk, exp, cb);
+      mops.put(me.getKey(), op);
+      ops.add(op);
+    }
+    mconn.checkState();
+    mconn.addOperations(mops);
+    return rv;
+  }
+
+  /**
+   * Set many objects in the cache at once.
+   *
+   * <p>
+   * The objects are grouped by the node they belong to, and each node gets
+   * all of its objects in a single operation which is only answered for the
+   * objects that could not be stored.
+   * </p>
+   *
+   * @param <T>
+   * @param items the objects to store, by key
+   * @param exp the expiration of the objects
+   * @param tc the transcoder to serialize the values
+   * @return a future holding the keys that could not be stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the connection does not use the
+   *           binary protocol
+   */
+  @Override
+  public <T> BulkWriteFuture setBulk(Map<String, ? extends T> items, int exp,
+      Transcoder<T> tc) {
+    return asyncStoreBulk(StoreType.set, items, exp, tc);
+  }
+
+  /**
+   * Set many objects (transcoded with the default transcoder) in the cache at
+   * once.
+   *
+   * @param items the objects to store, by key
+   * @param exp the expiration of the objects
+   * @return a future holding the keys that could not be stored
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the connection does not use the
+   *           binary protocol
+   */
+  @Override
+  public BulkWriteFuture setBulk(Map<String, ?> items, int exp) {
+    return asyncStoreBulk(StoreType.set, items, exp, transcoder);
+  }
+
+  /**
+   * Add many objects to the cache at once, each iff it does not exist
+   * already.
+   *
+   * <p>
+   * The objects are grouped by the node they belong to, and each node gets
+   * all of its objects in a single operation which is only answered for the
+   * objects that could not be added.
+   * </p>
+   *
+   * @param <T>
+   * @param items the objects to store, by key
+   * @param exp the expiration of the objects
+   * @param tc the transcoder to serialize the values
+   * @return a future holding the keys that could not be added
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the connection does not use the
+   *           binary protocol
+   */
+  @Override
+  public <T> BulkWriteFuture addBulk(Map<String, ? extends T> items, int exp,
+      Transcoder<T> tc) {
+    return asyncStoreBulk(StoreType.add, items, exp, tc);
+  }
+
+  /**
+   * Add many objects (transcoded with the default transcoder) to the cache at
+   * once, each iff it does not exist already.
+   *
+   * @param items the objects to store, by key
+   * @param exp the expiration of the objects
+   * @return a future holding the keys that could not be added
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the connection does not use the
+   *           binary protocol
+   */
+  @Override
+  public BulkWriteFuture addBulk(Map<String, ?> items, int exp) {
+    return asyncStoreBulk(StoreType.add, items, exp, transcoder);
+  }
+
   /**
    * Get the given key asynchronously.
    *
@@ -1016,6 +1384,22 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   @Override
   public <T> GetFuture<T> asyncGet(final String key, final Transcoder<T> tc) {
 
+    if (nearCache != null) {
+      Future<T> cached = nearCache.get(key, tc);
+      if (cached != null) {
+        GetFuture<T> rv = new GetFuture<T>(new CountDownLatch(0),
+          operationTimeout, key, executorService);
+        rv.set(cached, new OperationStatus(true, "NEAR_CACHE",
+          StatusCode.SUCCESS));
+        rv.signalComplete();
+        return rv;
+      }
+    }
+    final long generation = nearCache == null ? 0 : nearCache.generation(key);
+    if (pendingGets != null) {
+      return asyncCoalescedGet(key, tc, generation);
+    }
+
     final CountDownLatch latch = new CountDownLatch(1);
     final GetFuture<T> rv = new GetFuture<T>(latch, operationTimeout, key,
       executorService);
@@ -1030,8 +1414,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       @Override
       public void gotData(String k, int flags, byte[] data) {
         assert key.equals(k) : "Wrong key returned";
-        val =
-            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize()));
+        CachedData cd = new CachedData(flags, data, tc.getMaxSize());
+        val = tcService.decode(tc, cd);
+        if (nearCache != null) {
+          nearCache.putIfUnchanged(key, generation, cd, val, tc);
+        }
       }
 
       @Override
@@ -1045,6 +1432,123 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  @SuppressWarnings("unchecked")
+  private <T> GetFuture<T> asyncCoalescedGet(String key, Transcoder<T> tc,
+      long generation) {
+    StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
+    CountDownLatch latch = new CountDownLatch(1);
+    GetFuture<T> rv = new GetFuture<T>(latch, operationTimeout, key,
+      executorService);
+
+    PendingGet<T> created = null;
+    Operation op = null;
+    while (true) {
+      PendingGet<?> pending = pendingGets.get(key);
+      if (pending != null && pending.tc == tc
+          && ((PendingGet<T>) pending).attach(rv, latch)) {
+        coalescedGets.increment();
+        return rv;
+      }
+      if (created == null) {
+        created = new PendingGet<T>(key, tc, generation);
+        op = opFact.get(key, created);
+        created.setOperation(op);
+      }
+      // Concurrent callers missing the same key race to send the get, the
+      // losers attach to the winner.
+      if (pending == null ? pendingGets.putIfAbsent(key, created) == null
+          : pendingGets.replace(key, pending, created)) {
+        break;
+      }
+    }
+    created.attach(rv, latch);
+    try {
+      mconn.enqueueOperation(key, op);
+    } catch (RuntimeException e) {
+      // Completes the gets that have been attached in the meantime.
+      op.cancel();
+      throw e;
+    }
+    return rv;
+  }
+
+  /**
+   * A get that later gets for the same key and transcoder can wait for.
+   *
+   * Every attached future decodes the value on its own, so callers never
+   * share the returned objects.
+   */
+  private final class PendingGet<T> implements GetOperation.Callback {
+    private final String key;
+    private final Transcoder<T> tc;
+    private final long generation;
+    private final List<GetFuture<T>> futures = new ArrayList<GetFuture<T>>();
+    private final List<CountDownLatch> latches =
+        new ArrayList<CountDownLatch>();
+    private Operation op;
+    private CachedData data;
+    private OperationStatus status;
+    private boolean completed;
+
+    private PendingGet(String k, Transcoder<T> t, long g) {
+      key = k;
+      tc = t;
+      generation = g;
+    }
+
+    private synchronized void setOperation(Operation o) {
+      op = o;
+    }
+
+    /**
+     * Attach a future to this get.
+     *
+     * @return false if the get has already completed
+     */
+    private synchronized boolean attach(GetFuture<T> rv,
+        CountDownLatch latch) {
+      if (completed || op.isCancelled() || op.isTimedOut()) {
+        return false;
+      }
+      rv.setOperation(op);
+      futures.add(rv);
+      latches.add(latch);
+      return true;
+    }
+
+    @Override
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    @Override
+    public void gotData(String k, int flags, byte[] d) {
+      assert key.equals(k) : "Wrong key returned";
+      data = new CachedData(flags, d, tc.getMaxSize());
+      if (nearCache != null) {
+        nearCache.putIfUnchanged(key, generation, data,
+          tcService.decode(tc, data), tc);
+      }
+    }
+
+    @Override
+    public void complete() {
+      pendingGets.remove(key, this);
+      synchronized (this) {
+        if (completed) {
+          return;
+        }
+        completed = true;
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        GetFuture<T> rv = futures.get(i);
+        rv.set(data == null ? null : tcService.decode(tc, data), status);
+        latches.get(i).countDown();
+        rv.signalComplete();
+      }
+    }
+  }
+
   /**
    * Get the given key asynchronously and decode with the default transcoder.
    *
@@ -1058,6 +1562,198 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return asyncGet(key, transcoder);
   }
 
+  /**
+   * Get the given key asynchronously, asking a replica as well if the
+   * primary node takes unusually long to answer.
+   *
+   * <p>
+   * If no response arrived once the configured percentile of recent hedged
+   * reads has passed, a replica get is sent to the next node the locator
+   * would fail over to. The first of them returning a value completes the
+   * future and the other one is cancelled. A miss only completes the future
+   * once all requests sent have answered.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key to fetch
+   * @param tc the transcoder to serialize and unserialize value
+   * @return a future that will hold the return value of the fetch
+   * @throws UnsupportedOperationException for the ASCII protocol, which has
+   *           no replica reads
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> GetFuture<T> asyncGetHedged(String key, Transcoder<T> tc) {
+    if (!(opFact instanceof BinaryOperationFactory)) {
+      throw new UnsupportedOperationException("Hedged reads are not "
+        + "supported for ASCII protocol");
+    }
+    hedgedReads.increment();
+    HedgedGet<T> hg = new HedgedGet<T>(key, tc);
+    hg.start(hedgeLatencies.getPercentile());
+    return hg.rv;
+  }
+
+  /**
+   * Get the given key asynchronously with the default transcoder, asking a
+   * replica as well if the primary node takes unusually long to answer.
+   *
+   * @param key the key to fetch
+   * @return a future that will hold the return value of the fetch
+   * @throws UnsupportedOperationException for the ASCII protocol, which has
+   *           no replica reads
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public GetFuture<Object> asyncGetHedged(String key) {
+    return asyncGetHedged(key, transcoder);
+  }
+
+  LatencyWindow getHedgeLatencies() {
+    return hedgeLatencies;
+  }
+
+  private synchronized ScheduledExecutorService getHedgeTimer() {
+    if (hedgeTimer == null) {
+      hedgeTimer = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Memcached Hedged Read Timer");
+            t.setDaemon(true);
+            return t;
+          }
+        });
+    }
+    return hedgeTimer;
+  }
+
+  /**
+   * A get racing the primary node against a replica.
+   */
+  private final class HedgedGet<T> {
+    private final String key;
+    private final Transcoder<T> tc;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final GetFuture<T> rv;
+    private final long start = System.nanoTime();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private volatile Operation primary;
+    private volatile Operation hedge;
+    private volatile OperationStatus primaryStatus;
+
+    private HedgedGet(String k, Transcoder<T> t) {
+      key = k;
+      tc = t;
+      rv = new GetFuture<T>(latch, operationTimeout, key, executorService);
+    }
+
+    private void start(long delay) {
+      primary = opFact.get(key, new Branch(true));
+      rv.setOperation(primary);
+      mconn.enqueueOperation(key, primary);
+      if (delay >= 0) {
+        getHedgeTimer().schedule(new Runnable() {
+          @Override
+          public void run() {
+            sendHedge();
+          }
+        }, delay, TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private void sendHedge() {
+      if (done.get()) {
+        return;
+      }
+      MemcachedNode replica = null;
+      Iterator<MemcachedNode> it = mconn.getLocator().getSequence(key);
+      MemcachedNode node = mconn.getLocator().getPrimary(key);
+      while (replica == null && it.hasNext()) {
+        MemcachedNode n = it.next();
+        if (n != node && n.isActive()) {
+          replica = n;
+        }
+      }
+      if (replica == null) {
+        return;
+      }
+      pending.incrementAndGet();
+      hedge = opFact.replicaGet(key, 0, new Branch(false));
+      hedgesSent.increment();
+      try {
+        mconn.checkState();
+        mconn.addOperation(replica, hedge);
+      } catch (IllegalStateException e) {
+        getLogger().debug("Could not send hedged read for %s", key, e);
+        hedge.cancel();
+      }
+    }
+
+    private void finish(boolean fromPrimary, Future<T> val,
+        OperationStatus status) {
+      if (fromPrimary) {
+        // A primary cancelled by the winning hedge only tells how long the
+        // hedge took, which would pull the percentile down.
+        if (!done.get() && !(status instanceof CancelledOperationStatus)) {
+          hedgeLatencies.record(System.nanoTime() - start);
+        }
+        primaryStatus = status;
+      }
+      boolean last = pending.decrementAndGet() == 0;
+      // A cancelled primary means the caller gave up on the whole read.
+      boolean cancelled = fromPrimary
+          && status instanceof CancelledOperationStatus;
+      if ((val == null && !last && !cancelled) || !done.compareAndSet(false,
+          true)) {
+        return;
+      }
+      Operation loser = fromPrimary ? hedge : primary;
+      if (val != null && !fromPrimary) {
+        hedgeWins.increment();
+        rv.setOperation(hedge);
+      }
+      rv.set(val, val != null || primaryStatus == null ? status
+          : primaryStatus);
+      if (loser != null) {
+        loser.cancel();
+      }
+      latch.countDown();
+      rv.signalComplete();
+    }
+
+    private final class Branch implements GetOperation.Callback,
+        ReplicaGetOperation.Callback {
+      private final boolean isPrimary;
+      private Future<T> val;
+      private OperationStatus status;
+
+      private Branch(boolean p) {
+        isPrimary = p;
+      }
+
+      @Override
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      @Override
+      public void gotData(String k, int flags, byte[] data) {
+        assert key.equals(k) : "Wrong key returned";
+        val = tcService.decode(tc, new CachedData(flags, data,
+          tc.getMaxSize()));
+      }
+
+      @Override
+      public void complete() {
+        finish(isPrimary, val, status);
+      }
+    }
+  }
+
   /**
    * Gets (with CAS support) the given key asynchronously.
    *
@@ -1256,6 +1952,80 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return get(key, transcoder);
   }
 
+  /**
+   * Get a value, loading and storing it if it is missing or expired.
+   *
+   * <p>
+   * To keep many clients from running the loader for the same key at once,
+   * only the one holding a short-lived lease on the key (an {@code add} of
+   * the key followed by {@code ":lease"}) loads the value.
+   * Depending on the policy, the others serve the expired value or wait for
+   * the new one, and values may be refreshed shortly before they expire.
+   * The time it took to load a value is stored along with it for that
+   * purpose, so keys written by this method should only be read by it.
+   * </p>
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param exp the expiration of loaded values
+   * @param loader computes the value if it has to be loaded
+   * @param tc the transcoder to serialize and unserialize the value
+   * @param policy how concurrent loads of the key are handled
+   * @return the cached or loaded value
+   * @throws OperationTimeoutException if the global operation timeout is
+   *           exceeded
+   * @throws RuntimeException if the loader fails
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> T getOrLoad(String key, int exp, Callable<T> loader,
+      Transcoder<T> tc, LoadPolicy policy) {
+    return leasedLoader.getOrLoad(key, exp, loader, tc, policy);
+  }
+
+  /**
+   * Get a value, loading and storing it if it is missing or expired, using
+   * the default load policy.
+   *
+   * @param <T>
+   * @param key the key to get
+   * @param exp the expiration of loaded values
+   * @param loader computes the value if it has to be loaded
+   * @param tc the transcoder to serialize and unserialize the value
+   * @return the cached or loaded value
+   * @throws OperationTimeoutException if the global operation timeout is
+   *           exceeded
+   * @throws RuntimeException if the loader fails
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> T getOrLoad(String key, int exp, Callable<T> loader,
+      Transcoder<T> tc) {
+    return getOrLoad(key, exp, loader, tc, LoadPolicy.DEFAULT);
+  }
+
+  /**
+   * Get a value, loading and storing it if it is missing or expired, using
+   * the default transcoder and load policy.
+   *
+   * @param key the key to get
+   * @param exp the expiration of loaded values
+   * @param loader computes the value if it has to be loaded
+   * @return the cached or loaded value
+   * @throws OperationTimeoutException if the global operation timeout is
+   *           exceeded
+   * @throws RuntimeException if the loader fails
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public Object getOrLoad(String key, int exp, Callable<?> loader) {
+    return getOrLoad(key, exp, (Callable<Object>) loader, transcoder);
+  }
+
   /**
    * Asynchronously get a bunch of objects from the cache.
    *
@@ -1281,6 +2051,10 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final Map<String, Transcoder<T>> tcMap =
         new HashMap<String, Transcoder<T>>();
 
+    // Same for the near cache generations, which are taken before any of
+    // the gets is sent.
+    final Map<String, Long> generations = new HashMap<String, Long>();
+
     // Break the gets down into groups by key
     final Map<MemcachedNode, Collection<String>> chunks =
         new HashMap<MemcachedNode, Collection<String>>();
@@ -1288,25 +2062,18 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
     while (keyIter.hasNext() && tcIter.hasNext()) {
       String key = keyIter.next();
-      tcMap.put(key, tcIter.next());
+      Transcoder<T> tc = tcIter.next();
+      tcMap.put(key, tc);
       StringUtils.validateKey(key, opFact instanceof BinaryOperationFactory);
-      final MemcachedNode primaryNode = locator.getPrimary(key);
-      MemcachedNode node = null;
-      if (primaryNode.isActive()) {
-        node = primaryNode;
-      } else {
-        for (Iterator<MemcachedNode> i = locator.getSequence(key); node == null
-            && i.hasNext();) {
-          MemcachedNode n = i.next();
-          if (n.isActive()) {
-            node = n;
-          }
-        }
-        if (node == null) {
-          node = primaryNode;
+      if (nearCache != null) {
+        Future<T> cached = nearCache.get(key, tc);
+        if (cached != null) {
+          m.put(key, cached);
+          continue;
         }
+        generations.put(key, nearCache.generation(key));
       }
-      assert node != null : "Didn't find a node for " + key;
+      MemcachedNode node = getNodeForKey(locator, key);
       Collection<String> ks = chunks.get(node);
       if (ks == null) {
         ks = new ArrayList<String>();
@@ -1334,8 +2101,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       @Override
       public void gotData(String k, int flags, byte[] data) {
         Transcoder<T> tc = tcMap.get(k);
-        m.put(k,
-            tcService.decode(tc, new CachedData(flags, data, tc.getMaxSize())));
+        CachedData cd = new CachedData(flags, data, tc.getMaxSize());
+        Future<T> val = tcService.decode(tc, cd);
+        m.put(k, val);
+        if (nearCache != null) {
+          nearCache.putIfUnchanged(k, generations.get(k), cd, val, tc);
+        }
       }
 
       @Override
@@ -1506,6 +2277,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<CASValue<T>> rv = new OperationFuture<CASValue<T>>(
         key, latch, operationTimeout, executorService);
+    keyModified(key);
 
     Operation op = opFact.getAndTouch(key, exp,
         new GetAndTouchOperation.Callback() {
@@ -1535,6 +2307,130 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Asynchronously get a bunch of objects from the cache, handing each value
+   * to the consumer as soon as it arrives.
+   *
+   * <p>
+   * Unlike {@link #asyncGetBulk(Collection, Transcoder)}, the values are not
+   * collected, and the values of fast nodes can be used before slow nodes
+   * have answered. The consumer is called from the IO threads, so it should
+   * not block.
+   * </p>
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to decode the values
+   * @param consumer receives the values and the completion of each node
+   * @return a future telling whether all nodes answered successfully
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> BulkStreamFuture asyncGetBulkStream(Collection<String> keys,
+      final Transcoder<T> tc, final BulkGetConsumer<? super T> consumer) {
+    final Map<MemcachedNode, List<String>> chunks = groupByNode(keys);
+
+    final AtomicInteger pendingChunks = new AtomicInteger(chunks.size());
+    final CountDownLatch latch = new CountDownLatch(chunks.isEmpty() ? 0 : 1);
+    final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
+    final BulkStreamFuture rv = new BulkStreamFuture(ops, latch,
+        executorService);
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, List<String>> me : chunks.entrySet()) {
+      final MemcachedNode node = me.getKey();
+      GetOperation.Callback cb = new GetOperation.Callback() {
+        private volatile OperationStatus status = null;
+
+        @Override
+        public void receivedStatus(OperationStatus s) {
+          if (s.getStatusCode() == StatusCode.ERR_NOT_MY_VBUCKET) {
+            pendingChunks.addAndGet(Integer.parseInt(s.getMessage()));
+          }
+          status = s;
+          rv.setStatus(s);
+        }
+
+        @Override
+        public void gotData(String k, int flags, byte[] data) {
+          T value = tc.decode(new CachedData(flags, data, tc.getMaxSize()));
+          try {
+            consumer.gotValue(k, value);
+          } catch (RuntimeException e) {
+            getLogger().warn("Exception in bulk get consumer for %s", k, e);
+          }
+        }
+
+        @Override
+        public void complete() {
+          try {
+            consumer.nodeComplete(node, status);
+          } catch (RuntimeException e) {
+            getLogger().warn("Exception in bulk get consumer for %s", node,
+              e);
+          }
+          if (pendingChunks.decrementAndGet() <= 0) {
+            latch.countDown();
+            rv.signalComplete();
+          }
+        }
+      };
+      Operation op = opFact.get(me.getValue(), cb);
+      mops.put(node, op);
+      ops.add(op);
+    }
+    mconn.checkState();
+    mconn.addOperations(mops);
+    return rv;
+  }
+
+  /**
+   * Get the values for multiple keys from the cache, iterating over them as
+   * they arrive.
+   *
+   * <p>
+   * At most {@code capacity} values are held in memory at any time: the keys
+   * are requested in windows, and the next window is only requested once
+   * enough values have been consumed. Waiting for the next value is bounded
+   * by the operation timeout.
+   * </p>
+   *
+   * @param <T>
+   * @param keys the keys to request
+   * @param tc the transcoder to decode the values
+   * @param capacity the maximum number of values fetched but not consumed
+   * @return an iterator over the values that exist
+   * @throws OperationTimeoutException from the iterator, if the global
+   *           operation timeout is exceeded while waiting for a value
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public <T> BulkGetIterator<T> getBulkIterator(Iterator<String> keys,
+      Transcoder<T> tc, int capacity) {
+    return new BulkGetIterator<T>(this, keys, tc, capacity, operationTimeout);
+  }
+
+  /**
+   * Get the values for multiple keys from the cache, iterating over them as
+   * they arrive and decoding them with the default transcoder.
+   *
+   * @param keys the keys to request
+   * @param capacity the maximum number of values fetched but not consumed
+   * @return an iterator over the values that exist
+   * @throws OperationTimeoutException from the iterator, if the global
+   *           operation timeout is exceeded while waiting for a value
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   */
+  @Override
+  public BulkGetIterator<Object> getBulkIterator(Iterator<String> keys,
+      int capacity) {
+    return getBulkIterator(keys, transcoder, capacity);
+  }
+
   /**
    * Get the values for multiple keys from the cache.
    *
@@ -1755,6 +2651,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   private long mutate(Mutator m, String key, long by, long def, int exp) {
     final AtomicLong rv = new AtomicLong();
     final CountDownLatch latch = new CountDownLatch(1);
+    keyModified(key);
     mconn.enqueueOperation(key, opFact.mutate(m, key, by, def, exp,
         new OperationCallback() {
         @Override
@@ -1993,6 +2890,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Long> rv =
         new OperationFuture<Long>(key, latch, operationTimeout, executorService);
+    keyModified(key);
     Operation op = opFact.mutate(m, key, by, def, exp,
         new OperationCallback() {
           @Override
@@ -2314,6 +3212,7 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     final CountDownLatch latch = new CountDownLatch(1);
     final OperationFuture<Boolean> rv = new OperationFuture<Boolean>(key,
         latch, operationTimeout, executorService);
+    keyModified(key);
 
     DeleteOperation.Callback callback = new DeleteOperation.Callback() {
       @Override
@@ -2345,6 +3244,49 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
     return rv;
   }
 
+  /**
+   * Delete many keys from the cache at once.
+   *
+   * <p>
+   * The keys are grouped by the node they belong to, and each node gets all
+   * of its keys in a single operation which is only answered for the keys
+   * that could not be deleted.
+   * </p>
+   *
+   * @param keys the keys to delete
+   * @return a future holding the keys that could not be deleted
+   * @throws IllegalStateException in the rare circumstance where queue is too
+   *           full to accept any more requests
+   * @throws UnsupportedOperationException if the connection does not use the
+   *           binary protocol
+   */
+  @Override
+  public BulkWriteFuture deleteBulk(Collection<String> keys) {
+    final Collection<String> uniqueKeys = new LinkedHashSet<String>(keys);
+    final Map<MemcachedNode, List<String>> chunks = groupByNode(uniqueKeys);
+    for (String key : uniqueKeys) {
+      keyModified(key);
+    }
+
+    final CountDownLatch latch = new CountDownLatch(chunks.isEmpty() ? 0 : 1);
+    final Collection<Operation> ops = new ArrayList<Operation>(chunks.size());
+    final BulkWriteFuture rv = new BulkWriteFuture(ops, latch,
+        executorService);
+    BulkWriteOperation.Callback cb =
+        createBulkWriteCallback(rv, latch, uniqueKeys.size());
+
+    final Map<MemcachedNode, Operation> mops =
+        new HashMap<MemcachedNode, Operation>();
+    for (Map.Entry<MemcachedNode, List<String>> me : chunks.entrySet()) {
+      Operation op = opFact.deleteBulk(me.getValue(), cb);
+      mops.put(me.getKey(), op);
+      ops.add(op);
+    }
+    mconn.checkState();
+    mconn.addOperations(mops);
+    return rv;
+  }
+
   /**
    * Flush all caches from all servers with a delay of application.
    *
@@ -2359,6 +3301,12 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
         new AtomicReference<Boolean>(null);
     final ConcurrentLinkedQueue<Operation> ops =
         new ConcurrentLinkedQueue<Operation>();
+    if (nearCache != null) {
+      nearCache.clear();
+    }
+    if (pendingGets != null) {
+      pendingGets.clear();
+    }
     CountDownLatch blatch = broadcastOp(new BroadcastOpFactory() {
       @Override
       public Operation newOp(final MemcachedNode n,
@@ -2494,6 +3442,11 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
       return false;
     }
     shuttingDown = true;
+    synchronized (this) {
+      if (hedgeTimer != null) {
+        hedgeTimer.shutdownNow();
+      }
+    }
     String baseName = mconn.getName();
     mconn.setName(baseName + " - SHUTTING DOWN");
     boolean rv = true;
@@ -2568,7 +3521,9 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
    * Add a connection observer.
    *
    * If connections are already established, your observer will be called with
-   * the address and -1.
+   * the address and -1. A {@link NodeConnectionObserver} is instead called
+   * once for every established connection, including the extra connections
+   * opened when more than one connection per node is configured.
    *
    * @param obs the ConnectionObserver you wish to add
    * @return true if the observer was added.
@@ -2576,7 +3531,13 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
   @Override
   public boolean addObserver(ConnectionObserver obs) {
     boolean rv = mconn.addObserver(obs);
-    if (rv) {
+    if (rv && obs instanceof NodeConnectionObserver) {
+      for (MemcachedNode node : mconn.getAllConnections()) {
+        if (node.isActive()) {
+          ((NodeConnectionObserver) obs).connectionEstablished(node, -1);
+        }
+      }
+    } else if (rv) {
       for (MemcachedNode node : mconn.getLocator().getAll()) {
         if (node.isActive()) {
           obs.connectionEstablished(node.getSocketAddress(), -1);
@@ -2599,11 +3560,22 @@ public class MemcachedClient extends SpyObject implements MemcachedClientIF,
 
   @Override
   public void connectionEstablished(SocketAddress sa, int reconnectCount) {
+    if (authDescriptor != null) {
+      connectionEstablished(findNode(sa), reconnectCount);
+    }
+  }
+
+  /**
+   * Authenticate the given connection, which may be one of several
+   * connections to the same node.
+   */
+  @Override
+  public void connectionEstablished(MemcachedNode node, int reconnectCount) {
     if (authDescriptor != null) {
       if (authDescriptor.authThresholdReached()) {
         shutdown();
       }
-      authMonitor.authConnection(mconn, opFact, authDescriptor, findNode(sa));
+      authMonitor.authConnection(mconn, opFact, authDescriptor, node);
     }
   }
 
@@ -24,6 +24,10 @@
 package net.spy.memcached;
 
 import net.spy.memcached.internal.BulkFuture;
+import net.spy.memcached.internal.BulkGetConsumer;
+import net.spy.memcached.internal.BulkGetIterator;
+import net.spy.memcached.internal.BulkStreamFuture;
+import net.spy.memcached.internal.BulkWriteFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -32,6 +36,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -101,10 +106,24 @@ public interface MemcachedClientIF {
 
   Future<Boolean> replace(String key, int exp, Object o);
 
+  <T> BulkWriteFuture setBulk(Map<String, ? extends T> items, int exp,
+      Transcoder<T> tc);
+
+  BulkWriteFuture setBulk(Map<String, ?> items, int exp);
+
+  <T> BulkWriteFuture addBulk(Map<String, ? extends T> items, int exp,
+      Transcoder<T> tc);
+
+  BulkWriteFuture addBulk(Map<String, ?> items, int exp);
+
   <T> Future<T> asyncGet(String key, Transcoder<T> tc);
 
   Future<Object> asyncGet(String key);
 
+  <T> Future<T> asyncGetHedged(String key, Transcoder<T> tc);
+
+  Future<Object> asyncGetHedged(String key);
+
   Future<CASValue<Object>> asyncGetAndTouch(final String key, final int exp);
 
   <T> Future<CASValue<T>> asyncGetAndTouch(final String key, final int exp,
@@ -126,6 +145,13 @@ public interface MemcachedClientIF {
 
   Object get(String key);
 
+  <T> T getOrLoad(String key, int exp, Callable<T> loader, Transcoder<T> tc,
+      LoadPolicy policy);
+
+  <T> T getOrLoad(String key, int exp, Callable<T> loader, Transcoder<T> tc);
+
+  Object getOrLoad(String key, int exp, Callable<?> loader);
+
   <T> BulkFuture<Map<String, T>> asyncGetBulk(Iterator<String> keys,
       Iterator<Transcoder<T>> tcs);
   <T> BulkFuture<Map<String, T>> asyncGetBulk(Collection<String> keys,
@@ -143,6 +169,15 @@ public interface MemcachedClientIF {
 
   BulkFuture<Map<String, Object>> asyncGetBulk(String... keys);
 
+  <T> BulkStreamFuture asyncGetBulkStream(Collection<String> keys,
+      Transcoder<T> tc, BulkGetConsumer<? super T> consumer);
+
+  <T> BulkGetIterator<T> getBulkIterator(Iterator<String> keys,
+      Transcoder<T> tc, int capacity);
+
+  BulkGetIterator<Object> getBulkIterator(Iterator<String> keys,
+      int capacity);
+
   <T> Map<String, T> getBulk(Iterator<String> keys, Transcoder<T> tc);
   <T> Map<String, T> getBulk(Collection<String> keys, Transcoder<T> tc);
 
@@ -216,6 +251,8 @@ public interface MemcachedClientIF {
 
   Future<Boolean> delete(String key, long cas);
 
+  BulkWriteFuture deleteBulk(Collection<String> keys);
+
   Future<Boolean> flush(int delay);
 
   Future<Boolean> flush();
@@ -27,8 +27,15 @@ import net.spy.memcached.compat.SpyThread;
 import net.spy.memcached.compat.log.Logger;
 import net.spy.memcached.compat.log.LoggerFactory;
 import net.spy.memcached.internal.OperationFuture;
+import net.spy.memcached.internal.OperationLatencies;
+import net.spy.memcached.metrics.CounterHandle;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.LatencyHistogram;
+import net.spy.memcached.metrics.MeterHandle;
 import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricHandles;
 import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.metrics.NoopMetricCollector;
 import net.spy.memcached.ops.GetOperation;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.NoopOperation;
@@ -39,10 +46,13 @@ import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.TapOperation;
 import net.spy.memcached.ops.VBucketAware;
+import net.spy.memcached.protocol.BaseOperationImpl;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 import net.spy.memcached.protocol.binary.MultiGetOperationImpl;
 import net.spy.memcached.protocol.binary.TapAckOperationImpl;
+import net.spy.memcached.util.BufferPool;
 import net.spy.memcached.util.StringUtils;
+import net.spy.memcached.util.TimingWheel;
 
 import java.io.IOException;
 import java.net.ConnectException;
@@ -69,10 +79,13 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Main class for handling connections to a memcached cluster.
@@ -129,6 +142,15 @@ public class MemcachedConnection extends SpyThread {
     "[MEM] Response Rate: Failure";
   private static final String OVERALL_RESPONSE_SUCC_METRIC =
     "[MEM] Response Rate: Success";
+  private static final String SELECTOR_WAKEUP_METRIC =
+    "[MEM] Selector Wakeups";
+  private static final String EXPIRED_OPS_METRIC =
+    "[MEM] Expired Operations";
+
+  /**
+   * The number of buckets of the timing wheel of every IO loop.
+   */
+  private static final int TIMEOUT_WHEEL_SIZE = 512;
 
   /**
    * If the connection is alread shut down or shutting down.
@@ -160,12 +182,6 @@ public class MemcachedConnection extends SpyThread {
    */
   private final long maxDelay;
 
-  /**
-   * Contains the current number of empty select() calls, which could indicate
-   * bugs.
-   */
-  private int emptySelects = 0;
-
   /**
    * The buffer size that will be used when reading from the server.
    */
@@ -179,14 +195,33 @@ public class MemcachedConnection extends SpyThread {
   /**
    * AddedQueue is used to track the QueueAttachments for which operations
    * have recently been queued.
+   *
+   * This is the queue of the primary IO loop. If more than one IO thread is
+   * configured, every other loop has its own queue.
    */
   protected final ConcurrentLinkedQueue<MemcachedNode> addedQueue;
 
   /**
-   * reconnectQueue contains the attachments that need to be reconnected.
-   * The key is the time at which they are eligible for reconnect.
+   * The selector loops, the first one is run by this thread and all the
+   * others by their own {@link IOThread}.
+   */
+  private final IOLoop[] loops;
+
+  /**
+   * The additional threads which run all but the primary loop.
+   */
+  private final IOThread[] ioThreads;
+
+  /**
+   * Maps each node to the loop that owns its channel.
    */
-  private final SortedMap<Long, MemcachedNode> reconnectQueue;
+  private final Map<MemcachedNode, IOLoop> nodeLoops =
+    new ConcurrentHashMap<MemcachedNode, IOLoop>();
+
+  /**
+   * Used to assign new nodes to the loops in a round-robin fashion.
+   */
+  private int nextLoop = 0;
 
   /**
    * True if not shutting down or shut down.
@@ -210,11 +245,6 @@ public class MemcachedConnection extends SpyThread {
    */
   private final int timeoutExceptionThreshold;
 
-  /**
-   * Holds operations that need to be retried.
-   */
-  private final List<Operation> retryOps;
-
   /**
    * Holds all nodes that are scheduled for shutdown.
    */
@@ -241,6 +271,44 @@ public class MemcachedConnection extends SpyThread {
    */
   protected final MetricType metricType;
 
+  /**
+   * Handles of the metrics updated by the IO threads, which stay no-ops for
+   * the metrics not registered with the current {@link MetricType}.
+   */
+  private HistogramHandle bytesReadMetric =
+    NoopMetricCollector.NOOP_HISTOGRAM;
+  private HistogramHandle bytesWrittenMetric =
+    NoopMetricCollector.NOOP_HISTOGRAM;
+  private HistogramHandle timeOnWireMetric =
+    NoopMetricCollector.NOOP_HISTOGRAM;
+  private MeterHandle responseMetric = NoopMetricCollector.NOOP_METER;
+  private MeterHandle requestMetric = NoopMetricCollector.NOOP_METER;
+  private MeterHandle responseRetryMetric = NoopMetricCollector.NOOP_METER;
+  private MeterHandle responseSuccessMetric = NoopMetricCollector.NOOP_METER;
+  private MeterHandle responseFailureMetric = NoopMetricCollector.NOOP_METER;
+  private CounterHandle selectorWakeupMetric = NoopMetricCollector.NOOP_COUNTER;
+  private CounterHandle expiredOpsMetric = NoopMetricCollector.NOOP_COUNTER;
+  private CounterHandle reconnectQueueMetric =
+    NoopMetricCollector.NOOP_COUNTER;
+  private CounterHandle shutdownQueueMetric =
+    NoopMetricCollector.NOOP_COUNTER;
+
+  /**
+   * The latencies of completed operations, or null if they are not recorded.
+   */
+  private final OperationLatencies latencies;
+
+  /**
+   * The interval between logs of the latencies in nanoseconds, zero if they
+   * are not logged.
+   */
+  private final long latencyLogInterval;
+
+  /**
+   * The time of the next log of the latencies.
+   */
+  private long nextLatencyLog;
+
   /**
    * The selector wakeup delay, defaults to 1000ms.
    */
@@ -251,6 +319,42 @@ public class MemcachedConnection extends SpyThread {
    */
   private final int retryQueueSize;
 
+  /**
+   * The pool operations borrow their encode buffers from, or null.
+   */
+  private final BufferPool bufferPool;
+
+  /**
+   * How long an IO thread waits for more operations before it writes the
+   * ones it has been woken up for, in nanoseconds.
+   */
+  private final long writeBatchWindow;
+
+  /**
+   * The number of connections opened to every node.
+   */
+  private final int connectionsPerNode;
+
+  /**
+   * Picks one of the connections to a node for every operation.
+   */
+  private final ConnectionSelector connectionSelector;
+
+  /**
+   * Maps every connection to the list of all connections to its node. Only
+   * the first connection of a node is known to the {@link NodeLocator}.
+   *
+   * Empty if only a single connection is opened to every node.
+   */
+  private final Map<MemcachedNode, List<MemcachedNode>> nodeConnections =
+    new ConcurrentHashMap<MemcachedNode, List<MemcachedNode>>();
+
+  /**
+   * The operation timeout in nanoseconds, after which the IO threads expire
+   * operations if a timeout tick is configured.
+   */
+  private final long operationTimeout;
+
   /**
    * Construct a {@link MemcachedConnection}.
    *
@@ -266,19 +370,29 @@ public class MemcachedConnection extends SpyThread {
       final List<InetSocketAddress> a, final Collection<ConnectionObserver> obs,
       final FailureMode fm, final OperationFactory opfactory) throws IOException {
     connObservers.addAll(obs);
-    reconnectQueue = new TreeMap<Long, MemcachedNode>();
-    addedQueue = new ConcurrentLinkedQueue<MemcachedNode>();
     failureMode = fm;
     shouldOptimize = f.shouldOptimize();
     maxDelay = TimeUnit.SECONDS.toMillis(f.getMaxReconnectDelay());
     opFact = opfactory;
     timeoutExceptionThreshold = f.getTimeoutExceptionThreshold();
-    selector = Selector.open();
-    retryOps = Collections.synchronizedList(new ArrayList<Operation>());
+    loops = new IOLoop[Math.max(1, f.getIOThreadCount())];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new IOLoop(f.getTimeoutTick());
+    }
+    selector = loops[0].selector;
+    addedQueue = loops[0].addedQueue;
     nodesToShutdown = new ConcurrentLinkedQueue<MemcachedNode>();
     listenerExecutorService = f.getListenerExecutorService();
     this.bufSize = bufSize;
     this.connectionFactory = f;
+    writeBatchWindow = TimeUnit.MICROSECONDS.toNanos(f.getWriteBatchWindow());
+    connectionsPerNode = Math.max(1, f.getConnectionsPerNode());
+    connectionSelector = f.getConnectionSelector();
+    operationTimeout = TimeUnit.MILLISECONDS.toNanos(f.getOperationTimeout());
+    bufferPool = f.getBufferPoolSize() > 0
+        ? new BufferPool(f.getBufferPoolSize(),
+            BufferPool.DEFAULT_MAX_BUFFER_SIZE, f.useDirectBufferPool())
+        : null;
 
     String verifyAlive = System.getProperty("net.spy.verifyAliveOnConnect");
     if(verifyAlive != null && verifyAlive.equals("true")) {
@@ -300,11 +414,30 @@ public class MemcachedConnection extends SpyThread {
     metrics = f.getMetricCollector();
     metricType = f.enableMetrics();
 
+    latencyLogInterval = TimeUnit.SECONDS.toNanos(Long.parseLong(
+      System.getProperty("net.spy.metrics.latency.logInterval", "0")));
+    nextLatencyLog = System.nanoTime() + latencyLogInterval;
+    if (latencyLogInterval > 0 || metricType.equals(MetricType.DEBUG)
+      || metricType.equals(MetricType.PERFORMANCE)) {
+      latencies = new OperationLatencies(metrics);
+    } else {
+      latencies = null;
+    }
+
     registerMetrics();
 
     setName("Memcached IO over " + this);
     setDaemon(f.isDaemon());
+    ioThreads = new IOThread[loops.length - 1];
+    for (int i = 0; i < ioThreads.length; i++) {
+      ioThreads[i] = new IOThread(loops[i + 1]);
+      ioThreads[i].setName(getName() + " (" + (i + 1) + ")");
+      ioThreads[i].setDaemon(f.isDaemon());
+    }
     start();
+    for (IOThread t : ioThreads) {
+      t.start();
+    }
   }
 
   /**
@@ -317,18 +450,29 @@ public class MemcachedConnection extends SpyThread {
   protected void registerMetrics() {
     if (metricType.equals(MetricType.DEBUG)
       || metricType.equals(MetricType.PERFORMANCE)) {
-      metrics.addHistogram(OVERALL_AVG_BYTES_READ_METRIC);
-      metrics.addHistogram(OVERALL_AVG_BYTES_WRITE_METRIC);
-      metrics.addHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC);
-      metrics.addMeter(OVERALL_RESPONSE_METRIC);
-      metrics.addMeter(OVERALL_REQUEST_METRIC);
+      bytesReadMetric = MetricHandles.histogram(metrics,
+        OVERALL_AVG_BYTES_READ_METRIC);
+      bytesWrittenMetric = MetricHandles.histogram(metrics,
+        OVERALL_AVG_BYTES_WRITE_METRIC);
+      timeOnWireMetric = MetricHandles.histogram(metrics,
+        OVERALL_AVG_TIME_ON_WIRE_METRIC);
+      responseMetric = MetricHandles.meter(metrics, OVERALL_RESPONSE_METRIC);
+      requestMetric = MetricHandles.meter(metrics, OVERALL_REQUEST_METRIC);
+      selectorWakeupMetric = MetricHandles.counter(metrics,
+        SELECTOR_WAKEUP_METRIC);
+      expiredOpsMetric = MetricHandles.counter(metrics, EXPIRED_OPS_METRIC);
 
       if (metricType.equals(MetricType.DEBUG)) {
-        metrics.addCounter(RECON_QUEUE_METRIC);
-        metrics.addCounter(SHUTD_QUEUE_METRIC);
-        metrics.addMeter(OVERALL_RESPONSE_RETRY_METRIC);
-        metrics.addMeter(OVERALL_RESPONSE_SUCC_METRIC);
-        metrics.addMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        reconnectQueueMetric = MetricHandles.counter(metrics,
+          RECON_QUEUE_METRIC);
+        shutdownQueueMetric = MetricHandles.counter(metrics,
+          SHUTD_QUEUE_METRIC);
+        responseRetryMetric = MetricHandles.meter(metrics,
+          OVERALL_RESPONSE_RETRY_METRIC);
+        responseSuccessMetric = MetricHandles.meter(metrics,
+          OVERALL_RESPONSE_SUCC_METRIC);
+        responseFailureMetric = MetricHandles.meter(metrics,
+          OVERALL_RESPONSE_FAIL_METRIC);
       }
     }
   }
@@ -336,6 +480,10 @@ public class MemcachedConnection extends SpyThread {
   /**
    * Create connections for the given list of addresses.
    *
+   * If more than one connection per node is configured, only the first
+   * connection to every address is returned, the others are reached through
+   * it.
+   *
    * @param addrs the list of addresses to connect to.
    * @return addrs list of {@link MemcachedNode}s.
    * @throws IOException if connecting was not successful.
@@ -345,46 +493,123 @@ public class MemcachedConnection extends SpyThread {
     List<MemcachedNode> connections = new ArrayList<MemcachedNode>(addrs.size());
 
     for (SocketAddress sa : addrs) {
-      SocketChannel ch = SocketChannel.open();
-      ch.configureBlocking(false);
-      MemcachedNode qa = connectionFactory.createMemcachedNode(sa, ch, bufSize);
-      qa.setConnection(this);
-      int ops = 0;
-      Socket socket = ch.socket();
-      socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
-      socket.setKeepAlive(connectionFactory.getKeepAlive());
-      
-      try {
-        if (ch.connect(sa)) {
-          getLogger().info("Connected to %s immediately", qa);
-          connected(qa);
-        } else {
-          getLogger().info("Added %s to connect queue", qa);
-          ops = SelectionKey.OP_CONNECT;
+      List<MemcachedNode> group =
+        new ArrayList<MemcachedNode>(connectionsPerNode);
+      for (int i = 0; i < connectionsPerNode; i++) {
+        group.add(createConnection(sa));
+      }
+      connections.add(group.get(0));
+      if (group.size() > 1) {
+        List<MemcachedNode> all = Collections.unmodifiableList(group);
+        for (MemcachedNode qa : group) {
+          nodeConnections.put(qa, all);
         }
-
-        selector.wakeup();
-        qa.setSk(ch.register(selector, ops, qa));
-        assert ch.isConnected()
-            || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
-            : "Not connected, and not wanting to connect";
-      } catch (SocketException e) {
-        getLogger().warn("Socket error on initial connect", e);
-        queueReconnect(qa);
       }
-      connections.add(qa);
     }
 
     return connections;
   }
 
+  /**
+   * Create and connect a single connection to the given address.
+   *
+   * @param sa the address to connect to.
+   * @return the new {@link MemcachedNode}.
+   * @throws IOException if connecting was not successful.
+   */
+  private MemcachedNode createConnection(final SocketAddress sa)
+    throws IOException {
+    SocketChannel ch = SocketChannel.open();
+    ch.configureBlocking(false);
+    MemcachedNode qa = connectionFactory.createMemcachedNode(sa, ch, bufSize);
+    qa.setConnection(this);
+    IOLoop loop = assignLoop(qa);
+    int ops = 0;
+    Socket socket = ch.socket();
+    socket.setTcpNoDelay(!connectionFactory.useNagleAlgorithm());
+    socket.setKeepAlive(connectionFactory.getKeepAlive());
+    
+    try {
+      if (ch.connect(sa)) {
+        getLogger().info("Connected to %s immediately", qa);
+        connected(qa);
+      } else {
+        getLogger().info("Added %s to connect queue", qa);
+        ops = SelectionKey.OP_CONNECT;
+      }
+
+      loop.selector.wakeup();
+      qa.setSk(ch.register(loop.selector, ops, qa));
+      assert ch.isConnected()
+          || qa.getSk().interestOps() == SelectionKey.OP_CONNECT
+          : "Not connected, and not wanting to connect";
+    } catch (SocketException e) {
+      getLogger().warn("Socket error on initial connect", e);
+      queueReconnect(qa);
+    }
+    return qa;
+  }
+
+  /**
+   * Returns all connections, including the additional ones to every node
+   * the {@link NodeLocator} does not know about.
+   *
+   * @return all connections of this {@link MemcachedConnection}.
+   */
+  Collection<MemcachedNode> getAllConnections() {
+    if (nodeConnections.isEmpty()) {
+      return locator.getAll();
+    }
+    List<MemcachedNode> all = new ArrayList<MemcachedNode>();
+    for (MemcachedNode node : locator.getAll()) {
+      List<MemcachedNode> group = nodeConnections.get(node);
+      if (group == null) {
+        all.add(node);
+      } else {
+        all.addAll(group);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Assign the given node to the next IO loop in turn.
+   *
+   * @param node the node to assign.
+   * @return the loop which owns the node from now on.
+   */
+  private synchronized IOLoop assignLoop(final MemcachedNode node) {
+    IOLoop loop = loops[nextLoop];
+    nextLoop = (nextLoop + 1) % loops.length;
+    nodeLoops.put(node, loop);
+    return loop;
+  }
+
+  /**
+   * Returns the IO loop which owns the given node.
+   *
+   * Nodes which have not been created through this connection are handled
+   * by the primary loop.
+   *
+   * @param node the node to look up.
+   * @return the loop for the node.
+   */
+  private IOLoop loopFor(final MemcachedNode node) {
+    IOLoop loop = node == null ? null : nodeLoops.get(node);
+    return loop == null ? loops[0] : loop;
+  }
+
   /**
    * Make sure that the current selectors make sense.
    *
+   * @param loop the loop whose nodes should be checked.
    * @return true if they do.
    */
-  private boolean selectorsMakeSense() {
-    for (MemcachedNode qa : locator.getAll()) {
+  private boolean selectorsMakeSense(final IOLoop loop) {
+    for (MemcachedNode qa : getAllConnections()) {
+      if (loopFor(qa) != loop) {
+        continue;
+      }
       if (qa.getSk() != null && qa.getSk().isValid()) {
         if (qa.getChannel().isConnected()) {
           int sops = qa.getSk().interestOps();
@@ -415,39 +640,67 @@ public class MemcachedConnection extends SpyThread {
    * Handle all IO that flows through the connection.
    *
    * This method is called in an endless loop, listens on NIO selectors and
-   * dispatches the underlying read/write calls if needed.
+   * dispatches the underlying read/write calls if needed. It handles the
+   * nodes of the primary loop, the ones of additional IO threads are
+   * handled by those threads.
    */
   public void handleIO() throws IOException {
+    handleIO(loops[0]);
+  }
+
+  /**
+   * Handle all IO for the nodes owned by the given loop.
+   *
+   * @param loop the loop to handle.
+   * @throws IOException if an error happens during shutdown queue handling.
+   */
+  private void handleIO(final IOLoop loop) throws IOException {
     if (shutDown) {
       getLogger().debug("No IO while shut down.");
       return;
     }
 
-    handleInputQueue();
+    if (writeBatchWindow > 0 && loop.wakeupPending.get()) {
+      // Producers do not wake us up while the flag is set, so give them a
+      // moment to add more operations to this batch.
+      LockSupport.parkNanos(writeBatchWindow);
+    }
+    // Clear the flag before draining, so every operation added from now on
+    // either gets drained below or wakes up the select.
+    loop.wakeupPending.set(false);
+    handleInputQueue(loop);
     getLogger().debug("Done dealing with queue.");
 
     long delay = wakeupDelay;
-    if (!reconnectQueue.isEmpty()) {
+    if (!loop.reconnectQueue.isEmpty()) {
       long now = System.currentTimeMillis();
-      long then = reconnectQueue.firstKey();
+      long then = loop.reconnectQueue.firstKey();
       delay = Math.max(then - now, 1);
     }
+    if (loop.timeouts != null && !loop.timeouts.isEmpty()) {
+      long tick = TimeUnit.NANOSECONDS.toMillis(
+        loop.timeouts.nanosUntilNextTick(System.nanoTime()));
+      delay = Math.min(delay, tick + 1);
+    }
     getLogger().debug("Selecting with delay of %sms", delay);
-    assert selectorsMakeSense() : "Selectors don't make sense.";
-    int selected = selector.select(delay);
+    assert selectorsMakeSense(loop) : "Selectors don't make sense.";
+    Selector sel = loop.selector;
+    int selected = sel.select(delay);
 
     if (shutDown) {
       return;
-    } else if (selected == 0 && addedQueue.isEmpty()) {
-      handleWokenUpSelector();
-    } else if (selector.selectedKeys().isEmpty()) {
-      handleEmptySelects();
+    } else if (selected == 0 && loop.addedQueue.isEmpty()) {
+      if (loop == loops[0]) {
+        handleWokenUpSelector();
+      }
+    } else if (sel.selectedKeys().isEmpty()) {
+      handleEmptySelects(loop);
     } else {
       getLogger().debug("Selected %d, selected %d keys", selected,
-        selector.selectedKeys().size());
-      emptySelects = 0;
+        sel.selectedKeys().size());
+      loop.emptySelects = 0;
 
-      Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+      Iterator<SelectionKey> iterator = sel.selectedKeys().iterator();
       while(iterator.hasNext()) {
         SelectionKey sk = iterator.next();
         handleIO(sk);
@@ -455,7 +708,7 @@ public class MemcachedConnection extends SpyThread {
       }
     }
 
-    handleOperationalTasks();
+    handleOperationalTasks(loop);
   }
 
   /**
@@ -471,7 +724,8 @@ public class MemcachedConnection extends SpyThread {
    * regular interval called, so all overriding implementations need to take
    * that into account. Also, it needs to take into account that it may be
    * called very often under heavy workloads, so it should not perform extensive
-   * tasks in the same thread.</p>
+   * tasks in the same thread. If more than one IO thread is configured, it is
+   * only called from the primary one.</p>
    */
   protected void handleWokenUpSelector() { }
 
@@ -480,33 +734,119 @@ public class MemcachedConnection extends SpyThread {
    * needs to be checked on a regular basis that has nothing to do directly
    * with reading and writing data.
    *
+   * @param loop the loop to handle the tasks for.
    * @throws IOException if an error happens during shutdown queue handling.
    */
-  private void handleOperationalTasks() throws IOException {
-    checkPotentiallyTimedOutConnection();
+  private void handleOperationalTasks(final IOLoop loop) throws IOException {
+    expireOperations(loop);
+    checkPotentiallyTimedOutConnection(loop);
 
-    if (!shutDown && !reconnectQueue.isEmpty()) {
-      attemptReconnects();
+    if (!shutDown && !loop.reconnectQueue.isEmpty()) {
+      attemptReconnects(loop);
     }
 
-    if (!retryOps.isEmpty()) {
-      ArrayList<Operation> operations = new ArrayList<Operation>(retryOps);
-      retryOps.clear();
+    if (!loop.retryOps.isEmpty()) {
+      ArrayList<Operation> operations;
+      synchronized (loop.retryOps) {
+        operations = new ArrayList<Operation>(loop.retryOps);
+        loop.retryOps.clear();
+      }
       redistributeOperations(operations);
     }
 
-    handleShutdownQueue();
+    handleShutdownQueue(loop);
+
+    if (latencyLogInterval > 0 && loop == loops[0]) {
+      logLatencies();
+    }
+  }
+
+  /**
+   * Log the latencies of the last interval if it is over.
+   */
+  private void logLatencies() {
+    long now = System.nanoTime();
+    if (now - nextLatencyLog >= 0) {
+      latencies.logInterval();
+      nextLatencyLog = now + latencyLogInterval;
+    }
+  }
+
+  /**
+   * Take a snapshot of the latencies of the completed operations.
+   *
+   * <p>Latencies are recorded if the {@link MetricType} is
+   * {@link MetricType#PERFORMANCE} or {@link MetricType#DEBUG}, or if they
+   * are logged periodically because the system property
+   * {@code net.spy.metrics.latency.logInterval} is set to a number of
+   * seconds. The snapshots are keyed by the address of the node, the type of
+   * the operations and the phase, all latencies are in microseconds.</p>
+   *
+   * @return the snapshots, empty if no latencies are recorded.
+   */
+  public Map<String, LatencyHistogram.Snapshot> getLatencies() {
+    if (latencies == null) {
+      return Collections.emptyMap();
+    }
+    return latencies.snapshot();
+  }
+
+  /**
+   * Time out the operations of the given loop which have exceeded the
+   * operation timeout.
+   *
+   * Operations which have been written stay in the read queue of their node
+   * until the response arrives, all others are removed from the queues.
+   *
+   * @param loop the loop whose timing wheel should be checked.
+   */
+  private void expireOperations(final IOLoop loop) {
+    if (loop.timeouts == null || loop.timeouts.isEmpty()) {
+      return;
+    }
+    loop.timeouts.expire(System.nanoTime(), loop.expired);
+    if (loop.expired.isEmpty()) {
+      return;
+    }
+
+    Collection<MemcachedNode> toPurge = new HashSet<MemcachedNode>();
+    for (Operation op : loop.expired) {
+      if (op.isCancelled() || op.isTimedOut()
+        || op.getState() == OperationState.COMPLETE) {
+        continue;
+      }
+      expiredOpsMetric.increment();
+      MemcachedNode node = op.getHandlingNode();
+      if (op.getState() == OperationState.WRITE_QUEUED) {
+        op.isTimedOut(TimeUnit.NANOSECONDS.toMillis(operationTimeout));
+        if (node != null && loopFor(node) == loop) {
+          toPurge.add(node);
+        }
+      } else {
+        op.timeOut();
+        opTimedOut(op);
+      }
+    }
+    loop.expired.clear();
+
+    for (MemcachedNode node : toPurge) {
+      int purged = node.purgeWriteQueue();
+      getLogger().debug("Purged %d expired operations from %s", purged, node);
+      node.fixupOps();
+    }
   }
 
   /**
    * Helper method for {@link #handleIO()} to handle empty select calls.
+   *
+   * @param loop the loop which had an empty select.
    */
-  private void handleEmptySelects() {
+  private void handleEmptySelects(final IOLoop loop) {
     getLogger().debug("No selectors ready, interrupted: %b",
       Thread.interrupted());
 
-    if (++emptySelects > DOUBLE_CHECK_EMPTY) {
-      for (SelectionKey sk : selector.keys()) {
+    if (++loop.emptySelects > DOUBLE_CHECK_EMPTY) {
+      for (SelectionKey sk : loop.selector.keys()) {
         getLogger().debug("%s has %s, interested in %s", sk, sk.readyOps(),
           sk.interestOps());
         if (sk.readyOps() != 0) {
@@ -516,20 +856,22 @@ public class MemcachedConnection extends SpyThread {
           lostConnection((MemcachedNode) sk.attachment());
         }
       }
-      assert emptySelects < EXCESSIVE_EMPTY : "Too many empty selects";
+      assert loop.emptySelects < EXCESSIVE_EMPTY : "Too many empty selects";
     }
   }
 
   /**
    * Check if nodes need to be shut down and do so if needed.
    *
+   * @param loop only nodes owned by this loop are shut down.
    * @throws IOException if the channel could not be closed properly.
    */
-  private void handleShutdownQueue() throws IOException {
+  private void handleShutdownQueue(final IOLoop loop) throws IOException {
     for (MemcachedNode qa : nodesToShutdown) {
-      if (!addedQueue.contains(qa)) {
+      if (loopFor(qa) == loop && !loop.addedQueue.contains(qa)) {
         nodesToShutdown.remove(qa);
-        metrics.decrementCounter(SHUTD_QUEUE_METRIC);
+        nodeLoops.remove(qa);
+        shutdownQueueMetric.decrement();
         Collection<Operation> notCompletedOperations = qa.destroyInputQueue();
         if (qa.getChannel() != null) {
           qa.getChannel().close();
@@ -547,12 +889,14 @@ public class MemcachedConnection extends SpyThread {
 
   /**
    * Check if one or more nodes exceeded the timeout Threshold.
+   *
+   * @param loop the loop whose nodes should be checked.
    */
-  private void checkPotentiallyTimedOutConnection() {
+  private void checkPotentiallyTimedOutConnection(final IOLoop loop) {
     boolean stillCheckingTimeouts = true;
     while (stillCheckingTimeouts) {
       try {
-        for (SelectionKey sk : selector.keys()) {
+        for (SelectionKey sk : loop.selector.keys()) {
           MemcachedNode mn = (MemcachedNode) sk.attachment();
           if (mn.getContinuousTimeout() > timeoutExceptionThreshold) {
             getLogger().warn("%s exceeded continuous timeout threshold", sk);
@@ -570,15 +914,17 @@ public class MemcachedConnection extends SpyThread {
 
   /**
    * Handle any requests that have been made against the client.
+   *
+   * @param loop the loop whose queue should be handled.
    */
-  private void handleInputQueue() {
-    if (!addedQueue.isEmpty()) {
+  private void handleInputQueue(final IOLoop loop) {
+    if (!loop.addedQueue.isEmpty()) {
       getLogger().debug("Handling queue");
       Collection<MemcachedNode> toAdd = new HashSet<MemcachedNode>();
       Collection<MemcachedNode> todo = new HashSet<MemcachedNode>();
 
       MemcachedNode qaNode;
-      while ((qaNode = addedQueue.poll()) != null) {
+      while ((qaNode = loop.addedQueue.poll()) != null) {
         todo.add(qaNode);
       }
 
@@ -605,7 +951,7 @@ public class MemcachedConnection extends SpyThread {
         }
         node.fixupOps();
       }
-      addedQueue.addAll(toAdd);
+      loop.addedQueue.addAll(toAdd);
     }
   }
 
@@ -638,7 +984,11 @@ public class MemcachedConnection extends SpyThread {
     node.connected();
 
     for (ConnectionObserver observer : connObservers) {
-      observer.connectionEstablished(node.getSocketAddress(), rt);
+      if (observer instanceof NodeConnectionObserver) {
+        ((NodeConnectionObserver) observer).connectionEstablished(node, rt);
+      } else {
+        observer.connectionEstablished(node.getSocketAddress(), rt);
+      }
     }
   }
 
@@ -793,7 +1143,7 @@ public class MemcachedConnection extends SpyThread {
     }
 
     connected(node);
-    addedQueue.offer(node);
+    loopFor(node).addedQueue.offer(node);
     if (node.getWbuf().hasRemaining()) {
       handleWrites(node);
     }
@@ -810,7 +1160,7 @@ public class MemcachedConnection extends SpyThread {
     boolean canWriteMore = node.getBytesRemainingToWrite() > 0;
     while (canWriteMore) {
       int wrote = node.writeSome();
-      metrics.updateHistogram(OVERALL_AVG_BYTES_WRITE_METRIC, wrote);
+      bytesWrittenMetric.update(wrote);
       node.fillWriteBuffer(shouldOptimize);
       canWriteMore = wrote > 0 && node.getBytesRemainingToWrite() > 0;
     }
@@ -832,26 +1182,28 @@ public class MemcachedConnection extends SpyThread {
     ByteBuffer rbuf = node.getRbuf();
     final SocketChannel channel = node.getChannel();
     int read = channel.read(rbuf);
-    metrics.updateHistogram(OVERALL_AVG_BYTES_READ_METRIC, read);
+    bytesReadMetric.update(read);
     if (read < 0) {
       currentOp = handleReadsWhenChannelEndOfStream(currentOp, node, rbuf);
     }
 
     while (read > 0) {
       getLogger().debug("Read %d bytes", read);
+      long now = System.nanoTime();
       rbuf.flip();
       while (rbuf.remaining() > 0) {
         if (currentOp == null) {
           throw new IllegalStateException("No read operation.");
         }
 
-        long timeOnWire =
-          System.nanoTime() - currentOp.getWriteCompleteTimestamp();
-        metrics.updateHistogram(OVERALL_AVG_TIME_ON_WIRE_METRIC,
-          (int)(timeOnWire / 1000));
-        metrics.markMeter(OVERALL_RESPONSE_METRIC);
+        long timeOnWire = now - currentOp.getWriteCompleteTimestamp();
+        timeOnWireMetric.update((int) (timeOnWire / 1000));
+        responseMetric.mark();
+        if (currentOp.getFirstByteTimestamp() == 0) {
+          currentOp.setFirstByteTimestamp(now);
+        }
         synchronized(currentOp) {
-          readBufferAndLogMetrics(currentOp, rbuf, node);
+          readBufferAndLogMetrics(currentOp, rbuf, node, now);
         }
 
         currentOp = node.getCurrentReadOp();
@@ -868,10 +1220,12 @@ public class MemcachedConnection extends SpyThread {
    * @param currentOp the current operation to read.
    * @param rbuf the read buffer to read from.
    * @param node the node to read from.
+   * @param now the time the data in the buffer was read.
    * @throws IOException if reading was not successful.
    */
   private void readBufferAndLogMetrics(final Operation currentOp,
-    final ByteBuffer rbuf, final MemcachedNode node) throws IOException {
+    final ByteBuffer rbuf, final MemcachedNode node, final long now)
+    throws IOException {
     currentOp.readFromBuffer(rbuf);
     if (currentOp.getState() == OperationState.COMPLETE) {
       getLogger().debug("Completed read op: %s and giving the next %d "
@@ -881,9 +1235,12 @@ public class MemcachedConnection extends SpyThread {
         + op;
 
       if (op.hasErrored()) {
-        metrics.markMeter(OVERALL_RESPONSE_FAIL_METRIC);
+        responseFailureMetric.mark();
       } else {
-        metrics.markMeter(OVERALL_RESPONSE_SUCC_METRIC);
+        responseSuccessMetric.mark();
+      }
+      if (latencies != null) {
+        latencies.record(op, now);
       }
     } else if (currentOp.getState() == OperationState.RETRY) {
       handleRetryInformation(currentOp.getErrorMsg());
@@ -896,7 +1253,7 @@ public class MemcachedConnection extends SpyThread {
         + op;
 
       retryOperation(currentOp);
-      metrics.markMeter(OVERALL_RESPONSE_RETRY_METRIC);
+      responseRetryMetric.mark();
     }
   }
 
@@ -993,12 +1350,14 @@ public class MemcachedConnection extends SpyThread {
     long delay = (long) Math.min(maxDelay, Math.pow(2,
         node.getReconnectCount()) * 1000);
     long reconnectTime = System.currentTimeMillis() + delay;
+    SortedMap<Long, MemcachedNode> reconnectQueue =
+      loopFor(node).reconnectQueue;
     while (reconnectQueue.containsKey(reconnectTime)) {
       reconnectTime++;
     }
 
     reconnectQueue.put(reconnectTime, node);
-    metrics.incrementCounter(RECON_QUEUE_METRIC);
+    reconnectQueueMetric.increment();
 
     node.setupResend();
     if (failureMode == FailureMode.Redistribute) {
@@ -1101,8 +1460,10 @@ public class MemcachedConnection extends SpyThread {
    *
    * Note that if a socket error arises during reconnect, the node is scheduled
    * for re-reconnect immediately.
+   *
+   * @param loop the loop whose reconnect queue should be handled.
    */
-  private void attemptReconnects() {
+  private void attemptReconnects(final IOLoop loop) {
     final long now = System.currentTimeMillis();
     final Map<MemcachedNode, Boolean> seen =
       new IdentityHashMap<MemcachedNode, Boolean>();
@@ -1110,11 +1471,12 @@ public class MemcachedConnection extends SpyThread {
     SocketChannel ch = null;
 
 
-    Iterator<MemcachedNode> i = reconnectQueue.headMap(now).values().iterator();
+    Iterator<MemcachedNode> i =
+      loop.reconnectQueue.headMap(now).values().iterator();
     while(i.hasNext()) {
       final MemcachedNode node = i.next();
       i.remove();
-      metrics.decrementCounter(RECON_QUEUE_METRIC);
+      reconnectQueueMetric.decrement();
 
       try {
         if (!belongsToCluster(node)) {
@@ -1133,13 +1495,13 @@ public class MemcachedConnection extends SpyThread {
           int ops = 0;
           if (ch.connect(node.getSocketAddress())) {
             connected(node);
-            addedQueue.offer(node);
+            loop.addedQueue.offer(node);
             getLogger().info("Immediately reconnected to %s", node);
             assert ch.isConnected();
           } else {
             ops = SelectionKey.OP_CONNECT;
           }
-          node.registerChannel(ch, ch.register(selector, ops, node));
+          node.registerChannel(ch, ch.register(loop.selector, ops, node));
           assert node.getChannel() == ch : "Channel was lost.";
         } else {
           getLogger().debug("Skipping duplicate reconnect request for %s",
@@ -1187,6 +1549,15 @@ public class MemcachedConnection extends SpyThread {
     return locator;
   }
 
+  /**
+   * Returns the {@link BufferPool} operations encode their requests into.
+   *
+   * @return the pool, or null if operation buffers are not pooled.
+   */
+  public BufferPool getBufferPool() {
+    return bufferPool;
+  }
+
   /**
    * Enqueue the given {@link Operation} with the used key.
    *
@@ -1257,11 +1628,11 @@ public class MemcachedConnection extends SpyThread {
     o.setHandlingNode(node);
     o.initialize();
     node.insertOp(o);
-    addedQueue.offer(node);
-    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    IOLoop loop = loopFor(node);
+    loop.addedQueue.offer(node);
+    requestMetric.mark();
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    wakeup(loop);
     getLogger().debug("Added %s to %s", o, node);
   }
 
@@ -1276,15 +1647,47 @@ public class MemcachedConnection extends SpyThread {
       retryOperation(o);
       return;
     }
-    o.setHandlingNode(node);
+    MemcachedNode conn = node;
+    List<MemcachedNode> group = nodeConnections.get(node);
+    if (group != null) {
+      conn = connectionSelector.select(group, o);
+      // Until it is authenticated, the first connection stands in for it.
+      if (!conn.isAuthenticated()) {
+        conn = node;
+      }
+    }
+    o.setHandlingNode(conn);
     o.initialize();
-    node.addOp(o);
-    addedQueue.offer(node);
-    metrics.markMeter(OVERALL_REQUEST_METRIC);
+    conn.addOp(o);
+    IOLoop loop = loopFor(conn);
+    scheduleExpiry(loop, o);
+    loop.addedQueue.offer(conn);
+    requestMetric.mark();
+
+    wakeup(loop);
+    getLogger().debug("Added %s to %s", o, conn);
+  }
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
-    getLogger().debug("Added %s to %s", o, node);
+  /**
+   * Track the given operation in the timing wheel of the given loop, so it
+   * expires once the operation timeout has passed.
+   *
+   * Tap operations stream for as long as they are open and are never
+   * expired. Operations which are added again keep their first deadline.
+   *
+   * @param loop the loop which owns the handling node of the operation.
+   * @param o the operation to track.
+   */
+  private void scheduleExpiry(final IOLoop loop, final Operation o) {
+    if (loop.timeouts == null || o instanceof TapOperation
+      || !(o instanceof BaseOperationImpl)) {
+      return;
+    }
+    BaseOperationImpl op = (BaseOperationImpl) o;
+    if (op.getExpiry() == null) {
+      op.setExpiry(loop.timeouts.schedule(o,
+        System.nanoTime() + operationTimeout));
+    }
   }
 
   /**
@@ -1317,6 +1720,7 @@ public class MemcachedConnection extends SpyThread {
   public CountDownLatch broadcastOperation(final BroadcastOpFactory of,
     final Collection<MemcachedNode> nodes) {
     final CountDownLatch latch = new CountDownLatch(nodes.size());
+    final Collection<IOLoop> toWakeup = new HashSet<IOLoop>();
 
     for (MemcachedNode node : nodes) {
       getLogger().debug("broadcast Operation: node = " + node);
@@ -1324,24 +1728,48 @@ public class MemcachedConnection extends SpyThread {
       op.initialize();
       node.addOp(op);
       op.setHandlingNode(node);
-      addedQueue.offer(node);
-      metrics.markMeter(OVERALL_REQUEST_METRIC);
+      IOLoop loop = loopFor(node);
+      scheduleExpiry(loop, op);
+      loop.addedQueue.offer(node);
+      toWakeup.add(loop);
+      requestMetric.mark();
     }
 
-    Selector s = selector.wakeup();
-    assert s == selector : "Wakeup returned the wrong selector.";
+    for (IOLoop loop : toWakeup) {
+      wakeup(loop);
+    }
     return latch;
   }
 
+  /**
+   * Wake up the selector of the given loop, unless a wakeup is already
+   * pending.
+   *
+   * The flag is cleared by the IO thread right before it drains its added
+   * queue, so wakeups for operations added in the meantime are coalesced
+   * into a single one.
+   *
+   * @param loop the loop to wake up.
+   */
+  private void wakeup(final IOLoop loop) {
+    if (loop.wakeupPending.compareAndSet(false, true)) {
+      selectorWakeupMetric.increment();
+      Selector s = loop.selector.wakeup();
+      assert s == loop.selector : "Wakeup returned the wrong selector.";
+    }
+  }
+
   /**
    * Shut down all connections and do not accept further incoming ops.
    */
   public void shutdown() throws IOException {
     shutDown = true;
     try {
-      Selector s = selector.wakeup();
-      assert s == selector : "Wakeup returned the wrong selector.";
-      for (MemcachedNode node : locator.getAll()) {
+      for (IOLoop loop : loops) {
+        Selector s = loop.selector.wakeup();
+        assert s == loop.selector : "Wakeup returned the wrong selector.";
+      }
+      for (MemcachedNode node : getAllConnections()) {
         if (node.getChannel() != null) {
           node.getChannel().close();
           node.setSk(null);
@@ -1353,8 +1781,10 @@ public class MemcachedConnection extends SpyThread {
         }
       }
 
-      selector.close();
-      getLogger().debug("Shut down selector %s", selector);
+      for (IOLoop loop : loops) {
+        loop.selector.close();
+        getLogger().debug("Shut down selector %s", loop.selector);
+      }
     } finally {
       running = false;
     }
@@ -1455,9 +1885,22 @@ public class MemcachedConnection extends SpyThread {
    */
   @Override
   public void run() {
+    runLoop(loops[0]);
+  }
+
+  /**
+   * Handle IO for the given loop as long as the application is running.
+   *
+   * @param loop the loop to run.
+   */
+  private void runLoop(final IOLoop loop) {
     while (running) {
       try {
-        handleIO();
+        if (loop == loops[0]) {
+          handleIO();
+        } else {
+          handleIO(loop);
+        }
       } catch (IOException e) {
         logRunException(e);
       } catch (CancelledKeyException e) {
@@ -1508,6 +1951,7 @@ public class MemcachedConnection extends SpyThread {
    * @param op the operation to retry.
    */
   public void retryOperation(Operation op) {
+    List<Operation> retryOps = loopFor(op.getHandlingNode()).retryOps;
     if (retryQueueSize >= 0 && retryOps.size() >= retryQueueSize) {
       if (!op.isCancelled()) {
         op.cancel();
@@ -1516,4 +1960,86 @@ public class MemcachedConnection extends SpyThread {
     retryOps.add(op);
   }
 
+  /**
+   * The state of a single selector loop.
+   *
+   * Every {@link MemcachedNode} is owned by exactly one loop, so all reads
+   * and writes of a node happen on the same thread and the per-node ordering
+   * of operations is preserved.
+   */
+  private static final class IOLoop {
+
+    /**
+     * The {@link Selector} all channels of this loop are registered with.
+     */
+    private final Selector selector;
+
+    /**
+     * The nodes of this loop for which operations have recently been queued.
+     */
+    private final ConcurrentLinkedQueue<MemcachedNode> addedQueue =
+      new ConcurrentLinkedQueue<MemcachedNode>();
+
+    /**
+     * The nodes of this loop that need to be reconnected, keyed by the time
+     * at which they are eligible for reconnect.
+     */
+    private final SortedMap<Long, MemcachedNode> reconnectQueue =
+      new TreeMap<Long, MemcachedNode>();
+
+    /**
+     * Holds operations that need to be retried.
+     */
+    private final List<Operation> retryOps =
+      Collections.synchronizedList(new ArrayList<Operation>());
+
+    /**
+     * Contains the current number of empty select() calls, which could
+     * indicate bugs.
+     */
+    private int emptySelects = 0;
+
+    /**
+     * Set if the selector has been woken up and the added queue has not
+     * been drained since.
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /**
+     * Expires the operations of this loop, or null if operations are not
+     * expired by the IO threads.
+     */
+    private final TimingWheel<Operation> timeouts;
+
+    /**
+     * Collects the expired operations, only used by the thread of this loop.
+     */
+    private final List<Operation> expired = new ArrayList<Operation>();
+
+    IOLoop(final long timeoutTick) throws IOException {
+      selector = Selector.open();
+      timeouts = timeoutTick > 0
+        ? new TimingWheel<Operation>(timeoutTick, TimeUnit.MILLISECONDS,
+          TIMEOUT_WHEEL_SIZE)
+        : null;
+    }
+  }
+
+  /**
+   * Runs an additional {@link IOLoop} next to the primary one.
+   */
+  private final class IOThread extends SpyThread {
+
+    private final IOLoop loop;
+
+    IOThread(final IOLoop loop) {
+      this.loop = loop;
+    }
+
+    @Override
+    public void run() {
+      runLoop(loop);
+    }
+  }
+
 }
@@ -50,6 +50,14 @@ public interface MemcachedNode {
    */
   Collection<Operation> destroyInputQueue();
 
+  /**
+   * Remove the cancelled and timed out operations that have not been written
+   * yet from the queues of this node.
+   *
+   * @return the number of removed operations
+   */
+  int purgeWriteQueue();
+
   /**
    * Clear the queue of currently processing operations by either cancelling
    * them or setting them up to be reapplied after a reconnect.
@@ -204,6 +212,12 @@ public interface MemcachedNode {
    */
   int getBytesRemainingToWrite();
 
+  /**
+   * Get the approximate number of request bytes queued on this node that
+   * have not been written yet.
+   */
+  long getOutstandingBytes();
+
   /**
    * Write some bytes and return the number of bytes written.
    *
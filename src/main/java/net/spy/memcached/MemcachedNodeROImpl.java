@@ -70,10 +70,18 @@ public class MemcachedNodeROImpl implements MemcachedNode {
     throw new UnsupportedOperationException();
   }
 
+  public int purgeWriteQueue() {
+    throw new UnsupportedOperationException();
+  }
+
   public int getBytesRemainingToWrite() {
     return root.getBytesRemainingToWrite();
   }
 
+  public long getOutstandingBytes() {
+    return root.getOutstandingBytes();
+  }
+
   public SocketChannel getChannel() {
     throw new UnsupportedOperationException();
   }
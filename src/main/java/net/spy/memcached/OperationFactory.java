@@ -23,6 +23,9 @@
 
 package net.spy.memcached;
 
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkWriteOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -53,6 +56,7 @@ import net.spy.memcached.ops.UnlockOperation;
 import net.spy.memcached.ops.VersionOperation;
 import net.spy.memcached.tapmessage.RequestMessage;
 import net.spy.memcached.tapmessage.TapOpcode;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 import javax.security.auth.callback.CallbackHandler;
 import java.util.Collection;
@@ -239,6 +243,46 @@ public interface OperationFactory {
   StoreOperation store(StoreType storeType, String key, int flags, int exp,
       byte[] data, StoreOperation.Callback cb);
 
+  /**
+   * Create a store operation sending a value encoded into a stream.
+   *
+   * <p>The request header is written into the headroom of the stream, so
+   * the value does not have to be copied. The operation releases the stream
+   * once it has completed.</p>
+   *
+   * @param storeType the type of store operation
+   * @param key the key to store
+   * @param flags the storage flags
+   * @param exp the expiration time
+   * @param data the stream holding the data
+   * @param cb the status callback
+   * @return the new store operation
+   */
+  StoreOperation store(StoreType storeType, String key, int flags, int exp,
+      ByteBufferOutputStream data, StoreOperation.Callback cb);
+
+  /**
+   * Create a store operation for many objects on the same node.
+   *
+   * @param storeType the type of store operation
+   * @param items the encoded objects to store, by key
+   * @param exp the expiration time
+   * @param cb the status callback, told about the result of each key
+   * @return the new bulk store operation
+   */
+  BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> items, int exp, BulkWriteOperation.Callback cb);
+
+  /**
+   * Create a deletion operation for many keys on the same node.
+   *
+   * @param keys the keys to delete
+   * @param cb the status callback, told about the result of each key
+   * @return the new bulk delete operation
+   */
+  BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkWriteOperation.Callback cb);
+
   /**
    * Resets a keys expiration time.
    *
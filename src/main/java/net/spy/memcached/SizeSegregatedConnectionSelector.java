@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import net.spy.memcached.ops.Operation;
+
+/**
+ * ConnectionSelector which keeps large requests on a connection of their
+ * own.
+ *
+ * <p>Requests of at least the threshold size are sent over the last
+ * connection, all others are spread over the remaining ones in turn, so
+ * small operations never wait behind a large value. Modifications of a key
+ * only stay in order while its values stay on the same side of the
+ * threshold.</p>
+ */
+public class SizeSegregatedConnectionSelector
+  extends RoundRobinConnectionSelector {
+
+  /**
+   * The default size in bytes from which a request counts as large.
+   */
+  public static final int DEFAULT_THRESHOLD = 16384;
+
+  private final int threshold;
+
+  /**
+   * Construct a SizeSegregatedConnectionSelector with the default
+   * threshold.
+   */
+  public SizeSegregatedConnectionSelector() {
+    this(DEFAULT_THRESHOLD);
+  }
+
+  /**
+   * Construct a SizeSegregatedConnectionSelector.
+   *
+   * @param t the size in bytes from which a request counts as large
+   */
+  public SizeSegregatedConnectionSelector(int t) {
+    super();
+    assert t > 0 : "Threshold must be positive";
+    threshold = t;
+  }
+
+  @Override
+  public MemcachedNode select(List<MemcachedNode> connections, Operation op) {
+    int small = connections.size() - 1;
+    MemcachedNode large = connections.get(small);
+    ByteBuffer buf = op.getBuffer();
+    if (buf != null && buf.remaining() >= threshold && large.isActive()) {
+      return large;
+    }
+    String key = getOrderedKey(op);
+    if (key == null) {
+      return selectAny(connections, 0, small, op);
+    }
+    return selectForKey(connections, 0, small, key);
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Receives the values of a streaming bulk get as they arrive.
+ *
+ * <p>
+ * The methods are called from the IO thread reading the responses, so they
+ * should return quickly. Values of different nodes may be delivered
+ * concurrently.
+ * </p>
+ *
+ * @param <T> types of objects returned from the GET
+ */
+public interface BulkGetConsumer<T> {
+
+  /**
+   * Called for every key that was found.
+   *
+   * @param key the key that was found
+   * @param value the decoded value
+   */
+  void gotValue(String key, T value);
+
+  /**
+   * Called once a node has answered for all of its keys.
+   *
+   * @param node the node that completed
+   * @param status the status of the operation sent to the node
+   */
+  void nodeComplete(MemcachedNode node, OperationStatus status);
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.MemcachedClientIF;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationTimeoutException;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Iterates over the values of many keys while they are being fetched.
+ *
+ * <p>
+ * At most {@code capacity} values are fetched but not yet consumed at any
+ * time: the keys are requested in windows, and the next window is only sent
+ * once enough values have been consumed (or turned out to be missing). A
+ * slow consumer therefore slows down the fetching instead of piling up
+ * values in memory, and never blocks the IO thread.
+ * </p>
+ *
+ * <p>
+ * Values are handed out in the order they arrive and decoded on the
+ * consuming thread. This class is not thread safe.
+ * </p>
+ *
+ * @param <T> types of objects returned from the GET
+ */
+public class BulkGetIterator<T> implements Iterator<Map.Entry<String, T>> {
+
+  private final MemcachedClientIF client;
+  private final Iterator<String> keys;
+  private final Transcoder<T> tc;
+  private final Transcoder<CachedData> rawTranscoder;
+  private final int capacity;
+  private final long timeout;
+
+  // Holds fetched values and completed windows, added to by the IO threads.
+  private final BlockingQueue<Object> arrived =
+    new LinkedBlockingQueue<Object>();
+  private final List<Window> inFlight = new LinkedList<Window>();
+  private int budget;
+  private Map.Entry<String, T> next = null;
+
+  /**
+   * Create an iterator fetching the given keys.
+   *
+   * @param c the client to fetch the keys with
+   * @param k the keys to fetch
+   * @param t the transcoder to decode the values
+   * @param cap the maximum number of values fetched but not consumed yet
+   * @param to the time in milliseconds to wait for the next value
+   */
+  public BulkGetIterator(MemcachedClientIF c, Iterator<String> k,
+      Transcoder<T> t, int cap, long to) {
+    if (cap < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1");
+    }
+    client = c;
+    keys = k;
+    tc = t;
+    rawTranscoder = new RawTranscoder(t.getMaxSize());
+    capacity = cap;
+    budget = cap;
+    timeout = to;
+  }
+
+  public boolean hasNext() {
+    while (next == null) {
+      fetch();
+      if (inFlight.isEmpty() && arrived.isEmpty()) {
+        return false;
+      }
+      Object o;
+      try {
+        o = arrived.poll(timeout, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted getting bulk values", e);
+      }
+      if (o == null) {
+        timedOut();
+      } else if (o instanceof Window) {
+        completed((Window) o);
+      } else {
+        budget++;
+        @SuppressWarnings("unchecked")
+        Map.Entry<String, CachedData> raw = (Map.Entry<String, CachedData>) o;
+        next = new AbstractMap.SimpleImmutableEntry<String, T>(raw.getKey(),
+          tc.decode(raw.getValue()));
+      }
+    }
+    return true;
+  }
+
+  public Map.Entry<String, T> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Map.Entry<String, T> rv = next;
+    next = null;
+    return rv;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Request the next window of keys, if enough values have been consumed.
+   */
+  private void fetch() {
+    if (!keys.hasNext() || budget == 0
+        || (budget < capacity / 2 && !inFlight.isEmpty())) {
+      return;
+    }
+    List<String> window = new ArrayList<String>(budget);
+    while (keys.hasNext() && window.size() < budget) {
+      window.add(keys.next());
+    }
+    budget -= window.size();
+    Window w = new Window(arrived, window.size());
+    inFlight.add(w);
+    w.future = client.asyncGetBulkStream(window, rawTranscoder, w);
+    w.future.addListener(w);
+  }
+
+  private void completed(Window w) {
+    inFlight.remove(w);
+    budget += w.size - w.hits.get();
+    try {
+      w.future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted getting bulk values", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof CancellationException) {
+        throw (CancellationException) e.getCause();
+      } else {
+        throw new RuntimeException("Exception waiting for bulk values", e);
+      }
+    }
+  }
+
+  private void timedOut() {
+    for (Window w : inFlight) {
+      try {
+        w.future.get(0, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("Interrupted getting bulk values", e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException("Exception waiting for bulk values", e);
+      } catch (TimeoutException e) {
+        throw new OperationTimeoutException("Timeout waiting for bulk values: "
+          + timeout + " milliseconds", e);
+      }
+    }
+    throw new OperationTimeoutException("Timeout waiting for bulk values: "
+      + timeout + " milliseconds");
+  }
+
+  /**
+   * A group of keys requested together.
+   */
+  private static final class Window implements BulkGetConsumer<CachedData>,
+    BulkStreamCompletionListener {
+    private final BlockingQueue<Object> arrived;
+    private final int size;
+    private final AtomicInteger hits = new AtomicInteger();
+    private volatile BulkStreamFuture future;
+
+    private Window(BlockingQueue<Object> q, int s) {
+      arrived = q;
+      size = s;
+    }
+
+    public void gotValue(String key, CachedData value) {
+      hits.incrementAndGet();
+      arrived.add(new AbstractMap.SimpleImmutableEntry<String, CachedData>(
+        key, value));
+    }
+
+    public void nodeComplete(MemcachedNode node, OperationStatus status) {
+      // Only the completion of the whole window matters.
+    }
+
+    public void onComplete(BulkStreamFuture f) {
+      arrived.add(this);
+    }
+  }
+
+  /**
+   * Hands out the raw data, so it can be decoded on the consuming thread.
+   */
+  private static final class RawTranscoder
+    implements Transcoder<CachedData> {
+    private final int maxSize;
+
+    private RawTranscoder(int max) {
+      maxSize = max;
+    }
+
+    public boolean asyncDecode(CachedData d) {
+      return false;
+    }
+
+    public CachedData encode(CachedData o) {
+      return o;
+    }
+
+    public CachedData decode(CachedData d) {
+      return d;
+    }
+
+    public int getMaxSize() {
+      return maxSize;
+    }
+  }
+}
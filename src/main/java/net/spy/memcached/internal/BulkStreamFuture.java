@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Future for the completion of a streaming bulk get.
+ *
+ * <p>
+ * The values themselves are handed to a {@link BulkGetConsumer} as they
+ * arrive, so the result only tells whether every node answered
+ * successfully.
+ * </p>
+ *
+ * Not intended for general use.
+ */
+public class BulkStreamFuture
+  extends AbstractListenableFuture<Boolean, BulkStreamCompletionListener>
+  implements Future<Boolean> {
+
+  private final Collection<Operation> ops;
+  private final CountDownLatch latch;
+  private volatile OperationStatus status;
+  private boolean cancelled = false;
+
+  public BulkStreamFuture(Collection<Operation> getOps, CountDownLatch l,
+      ExecutorService service) {
+    super(service);
+    ops = getOps;
+    latch = l;
+    status = null;
+  }
+
+  public boolean cancel(boolean ign) {
+    boolean rv = false;
+    for (Operation op : ops) {
+      rv |= op.getState() == OperationState.WRITE_QUEUED;
+      op.cancel();
+    }
+    cancelled = true;
+    status = new OperationStatus(false, "Cancelled", StatusCode.CANCELLED);
+    notifyListeners();
+    return rv;
+  }
+
+  public Boolean get() throws InterruptedException, ExecutionException {
+    try {
+      return get(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting forever", e);
+    }
+  }
+
+  public Boolean get(long to, TimeUnit unit)
+    throws InterruptedException, ExecutionException, TimeoutException {
+    if (!latch.await(to, unit)) {
+      Collection<Operation> timedoutOps = new HashSet<Operation>();
+      for (Operation op : ops) {
+        if (op.getState() != OperationState.COMPLETE) {
+          MemcachedConnection.opTimedOut(op);
+          timedoutOps.add(op);
+        } else {
+          MemcachedConnection.opSucceeded(op);
+        }
+      }
+      if (timedoutOps.size() > 0) {
+        throw new CheckedOperationTimeoutException("Operation timed out.",
+            timedoutOps);
+      }
+    }
+    for (Operation op : ops) {
+      if (op.isCancelled()) {
+        throw new ExecutionException(new CancellationException("Cancelled"));
+      }
+      if (op.hasErrored()) {
+        throw new ExecutionException(op.getException());
+      }
+    }
+    return status == null || status.isSuccess();
+  }
+
+  /**
+   * Gets the status of the operation upon completion.
+   *
+   * <p>
+   * If a node failed, this is the status of the first failure.
+   * </p>
+   *
+   * @return the operation status.
+   */
+  public OperationStatus getStatus() {
+    if (status == null) {
+      try {
+        get();
+      } catch (InterruptedException e) {
+        status = new OperationStatus(false, "Interrupted",
+          StatusCode.INTERRUPTED);
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        return status;
+      }
+    }
+    return status;
+  }
+
+  /**
+   * Record the status of a node, keeping the first failure.
+   */
+  public synchronized void setStatus(OperationStatus s) {
+    if (status == null || status.isSuccess()) {
+      status = s;
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isDone() {
+    return latch.getCount() == 0;
+  }
+
+  @Override
+  public Future<Boolean> addListener(BulkStreamCompletionListener listener) {
+    super.addToListeners((GenericCompletionListener) listener);
+    return this;
+  }
+
+  @Override
+  public Future<Boolean> removeListener(
+    BulkStreamCompletionListener listener) {
+    super.removeFromListeners((GenericCompletionListener) listener);
+    return this;
+  }
+
+  /**
+   * Signals that this future is complete.
+   */
+  public void signalComplete() {
+    notifyListeners();
+  }
+
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+/**
+ * A callback run once a {@link DirectFuture} completes.
+ *
+ * <p>Callbacks run on the thread that completes the future, which is the IO
+ * thread unless the future was given an executor, so they must not block.
+ * Bridging to other future types is a matter of completing them from
+ * here.</p>
+ */
+public interface CompletionCallback<T> {
+
+  /**
+   * Called with the result of a successful operation.
+   *
+   * <p>A request the server rejected, such as an add of an existing key, is
+   * still successful in this sense: the result reflects the rejection.</p>
+   *
+   * @param result the result of the operation
+   */
+  void onSuccess(T result);
+
+  /**
+   * Called when the operation was cancelled, timed out or failed.
+   *
+   * @param cause the reason the operation has no result
+   */
+  void onFailure(Throwable cause);
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.MemcachedConnection;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A future completed directly by the callback of its operations.
+ *
+ * <p>Unlike {@link OperationFuture}, this needs no latch or reference per
+ * operation: the result is handed over under the future's own monitor, and
+ * {@link CompletionCallback}s run right away on the completing thread. That
+ * is the IO thread, or the executor given at construction time, which then
+ * also decodes the value.</p>
+ *
+ * @param <T> Type of object returned from this future.
+ */
+public class DirectFuture<T> extends SpyObject implements Future<T> {
+
+  private final long timeout;
+  private final Executor executor;
+  private Collection<Operation> ops = Collections.emptyList();
+
+  // Written by the completing thread before signalComplete().
+  private T value;
+  private CachedData data;
+  private Transcoder<T> tc;
+  private volatile OperationStatus status;
+
+  // Guarded by this.
+  private boolean done;
+  private T result;
+  private Throwable failure;
+  private List<CompletionCallback<? super T>> callbacks;
+
+  /**
+   * Create a DirectFuture.
+   *
+   * This is intended for internal use only.
+   *
+   * @param opTimeout the time get() waits for the result in milliseconds
+   * @param e the executor completing the future, or null to complete it on
+   *          the thread that signals the completion
+   */
+  public DirectFuture(long opTimeout, Executor e) {
+    timeout = opTimeout;
+    executor = e;
+  }
+
+  /**
+   * Set the Operation this future tracks.
+   *
+   * This is intended for internal use only.
+   */
+  public void setOperation(Operation o) {
+    ops = Collections.singletonList(o);
+  }
+
+  /**
+   * Set the Operations this future tracks, if there is more than one.
+   *
+   * This is intended for internal use only.
+   */
+  public void setOperations(Collection<Operation> o) {
+    ops = o;
+  }
+
+  /**
+   * Set the result of the operation.
+   *
+   * This is intended for internal use only.
+   */
+  public void set(T o, OperationStatus s) {
+    value = o;
+    status = s;
+  }
+
+  /**
+   * Set the encoded result of the operation, to be decoded when the future
+   * completes.
+   *
+   * This is intended for internal use only.
+   */
+  public void set(CachedData d, Transcoder<T> t) {
+    data = d;
+    tc = t;
+  }
+
+  /**
+   * Set the status of the operation, keeping the result.
+   *
+   * This is intended for internal use only.
+   */
+  public void setStatus(OperationStatus s) {
+    status = s;
+  }
+
+  /**
+   * Complete the future, on the executor if there is one.
+   *
+   * Only the first call has an effect. This is intended for internal use
+   * only.
+   */
+  public void signalComplete() {
+    if (executor == null) {
+      complete();
+    } else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          complete();
+        }
+      });
+    }
+  }
+
+  /**
+   * Fail the future without an operation result, for example because a
+   * locally cached value could not be decoded.
+   *
+   * This is intended for internal use only.
+   */
+  public void fail(Throwable cause) {
+    finish(null, cause);
+  }
+
+  private void complete() {
+    Throwable cause = null;
+    T rv = null;
+    for (Operation op : ops) {
+      if (op.isCancelled()) {
+        cause = new CancellationException("Cancelled");
+      } else if (op.hasErrored()) {
+        cause = op.getException();
+      } else if (op.isTimedOut()) {
+        cause = new CheckedOperationTimeoutException("Operation timed out.",
+          op);
+      }
+      if (cause != null) {
+        break;
+      }
+    }
+    if (cause == null) {
+      try {
+        rv = data == null ? value : tc.decode(data);
+      } catch (RuntimeException e) {
+        cause = e;
+      }
+    }
+    finish(rv, cause);
+  }
+
+  private void finish(T rv, Throwable cause) {
+    List<CompletionCallback<? super T>> toRun;
+    synchronized (this) {
+      if (done) {
+        return;
+      }
+      done = true;
+      result = rv;
+      failure = cause;
+      toRun = callbacks;
+      callbacks = null;
+      notifyAll();
+    }
+    if (toRun != null) {
+      for (CompletionCallback<? super T> cb : toRun) {
+        run(cb, rv, cause);
+      }
+    }
+  }
+
+  private void run(CompletionCallback<? super T> cb, T rv, Throwable cause) {
+    try {
+      if (cause == null) {
+        cb.onSuccess(rv);
+      } else {
+        cb.onFailure(cause);
+      }
+    } catch (RuntimeException e) {
+      getLogger().warn("Exception thrown by completion callback", e);
+    }
+  }
+
+  /**
+   * Add a callback to run once this future completes.
+   *
+   * <p>If the future has already completed, the callback runs right away on
+   * the calling thread.</p>
+   *
+   * @param cb the callback
+   * @return this future
+   */
+  public DirectFuture<T> addCallback(CompletionCallback<? super T> cb) {
+    T rv;
+    Throwable cause;
+    synchronized (this) {
+      if (!done) {
+        if (callbacks == null) {
+          callbacks = new ArrayList<CompletionCallback<? super T>>(1);
+        }
+        callbacks.add(cb);
+        return this;
+      }
+      rv = result;
+      cause = failure;
+    }
+    run(cb, rv, cause);
+    return this;
+  }
+
+  /**
+   * Cancel the operations of this future, if possible.
+   *
+   * @param ign not used
+   * @return true if the operations had not been written to the network yet
+   */
+  @Override
+  public boolean cancel(boolean ign) {
+    boolean rv = !ops.isEmpty();
+    for (Operation op : ops) {
+      op.cancel();
+      rv &= op.getState() == OperationState.WRITE_QUEUED;
+    }
+    return rv;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    for (Operation op : ops) {
+      if (op.isCancelled()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return done;
+  }
+
+  /**
+   * Get the result of the operation, waiting at most the operation timeout.
+   */
+  @Override
+  public T get() throws InterruptedException, ExecutionException {
+    try {
+      return get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      throw new RuntimeException("Timed out waiting for operation", e);
+    }
+  }
+
+  @Override
+  public T get(long duration, TimeUnit units) throws InterruptedException,
+      TimeoutException, ExecutionException {
+    long deadline = System.nanoTime() + units.toNanos(duration);
+    synchronized (this) {
+      while (!done) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          break;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+    }
+    if (!isDone()) {
+      for (Operation op : ops) {
+        MemcachedConnection.opTimedOut(op);
+        op.timeOut();
+      }
+      throw new CheckedOperationTimeoutException(
+        "Timed out waiting for operation", ops);
+    }
+    for (Operation op : ops) {
+      if (!op.isTimedOut()) {
+        MemcachedConnection.opSucceeded(op);
+      }
+    }
+    synchronized (this) {
+      if (failure != null) {
+        throw new ExecutionException(failure);
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Get the status of the operation, waiting for it to complete.
+   *
+   * The interrupted status of the current thread is cleared by this method.
+   * Inspect the returned OperationStatus to check whether an interruption has
+   * taken place.
+   */
+  public OperationStatus getStatus() {
+    try {
+      get();
+    } catch (InterruptedException e) {
+      return new OperationStatus(false, "Interrupted", StatusCode.INTERRUPTED);
+    } catch (ExecutionException e) {
+      getLogger().debug("Error getting status of operation", e);
+    }
+    return status;
+  }
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+/**
+ * A compact, approximate counter of how often keys have been seen recently.
+ *
+ * <p>This is a count-min sketch with 4-bit counters, as used by TinyLFU:
+ * every key maps to one counter in each of four rows and its frequency is
+ * the smallest of those counters. Once a number of increments proportional
+ * to the size of the sketch has been recorded, all counters are halved, so
+ * keys that used to be popular fade out over time.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+final class FrequencySketch {
+
+  private static final long[] SEEDS = {
+    0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+    0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+  };
+
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private static final int MAX_COUNT = 15;
+
+  /**
+   * Every long holds sixteen 4-bit counters.
+   */
+  private final long[] table;
+  private final int tableMask;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   * Create a sketch sized for the given number of distinct keys.
+   *
+   * @param expectedKeys the number of keys that are expected to be tracked
+   */
+  FrequencySketch(int expectedKeys) {
+    int size = 16;
+    while (size < expectedKeys && size < (1 << 30)) {
+      size <<= 1;
+    }
+    table = new long[size];
+    tableMask = size - 1;
+    sampleSize = size * 10;
+  }
+
+  /**
+   * Returns the estimated number of times the key has been seen, up to 15.
+   */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records one occurrence of the key.
+   */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++additions == sampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((table[index] & mask) != mask) {
+      table[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Halves all counters, which lets the sketch forget old history.
+   */
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    additions >>>= 1;
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return ((int) h) & tableMask;
+  }
+
+  private static int spread(int h) {
+    h = ((h >>> 16) ^ h) * 0x45d9f3b;
+    h = ((h >>> 16) ^ h) * 0x45d9f3b;
+    return (h >>> 16) ^ h;
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the most recent latencies of an operation and estimates one of
+ * their percentiles.
+ *
+ * <p>Recording is a single array store, so it is cheap enough to do for
+ * every operation. The percentile is computed from a sorted copy of the
+ * samples, at most a few times per second.</p>
+ */
+public class LatencyWindow {
+
+  private static final int MIN_SAMPLES = 100;
+  private static final long REFRESH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(
+      100);
+
+  private final long[] samples;
+  private final AtomicInteger recorded = new AtomicInteger();
+  private final double percentile;
+  private volatile long value = -1;
+  private volatile long computedAt;
+
+  /**
+   * Create a window.
+   *
+   * @param size the number of latencies to keep
+   * @param pct the percentile to estimate, between 0 and 100
+   */
+  public LatencyWindow(int size, double pct) {
+    samples = new long[size];
+    percentile = pct;
+  }
+
+  /**
+   * Record a latency.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    int i = recorded.getAndIncrement() & Integer.MAX_VALUE;
+    samples[i % samples.length] = nanos;
+  }
+
+  /**
+   * Returns the number of latencies recorded so far.
+   */
+  public int getCount() {
+    return recorded.get() & Integer.MAX_VALUE;
+  }
+
+  /**
+   * Returns the estimated percentile in nanoseconds, or -1 if not enough
+   * latencies have been recorded yet.
+   */
+  public long getPercentile() {
+    long now = System.nanoTime();
+    if (value >= 0 && now - computedAt < REFRESH_INTERVAL) {
+      return value;
+    }
+    int count = Math.min(recorded.get() & Integer.MAX_VALUE, samples.length);
+    if (count < MIN_SAMPLES) {
+      return -1;
+    }
+    long[] sorted = Arrays.copyOf(samples, count);
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    value = sorted[Math.max(0, Math.min(count - 1, index))];
+    computedAt = now;
+    return value;
+  }
+}
@@ -0,0 +1,354 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.metrics.CounterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricHandles;
+import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.metrics.NoopMetricCollector;
+import net.spy.memcached.transcoders.TranscodeService;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * A small in-process cache in front of memcached for values read very often.
+ *
+ * <p>The cache is bounded by the number of bytes of the values it holds and
+ * split into segments, each guarded by its own lock and evicting in least
+ * recently used order. A new value is only admitted into a full segment if
+ * its key has been read more often than the keys it would evict, as
+ * estimated by a {@link FrequencySketch} (TinyLFU admission). This keeps a
+ * burst of keys that are read once from pushing out the hot ones.</p>
+ *
+ * <p>Entries are dropped after a fixed time, or earlier if their memcached
+ * expiration is known to be shorter. Every segment counts the invalidations
+ * it has seen, so a value fetched by a read that raced with a write of the
+ * same key is not cached.</p>
+ */
+public class NearCache {
+
+  static final String HIT_METRIC = "[MEM] Near Cache Hits";
+  static final String MISS_METRIC = "[MEM] Near Cache Misses";
+  static final String EVICTION_METRIC = "[MEM] Near Cache Evictions";
+
+  /**
+   * Rough number of bytes of bookkeeping per entry, on top of key and value.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * Expiration values above this are absolute unix timestamps.
+   */
+  private static final int MAX_RELATIVE_EXPIRATION = 60 * 60 * 24 * 30;
+
+  private static final int MAX_SEGMENTS = 16;
+  private static final long MIN_SEGMENT_SIZE = 64 * 1024;
+
+  private final Segment[] segments;
+  private final long ttl;
+  private final boolean storeDecoded;
+  private final TranscodeService tcService;
+  private final CounterHandle hits;
+  private final CounterHandle misses;
+  private final CounterHandle evictions;
+
+  /**
+   * Create a near cache.
+   *
+   * @param maxBytes the number of bytes the cache may hold
+   * @param ttlMillis the maximum number of milliseconds an entry is kept
+   * @param decoded true to keep decoded objects instead of encoded data
+   * @param tcs the service used to decode values
+   * @param collector the metric collector to report to
+   * @param type the active metric type
+   */
+  public NearCache(long maxBytes, long ttlMillis, boolean decoded,
+      TranscodeService tcs, MetricCollector collector, MetricType type) {
+    int count = 1;
+    while (count < MAX_SEGMENTS && maxBytes / (count * 2) >= MIN_SEGMENT_SIZE) {
+      count *= 2;
+    }
+    segments = new Segment[count];
+    for (int i = 0; i < count; i++) {
+      segments[i] = new Segment(maxBytes / count);
+    }
+    ttl = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    storeDecoded = decoded;
+    tcService = tcs;
+
+    if (type.equals(MetricType.DEBUG) || type.equals(MetricType.PERFORMANCE)) {
+      hits = MetricHandles.counter(collector, HIT_METRIC);
+      misses = MetricHandles.counter(collector, MISS_METRIC);
+      evictions = MetricHandles.counter(collector, EVICTION_METRIC);
+    } else {
+      hits = NoopMetricCollector.NOOP_COUNTER;
+      misses = NoopMetricCollector.NOOP_COUNTER;
+      evictions = NoopMetricCollector.NOOP_COUNTER;
+    }
+  }
+
+  /**
+   * Look up a key.
+   *
+   * @param key the key to look up
+   * @param tc the transcoder the caller wants the value decoded with
+   * @return a future holding the value, or null if the key is not cached
+   */
+  @SuppressWarnings("unchecked")
+  public <T> Future<T> get(String key, Transcoder<T> tc) {
+    Segment segment = segmentFor(key);
+    long now = System.nanoTime();
+    Entry entry;
+    synchronized (segment) {
+      segment.sketch.increment(key);
+      entry = segment.map.get(key);
+      if (entry != null && entry.expiresAt - now <= 0) {
+        segment.remove(key);
+        entry = null;
+      }
+    }
+
+    if (entry == null || (storeDecoded && entry.transcoder != tc)) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    if (storeDecoded) {
+      return (Future<T>) entry.value;
+    }
+    return tcService.decode(tc, (CachedData) entry.value);
+  }
+
+  /**
+   * Returns the invalidation count of the segment the key belongs to.
+   *
+   * <p>Reads fetch this before they are sent and pass it to
+   * {@link #putIfUnchanged} once the value arrived.</p>
+   */
+  public long generation(String key) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      return segment.generation;
+    }
+  }
+
+  /**
+   * Cache a value that has been read from memcached, unless the key's
+   * segment has been invalidated since the read was sent.
+   *
+   * @param key the key that was read
+   * @param generation the value of {@link #generation} before the read
+   * @param data the data returned by the server
+   * @param value the value decoded from the data
+   * @param tc the transcoder the value was decoded with
+   */
+  public <T> void putIfUnchanged(String key, long generation, CachedData data,
+      Future<T> value, Transcoder<T> tc) {
+    put(key, generation, data, storeDecoded ? value : data, tc, 0);
+  }
+
+  /**
+   * Cache a value this client has successfully stored in memcached.
+   *
+   * @param key the key that was stored
+   * @param exp the expiration the value was stored with
+   * @param data the data that was stored
+   * @param tc the transcoder the data was encoded with
+   */
+  public <T> void put(String key, int exp, CachedData data, Transcoder<T> tc) {
+    put(key, -1, data, storeDecoded ? tcService.decode(tc, data) : data, tc,
+        exp);
+  }
+
+  /**
+   * Drop a key because it is about to be modified.
+   */
+  public void invalidate(String key) {
+    Segment segment = segmentFor(key);
+    synchronized (segment) {
+      segment.generation++;
+      segment.remove(key);
+    }
+  }
+
+  /**
+   * Drop all keys.
+   */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.generation++;
+        segment.map.clear();
+        segment.weight = 0;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of cached entries, including expired ones not yet
+   * dropped.
+   */
+  int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.map.size();
+      }
+    }
+    return size;
+  }
+
+  private void put(String key, long generation, CachedData data, Object value,
+      Transcoder<?> tc, int exp) {
+    long now = System.nanoTime();
+    long lifetime = lifetime(exp);
+    if (lifetime <= 0) {
+      return;
+    }
+    Entry entry = new Entry(value, tc, ENTRY_OVERHEAD + key.length() * 2
+        + data.getData().length, now + lifetime);
+
+    Segment segment = segmentFor(key);
+    int evicted;
+    synchronized (segment) {
+      if (generation >= 0 && generation != segment.generation) {
+        return;
+      }
+      evicted = segment.admit(key, entry, now);
+    }
+    if (evicted > 0) {
+      evictions.increment(evicted);
+    }
+  }
+
+  /**
+   * Returns the number of nanoseconds a value stored with the given
+   * expiration may be cached.
+   */
+  private long lifetime(int exp) {
+    if (exp == 0) {
+      return ttl;
+    } else if (exp < 0) {
+      return 0;
+    } else if (exp <= MAX_RELATIVE_EXPIRATION) {
+      return Math.min(ttl, TimeUnit.SECONDS.toNanos(exp));
+    }
+    long remaining = TimeUnit.SECONDS.toMillis(exp) - System.currentTimeMillis();
+    return Math.min(ttl, TimeUnit.MILLISECONDS.toNanos(remaining));
+  }
+
+  private Segment segmentFor(String key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return segments[h & (segments.length - 1)];
+  }
+
+  private static final class Entry {
+    private final Object value;
+    private final Transcoder<?> transcoder;
+    private final int weight;
+    private final long expiresAt;
+
+    private Entry(Object v, Transcoder<?> tc, int w, long e) {
+      value = v;
+      transcoder = tc;
+      weight = w;
+      expiresAt = e;
+    }
+  }
+
+  private static final class Segment {
+    private final LinkedHashMap<String, Entry> map =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+    private final long capacity;
+    private long weight;
+    private long generation;
+
+    private Segment(long cap) {
+      capacity = cap;
+      sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE,
+          cap / 256));
+    }
+
+    private void remove(String key) {
+      Entry old = map.remove(key);
+      if (old != null) {
+        weight -= old.weight;
+      }
+    }
+
+    /**
+     * Insert an entry, making room by evicting from the least recently used
+     * end if the new key is more popular than the ones it displaces.
+     *
+     * @return the number of live entries evicted
+     */
+    private int admit(String key, Entry entry, long now) {
+      boolean replacing = map.containsKey(key);
+      remove(key);
+      if (entry.weight > capacity) {
+        return 0;
+      }
+
+      long excess = weight + entry.weight - capacity;
+      List<String> victims = new ArrayList<String>();
+      int evicted = 0;
+      int frequency = -1;
+      Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+      while (excess > 0) {
+        Map.Entry<String, Entry> victim = it.next();
+        if (victim.getValue().expiresAt - now > 0) {
+          if (!replacing) {
+            if (frequency < 0) {
+              frequency = sketch.frequency(key);
+            }
+            if (frequency <= sketch.frequency(victim.getKey())) {
+              return 0;
+            }
+          }
+          evicted++;
+        }
+        victims.add(victim.getKey());
+        excess -= victim.getValue().weight;
+      }
+
+      for (String victim : victims) {
+        remove(victim);
+      }
+      map.put(key, entry);
+      weight += entry.weight;
+      return evicted;
+    }
+  }
+}
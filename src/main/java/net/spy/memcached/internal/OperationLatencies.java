@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.metrics.AbstractMetricCollector;
+import net.spy.memcached.metrics.LatencyHistogram;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.ops.CASOperation;
+import net.spy.memcached.ops.ConcatenationOperation;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetlOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.MutatorOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.ReplicaGetOperation;
+import net.spy.memcached.ops.ReplicaGetsOperation;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.TouchOperation;
+
+/**
+ * Records the latencies of completed operations per node, per type of
+ * operation and per phase in {@link LatencyHistogram}s.
+ *
+ * <p>Every operation is split into three phases: from its creation until
+ * it has been written (the time spent in the queues and on writing), from
+ * then until the first bytes of the response were read (the time on the
+ * network and in the server), and from then until the response has been
+ * read completely. Connections to the same address share their
+ * histograms.</p>
+ *
+ * <p>Recording does not allocate once the histograms of a node and type
+ * exist. They are added to the {@link MetricCollector} when they are
+ * created.</p>
+ */
+public class OperationLatencies extends SpyObject {
+
+  static final String METRIC_PREFIX = "[MEM] Latency (us) ";
+
+  /**
+   * The types of operations which are recorded separately.
+   */
+  public enum OpType {
+    GET, STORE, DELETE, MUTATE, TOUCH, OTHER
+  }
+
+  /**
+   * The phases of an operation.
+   */
+  public enum Phase {
+    /**
+     * From the creation until the operation has been written.
+     */
+    QUEUE,
+    /**
+     * From the end of the write until the first bytes of the response.
+     */
+    WIRE,
+    /**
+     * From the first until the last bytes of the response.
+     */
+    READ
+  }
+
+  private static final OpType[] TYPES = OpType.values();
+  private static final Phase[] PHASES = Phase.values();
+
+  private final ConcurrentMap<SocketAddress,
+    AtomicReferenceArray<LatencyHistogram[]>> nodes =
+      new ConcurrentHashMap<SocketAddress,
+        AtomicReferenceArray<LatencyHistogram[]>>();
+  private final MetricCollector metrics;
+  private Map<String, LatencyHistogram.Snapshot> logged =
+    new HashMap<String, LatencyHistogram.Snapshot>();
+
+  /**
+   * Create the latencies.
+   *
+   * @param collector the metric collector new histograms are added to
+   */
+  public OperationLatencies(MetricCollector collector) {
+    metrics = collector;
+  }
+
+  /**
+   * Record the phases of a completed operation.
+   *
+   * Operations which have not been written or of which no response was read
+   * are ignored.
+   *
+   * @param op the operation
+   * @param now the value of {@link System#nanoTime()} at its completion
+   */
+  public void record(Operation op, long now) {
+    MemcachedNode node = op.getHandlingNode();
+    long written = op.getWriteCompleteTimestamp();
+    long firstByte = op.getFirstByteTimestamp();
+    if (node == null || written == 0 || firstByte == 0) {
+      return;
+    }
+    LatencyHistogram[] phases = histograms(node.getSocketAddress(),
+      typeOf(op));
+    phases[Phase.QUEUE.ordinal()].record(
+      TimeUnit.NANOSECONDS.toMicros(written - op.getCreationTimestamp()));
+    phases[Phase.WIRE.ordinal()].record(
+      TimeUnit.NANOSECONDS.toMicros(firstByte - written));
+    phases[Phase.READ.ordinal()].record(
+      TimeUnit.NANOSECONDS.toMicros(now - firstByte));
+  }
+
+  /**
+   * Get the histogram of one phase of a type of operations on a node.
+   *
+   * @param address the address of the node
+   * @param type the type of operations
+   * @param phase the phase
+   * @return the histogram, or null if no such operation has completed yet
+   */
+  public LatencyHistogram getHistogram(SocketAddress address, OpType type,
+    Phase phase) {
+    AtomicReferenceArray<LatencyHistogram[]> types = nodes.get(address);
+    LatencyHistogram[] phases = types == null ? null
+      : types.get(type.ordinal());
+    return phases == null ? null : phases[phase.ordinal()];
+  }
+
+  /**
+   * Take a snapshot of all histograms.
+   *
+   * @return the snapshots, keyed by address, type and phase
+   */
+  public Map<String, LatencyHistogram.Snapshot> snapshot() {
+    Map<String, LatencyHistogram.Snapshot> rv =
+      new TreeMap<String, LatencyHistogram.Snapshot>();
+    for (Map.Entry<SocketAddress, AtomicReferenceArray<LatencyHistogram[]>> e
+      : nodes.entrySet()) {
+      for (OpType type : TYPES) {
+        LatencyHistogram[] phases = e.getValue().get(type.ordinal());
+        if (phases != null) {
+          for (Phase phase : PHASES) {
+            rv.put(name(e.getKey(), type, phase),
+              phases[phase.ordinal()].snapshot());
+          }
+        }
+      }
+    }
+    return rv;
+  }
+
+  /**
+   * Log the latencies of the operations completed since the last call.
+   *
+   * This must not be called by more than one thread at a time.
+   */
+  public void logInterval() {
+    Map<String, LatencyHistogram.Snapshot> current = snapshot();
+    for (Map.Entry<String, LatencyHistogram.Snapshot> e : current.entrySet()) {
+      LatencyHistogram.Snapshot last = logged.get(e.getKey());
+      LatencyHistogram.Snapshot interval = last == null ? e.getValue()
+        : e.getValue().since(last);
+      if (interval.getCount() > 0) {
+        getLogger().info("Latency (us) of %s: %s", e.getKey(), interval);
+      }
+    }
+    logged = current;
+  }
+
+  private LatencyHistogram[] histograms(SocketAddress address, OpType type) {
+    AtomicReferenceArray<LatencyHistogram[]> types = nodes.get(address);
+    if (types == null) {
+      types = new AtomicReferenceArray<LatencyHistogram[]>(TYPES.length);
+      AtomicReferenceArray<LatencyHistogram[]> existing =
+        nodes.putIfAbsent(address, types);
+      if (existing != null) {
+        types = existing;
+      }
+    }
+    LatencyHistogram[] phases = types.get(type.ordinal());
+    if (phases == null) {
+      phases = new LatencyHistogram[PHASES.length];
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new LatencyHistogram();
+      }
+      if (types.compareAndSet(type.ordinal(), null, phases)) {
+        // Only our own collectors know how to report a latency histogram.
+        if (metrics instanceof AbstractMetricCollector) {
+          for (Phase phase : PHASES) {
+            ((AbstractMetricCollector) metrics).addLatencyHistogram(
+              METRIC_PREFIX + name(address, type, phase),
+              phases[phase.ordinal()]);
+          }
+        }
+      } else {
+        phases = types.get(type.ordinal());
+      }
+    }
+    return phases;
+  }
+
+  private static String name(SocketAddress address, OpType type,
+    Phase phase) {
+    return address + " " + type.name().toLowerCase() + " "
+      + phase.name().toLowerCase();
+  }
+
+  /**
+   * Get the type an operation is recorded as.
+   *
+   * @param op the operation
+   * @return its type
+   */
+  public static OpType typeOf(Operation op) {
+    if (op instanceof GetOperation || op instanceof GetsOperation
+      || op instanceof GetAndTouchOperation || op instanceof GetlOperation
+      || op instanceof ReplicaGetOperation
+      || op instanceof ReplicaGetsOperation) {
+      return OpType.GET;
+    } else if (op instanceof StoreOperation || op instanceof CASOperation
+      || op instanceof ConcatenationOperation) {
+      return OpType.STORE;
+    } else if (op instanceof DeleteOperation) {
+      return OpType.DELETE;
+    } else if (op instanceof MutatorOperation) {
+      return OpType.MUTATE;
+    } else if (op instanceof TouchOperation) {
+      return OpType.TOUCH;
+    }
+    return OpType.OTHER;
+  }
+}
@@ -37,4 +37,69 @@ public abstract class AbstractMetricCollector  implements MetricCollector {
     incrementCounter(name, 1);
   }
 
+  /**
+   * Add a Counter to the collector and get a handle which updates it by its
+   * name.
+   *
+   * Collectors holding their counters in objects should override this to
+   * hand out the objects themselves. The handle keeps updating the same
+   * counter even if it is removed from the collector later.
+   *
+   * @param name the name of the counter.
+   * @return the handle of the counter.
+   * @see MetricHandles#counter(MetricCollector, String)
+   */
+  public CounterHandle counter(String name) {
+    return MetricHandles.counterByName(this, name);
+  }
+
+  /**
+   * Add a Meter to the collector and get a handle to mark it.
+   *
+   * @param name the name of the meter.
+   * @return the handle of the meter.
+   */
+  public MeterHandle meter(String name) {
+    return MetricHandles.meterByName(this, name);
+  }
+
+  /**
+   * Add a Histogram to the collector and get a handle to update it, with the
+   * default sample rate of the collector.
+   *
+   * @param name the name of the histogram.
+   * @return the handle of the histogram.
+   */
+  public HistogramHandle histogram(String name) {
+    return histogram(name, 1);
+  }
+
+  /**
+   * Add a Histogram to the collector and get a handle recording one in
+   * every {@code sampleRate} updates.
+   *
+   * @param name the name of the histogram.
+   * @param sampleRate record every n-th update, 1 records all of them.
+   * @return the handle of the histogram.
+   */
+  public HistogramHandle histogram(String name, int sampleRate) {
+    return MetricHandles.histogramByName(this, name, sampleRate);
+  }
+
+  /**
+   * Add a {@link LatencyHistogram} which is updated by its owner to the
+   * collector.
+   *
+   * The collector only reads the histogram, typically by reporting some of
+   * its percentiles whenever the other metrics are reported. This one
+   * ignores it; collectors which can report values other than their own
+   * metrics should override this.
+   *
+   * @param name the name of the histogram.
+   * @param histogram the histogram.
+   */
+  public void addLatencyHistogram(String name, LatencyHistogram histogram) {
+    return;
+  }
+
 }
@@ -38,6 +38,8 @@ import java.util.concurrent.TimeUnit;
  * - net.spy.metrics.reporter.type = console (console/jmx/csv/slf4j)
  * - net.spy.metrics.reporter.interval = 30 (time interval to log)
  * - net.spy.metrics.reporter.outdir = ~/mydir (output dir for csv reporter)
+ * - net.spy.metrics.histogram.sampleRate = 1 (record every n-th update of
+ *   histogram handles)
  * </pre>
  */
 public final class DefaultMetricCollector extends AbstractMetricCollector {
@@ -57,6 +59,11 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
    */
   public static final String DEFAULT_REPORTER_OUTDIR = "";
 
+  /**
+   * Record every update of histogram handles by default.
+   */
+  public static final String DEFAULT_HISTOGRAM_SAMPLE_RATE = "1";
+
   /**
    * Holds the registry where all metrics are stored.
    */
@@ -77,6 +84,11 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
    */
   private ConcurrentHashMap<String, Histogram> histograms;
 
+  /**
+   * The sample rate of histogram handles which do not set their own.
+   */
+  private final int histogramSampleRate;
+
   /**
    * Create a new {@link DefaultMetricCollector}.
    *
@@ -88,6 +100,8 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
     counters = new ConcurrentHashMap<String, Counter>();
     meters = new ConcurrentHashMap<String, Meter>();
     histograms = new ConcurrentHashMap<String, Histogram>();
+    histogramSampleRate = Integer.parseInt(System.getProperty(
+      "net.spy.metrics.histogram.sampleRate", DEFAULT_HISTOGRAM_SAMPLE_RATE));
 
     initReporter();
   }
@@ -203,4 +217,96 @@ public final class DefaultMetricCollector extends AbstractMetricCollector {
       histograms.get(name).update(amount);
     }
   }
+
+  @Override
+  public CounterHandle counter(String name) {
+    addCounter(name);
+    final Counter counter = counters.get(name);
+    return new CounterHandle() {
+      @Override
+      public void increment() {
+        counter.inc();
+      }
+
+      @Override
+      public void increment(int amount) {
+        counter.inc(amount);
+      }
+
+      @Override
+      public void decrement() {
+        counter.dec();
+      }
+
+      @Override
+      public void decrement(int amount) {
+        counter.dec(amount);
+      }
+    };
+  }
+
+  @Override
+  public MeterHandle meter(String name) {
+    addMeter(name);
+    final Meter meter = meters.get(name);
+    return new MeterHandle() {
+      @Override
+      public void mark() {
+        meter.mark();
+      }
+    };
+  }
+
+  @Override
+  public HistogramHandle histogram(String name) {
+    return histogram(name, histogramSampleRate);
+  }
+
+  @Override
+  public HistogramHandle histogram(String name, int sampleRate) {
+    addHistogram(name);
+    final Histogram histogram = histograms.get(name);
+    return new SampledHistogramHandle(sampleRate) {
+      @Override
+      void record(int amount) {
+        histogram.update(amount);
+      }
+    };
+  }
+
+  /**
+   * Register gauges for the count, the median, the 99th and 99.9th
+   * percentile and the maximum of the histogram, named by appending those to
+   * the given name.
+   *
+   * If a histogram with the same name has been added before, this one is
+   * ignored.
+   */
+  @Override
+  public synchronized void addLatencyHistogram(String name,
+    final LatencyHistogram histogram) {
+    if (registry.getNames().contains(name + " count")) {
+      return;
+    }
+    registerPercentile(name + " p50", histogram, 50);
+    registerPercentile(name + " p99", histogram, 99);
+    registerPercentile(name + " p99.9", histogram, 99.9);
+    registerPercentile(name + " max", histogram, 100);
+    registry.register(name + " count", new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return histogram.snapshot().getCount();
+      }
+    });
+  }
+
+  private void registerPercentile(String name,
+    final LatencyHistogram histogram, final double percentile) {
+    registry.register(name, new Gauge<Long>() {
+      @Override
+      public Long getValue() {
+        return histogram.snapshot().getValueAtPercentile(percentile);
+      }
+    });
+  }
 }
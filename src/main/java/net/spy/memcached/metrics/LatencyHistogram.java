@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies with a fixed relative precision over a high
+ * dynamic range.
+ *
+ * <p>Values are counted in buckets whose width grows with the magnitude of
+ * the value: all values below 64 have their own bucket, above that every
+ * power of two is split into 32 buckets. Every recorded value is therefore
+ * reported within about 3% of its real value, from single microseconds up
+ * to days, in less than 10KB.</p>
+ *
+ * <p>Unlike the sampling reservoirs of regular histograms, recording never
+ * allocates and never loses the outliers, which makes it suitable for the
+ * IO threads and for high percentiles. It may be updated by any number of
+ * threads concurrently.</p>
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final int HALF_BUCKETS = SUB_BUCKETS >> 1;
+
+  /**
+   * The largest value which is recorded on its own, larger values are
+   * recorded as this one.
+   */
+  public static final long MAX_VALUE = (1L << 40) - 1;
+
+  private static final int BUCKETS = index(MAX_VALUE) + 1;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Record a value.
+   *
+   * @param value the value, negative ones are recorded as zero.
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    counts.incrementAndGet(index(value));
+    long current = max.get();
+    while (value > current && !max.compareAndSet(current, value)) {
+      current = max.get();
+    }
+  }
+
+  /**
+   * Take a copy of the values recorded so far.
+   *
+   * Values recorded while the copy is taken may or may not be part of it.
+   *
+   * @return the snapshot.
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      copy[i] = counts.get(i);
+      count += copy[i];
+    }
+    return new Snapshot(copy, count, max.get());
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+  }
+
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int shift = (index >> (SUB_BUCKET_BITS - 1)) - 1;
+    long lowest = (long) (index - (shift << (SUB_BUCKET_BITS - 1))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /**
+   * The values of a {@link LatencyHistogram} at one point in time.
+   */
+  public static final class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long max;
+
+    private Snapshot(long[] c, long total, long highest) {
+      counts = c;
+      count = total;
+      max = highest;
+    }
+
+    /**
+     * The number of recorded values.
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * The largest recorded value, or zero if none was recorded.
+     */
+    public long getMax() {
+      return max;
+    }
+
+    /**
+     * The mean of the recorded values, within the precision of the buckets.
+     */
+    public double getMean() {
+      if (count == 0) {
+        return 0;
+      }
+      double sum = 0;
+      for (int i = 0; i < counts.length; i++) {
+        if (counts[i] > 0) {
+          sum += (double) counts[i] * Math.min(highestValue(i), max);
+        }
+      }
+      return sum / count;
+    }
+
+    /**
+     * The value which the given percentage of recorded values does not
+     * exceed.
+     *
+     * @param percentile the percentage, between 0 and 100.
+     * @return the value, or zero if none was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Percentile must be between 0 and "
+          + "100, not " + percentile);
+      }
+      if (count == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(highestValue(i), max);
+        }
+      }
+      return max;
+    }
+
+    /**
+     * The values recorded between an earlier snapshot of the same histogram
+     * and this one.
+     *
+     * The largest value of the interval is only known within the precision
+     * of the buckets.
+     *
+     * @param earlier the earlier snapshot.
+     * @return the snapshot of the interval.
+     */
+    public Snapshot since(Snapshot earlier) {
+      long[] diff = new long[counts.length];
+      long total = 0;
+      long highest = 0;
+      for (int i = 0; i < counts.length; i++) {
+        diff[i] = Math.max(0, counts[i] - earlier.counts[i]);
+        if (diff[i] > 0) {
+          total += diff[i];
+          highest = Math.min(highestValue(i), max);
+        }
+      }
+      return new Snapshot(diff, total, highest);
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + " p50=" + getValueAtPercentile(50) + " p99="
+        + getValueAtPercentile(99) + " p99.9=" + getValueAtPercentile(99.9)
+        + " max=" + max;
+    }
+  }
+}
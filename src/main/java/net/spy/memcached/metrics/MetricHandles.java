@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.metrics;
+
+/**
+ * Hands out metric handles for any {@link MetricCollector}.
+ *
+ * <p>Collectors extending {@link AbstractMetricCollector} provide their own
+ * handles. Any other collector gets handles which update its metrics by
+ * name, so collectors written against the plain {@link MetricCollector}
+ * interface keep working unchanged.</p>
+ */
+public final class MetricHandles {
+
+  private MetricHandles() {
+    // Utility class.
+  }
+
+  /**
+   * Add a Counter to the collector and get a handle to update it.
+   *
+   * @param collector the collector to add the counter to.
+   * @param name the name of the counter.
+   * @return the handle of the counter.
+   */
+  public static CounterHandle counter(MetricCollector collector,
+    String name) {
+    if (collector instanceof AbstractMetricCollector) {
+      return ((AbstractMetricCollector) collector).counter(name);
+    }
+    return counterByName(collector, name);
+  }
+
+  /**
+   * Add a Meter to the collector and get a handle to mark it.
+   *
+   * @param collector the collector to add the meter to.
+   * @param name the name of the meter.
+   * @return the handle of the meter.
+   */
+  public static MeterHandle meter(MetricCollector collector, String name) {
+    if (collector instanceof AbstractMetricCollector) {
+      return ((AbstractMetricCollector) collector).meter(name);
+    }
+    return meterByName(collector, name);
+  }
+
+  /**
+   * Add a Histogram to the collector and get a handle to update it, with
+   * the default sample rate of the collector.
+   *
+   * @param collector the collector to add the histogram to.
+   * @param name the name of the histogram.
+   * @return the handle of the histogram.
+   */
+  public static HistogramHandle histogram(MetricCollector collector,
+    String name) {
+    if (collector instanceof AbstractMetricCollector) {
+      return ((AbstractMetricCollector) collector).histogram(name);
+    }
+    return histogramByName(collector, name, 1);
+  }
+
+  /**
+   * Add a Histogram to the collector and get a handle recording one in
+   * every {@code sampleRate} updates.
+   *
+   * @param collector the collector to add the histogram to.
+   * @param name the name of the histogram.
+   * @param sampleRate record every n-th update, 1 records all of them.
+   * @return the handle of the histogram.
+   */
+  public static HistogramHandle histogram(MetricCollector collector,
+    String name, int sampleRate) {
+    if (collector instanceof AbstractMetricCollector) {
+      return ((AbstractMetricCollector) collector).histogram(name,
+        sampleRate);
+    }
+    return histogramByName(collector, name, sampleRate);
+  }
+
+  static CounterHandle counterByName(final MetricCollector collector,
+    final String name) {
+    collector.addCounter(name);
+    return new CounterHandle() {
+      @Override
+      public void increment() {
+        collector.incrementCounter(name, 1);
+      }
+
+      @Override
+      public void increment(int amount) {
+        collector.incrementCounter(name, amount);
+      }
+
+      @Override
+      public void decrement() {
+        collector.decrementCounter(name, 1);
+      }
+
+      @Override
+      public void decrement(int amount) {
+        collector.decrementCounter(name, amount);
+      }
+    };
+  }
+
+  static MeterHandle meterByName(final MetricCollector collector,
+    final String name) {
+    collector.addMeter(name);
+    return new MeterHandle() {
+      @Override
+      public void mark() {
+        collector.markMeter(name);
+      }
+    };
+  }
+
+  static HistogramHandle histogramByName(final MetricCollector collector,
+    final String name, int sampleRate) {
+    collector.addHistogram(name);
+    return new SampledHistogramHandle(sampleRate) {
+      @Override
+      void record(int amount) {
+        collector.updateHistogram(name, amount);
+      }
+    };
+  }
+}
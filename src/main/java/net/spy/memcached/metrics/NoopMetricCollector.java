@@ -30,6 +30,51 @@ package net.spy.memcached.metrics;
  */
 public final class NoopMetricCollector extends AbstractMetricCollector {
 
+  /**
+   * A counter handle that does nothing.
+   */
+  public static final CounterHandle NOOP_COUNTER = new CounterHandle() {
+    @Override
+    public void increment() {
+      return;
+    }
+
+    @Override
+    public void increment(int amount) {
+      return;
+    }
+
+    @Override
+    public void decrement() {
+      return;
+    }
+
+    @Override
+    public void decrement(int amount) {
+      return;
+    }
+  };
+
+  /**
+   * A meter handle that does nothing.
+   */
+  public static final MeterHandle NOOP_METER = new MeterHandle() {
+    @Override
+    public void mark() {
+      return;
+    }
+  };
+
+  /**
+   * A histogram handle that does nothing.
+   */
+  public static final HistogramHandle NOOP_HISTOGRAM = new HistogramHandle() {
+    @Override
+    public void update(int amount) {
+      return;
+    }
+  };
+
   @Override
   public void addCounter(String name) {
     return;
@@ -80,4 +125,19 @@ public final class NoopMetricCollector extends AbstractMetricCollector {
     return;
   }
 
+  @Override
+  public CounterHandle counter(String name) {
+    return NOOP_COUNTER;
+  }
+
+  @Override
+  public MeterHandle meter(String name) {
+    return NOOP_METER;
+  }
+
+  @Override
+  public HistogramHandle histogram(String name, int sampleRate) {
+    return NOOP_HISTOGRAM;
+  }
+
 }
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+
+package net.spy.memcached.metrics;
+
+/**
+ * A {@link HistogramHandle} recording only one in every n updates.
+ *
+ * Recording into a histogram is much more expensive than counting, since
+ * the reservoir behind it is shared by all threads. Sampling keeps the
+ * shape of the distribution while taking that cost only for a fraction of
+ * the updates.
+ */
+abstract class SampledHistogramHandle implements HistogramHandle {
+
+  private final int sampleRate;
+
+  /**
+   * Counts the updates. Increments lost to races between threads only shift
+   * which updates are recorded, so this does not need to be atomic.
+   */
+  private int updates;
+
+  SampledHistogramHandle(int rate) {
+    if (rate < 1) {
+      throw new IllegalArgumentException("Sample rate must be at least 1");
+    }
+    sampleRate = rate;
+  }
+
+  @Override
+  public void update(int amount) {
+    if (sampleRate == 1 || ++updates % sampleRate == 0) {
+      record(amount);
+    }
+  }
+
+  /**
+   * Record a sampled update in the histogram.
+   *
+   * @param amount the amount to update.
+   */
+  abstract void record(int amount);
+}
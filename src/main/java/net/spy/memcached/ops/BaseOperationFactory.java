@@ -23,11 +23,14 @@
 
 package net.spy.memcached.ops;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.OperationFactory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Base class for operation factories.
@@ -62,6 +65,19 @@ public abstract class BaseOperationFactory implements OperationFactory {
         rv.add(replicaGets(k,
           ((ReplicaGetsOperation) op).getReplicaIndex(), callback));
       }
+    } else if (op instanceof BulkStoreOperation) {
+      BulkStoreOperation bo = (BulkStoreOperation) op;
+      Map<String, CachedData> items = bo.getItems();
+      for (String k : bo.getPendingKeys()) {
+        rv.add(storeBulk(bo.getStoreType(),
+          Collections.singletonMap(k, items.get(k)), bo.getExpiration(),
+          (BulkWriteOperation.Callback) op.getCallback()));
+      }
+    } else if (op instanceof BulkDeleteOperation) {
+      for (String k : ((BulkDeleteOperation) op).getPendingKeys()) {
+        rv.add(deleteBulk(Collections.singleton(k),
+          (BulkWriteOperation.Callback) op.getCallback()));
+      }
     } else if (op instanceof GetsOperation) {
       GetsOperation.Callback callback =
           (GetsOperation.Callback) op.getCallback();
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+
+/**
+ * Operation that stores many objects at once.
+ */
+public interface BulkStoreOperation extends BulkWriteOperation {
+
+  /**
+   * Get the store type used by this operation.
+   */
+  StoreType getStoreType();
+
+  /**
+   * Get the expiration value to be set.
+   */
+  int getExpiration();
+
+  /**
+   * Get the encoded objects to be stored, by key.
+   *
+   * <p>
+   * Note, this returns an exact reference to the items and they <em>must
+   * not</em> be modified.
+   * </p>
+   */
+  Map<String, CachedData> getItems();
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.Collection;
+
+/**
+ * Operation that writes many keys at once and only hears back about the keys
+ * that failed.
+ */
+public interface BulkWriteOperation extends KeyedOperation {
+
+  /**
+   * Get the keys which have not been reported to the callback yet.
+   *
+   * @return the keys to retry when the operation is redistributed
+   */
+  Collection<String> getPendingKeys();
+
+  /**
+   * Operation callback for bulk writes.
+   */
+  interface Callback extends OperationCallback {
+    /**
+     * Callback for the result of each key of the operation.
+     *
+     * @param key the key that was written
+     * @param status the status for this key
+     */
+    void gotStatus(String key, OperationStatus status);
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free multi-producer, single-consumer queue of operations.
+ *
+ * <p>Producers claim a slot of the ring buffer with a single CAS on the tail
+ * and publish the operation through the sequence number of that slot. The
+ * consuming side is serialized by the monitor of the queue, which is
+ * uncontended as long as a single thread consumes, and drains the published
+ * operations in bulk.</p>
+ *
+ * <p>Waiting for space or for operations does not use a condition, since
+ * neither side signals the other. A waiting thread parks for short, growing
+ * periods instead, so the blocking methods are meant for rare overload
+ * situations and not as a hand-off mechanism.</p>
+ */
+final class MPSCOperationQueue extends AbstractQueue<Operation> implements
+    BlockingQueue<Operation> {
+
+  private static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<Operation> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head = 0;
+
+  MPSCOperationQueue(int cap) {
+    if (cap <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    // A single slot could not tell a published slot from a free one.
+    int c = 2;
+    while (c < cap && c < 1 << 30) {
+      c <<= 1;
+    }
+    capacity = c;
+    mask = capacity - 1;
+    slots = new AtomicReferenceArray<Operation>(capacity);
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  public boolean offer(Operation op) {
+    if (op == null) {
+      throw new NullPointerException();
+    }
+    long pos = tail.get();
+    while (true) {
+      int idx = (int) (pos & mask);
+      long diff = sequences.get(idx) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots.lazySet(idx, op);
+          sequences.lazySet(idx, pos + 1);
+          return true;
+        }
+        pos = tail.get();
+      } else if (diff < 0) {
+        // The consumer has not freed this slot yet, so the queue is full.
+        return false;
+      } else {
+        pos = tail.get();
+      }
+    }
+  }
+
+  public boolean offer(Operation op, long timeout, TimeUnit unit)
+    throws InterruptedException {
+    if (offer(op)) {
+      return true;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long park = MIN_PARK_NANOS;
+    while (!offer(op)) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      park = parkAtMost(park, remaining);
+    }
+    return true;
+  }
+
+  public void put(Operation op) throws InterruptedException {
+    long park = MIN_PARK_NANOS;
+    while (!offer(op)) {
+      park = parkAtMost(park, MAX_PARK_NANOS);
+    }
+  }
+
+  public synchronized Operation poll() {
+    long pos = head;
+    int idx = (int) (pos & mask);
+    if (sequences.get(idx) != pos + 1) {
+      return null;
+    }
+    Operation op = slots.get(idx);
+    slots.lazySet(idx, null);
+    sequences.lazySet(idx, pos + capacity);
+    head = pos + 1;
+    return op;
+  }
+
+  public Operation poll(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    Operation op = poll();
+    if (op != null) {
+      return op;
+    }
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    long park = MIN_PARK_NANOS;
+    while ((op = poll()) == null) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return null;
+      }
+      park = parkAtMost(park, remaining);
+    }
+    return op;
+  }
+
+  public Operation take() throws InterruptedException {
+    Operation op;
+    long park = MIN_PARK_NANOS;
+    while ((op = poll()) == null) {
+      park = parkAtMost(park, MAX_PARK_NANOS);
+    }
+    return op;
+  }
+
+  public synchronized Operation peek() {
+    long pos = head;
+    int idx = (int) (pos & mask);
+    if (sequences.get(idx) != pos + 1) {
+      return null;
+    }
+    return slots.get(idx);
+  }
+
+  public int drainTo(Collection<? super Operation> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  public synchronized int drainTo(Collection<? super Operation> c,
+      int maxElements) {
+    if (c == this) {
+      throw new IllegalArgumentException("Cannot drain a queue into itself");
+    }
+    int n = 0;
+    Operation op;
+    while (n < maxElements && (op = poll()) != null) {
+      c.add(op);
+      n++;
+    }
+    return n;
+  }
+
+  @Override
+  public int size() {
+    long size = tail.get() - head;
+    return (int) Math.max(0, Math.min(size, capacity));
+  }
+
+  public int remainingCapacity() {
+    return capacity - size();
+  }
+
+  /**
+   * Returns a snapshot of the operations currently in the queue.
+   *
+   * The iterator does not support removal.
+   */
+  @Override
+  public synchronized Iterator<Operation> iterator() {
+    List<Operation> rv = new ArrayList<Operation>(size());
+    for (long pos = head;; pos++) {
+      int idx = (int) (pos & mask);
+      if (sequences.get(idx) != pos + 1) {
+        break;
+      }
+      rv.add(slots.get(idx));
+    }
+    return Collections.unmodifiableList(rv).iterator();
+  }
+
+  private static long parkAtMost(long park, long remaining)
+    throws InterruptedException {
+    LockSupport.parkNanos(Math.min(park, remaining));
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    return Math.min(park << 1, MAX_PARK_NANOS);
+  }
+}
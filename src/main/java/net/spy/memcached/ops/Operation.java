@@ -159,6 +159,25 @@ public interface Operation {
    */
   long getWriteCompleteTimestamp();
 
+  /**
+   * Returns the timestamp from the point where the operation was created.
+   */
+  long getCreationTimestamp();
+
+  /**
+   * Returns the timestamp from the point where the first bytes of the
+   * response were read, or zero if nothing has been read yet.
+   */
+  long getFirstByteTimestamp();
+
+  /**
+   * Set the timestamp from the point where the first bytes of the response
+   * were read.
+   *
+   * @param timestamp the value of {@link System#nanoTime()} at that point.
+   */
+  void setFirstByteTimestamp(long timestamp);
+
   /**
    * Returns the raw bytes of the error message content.
    *
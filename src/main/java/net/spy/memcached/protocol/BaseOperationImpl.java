@@ -33,6 +33,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import net.spy.memcached.MemcachedConnection;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.compat.SpyObject;
 import net.spy.memcached.ops.CancelledOperationStatus;
@@ -44,6 +45,8 @@ import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.ops.TimedOutOperationStatus;
+import net.spy.memcached.util.BufferPool;
+import net.spy.memcached.util.TimingWheel;
 
 /**
  * Base class for protocol-specific operation implementations.
@@ -59,6 +62,8 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
       new TimedOutOperationStatus();
   private volatile OperationState state = OperationState.WRITE_QUEUED;
   private ByteBuffer cmd = null;
+  private ByteBuffer pooledCmd = null;
+  private BufferPool bufferPool = null;
   private boolean cancelled = false;
   private OperationException exception = null;
   protected OperationCallback callback = null;
@@ -69,6 +74,8 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   protected Collection<MemcachedNode> notMyVbucketNodes =
       new HashSet<MemcachedNode>();
   private long writeCompleteTimestamp;
+  private long firstByteTimestamp;
+  private volatile TimingWheel.Timeout<Operation> expiry = null;
 
   /**
    * If the operation gets cloned, the reference is used to cascade cancellations
@@ -115,6 +122,7 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
 
   public final synchronized void cancel() {
     cancelled = true;
+    cancelExpiry();
 
     synchronized (clones) {
       Iterator<Operation> i = clones.iterator();
@@ -135,6 +143,15 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     getLogger().debug("was cancelled.");
   }
 
+  /**
+   * This is called on each subclass when an operation has completed.
+   *
+   * Buffers which may still be written until then can be given back here.
+   */
+  protected void wasCompleted() {
+    // Nothing to give back by default
+  }
+
   public final synchronized OperationState getState() {
     return state;
   }
@@ -152,6 +169,30 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     cmd.mark();
   }
 
+  /**
+   * Allocate a buffer to encode this operation into.
+   *
+   * If the connection of the handling node has a {@link BufferPool}, the
+   * buffer is borrowed from it and given back once the operation has been
+   * written. Otherwise a new heap buffer is allocated.
+   *
+   * @param size the exact number of bytes the operation needs
+   * @return a buffer with its position at zero and its limit at size
+   */
+  protected final synchronized ByteBuffer allocateBuffer(int size) {
+    MemcachedNode node = getHandlingNode();
+    MemcachedConnection conn = node == null ? null : node.getConnection();
+    BufferPool pool = conn == null ? null : conn.getBufferPool();
+    if (pool == null) {
+      return ByteBuffer.allocate(size);
+    }
+    // A buffer from an earlier initialization may still be referenced by
+    // the node, so it is left to the garbage collector.
+    pooledCmd = pool.allocate(size);
+    bufferPool = pool;
+    return pooledCmd;
+  }
+
   /**
    * Transition the state of this operation to the given state.
    */
@@ -162,18 +203,53 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     if(state != OperationState.WRITE_QUEUED
         && state != OperationState.WRITING) {
       cmd = null;
+      if (pooledCmd != null) {
+        bufferPool.release(pooledCmd);
+        pooledCmd = null;
+      }
     }
     if (state == OperationState.COMPLETE) {
+      cancelExpiry();
+      wasCompleted();
       callback.complete();
     }
   }
 
+  /**
+   * Get the timeout which expires this operation.
+   *
+   * @return the timeout, or null if the operation is not tracked by one
+   */
+  public final TimingWheel.Timeout<Operation> getExpiry() {
+    return expiry;
+  }
+
+  /**
+   * Set the timeout which expires this operation.
+   *
+   * It is cancelled once the operation completes, is cancelled or times out,
+   * so the timing wheel does not hold on to the operation any longer.
+   *
+   * @param to the timeout
+   */
+  public final void setExpiry(TimingWheel.Timeout<Operation> to) {
+    expiry = to;
+  }
+
+  private void cancelExpiry() {
+    TimingWheel.Timeout<Operation> e = expiry;
+    if (e != null) {
+      e.cancel();
+    }
+  }
+
   public final void writing() {
     transitionState(OperationState.WRITING);
   }
 
   public final void writeComplete() {
     writeCompleteTimestamp = System.nanoTime();
+    firstByteTimestamp = 0;
     transitionState(OperationState.READING);
   }
 
@@ -218,6 +294,7 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
   @Override
   public synchronized void timeOut() {
     timedout = true;
+    cancelExpiry();
 
     synchronized (clones) {
       Iterator<Operation> i = clones.iterator();
@@ -242,6 +319,7 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     if (elapsed - creationTime > ttlNanos) {
       timedOutUnsent = true;
       timedout = true;
+      cancelExpiry();
       callback.receivedStatus(TIMED_OUT);
       callback.complete();
     } // else
@@ -261,6 +339,21 @@ public abstract class BaseOperationImpl extends SpyObject implements Operation {
     return writeCompleteTimestamp;
   }
 
+  @Override
+  public long getCreationTimestamp() {
+    return creationTime;
+  }
+
+  @Override
+  public long getFirstByteTimestamp() {
+    return firstByteTimestamp;
+  }
+
+  @Override
+  public void setFirstByteTimestamp(long timestamp) {
+    firstByteTimestamp = timestamp;
+  }
+
   @Override
   public void addClone(Operation op) {
     clones.add(op);
@@ -29,11 +29,14 @@ import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.spy.memcached.ConnectionFactory;
 import net.spy.memcached.FailureMode;
@@ -51,6 +54,18 @@ import net.spy.memcached.protocol.binary.TapAckOperationImpl;
 public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     MemcachedNode {
 
+  /**
+   * Operations with at most this many bytes are copied into the write buffer
+   * even if gathering writes are used, since a separate buffer per tiny
+   * operation is more expensive than the copy.
+   */
+  private static final int MAX_GATHER_COPY_SIZE = 1024;
+
+  /**
+   * The maximum number of buffers passed to a single gathering write.
+   */
+  private static final int MAX_GATHER_BUFFERS = 64;
+
   private final SocketAddress socketAddress;
   private final ByteBuffer rbuf;
   private final ByteBuffer wbuf;
@@ -63,6 +78,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private AtomicInteger reconnectAttempt = new AtomicInteger(1);
   private SocketChannel channel;
   private int toWrite = 0;
+  private final AtomicLong outstandingBytes = new AtomicLong();
   protected Operation optimizedOp = null;
   private volatile SelectionKey sk = null;
   private boolean shouldAuth = false;
@@ -72,6 +88,13 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   private volatile long lastReadTimestamp = System.nanoTime();
   private MemcachedConnection connection;
 
+  // gathering write state, only used if enabled through the factory
+  private final boolean gatheringWrites;
+  private final ByteBuffer[] gatherBufs;
+  private final Operation[] gatherOps;
+  private int gatherCount = 0;
+  private int gatherIndex = 0;
+
   // operation Future.get timeout counter
   private final AtomicInteger continuousTimeout = new AtomicInteger(0);
 
@@ -103,6 +126,9 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     this.opQueueMaxBlockTime = opQueueMaxBlockTime;
     shouldAuth = waitForAuth;
     defaultOpTimeout = dt;
+    gatheringWrites = fact != null && fact.useGatheringWrites();
+    gatherBufs = gatheringWrites ? new ByteBuffer[MAX_GATHER_BUFFERS] : null;
+    gatherOps = gatheringWrites ? new Operation[MAX_GATHER_BUFFERS] : null;
     setupForAuth();
   }
 
@@ -112,11 +138,8 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
    * @see net.spy.memcached.MemcachedNode#copyInputQueue()
    */
   public final void copyInputQueue() {
-    Collection<Operation> tmp = new ArrayList<Operation>();
-
     // don't drain more than we have space to place
-    inputQueue.drainTo(tmp, writeQ.remainingCapacity());
-    writeQ.addAll(tmp);
+    inputQueue.drainTo(writeQ, writeQ.remainingCapacity());
   }
 
   /*
@@ -130,6 +153,28 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     return rv;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#purgeWriteQueue()
+   */
+  public final int purgeWriteQueue() {
+    copyInputQueue();
+    List<Operation> ops = new ArrayList<Operation>(writeQ.size());
+    writeQ.drainTo(ops);
+    int removed = 0;
+    for (Operation op : ops) {
+      if (op.getState() == OperationState.WRITE_QUEUED
+          && (op.isCancelled() || op.isTimedOut())) {
+        outstandingBytes.addAndGet(-requestSize(op));
+        removed++;
+      } else {
+        writeQ.add(op);
+      }
+    }
+    return removed;
+  }
+
   /*
    * (non-Javadoc)
    *
@@ -169,6 +214,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     getWbuf().clear();
     getRbuf().clear();
     toWrite = 0;
+    clearGatherBuffers();
   }
 
   // Prepare the pending operations. Return true if there are any pending
@@ -195,6 +241,10 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
   public final void fillWriteBuffer(boolean shouldOptimize) {
     if (toWrite == 0 && readQ.remainingCapacity() > 0) {
       getWbuf().clear();
+      if (gatheringWrites) {
+        fillGatherBuffers(shouldOptimize);
+        return;
+      }
       Operation o=getNextWritableOp();
 
       while(o != null && toWrite < getWbuf().capacity()) {
@@ -204,9 +254,10 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
           ByteBuffer obuf = o.getBuffer();
           assert obuf != null : "Didn't get a write buffer from " + o;
           int bytesToCopy = Math.min(getWbuf().remaining(), obuf.remaining());
-          byte[] b = new byte[bytesToCopy];
-          obuf.get(b);
-          getWbuf().put(b);
+          int limit = obuf.limit();
+          obuf.limit(obuf.position() + bytesToCopy);
+          getWbuf().put(obuf);
+          obuf.limit(limit);
           getLogger().debug("After copying stuff from %s: %s", o, getWbuf());
           if (!o.getBuffer().hasRemaining()) {
             o.writeComplete();
@@ -232,6 +283,84 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     }
   }
 
+  /**
+   * Collect the buffers of the next writable operations for a gathering
+   * write.
+   *
+   * Large operation buffers are written as they are, while consecutive small
+   * ones are copied into the write buffer and written as one chunk. An
+   * operation written from its own buffer only completes its write once all
+   * of its bytes have been written to the channel.
+   *
+   * @param shouldOptimize if operations should be optimized.
+   */
+  private void fillGatherBuffers(boolean shouldOptimize) {
+    int copyStart = 0;
+    Operation o = getNextWritableOp();
+
+    // leave room for the copied chunk before and after an operation buffer
+    while (o != null && gatherCount < MAX_GATHER_BUFFERS - 2) {
+      synchronized(o) {
+        assert o.getState() == OperationState.WRITING;
+
+        ByteBuffer obuf = o.getBuffer();
+        assert obuf != null : "Didn't get a write buffer from " + o;
+        int bytes = obuf.remaining();
+        if (bytes <= MAX_GATHER_COPY_SIZE && bytes <= getWbuf().remaining()) {
+          getWbuf().put(obuf);
+          o.writeComplete();
+        } else {
+          copyStart = addCopiedChunk(copyStart);
+          gatherBufs[gatherCount] = obuf;
+          gatherOps[gatherCount++] = o;
+        }
+        toWrite += bytes;
+        transitionWriteItem();
+
+        preparePending();
+        if (shouldOptimize) {
+          optimize();
+        }
+
+        o = getNextWritableOp();
+      }
+    }
+    addCopiedChunk(copyStart);
+    getWbuf().flip();
+    getLogger().debug("Gathered %d buffers with %d bytes", gatherCount,
+      toWrite);
+  }
+
+  /**
+   * Add the bytes copied into the write buffer since the given position as
+   * the next gather buffer.
+   *
+   * @param start the position where the not yet added bytes start.
+   * @return the position where the next copied chunk starts.
+   */
+  private int addCopiedChunk(int start) {
+    int end = getWbuf().position();
+    if (end > start) {
+      ByteBuffer chunk = getWbuf().duplicate();
+      chunk.limit(end);
+      chunk.position(start);
+      gatherBufs[gatherCount++] = chunk;
+    }
+    return end;
+  }
+
+  /**
+   * Drop all the buffers of the current gathering write.
+   */
+  private void clearGatherBuffers() {
+    if (gatheringWrites) {
+      Arrays.fill(gatherBufs, null);
+      Arrays.fill(gatherOps, null);
+      gatherCount = 0;
+      gatherIndex = 0;
+    }
+  }
+
 
   private Operation getNextWritableOp() {
     Operation o = getCurrentWriteOp();
@@ -241,10 +370,12 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
           getLogger().debug("Not writing cancelled op.");
           Operation cancelledOp = removeCurrentWriteOp();
           assert o == cancelledOp;
+          outstandingBytes.addAndGet(-requestSize(o));
         } else if (o.isTimedOut(defaultOpTimeout)) {
           getLogger().debug("Not writing timed out op.");
           Operation timedOutOp = removeCurrentWriteOp();
           assert o == timedOutOp;
+          outstandingBytes.addAndGet(-requestSize(o));
         } else {
           o.writing();
           if (!(o instanceof TapAckOperationImpl)) {
@@ -362,6 +493,7 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
         throw new IllegalStateException("Timed out waiting to add " + op
             + "(max wait=" + opQueueMaxBlockTime + "ms)");
       }
+      outstandingBytes.addAndGet(requestSize(op));
     } catch (InterruptedException e) {
       // Restore the interrupted status
       Thread.currentThread().interrupt();
@@ -380,6 +512,15 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     tmp.add(op);
     inputQueue.drainTo(tmp);
     inputQueue.addAll(tmp);
+    outstandingBytes.addAndGet(requestSize(op));
+  }
+
+  /**
+   * The number of bytes the request of the given operation takes up.
+   */
+  private static int requestSize(Operation op) {
+    ByteBuffer buf = op.getBuffer();
+    return buf == null ? 0 : buf.remaining();
   }
 
   /*
@@ -560,17 +701,51 @@ public abstract class TCPMemcachedNodeImpl extends SpyObject implements
     return toWrite;
   }
 
+  /*
+   * (non-Javadoc)
+   *
+   * @see net.spy.memcached.MemcachedNode#getOutstandingBytes()
+   */
+  public final long getOutstandingBytes() {
+    return Math.max(0, outstandingBytes.get());
+  }
+
   /*
    * (non-Javadoc)
    *
    * @see net.spy.memcached.MemcachedNode#writeSome()
    */
   public final int writeSome() throws IOException {
-    int wrote = channel.write(wbuf);
+    int wrote;
+    if (gatherCount > 0) {
+      wrote = (int) channel.write(gatherBufs, gatherIndex,
+        gatherCount - gatherIndex);
+      while (gatherIndex < gatherCount
+        && !gatherBufs[gatherIndex].hasRemaining()) {
+        Operation o = gatherOps[gatherIndex];
+        if (o != null) {
+          o.writeComplete();
+        }
+        gatherIndex++;
+      }
+      if (gatherIndex == gatherCount) {
+        clearGatherBuffers();
+        wbuf.position(wbuf.limit());
+      }
+    } else {
+      wrote = channel.write(wbuf);
+    }
     assert wrote >= 0 : "Wrote negative bytes?";
     toWrite -= wrote;
     assert toWrite >= 0 : "toWrite went negative after writing " + wrote
         + " bytes for " + this;
+    // Optimized gets and resent operations do not add up exactly, so the
+    // count starts over whenever everything has been written.
+    if (toWrite == 0 && !hasWriteOp() && inputQueue.isEmpty()) {
+      outstandingBytes.set(0);
+    } else {
+      outstandingBytes.addAndGet(-wrote);
+    }
     getLogger().debug("Wrote %d bytes", wrote);
     return wrote;
   }
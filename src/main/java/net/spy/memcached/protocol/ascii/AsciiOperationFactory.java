@@ -23,7 +23,11 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkWriteOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -56,6 +60,7 @@ import net.spy.memcached.ops.UnlockOperation;
 import net.spy.memcached.ops.VersionOperation;
 import net.spy.memcached.tapmessage.RequestMessage;
 import net.spy.memcached.tapmessage.TapOpcode;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 import javax.security.auth.callback.CallbackHandler;
 import java.util.ArrayList;
@@ -133,6 +138,23 @@ public class AsciiOperationFactory extends BaseOperationFactory {
     return new StoreOperationImpl(storeType, key, flags, exp, data, cb);
   }
 
+  public StoreOperation store(StoreType storeType, String key, int flags,
+      int exp, ByteBufferOutputStream data, StoreOperation.Callback cb) {
+    return new StoreOperationImpl(storeType, key, flags, exp, data, cb);
+  }
+
+  public BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> items, int exp, BulkWriteOperation.Callback cb) {
+    throw new UnsupportedOperationException("Bulk store is not supported "
+        + "for ASCII protocol");
+  }
+
+  public BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkWriteOperation.Callback cb) {
+    throw new UnsupportedOperationException("Bulk delete is not supported "
+        + "for ASCII protocol");
+  }
+
   public TouchOperation touch(String key, int expiration,
       OperationCallback cb) {
     return new TouchOperationImpl(key, expiration, cb);
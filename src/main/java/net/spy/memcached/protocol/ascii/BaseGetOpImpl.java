@@ -23,6 +23,8 @@
 
 package net.spy.memcached.protocol.ascii;
 
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
@@ -50,6 +52,7 @@ public abstract class BaseGetOpImpl extends OperationImpl {
   private static final OperationStatus LOCK_ERROR = new OperationStatus(false,
       "LOCK_ERROR", StatusCode.ERR_TEMP_FAIL);
   private static final byte[] RN_BYTES = "\r\n".getBytes();
+  private static final byte[] VALUE_BYTES = "VALUE ".getBytes();
   private final String cmd;
   private final Collection<String> keys;
   private String currentKey = null;
@@ -102,16 +105,11 @@ public abstract class BaseGetOpImpl extends OperationImpl {
       getLogger().debug("Got line %s", line);
       String[] stuff = line.split(" ");
       assert stuff[0].equals("VALUE");
-      currentKey = stuff[1];
-      currentFlags = Integer.parseInt(stuff[2]);
-      data = new byte[Integer.parseInt(stuff[3])];
       if (stuff.length > 4) {
         casValue = Long.parseLong(stuff[4]);
       }
-      readOffset = 0;
-      hasValue = true;
-      getLogger().debug("Set read type to data");
-      setReadType(OperationReadType.DATA);
+      startValue(stuff[1], Integer.parseInt(stuff[2]),
+        Integer.parseInt(stuff[3]));
     } else if (line.equals("LOCK_ERROR")) {
       getCallback().receivedStatus(LOCK_ERROR);
       transitionState(OperationState.COMPLETE);
@@ -120,6 +118,85 @@ public abstract class BaseGetOpImpl extends OperationImpl {
     }
   }
 
+  /**
+   * Parse VALUE lines straight from the bytes read, leaving every other
+   * line to {@link #handleLine(String)}.
+   *
+   * Only the key is turned into a String, since the callbacks need it. The
+   * numbers are parsed from the digits in place.
+   */
+  @Override
+  protected final void handleRawLine(byte[] line, int offset, int length)
+    throws IOException {
+    if (!startsWith(line, offset, length, VALUE_BYTES)) {
+      super.handleRawLine(line, offset, length);
+      return;
+    }
+    int end = offset + length;
+    int keyStart = offset + VALUE_BYTES.length;
+    int keyEnd = nextSpace(line, keyStart, end);
+    int flagsEnd = nextSpace(line, keyEnd + 1, end);
+    int lengthEnd = nextSpace(line, flagsEnd + 1, end);
+    assert lengthEnd > flagsEnd + 1 : "Invalid VALUE line: "
+      + new String(line, offset, length);
+    if (lengthEnd < end) {
+      casValue = parseDecimal(line, lengthEnd + 1, end);
+    }
+    startValue(decodeKey(line, keyStart, keyEnd),
+      (int) parseDecimal(line, keyEnd + 1, flagsEnd),
+      (int) parseDecimal(line, flagsEnd + 1, lengthEnd));
+  }
+
+  private void startValue(String key, int flags, int length) {
+    currentKey = key;
+    currentFlags = flags;
+    data = new byte[length];
+    readOffset = 0;
+    hasValue = true;
+    getLogger().debug("Set read type to data");
+    setReadType(OperationReadType.DATA);
+  }
+
+  private static boolean startsWith(byte[] line, int offset, int length,
+      byte[] prefix) {
+    if (length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (line[offset + i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int nextSpace(byte[] line, int from, int end) {
+    int i = from;
+    while (i < end && line[i] != ' ') {
+      i++;
+    }
+    return i;
+  }
+
+  private static long parseDecimal(byte[] line, int from, int to) {
+    assert from < to : "Missing number";
+    long rv = 0;
+    for (int i = from; i < to; i++) {
+      int digit = line[i] - '0';
+      assert digit >= 0 && digit <= 9 : "Invalid digit: " + (char) line[i];
+      rv = rv * 10 + digit;
+    }
+    return rv;
+  }
+
+  private static String decodeKey(byte[] line, int from, int to) {
+    try {
+      return new String(line, from, to - from, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("UTF-8 is not supported", e);
+    }
+  }
+
   @Override
   public final void handleRead(ByteBuffer b) {
     assert currentKey != null;
@@ -201,7 +278,7 @@ public abstract class BaseGetOpImpl extends OperationImpl {
       size++;
     }
     size += afterKeyBytesSize();
-    ByteBuffer b = ByteBuffer.allocate(size);
+    ByteBuffer b = allocateBuffer(size);
     b.put(cmd.getBytes());
     for (byte[] k : keyBytes) {
       b.put((byte) ' ');
@@ -31,6 +31,7 @@ import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 /**
  * Base class for ascii store operations (add, set, replace, append, prepend).
@@ -38,13 +39,17 @@ import net.spy.memcached.ops.StatusCode;
 abstract class BaseStoreOperationImpl extends OperationImpl {
 
   private static final int OVERHEAD = 32;
+  // The longest command followed by three numbers and the separators.
+  private static final int HEADER_OVERHEAD = 48;
   private static final OperationStatus STORED = new OperationStatus(true,
       "STORED", StatusCode.SUCCESS);
   protected final String type;
   protected final String key;
   protected final int flags;
   protected final int exp;
-  protected final byte[] data;
+  private final int length;
+  private final ByteBufferOutputStream encoded;
+  private byte[] data;
 
   public BaseStoreOperationImpl(String t, String k, int f, int e, byte[] d,
       OperationCallback cb) {
@@ -54,6 +59,26 @@ abstract class BaseStoreOperationImpl extends OperationImpl {
     flags = f;
     exp = e;
     data = d;
+    length = d.length;
+    encoded = null;
+  }
+
+  /**
+   * Create a store operation sending a value encoded into a stream.
+   *
+   * The request header is written in front of the value, so the stream
+   * needs enough headroom for it. It is released once the operation has
+   * completed.
+   */
+  public BaseStoreOperationImpl(String t, String k, int f, int e,
+      ByteBufferOutputStream d, OperationCallback cb) {
+    super(cb);
+    type = t;
+    key = k;
+    flags = f;
+    exp = e;
+    length = d.size();
+    encoded = d;
   }
 
   @Override
@@ -66,7 +91,11 @@ abstract class BaseStoreOperationImpl extends OperationImpl {
 
   @Override
   public void initialize() {
-    ByteBuffer bb = ByteBuffer.allocate(data.length
+    if (encoded != null && initializeEncoded()) {
+      return;
+    }
+    byte[] data = getData();
+    ByteBuffer bb = allocateBuffer(data.length
         + KeyUtil.getKeyBytes(key).length + OVERHEAD);
     setArguments(bb, type, key, flags, exp, data.length);
     assert bb.remaining() >= data.length + 2 : "Not enough room in buffer,"
@@ -77,6 +106,33 @@ abstract class BaseStoreOperationImpl extends OperationImpl {
     setBuffer(bb);
   }
 
+  private boolean initializeEncoded() {
+    ByteBuffer header = ByteBuffer.allocate(KeyUtil.getKeyBytes(key).length
+        + HEADER_OVERHEAD);
+    setArguments(header, type, key, flags, exp, length);
+    header.flip();
+    if (header.remaining() > encoded.getHeadroom()) {
+      return false;
+    }
+    encoded.ensureCapacity(CRLF.length);
+    ByteBuffer bb = encoded.getBuffer().duplicate();
+    bb.put(CRLF);
+    bb.limit(bb.position());
+    bb.position(encoded.getHeadroom() - header.remaining());
+    bb.mark();
+    bb.put(header);
+    bb.reset();
+    setBuffer(bb.slice());
+    return true;
+  }
+
+  @Override
+  protected void wasCompleted() {
+    if (encoded != null) {
+      encoded.release();
+    }
+  }
+
   @Override
   protected void wasCancelled() {
     // XXX: Replace this comment with why I did this
@@ -95,13 +151,16 @@ abstract class BaseStoreOperationImpl extends OperationImpl {
     return exp;
   }
 
-  public byte[] getData() {
+  public synchronized byte[] getData() {
+    if (data == null) {
+      data = encoded.toByteArray();
+    }
     return data;
   }
 
   @Override
   public String toString() {
     return "Cmd: " + type + " Key: " + key + " Flags: " + flags + " Exp: "
-      + exp + " Data Length: " + data.length;
+      + exp + " Data Length: " + length;
   }
 }
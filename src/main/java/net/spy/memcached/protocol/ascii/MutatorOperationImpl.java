@@ -73,7 +73,7 @@ final class MutatorOperationImpl extends OperationImpl implements
   @Override
   public void initialize() {
     int size = KeyUtil.getKeyBytes(key).length + OVERHEAD;
-    ByteBuffer b = ByteBuffer.allocate(size);
+    ByteBuffer b = allocateBuffer(size);
     setArguments(b, mutator.name(), key, amount);
     b.flip();
     setBuffer(b);
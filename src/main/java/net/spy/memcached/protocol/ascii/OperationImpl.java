@@ -22,9 +22,9 @@
 
 package net.spy.memcached.protocol.ascii;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.Operation;
@@ -43,9 +43,12 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
   protected static final byte[] CRLF = { '\r', '\n' };
   private static final String CHARSET = "UTF-8";
 
-  private final ByteArrayOutputStream byteBuffer = new ByteArrayOutputStream();
+  private static final long LF_WORD = 0x0a0a0a0a0a0a0a0aL;
+  private static final long LOW_SEVEN_BITS = 0x7f7f7f7f7f7f7f7fL;
+
+  private byte[] lineBuffer = null;
+  private int lineLength = 0;
   private OperationReadType readType = OperationReadType.LINE;
-  private boolean foundCr;
   private byte[] errorMsg;
 
   protected OperationImpl() {
@@ -128,36 +131,103 @@ abstract class OperationImpl extends BaseOperationImpl implements Operation {
       if (readType == OperationReadType.DATA) {
         handleRead(data);
       } else {
-        int offset = -1;
-        for (int i = 0; data.remaining() > 0; i++) {
-          byte b = data.get();
-          if (b == '\r') {
-            foundCr = true;
-          } else if (b == '\n') {
-            assert foundCr : "got a \\n without a \\r";
-            offset = i;
-            foundCr = false;
-            break;
-          } else {
-            assert !foundCr : "got a \\r without a \\n";
-            byteBuffer.write(b);
-          }
-        }
-        if (offset >= 0) {
-          String line = new String(byteBuffer.toByteArray(), CHARSET);
-          byteBuffer.reset();
-          OperationErrorType eType = classifyError(line);
-          if (eType != null) {
-            errorMsg = line.getBytes();
-            handleError(eType, line);
-          } else {
-            handleLine(line);
-          }
+        int start = data.position();
+        int lf = indexOfLineFeed(data, start, data.limit());
+        if (lf < 0) {
+          appendToLine(data, data.remaining());
+        } else if (lineLength == 0 && data.hasArray()) {
+          // The whole line is in the buffer, so parse it in place.
+          assert lf > start && data.get(lf - 1) == '\r'
+            : "got a \\n without a \\r";
+          data.position(lf + 1);
+          handleRawLine(data.array(), data.arrayOffset() + start,
+            lf - 1 - start);
+        } else {
+          appendToLine(data, lf - start);
+          data.get();
+          assert lineLength > 0 && lineBuffer[lineLength - 1] == '\r'
+            : "got a \\n without a \\r";
+          int length = lineLength - 1;
+          lineLength = 0;
+          handleRawLine(lineBuffer, 0, length);
         }
       }
     }
   }
 
+  /**
+   * Handle a response line as it was read from the server.
+   *
+   * The default implementation decodes the line into a String and hands it
+   * to {@link #handleError(OperationErrorType, String)} or
+   * {@link #handleLine(String)}. Operations parsing frequent lines may
+   * override this to avoid building the String.
+   *
+   * @param line the array holding the line
+   * @param offset the start of the line in the array
+   * @param length the length of the line, without the trailing \r\n
+   * @throws IOException if the line is an error response
+   */
+  protected void handleRawLine(byte[] line, int offset, int length)
+    throws IOException {
+    String str = new String(line, offset, length, CHARSET);
+    OperationErrorType eType = classifyError(str);
+    if (eType != null) {
+      errorMsg = str.getBytes();
+      handleError(eType, str);
+    } else {
+      handleLine(str);
+    }
+  }
+
+  /**
+   * Copy bytes of an incomplete line into the line buffer.
+   */
+  private void appendToLine(ByteBuffer data, int length) {
+    if (lineBuffer == null || lineBuffer.length < lineLength + length) {
+      byte[] grown = new byte[Math.max(128,
+        Integer.highestOneBit(lineLength + length) << 1)];
+      if (lineLength > 0) {
+        System.arraycopy(lineBuffer, 0, grown, 0, lineLength);
+      }
+      lineBuffer = grown;
+    }
+    data.get(lineBuffer, lineLength, length);
+    lineLength += length;
+  }
+
+  /**
+   * Find the first \n in the given range of the buffer.
+   *
+   * The buffer is searched eight bytes at a time: every byte of a word is
+   * xor-ed with \n and the resulting zero bytes are located without a
+   * branch per byte.
+   *
+   * @param b the buffer to search
+   * @param from the absolute index to start at
+   * @param to the absolute index to stop before
+   * @return the absolute index of the \n, or -1 if there is none
+   */
+  static int indexOfLineFeed(ByteBuffer b, int from, int to) {
+    boolean bigEndian = b.order() == ByteOrder.BIG_ENDIAN;
+    int i = from;
+    for (; i + 8 <= to; i += 8) {
+      long word = b.getLong(i) ^ LF_WORD;
+      long zeros = ~(((word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS) | word
+        | LOW_SEVEN_BITS);
+      if (zeros != 0) {
+        return i + ((bigEndian ? Long.numberOfLeadingZeros(zeros)
+          : Long.numberOfTrailingZeros(zeros)) >>> 3);
+      }
+    }
+    for (; i < to; i++) {
+      if (b.get(i) == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   /*
    * (non-Javadoc)
    *
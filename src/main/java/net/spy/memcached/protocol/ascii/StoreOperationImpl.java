@@ -25,6 +25,7 @@ package net.spy.memcached.protocol.ascii;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.StoreOperation;
 import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 /**
  * Operation to store data in a memcached server.
@@ -40,6 +41,12 @@ final class StoreOperationImpl extends BaseStoreOperationImpl implements
     storeType = t;
   }
 
+  public StoreOperationImpl(StoreType t, String k, int f, int e,
+      ByteBufferOutputStream d, OperationCallback cb) {
+    super(t.name(), k, f, e, d, cb);
+    storeType = t;
+  }
+
   public StoreType getStoreType() {
     return storeType;
   }
@@ -23,7 +23,11 @@
 
 package net.spy.memcached.protocol.binary;
 
+import net.spy.memcached.CachedData;
 import net.spy.memcached.ops.BaseOperationFactory;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkWriteOperation;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.ConcatenationOperation;
 import net.spy.memcached.ops.ConcatenationType;
@@ -58,6 +62,7 @@ import net.spy.memcached.ops.UnlockOperation;
 import net.spy.memcached.ops.VersionOperation;
 import net.spy.memcached.tapmessage.RequestMessage;
 import net.spy.memcached.tapmessage.TapOpcode;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 import javax.security.auth.callback.CallbackHandler;
 import java.util.ArrayList;
@@ -141,6 +146,21 @@ public class BinaryOperationFactory extends BaseOperationFactory {
     return new StoreOperationImpl(storeType, key, flags, exp, data, 0, cb);
   }
 
+  public StoreOperation store(StoreType storeType, String key, int flags,
+      int exp, ByteBufferOutputStream data, StoreOperation.Callback cb) {
+    return new StoreOperationImpl(storeType, key, flags, exp, data, 0, cb);
+  }
+
+  public BulkStoreOperation storeBulk(StoreType storeType,
+      Map<String, CachedData> items, int exp, BulkWriteOperation.Callback cb) {
+    return new BulkStoreOperationImpl(storeType, items, exp, cb);
+  }
+
+  public BulkDeleteOperation deleteBulk(Collection<String> keys,
+      BulkWriteOperation.Callback cb) {
+    return new BulkDeleteOperationImpl(keys, cb);
+  }
+
   public TouchOperation touch(String key, int expiration,
       OperationCallback cb) {
     return new TouchOperationImpl(key, expiration, cb);
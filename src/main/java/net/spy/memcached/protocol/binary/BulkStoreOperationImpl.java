@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkWriteOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Stores many objects with quiet store commands.
+ */
+public class BulkStoreOperationImpl extends BulkWriteOperationImpl implements
+    BulkStoreOperation {
+
+  private final StoreType storeType;
+  private final Map<String, CachedData> items;
+  private final int exp;
+
+  public BulkStoreOperationImpl(StoreType t, Map<String, CachedData> i, int e,
+      BulkWriteOperation.Callback cb) {
+    super(i.keySet(), cb);
+    storeType = t;
+    items = i;
+    exp = e;
+  }
+
+  private static byte cmdMap(StoreType t) {
+    byte rv;
+    switch (t) {
+    case set:
+      rv = StoreOperationImpl.SETQ;
+      break;
+    case add:
+      rv = StoreOperationImpl.ADDQ;
+      break;
+    case replace:
+      rv = StoreOperationImpl.REPLACEQ;
+      break;
+    default:
+      rv = DUMMY_OPCODE;
+    }
+    // Check fall-through.
+    assert rv != DUMMY_OPCODE : "Unhandled store type:  " + t;
+    return rv;
+  }
+
+  @Override
+  protected byte getQuietCommand() {
+    return cmdMap(storeType);
+  }
+
+  @Override
+  protected int getExtraLength() {
+    return StoreOperationImpl.EXTRA_LEN;
+  }
+
+  @Override
+  protected void putExtras(ByteBuffer bb, String key) {
+    bb.putInt(items.get(key).getFlags());
+    bb.putInt(exp);
+  }
+
+  @Override
+  protected byte[] getValue(String key) {
+    return items.get(key).getData();
+  }
+
+  public StoreType getStoreType() {
+    return storeType;
+  }
+
+  public int getExpiration() {
+    return exp;
+  }
+
+  public Map<String, CachedData> getItems() {
+    return items;
+  }
+
+  @Override
+  public String toString() {
+    return super.toString() + " StoreType: " + storeType + " Exp: " + exp;
+  }
+}
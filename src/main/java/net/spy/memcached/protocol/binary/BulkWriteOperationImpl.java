@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.spy.memcached.ops.BulkWriteOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationErrorType;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+
+/**
+ * Base class for operations writing a quiet command per key, followed by a
+ * NOOP.
+ *
+ * <p>
+ * The server only answers the quiet commands that failed, so every key that
+ * was not heard about by the time the NOOP comes back has been written.
+ * </p>
+ *
+ * <p>
+ * Every key is reported exactly once: keys still pending when the operation
+ * is cancelled, times out or fails are reported with that status, unless the
+ * operation has been cloned, in which case the clones report them.
+ * </p>
+ */
+abstract class BulkWriteOperationImpl extends MultiKeyOperationImpl implements
+    BulkWriteOperation {
+
+  // The key at index i was sent with the opaque firstOpaque + i, and is
+  // cleared once a failure has been reported for it.
+  private KeyEntry[] sent = new KeyEntry[0];
+  private int firstOpaque;
+  // The keys which have not been reported yet.
+  private final Set<String> pending = new LinkedHashSet<String>();
+
+  private final int terminalOpaque = generateOpaque();
+
+  protected BulkWriteOperationImpl(Collection<String> k,
+      BulkWriteOperation.Callback cb) {
+    super(DUMMY_OPCODE, -1, cb);
+    for (String s : k) {
+      addKey(s);
+      pending.add(s);
+    }
+  }
+
+  /**
+   * Get the quiet command to send for each key.
+   */
+  protected abstract byte getQuietCommand();
+
+  /**
+   * Get the length of the extras sent with each key.
+   */
+  protected abstract int getExtraLength();
+
+  /**
+   * Write the extras for the given key.
+   */
+  protected abstract void putExtras(ByteBuffer bb, String key);
+
+  /**
+   * Get the value to send with the given key.
+   */
+  protected abstract byte[] getValue(String key);
+
+  @Override
+  public void initialize() {
+    // Keys that already failed are not sent again when resending.
+    KeyEntry[] keys = getEntries();
+    int count = 0;
+    synchronized (this) {
+      for (KeyEntry e : keys) {
+        if (pending.contains(e.key)) {
+          keys[count++] = e;
+        }
+      }
+    }
+    int first = generateOpaques(count);
+
+    int extraLen = getExtraLength();
+    int size = (1 + count) * MIN_RECV_PACKET;
+    for (int i = 0; i < count; i++) {
+      size += extraLen + keys[i].keyBytes.length
+        + getValue(keys[i].key).length;
+    }
+
+    ByteBuffer bb = allocateBuffer(size);
+    byte cmd = getQuietCommand();
+    for (int i = 0; i < count; i++) {
+      final String key = keys[i].key;
+      final byte[] keyBytes = keys[i].keyBytes;
+      final byte[] value = getValue(key);
+
+      // Custom header
+      bb.put(REQ_MAGIC);
+      bb.put(cmd);
+      bb.putShort((short) keyBytes.length);
+      bb.put((byte) extraLen); // extralen
+      bb.put((byte) 0); // data type
+      bb.putShort(keys[i].vbucket); // vbucket
+      bb.putInt(extraLen + keyBytes.length + value.length);
+      bb.putInt(first + i);
+      bb.putLong(0); // cas
+      // Extras
+      putExtras(bb, key);
+      // the actual key
+      bb.put(keyBytes);
+      // And the value
+      bb.put(value);
+    }
+    // Add the noop
+    bb.put(REQ_MAGIC);
+    bb.put(NoopOperationImpl.CMD);
+    bb.putShort((short) 0);
+    bb.put((byte) 0); // extralen
+    bb.put((byte) 0); // data type
+    bb.putShort((short) 0); // reserved
+    bb.putInt(0);
+    bb.putInt(terminalOpaque);
+    bb.putLong(0); // cas
+
+    bb.flip();
+    sent = new KeyEntry[count];
+    System.arraycopy(keys, 0, sent, 0, count);
+    firstOpaque = first;
+    setBuffer(bb);
+  }
+
+  /**
+   * Get the index of the key sent with the given opaque, or -1.
+   */
+  private int indexOf(int o) {
+    int i = o - firstOpaque;
+    return i >= 0 && i < sent.length && sent[i] != null ? i : -1;
+  }
+
+  /**
+   * Get the keys which have not been reported yet.
+   */
+  public synchronized Collection<String> getPendingKeys() {
+    return new ArrayList<String>(pending);
+  }
+
+  /**
+   * Mark the given key as reported.
+   *
+   * @return false if it already was
+   */
+  private synchronized boolean settle(String key) {
+    return pending.remove(key);
+  }
+
+  /**
+   * Report every pending key with the given status.
+   */
+  private void failPending(OperationStatus status) {
+    List<String> keys;
+    synchronized (this) {
+      keys = new ArrayList<String>(pending);
+      pending.clear();
+    }
+    BulkWriteOperation.Callback cb =
+      (BulkWriteOperation.Callback) getCallback();
+    for (String key : keys) {
+      cb.gotStatus(key, status);
+    }
+  }
+
+  @Override
+  public void addClone(Operation op) {
+    super.addClone(op);
+    // The clones report the pending keys from now on.
+    synchronized (this) {
+      pending.clear();
+    }
+  }
+
+  @Override
+  protected void wasCancelled() {
+    failPending(CANCELLED);
+    super.wasCancelled();
+  }
+
+  @Override
+  public synchronized void timeOut() {
+    super.timeOut();
+    failPending(TIMED_OUT);
+  }
+
+  @Override
+  public synchronized boolean isTimedOut(long ttlMillis) {
+    boolean rv = super.isTimedOut(ttlMillis);
+    if (rv) {
+      failPending(TIMED_OUT);
+    }
+    return rv;
+  }
+
+  @Override
+  protected void handleError(OperationErrorType eType, String line)
+    throws IOException {
+    try {
+      super.handleError(eType, line);
+    } finally {
+      failPending(new OperationStatus(false, line, StatusCode.ERR_INTERNAL));
+    }
+  }
+
+  @Override
+  protected void finishedPayload(byte[] pl) throws IOException {
+    BulkWriteOperation.Callback cb =
+      (BulkWriteOperation.Callback) getCallback();
+    if (responseOpaque == terminalOpaque) {
+      for (KeyEntry e : sent) {
+        if (e != null && settle(e.key)) {
+          cb.gotStatus(e.key, STATUS_OK);
+        }
+      }
+      cb.receivedStatus(STATUS_OK);
+      transitionState(OperationState.COMPLETE);
+    } else {
+      int i = indexOf(responseOpaque);
+      if (i < 0) {
+        getLogger().warn("Ignoring response with unknown opaque %d",
+          responseOpaque);
+        resetInput();
+        return;
+      }
+      String key = sent[i].key;
+      sent[i] = null;
+      OperationStatus status = getStatusForErrorCode(errorCode, pl);
+      if (status == null) {
+        status = new OperationStatus(false, new String(pl),
+          StatusCode.fromBinaryCode(errorCode));
+      }
+      if (settle(key)) {
+        cb.gotStatus(key, status);
+      }
+    }
+    resetInput();
+  }
+
+  @Override
+  protected boolean opaqueIsValid() {
+    return responseOpaque == terminalOpaque || indexOf(responseOpaque) >= 0;
+  }
+}
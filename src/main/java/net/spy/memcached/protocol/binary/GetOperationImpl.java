@@ -47,10 +47,12 @@ class GetOperationImpl extends SingleKeyOperationImpl implements GetOperation {
   }
 
   @Override
-  protected void decodePayload(byte[] pl) {
-    final int flags = decodeInt(pl, 0);
-    final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-    System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
+  protected boolean streamsValue() {
+    return true;
+  }
+
+  @Override
+  protected void decodeValue(int flags, byte[] data) {
     GetOperation.Callback gcb = (GetOperation.Callback) getCallback();
     gcb.gotData(key, flags, data);
     getCallback().receivedStatus(STATUS_OK);
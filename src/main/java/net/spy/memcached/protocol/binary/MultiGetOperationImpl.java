@@ -27,68 +27,46 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
-import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.GetOperation;
-import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
 import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
 
-import static net.spy.memcached.protocol.binary.GetOperationImpl.EXTRA_HDR_LEN;
-
 public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
     GetOperation {
 
   private static final byte CMD_GETQ = 0x09;
 
-  private final Map<Integer, String> keys = new HashMap<Integer, String>();
-  private final Map<Integer, byte[]> bkeys = new HashMap<Integer, byte[]>();
-  private final Map<String, Integer> rkeys = new HashMap<String, Integer>();
+  // The key at index i was sent with the opaque firstOpaque + i.
+  private KeyEntry[] sent = new KeyEntry[0];
+  private int firstOpaque;
 
   private final int terminalOpaque = generateOpaque();
   private final List<String> retryKeys = new ArrayList<String>();
 
   public MultiGetOperationImpl(Collection<String> k, OperationCallback cb) {
     super(DUMMY_OPCODE, -1, cb);
-    for (String s : new HashSet<String>(k)) {
+    for (String s : k) {
       addKey(s);
     }
   }
 
-  /**
-   * Add a key (and return its new opaque value).
-   */
-  protected int addKey(String k) {
-    Integer rv = rkeys.get(k);
-    if (rv == null) {
-      rv = generateOpaque();
-      keys.put(rv, k);
-      bkeys.put(rv, KeyUtil.getKeyBytes(k));
-      rkeys.put(k, rv);
-      synchronized (vbmap) {
-        vbmap.put(k, new Short((short) 0));
-      }
-    }
-    return rv;
-  }
-
   @Override
   public void initialize() {
-    int size = (1 + keys.size()) * MIN_RECV_PACKET;
-    for (byte[] b : bkeys.values()) {
-      size += b.length;
+    KeyEntry[] keys = getEntries();
+    int first = generateOpaques(keys.length);
+
+    int size = (1 + keys.length) * MIN_RECV_PACKET;
+    for (KeyEntry e : keys) {
+      size += e.keyBytes.length;
     }
     // set up the initial header stuff
-    ByteBuffer bb = ByteBuffer.allocate(size);
-    for (Map.Entry<Integer, byte[]> me : bkeys.entrySet()) {
-      final byte[] keyBytes = me.getValue();
-      final String key = keys.get(me.getKey());
+    ByteBuffer bb = allocateBuffer(size);
+    for (int i = 0; i < keys.length; i++) {
+      final byte[] keyBytes = keys[i].keyBytes;
 
       // Custom header
       bb.put(REQ_MAGIC);
@@ -96,9 +74,9 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
       bb.putShort((short) keyBytes.length);
       bb.put((byte) 0); // extralen
       bb.put((byte) 0); // data type
-      bb.putShort(vbmap.get(key).shortValue()); // vbucket
+      bb.putShort(keys[i].vbucket); // vbucket
       bb.putInt(keyBytes.length);
-      bb.putInt(me.getKey());
+      bb.putInt(first + i);
       bb.putLong(0); // cas
       // the actual key
       bb.put(keyBytes);
@@ -115,9 +93,19 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
     bb.putLong(0); // cas
 
     bb.flip();
+    sent = keys;
+    firstOpaque = first;
     setBuffer(bb);
   }
 
+  /**
+   * Get the key that was sent with the given opaque, or null.
+   */
+  private String keyFor(int o) {
+    int i = o - firstOpaque;
+    return i >= 0 && i < sent.length ? sent[i].key : null;
+  }
+
   @Override
   protected void finishedPayload(byte[] pl) throws IOException {
     getStatusForErrorCode(errorCode, pl);
@@ -134,23 +122,29 @@ public class MultiGetOperationImpl extends MultiKeyOperationImpl implements
         transitionState(OperationState.COMPLETE);
       }
     } else if (errorCode == ERR_NOT_MY_VBUCKET) {
-      retryKeys.add(keys.get(responseOpaque));
+      retryKeys.add(keyFor(responseOpaque));
     } else if (errorCode != SUCCESS) {
-      getLogger().warn("Error on key %s:  %s (%d)", keys.get(responseOpaque),
+      getLogger().warn("Error on key %s:  %s (%d)", keyFor(responseOpaque),
           new String(pl), errorCode);
-    } else {
-      final int flags = decodeInt(pl, 0);
-      final byte[] data = new byte[pl.length - EXTRA_HDR_LEN];
-      System.arraycopy(pl, EXTRA_HDR_LEN, data, 0, pl.length - EXTRA_HDR_LEN);
-      Callback cb = (Callback) getCallback();
-      cb.gotData(keys.get(responseOpaque), flags, data);
     }
     resetInput();
   }
 
+  @Override
+  protected boolean streamsValue() {
+    return responseOpaque != terminalOpaque;
+  }
+
+  @Override
+  protected void finishedValue(int flags, byte[] data) throws IOException {
+    Callback cb = (Callback) getCallback();
+    cb.gotData(keyFor(responseOpaque), flags, data);
+    resetInput();
+  }
+
   @Override
   protected boolean opaqueIsValid() {
-    return responseOpaque == terminalOpaque || keys.containsKey(responseOpaque);
+    return responseOpaque == terminalOpaque || keyFor(responseOpaque) != null;
   }
 
   /**
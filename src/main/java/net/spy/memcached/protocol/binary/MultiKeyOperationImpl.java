@@ -28,6 +28,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import net.spy.memcached.KeyUtil;
 import net.spy.memcached.MemcachedNode;
 import net.spy.memcached.ops.KeyedOperation;
 import net.spy.memcached.ops.OperationCallback;
@@ -40,15 +41,38 @@ import net.spy.memcached.util.StringUtils;
  */
 abstract class MultiKeyOperationImpl extends OperationImpl implements
   VBucketAware, KeyedOperation {
-  protected final Map<String, Short> vbmap;
+  protected final Map<String, KeyEntry> entries;
 
   protected MultiKeyOperationImpl(byte c, int o, OperationCallback cb) {
     super(c, o, cb);
-    vbmap = Collections.synchronizedMap(new HashMap<String, Short>());
+    entries = Collections.synchronizedMap(new HashMap<String, KeyEntry>());
+  }
+
+  /**
+   * Add a key (and return its entry, which is only created once per key).
+   */
+  protected KeyEntry addKey(String k) {
+    synchronized (entries) {
+      KeyEntry rv = entries.get(k);
+      if (rv == null) {
+        rv = new KeyEntry(k);
+        entries.put(k, rv);
+      }
+      return rv;
+    }
+  }
+
+  /**
+   * Get a snapshot of the entries of all keys.
+   */
+  protected KeyEntry[] getEntries() {
+    synchronized (entries) {
+      return entries.values().toArray(new KeyEntry[entries.size()]);
+    }
   }
 
   public Collection<String> getKeys() {
-    return vbmap.keySet();
+    return entries.keySet();
   }
 
   public Collection<MemcachedNode> getNotMyVbucketNodes() {
@@ -64,19 +88,41 @@ abstract class MultiKeyOperationImpl extends OperationImpl implements
   }
 
   public void setVBucket(String k, short vb) {
-    assert vbmap.containsKey(k) : "Key " + k + " not contained in operation";
-    vbmap.put(k, Short.valueOf(vb));
+    KeyEntry e = entries.get(k);
+    assert e != null : "Key " + k + " not contained in operation";
+    e.vbucket = vb;
   }
 
   public short getVBucket(String k) {
-    assert vbmap.containsKey(k) : "Key " + k + " not contained in operation";
-    return vbmap.get(k);
+    KeyEntry e = entries.get(k);
+    assert e != null : "Key " + k + " not contained in operation";
+    return e.vbucket;
   }
 
   @Override
   public String toString() {
-    synchronized (vbmap) {
+    synchronized (entries) {
       return super.toString() + " Keys: " + StringUtils.join(getKeys(), " ");
     }
   }
+
+  /**
+   * Everything an operation needs to know about one of its keys.
+   *
+   * <p>
+   * The opaque of a key is not kept here: operations take a contiguous range
+   * of opaques when they are initialized, so the position of an entry in
+   * that range is enough to find it again.
+   * </p>
+   */
+  static final class KeyEntry {
+    final String key;
+    final byte[] keyBytes;
+    volatile short vbucket = 0;
+
+    KeyEntry(String k) {
+      key = k;
+      keyBytes = KeyUtil.getKeyBytes(k);
+    }
+  }
 }
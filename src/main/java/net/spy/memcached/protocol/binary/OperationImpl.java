@@ -38,6 +38,7 @@ import net.spy.memcached.ops.OperationState;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.protocol.BaseOperationImpl;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 /**
  * Base class for binary operations.
@@ -85,6 +86,12 @@ public  abstract class OperationImpl extends BaseOperationImpl
   private byte[] payload = null;
   private byte[] errorMsg = null;
 
+  // Streamed value responses
+  private byte[] prefix = EMPTY_BYTES;
+  private int prefixLen = 0;
+  private int prefixOffset = 0;
+  private byte[] value = null;
+
   // Response header fields
   protected int keyLen;
   protected byte responseCmd;
@@ -111,6 +118,9 @@ public  abstract class OperationImpl extends BaseOperationImpl
     payload = null;
     payloadOffset = 0;
     headerOffset = 0;
+    value = null;
+    prefixLen = 0;
+    prefixOffset = 0;
   }
 
   /**
@@ -121,6 +131,10 @@ public  abstract class OperationImpl extends BaseOperationImpl
    * bytes, indicated by {@link #MIN_RECV_PACKET}). Then, the payload is read
    * (if one is available for this operation and can be loaded fully).
    *
+   * Successful responses of operations which stream their value are not
+   * buffered as a whole: the extras and key are read into a small scratch
+   * array and the value goes straight into the array handed to the callback.
+   *
    * @param buffer the buffer to read from.
    * @throws IOException if an error happened during parsing/reading.
    */
@@ -133,7 +147,9 @@ public  abstract class OperationImpl extends BaseOperationImpl
       }
     }
 
-    if (headerOffset >= MIN_RECV_PACKET && payload == null) {
+    if (value != null) {
+      readValueFromBuffer(buffer);
+    } else if (headerOffset >= MIN_RECV_PACKET && payload == null) {
       finishedPayload(EMPTY_BYTES);
     } else if (payload != null) {
       readPayloadFromBuffer(buffer);
@@ -170,9 +186,19 @@ public  abstract class OperationImpl extends BaseOperationImpl
     keyLen = decodeShort(header, 2);
     errorCode = decodeShort(header, 6);
     int bytesToRead = decodeInt(header, 8);
-    payload = new byte[bytesToRead];
+    int extraLen = decodeByte(header, 4);
     responseOpaque = decodeInt(header, 12);
     responseCas = decodeLong(header, 16);
+    if (errorCode == SUCCESS && streamsValue()
+        && bytesToRead >= extraLen + keyLen) {
+      prefixLen = extraLen + keyLen;
+      if (prefix.length < prefixLen) {
+        prefix = new byte[prefixLen];
+      }
+      value = new byte[bytesToRead - prefixLen];
+    } else {
+      payload = bytesToRead == 0 ? EMPTY_BYTES : new byte[bytesToRead];
+    }
     assert opaqueIsValid() : "Opaque is not valid";
   }
 
@@ -197,6 +223,68 @@ public  abstract class OperationImpl extends BaseOperationImpl
     }
   }
 
+  /**
+   * Read the extras, key and value of a streamed response from the buffer.
+   *
+   * @param buffer the buffer to read from.
+   * @throws IOException if an error occures during value finishing.
+   */
+  private void readValueFromBuffer(final ByteBuffer buffer)
+    throws IOException {
+    if (prefixOffset < prefixLen) {
+      int toRead = Math.min(prefixLen - prefixOffset, buffer.remaining());
+      buffer.get(prefix, prefixOffset, toRead);
+      prefixOffset += toRead;
+    }
+    if (prefixOffset == prefixLen) {
+      int toRead = Math.min(value.length - payloadOffset, buffer.remaining());
+      getLogger().debug("Reading %d value bytes", toRead);
+      buffer.get(value, payloadOffset, toRead);
+      payloadOffset += toRead;
+
+      if (payloadOffset == value.length) {
+        byte[] data = value;
+        value = null;
+        int extraLen = prefixLen - keyLen;
+        finishedValue(extraLen >= 4 ? decodeInt(prefix, 0) : 0, data);
+      }
+    }
+  }
+
+  /**
+   * True if successful responses of this operation carry flags and a value
+   * which should be read directly into its own array instead of being
+   * buffered as a payload first.
+   *
+   * Operations returning true get {@link #finishedValue(int, byte[])} called
+   * instead of {@link #finishedPayload(byte[])} for successful responses.
+   */
+  protected boolean streamsValue() {
+    return false;
+  }
+
+  /**
+   * Called when the value of a successful streamed response has been read.
+   *
+   * @param flags the flags from the extras of the response.
+   * @param data the value.
+   * @throws IOException if an error happened while handling the value.
+   */
+  protected void finishedValue(int flags, byte[] data) throws IOException {
+    decodeValue(flags, data);
+    transitionState(OperationState.COMPLETE);
+  }
+
+  /**
+   * Decode the value of a successful streamed response.
+   *
+   * @param flags the flags from the extras of the response.
+   * @param data the value.
+   */
+  protected void decodeValue(int flags, byte[] data) {
+    assert false : "Value is streamed, but decode isn't overridden";
+  }
+
   protected void finishedPayload(byte[] pl) throws IOException {
     OperationStatus status = getStatusForErrorCode(errorCode, pl);
 
@@ -332,27 +420,70 @@ public  abstract class OperationImpl extends BaseOperationImpl
     final byte[] keyBytes = KeyUtil.getKeyBytes(key);
     int bufSize = MIN_RECV_PACKET + keyBytes.length + val.length;
 
-    ByteBuffer bb = ByteBuffer.allocate(bufSize + extraLen);
+    ByteBuffer bb = allocateBuffer(bufSize + extraLen);
     assert bb.order() == ByteOrder.BIG_ENDIAN;
+    putHeader(bb, keyBytes, cas, val.length, extraLen, extraHeaders);
+    bb.put(val);
+
+    bb.flip();
+    setBuffer(bb);
+  }
+
+  /**
+   * Prepare the buffer for sending a value encoded into a stream.
+   *
+   * The header is written into the headroom in front of the value, so the
+   * value is sent from where it has been encoded. If the headroom is too
+   * small, the value is copied like a byte array value.
+   *
+   * @param key the key (for keyed ops).
+   * @param cas the cas value.
+   * @param val the stream holding the data payload.
+   * @param extraHeaders any additional headers that need to be sent.
+   */
+  protected void prepareBuffer(final String key, final long cas,
+    final ByteBufferOutputStream val, final Object... extraHeaders) {
+    int extraLen = 0;
+    if (extraHeaders.length > 0) {
+      extraLen = calculateExtraLength(extraHeaders);
+    }
+
+    final byte[] keyBytes = KeyUtil.getKeyBytes(key);
+    int headerSize = MIN_RECV_PACKET + extraLen + keyBytes.length;
+    if (headerSize > val.getHeadroom()) {
+      prepareBuffer(key, cas, val.toByteArray(), extraHeaders);
+      return;
+    }
+
+    ByteBuffer bb = val.getBuffer().duplicate();
+    bb.limit(bb.position());
+    bb.position(val.getHeadroom() - headerSize);
+    bb = bb.slice();
+    assert bb.order() == ByteOrder.BIG_ENDIAN;
+    putHeader(bb, keyBytes, cas, val.size(), extraLen, extraHeaders);
+
+    bb.rewind();
+    setBuffer(bb);
+  }
+
+  private void putHeader(final ByteBuffer bb, final byte[] keyBytes,
+    final long cas, final int valLength, final int extraLen,
+    final Object... extraHeaders) {
     bb.put(REQ_MAGIC);
     bb.put(cmd);
     bb.putShort((short) keyBytes.length);
     bb.put((byte) extraLen);
     bb.put((byte) 0);
     bb.putShort(vbucket);
-    bb.putInt(keyBytes.length + val.length + extraLen);
+    bb.putInt(keyBytes.length + valLength + extraLen);
     bb.putInt(opaque);
     bb.putLong(cas);
 
-    if (extraHeadersLength > 0) {
+    if (extraHeaders.length > 0) {
       addExtraHeaders(bb, extraHeaders);
     }
 
     bb.put(keyBytes);
-    bb.put(val);
-
-    bb.flip();
-    setBuffer(bb);
   }
 
   /**
@@ -414,6 +545,18 @@ public  abstract class OperationImpl extends BaseOperationImpl
     return rv;
   }
 
+  /**
+   * Generate a contiguous range of opaque IDs, and return the first one.
+   */
+  static int generateOpaques(int count) {
+    int last = SEQ_NUMBER.addAndGet(count);
+    while (last < 0) {
+      SEQ_NUMBER.compareAndSet(last, 0);
+      last = SEQ_NUMBER.addAndGet(count);
+    }
+    return last - count + 1;
+  }
+
   @Override
   public String toString() {
     return "Cmd: " + cmd + " Opaque: " + opaque;
@@ -26,10 +26,8 @@ package net.spy.memcached.protocol.binary;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import net.spy.memcached.KeyUtil;
 import net.spy.memcached.ops.CASOperation;
@@ -47,8 +45,9 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
   private static final OperationCallback NOOP_CALLBACK = new NoopCallback();
 
   private final int terminalOpaque = generateOpaque();
-  private final Map<Integer, OperationCallback> callbacks =
-      new HashMap<Integer, OperationCallback>();
+  // The store at index i was sent with the opaque firstOpaque + i.
+  private OperationCallback[] callbacks = new OperationCallback[0];
+  private int firstOpaque;
   private final List<CASOperation> ops = new ArrayList<CASOperation>();
 
   // If nothing else, this will be a NOOP.
@@ -85,15 +84,18 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
   @Override
   public void initialize() {
     // Now create a buffer.
-    ByteBuffer bb = ByteBuffer.allocate(byteCount);
-    for (CASOperation so : ops) {
+    ByteBuffer bb = allocateBuffer(byteCount);
+    int first = generateOpaques(ops.size());
+    OperationCallback[] cbs = new OperationCallback[ops.size()];
+    for (int i = 0; i < cbs.length; i++) {
+      CASOperation so = ops.get(i);
       Iterator<String> is = so.getKeys().iterator();
       String k = is.next();
       byte[] keyBytes = KeyUtil.getKeyBytes(k);
       assert !is.hasNext();
 
-      int myOpaque = generateOpaque();
-      callbacks.put(myOpaque, so.getCallback());
+      int myOpaque = first + i;
+      cbs[i] = so.getCallback();
       byte[] data = so.getData();
 
       // Custom header
@@ -126,9 +128,19 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
     bb.putLong(0); // cas
 
     bb.flip();
+    callbacks = cbs;
+    firstOpaque = first;
     setBuffer(bb);
   }
 
+  /**
+   * Get the index of the store sent with the given opaque, or -1.
+   */
+  private int indexOf(int o) {
+    int i = o - firstOpaque;
+    return i >= 0 && i < callbacks.length && callbacks[i] != null ? i : -1;
+  }
+
   private static byte cmdMap(StoreType t) {
     byte rv;
     switch (t) {
@@ -152,14 +164,17 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
   @Override
   protected void finishedPayload(byte[] pl) throws IOException {
     if (responseOpaque == terminalOpaque) {
-      for (OperationCallback cb : callbacks.values()) {
-        cb.receivedStatus(STATUS_OK);
-        cb.complete();
+      for (OperationCallback cb : callbacks) {
+        if (cb != null) {
+          cb.receivedStatus(STATUS_OK);
+          cb.complete();
+        }
       }
       transitionState(OperationState.COMPLETE);
     } else {
-      OperationCallback cb = callbacks.remove(responseOpaque);
-      assert cb != null : "No callback for " + responseOpaque;
+      int i = indexOf(responseOpaque);
+      assert i >= 0 : "No callback for " + responseOpaque;
+      callbacks[i] = null;
       assert errorCode != 0 : "Got no error on a quiet mutation.";
       super.finishedPayload(pl);
     }
@@ -168,8 +183,7 @@ public class OptimizedSetImpl extends MultiKeyOperationImpl {
 
   @Override
   protected boolean opaqueIsValid() {
-    return responseOpaque == terminalOpaque
-        || callbacks.containsKey(responseOpaque);
+    return responseOpaque == terminalOpaque || indexOf(responseOpaque) >= 0;
   }
 
   static class NoopCallback implements OperationCallback {
@@ -51,11 +51,12 @@ public class ReplicaGetOperationImpl extends SingleKeyOperationImpl
   }
 
   @Override
-  protected void decodePayload(byte[] pl) {
-    final int flags = decodeInt(pl, 0);
-    final byte[] data = new byte[pl.length - EXTRA_HDR_LEN - keyLen];
-    System.arraycopy(pl, (EXTRA_HDR_LEN + keyLen), data, 0,
-      pl.length - EXTRA_HDR_LEN - keyLen);
+  protected boolean streamsValue() {
+    return true;
+  }
+
+  @Override
+  protected void decodeValue(int flags, byte[] data) {
     ReplicaGetOperation.Callback gcb =
       (ReplicaGetOperation.Callback) getCallback();
     gcb.gotData(key, flags, data);
@@ -26,6 +26,7 @@ package net.spy.memcached.protocol.binary;
 import net.spy.memcached.ops.CASOperation;
 import net.spy.memcached.ops.StoreOperation;
 import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 class StoreOperationImpl extends SingleKeyOperationImpl implements
     StoreOperation, CASOperation {
@@ -45,7 +46,9 @@ class StoreOperationImpl extends SingleKeyOperationImpl implements
   private final int flags;
   private final int exp;
   private final long cas;
-  private final byte[] data;
+  private final int length;
+  private final ByteBufferOutputStream encoded;
+  private byte[] data;
 
   private static byte cmdMap(StoreType t) {
     byte rv;
@@ -73,13 +76,42 @@ class StoreOperationImpl extends SingleKeyOperationImpl implements
     flags = f;
     exp = e;
     data = d;
+    length = d.length;
+    encoded = null;
+    cas = c;
+    storeType = t;
+  }
+
+  /**
+   * Create a store operation sending a value encoded into a stream.
+   *
+   * The stream is released once the operation has completed.
+   */
+  public StoreOperationImpl(StoreType t, String k, int f, int e,
+      ByteBufferOutputStream d, long c, StoreOperation.Callback cb) {
+    super(cmdMap(t), generateOpaque(), k, cb);
+    flags = f;
+    exp = e;
+    length = d.size();
+    encoded = d;
     cas = c;
     storeType = t;
   }
 
   @Override
   public void initialize() {
-    prepareBuffer(key, cas, data, flags, exp);
+    if (encoded != null) {
+      prepareBuffer(key, cas, encoded, flags, exp);
+    } else {
+      prepareBuffer(key, cas, data, flags, exp);
+    }
+  }
+
+  @Override
+  protected void wasCompleted() {
+    if (encoded != null) {
+      encoded.release();
+    }
   }
 
   public long getCasValue() {
@@ -94,7 +126,10 @@ class StoreOperationImpl extends SingleKeyOperationImpl implements
     return flags;
   }
 
-  public byte[] getData() {
+  public synchronized byte[] getData() {
+    if (data == null) {
+      data = encoded.toByteArray();
+    }
     return data;
   }
 
@@ -111,6 +146,6 @@ class StoreOperationImpl extends SingleKeyOperationImpl implements
   @Override
   public String toString() {
     return super.toString() + " Cas: " + cas + " Exp: " + exp + " Flags: "
-      + flags + " Data Length: " + data.length;
+      + flags + " Data Length: " + length;
   }
 }
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.reactive;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.internal.CompletionCallback;
+import net.spy.memcached.internal.DirectFuture;
+
+/**
+ * Publishes the results of one operation per item, sending operations only
+ * as the subscriber asks for results.
+ *
+ * <p>No more operations are outstanding than results have been requested,
+ * and no more than {@code credits} per node. When the node of the next item
+ * has no credit left, no further items are taken until one of its operations
+ * completes, so a slow node slows down the stream instead of filling its
+ * queue.</p>
+ *
+ * <p>All the state below is only touched by the thread currently running
+ * {@link OperationSubscription#drain()}, which may be the subscriber or an
+ * IO thread completing an operation.</p>
+ *
+ * @param <I> the type of the items operations are sent for
+ * @param <R> the type of the operation results
+ */
+abstract class OperationPublisher<I, R> extends SpyObject
+  implements Publisher<Map.Entry<String, R>> {
+
+  private final Iterator<? extends I> items;
+  private final NodeLocator locator;
+  private final int credits;
+  private final AtomicBoolean subscribed = new AtomicBoolean();
+
+  OperationPublisher(Iterator<? extends I> it, NodeLocator l, int c) {
+    if (c < 1) {
+      throw new IllegalArgumentException("Credits must be at least 1");
+    }
+    items = it;
+    locator = l;
+    credits = c;
+  }
+
+  /**
+   * Get the key of an item.
+   */
+  abstract String keyOf(I item);
+
+  /**
+   * Send the operation for an item.
+   */
+  abstract DirectFuture<R> send(I item);
+
+  /**
+   * Tell whether a result is passed on to the subscriber. Results that are
+   * not, such as misses, still return their credit and demand.
+   */
+  boolean emits(R result) {
+    return true;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super Map.Entry<String, R>> s) {
+    if (!subscribed.compareAndSet(false, true)) {
+      s.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+          // Nothing to send
+        }
+
+        @Override
+        public void cancel() {
+          // Nothing to cancel
+        }
+      });
+      s.onError(new IllegalStateException("Can only be subscribed once"));
+      return;
+    }
+    OperationSubscription sub = new OperationSubscription(s);
+    s.onSubscribe(sub);
+    sub.drain();
+  }
+
+  private final class OperationSubscription implements Subscription {
+    private final Subscriber<? super Map.Entry<String, R>> subscriber;
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final ConcurrentLinkedQueue<Completion> completed =
+      new ConcurrentLinkedQueue<Completion>();
+    private volatile boolean cancelled;
+    private volatile Throwable invalidRequest;
+
+    private final Map<MemcachedNode, Integer> used =
+      new HashMap<MemcachedNode, Integer>();
+    private int inFlight;
+    private I held;
+    private boolean done;
+
+    private OperationSubscription(Subscriber<? super Map.Entry<String, R>> s) {
+      subscriber = s;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest = new IllegalArgumentException(
+          "Requested " + n + " items, must be positive");
+      } else {
+        long r;
+        long next;
+        do {
+          r = requested.get();
+          next = r + n < 0 ? Long.MAX_VALUE : r + n;
+        } while (!requested.compareAndSet(r, next));
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      drain();
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      int missed = 1;
+      do {
+        if (!done && invalidRequest != null) {
+          fail(invalidRequest);
+        }
+        Completion c;
+        while ((c = completed.poll()) != null) {
+          inFlight--;
+          release(c.node);
+          if (done || cancelled) {
+            continue;
+          }
+          if (c.failure != null) {
+            fail(c.failure);
+          } else if (emits(c.result)) {
+            requested.decrementAndGet();
+            subscriber.onNext(new AbstractMap.SimpleImmutableEntry<String, R>(
+              c.key, c.result));
+          }
+        }
+        if (!done && !cancelled) {
+          sendMore();
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void sendMore() {
+      try {
+        while (inFlight < requested.get()) {
+          I item = held;
+          if (item == null) {
+            if (!items.hasNext()) {
+              break;
+            }
+            item = items.next();
+          }
+          String key = keyOf(item);
+          MemcachedNode node = locator.getPrimary(key);
+          Integer n = used.get(node);
+          if (n != null && n >= credits) {
+            held = item;
+            return;
+          }
+          held = null;
+          used.put(node, n == null ? 1 : n + 1);
+          inFlight++;
+          send(item).addCallback(new Completion(key, node));
+        }
+      } catch (RuntimeException e) {
+        fail(e);
+        return;
+      }
+      if (inFlight == 0 && held == null && !items.hasNext()) {
+        done = true;
+        subscriber.onComplete();
+      }
+    }
+
+    private void release(MemcachedNode node) {
+      int n = used.get(node);
+      if (n == 1) {
+        used.remove(node);
+      } else {
+        used.put(node, n - 1);
+      }
+    }
+
+    private void fail(Throwable t) {
+      done = true;
+      getLogger().debug("Stopping the stream of operations", t);
+      subscriber.onError(t);
+    }
+
+    private final class Completion implements CompletionCallback<R> {
+      private final String key;
+      private final MemcachedNode node;
+      private R result;
+      private Throwable failure;
+
+      private Completion(String k, MemcachedNode n) {
+        key = k;
+        node = n;
+      }
+
+      @Override
+      public void onSuccess(R r) {
+        result = r;
+        completed.add(this);
+        drain();
+      }
+
+      @Override
+      public void onFailure(Throwable cause) {
+        failure = cause;
+        completed.add(this);
+        drain();
+      }
+    }
+  }
+}
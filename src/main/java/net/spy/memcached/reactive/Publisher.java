@@ -0,0 +1,45 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.reactive;
+
+/**
+ * A source of items, sent to a {@link Subscriber} as it asks for them.
+ *
+ * <p>This follows the Reactive Streams {@code Publisher}.</p>
+ *
+ * @param <T> the type of the published items
+ */
+public interface Publisher<T> {
+
+  /**
+   * Start sending items to the given subscriber.
+   *
+   * <p>The subscriber is first handed a {@link Subscription}, which it uses to
+   * ask for items. A publisher that can be subscribed to only once signals
+   * an {@link IllegalStateException} to later subscribers.</p>
+   *
+   * @param s the subscriber receiving the items
+   */
+  void subscribe(Subscriber<? super T> s);
+}
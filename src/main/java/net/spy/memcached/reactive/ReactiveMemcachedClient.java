@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.reactive;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import net.spy.memcached.AsyncMemcachedClient;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.internal.DirectFuture;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Streams of gets and sets whose pace is set by their subscribers.
+ *
+ * <p>Instead of queueing an operation for every key up front, which for
+ * millions of keys fails with an {@link IllegalStateException} once the
+ * queue of a node is full, the operations are only sent as results are
+ * requested, with at most a fixed number of credits outstanding per node.
+ * The credits should stay well below the operation queue length of the
+ * connection factory, so adding operations never has to wait.</p>
+ *
+ * <p>The publishers take their keys from an iterator, so each of them can
+ * be subscribed to only once. Results are delivered on the IO threads.</p>
+ */
+public class ReactiveMemcachedClient {
+
+  /**
+   * The default number of operations outstanding per node.
+   */
+  public static final int DEFAULT_CREDITS_PER_NODE = 128;
+
+  private final MemcachedClient client;
+  private final AsyncMemcachedClient async;
+  private final int credits;
+
+  /**
+   * Send operations through the given client, with the default number of
+   * credits per node.
+   *
+   * @param c the client sending the operations
+   */
+  public ReactiveMemcachedClient(MemcachedClient c) {
+    this(c, DEFAULT_CREDITS_PER_NODE);
+  }
+
+  /**
+   * Send operations through the given client.
+   *
+   * @param c the client sending the operations
+   * @param creditsPerNode the maximum number of operations outstanding per
+   *          node for every stream
+   */
+  public ReactiveMemcachedClient(MemcachedClient c, int creditsPerNode) {
+    if (creditsPerNode < 1) {
+      throw new IllegalArgumentException("Credits must be at least 1");
+    }
+    client = c;
+    async = new AsyncMemcachedClient(c);
+    credits = creditsPerNode;
+  }
+
+  /**
+   * Get the values of the given keys, publishing those that exist.
+   *
+   * @param keys the keys to get
+   * @return a publisher of the keys and their values
+   */
+  public Publisher<Map.Entry<String, Object>> getAll(Iterator<String> keys) {
+    return getAll(keys, client.getTranscoder());
+  }
+
+  /**
+   * Get the values of the given keys, publishing those that exist.
+   *
+   * <p>Keys which do not exist return their demand, so every request is
+   * eventually answered by a value or the end of the stream.</p>
+   *
+   * @param <T>
+   * @param keys the keys to get
+   * @param tc the transcoder to decode the values
+   * @return a publisher of the keys and their values
+   */
+  public <T> Publisher<Map.Entry<String, T>> getAll(Iterator<String> keys,
+      final Transcoder<T> tc) {
+    return new OperationPublisher<String, T>(keys, client.getNodeLocator(),
+        credits) {
+      @Override
+      String keyOf(String key) {
+        return key;
+      }
+
+      @Override
+      DirectFuture<T> send(String key) {
+        return async.get(key, tc);
+      }
+
+      @Override
+      boolean emits(T value) {
+        return value != null;
+      }
+    };
+  }
+
+  /**
+   * Set the given keys, publishing whether each of them was stored.
+   *
+   * @param items the keys and the values to store
+   * @param exp the expiration of the values
+   * @return a publisher of the keys and whether they were stored
+   */
+  public Publisher<Map.Entry<String, Boolean>> setAll(
+      Iterator<? extends Map.Entry<String, ?>> items, int exp) {
+    return setAll(items, exp, client.getTranscoder());
+  }
+
+  /**
+   * Set the given keys, publishing whether each of them was stored.
+   *
+   * @param <T>
+   * @param items the keys and the values to store
+   * @param exp the expiration of the values
+   * @param tc the transcoder to encode the values
+   * @return a publisher of the keys and whether they were stored
+   */
+  public <T> Publisher<Map.Entry<String, Boolean>> setAll(
+      Iterator<? extends Map.Entry<String, ? extends T>> items, final int exp,
+      final Transcoder<T> tc) {
+    return new OperationPublisher<Map.Entry<String, ? extends T>, Boolean>(
+        items, client.getNodeLocator(), credits) {
+      @Override
+      String keyOf(Map.Entry<String, ? extends T> item) {
+        return item.getKey();
+      }
+
+      @Override
+      DirectFuture<Boolean> send(Map.Entry<String, ? extends T> item) {
+        return async.set(item.getKey(), exp, item.getValue(), tc);
+      }
+    };
+  }
+}
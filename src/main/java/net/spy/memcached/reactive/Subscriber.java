@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.reactive;
+
+/**
+ * Receives the items of a {@link Publisher}.
+ *
+ * <p>This follows the Reactive Streams {@code Subscriber}. The methods are
+ * never called concurrently, but they may be called from the IO threads, so
+ * they should not block.</p>
+ *
+ * @param <T> the type of the received items
+ */
+public interface Subscriber<T> {
+
+  /**
+   * Called once before any other method, with the subscription used to ask
+   * for items.
+   */
+  void onSubscribe(Subscription s);
+
+  /**
+   * Called with the next item, at most as often as items were requested.
+   */
+  void onNext(T item);
+
+  /**
+   * Called once when the stream failed. No other method is called after
+   * this.
+   */
+  void onError(Throwable t);
+
+  /**
+   * Called once when all items have been sent. No other method is called
+   * after this.
+   */
+  void onComplete();
+}
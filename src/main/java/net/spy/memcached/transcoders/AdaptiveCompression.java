@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.metrics.CounterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricHandles;
+import net.spy.memcached.metrics.NoopMetricCollector;
+
+/**
+ * Decides whether values are worth compressing, based on how well similar
+ * values compressed before.
+ *
+ * <p>Values are grouped by their class and the power of two of their
+ * encoded size. For every group, the average ratio of compressed to
+ * original size is tracked. Once a group has seen enough values and does
+ * not compress better than the configured ratio, its values are stored
+ * uncompressed, except for one in every {@code sampleRate} values which is
+ * still compressed to notice when the data changes.</p>
+ *
+ * <p>Large values of groups which are still being learned or sampled are
+ * probed first: only a prefix is compressed, and the whole value is only
+ * compressed if the prefix compressed well. Images or values which are
+ * already compressed therefore rarely pay for a full compression.</p>
+ *
+ * <p>The transcoder does not know the keys of the values it encodes, so
+ * the groups cannot take key prefixes into account. Applications with
+ * differently compressible values of the same class can use a transcoder
+ * per kind of value instead.</p>
+ */
+public class AdaptiveCompression {
+
+  static final String COMPRESSED_METRIC = "[MEM] Compression: Compressed";
+  static final String SKIPPED_METRIC = "[MEM] Compression: Skipped";
+  static final String BYTES_SAVED_METRIC = "[MEM] Compression: Bytes Saved";
+  static final String TIME_SAVED_METRIC =
+    "[MEM] Compression: Microseconds Saved";
+
+  /**
+   * Compress one in this many values of groups which do not compress well.
+   */
+  public static final int DEFAULT_SAMPLE_RATE = 64;
+
+  /**
+   * Compress values which shrink to at most this fraction of their size.
+   */
+  public static final double DEFAULT_MAX_RATIO = 0.9;
+
+  /**
+   * Values larger than twice this are probed with a prefix of this size.
+   */
+  public static final int DEFAULT_PROBE_SIZE = 4096;
+
+  /**
+   * The number of values of a group compressed before it may be skipped.
+   */
+  private static final int MIN_SAMPLES = 8;
+
+  /**
+   * The weight of a new value in the averages.
+   */
+  private static final double WEIGHT = 0.125;
+
+  private static final int SIZE_CLASSES = 32;
+
+  private final ConcurrentMap<Class<?>, Group[]> groups =
+    new ConcurrentHashMap<Class<?>, Group[]>();
+  private final int sampleRate;
+  private final double maxRatio;
+  private final int probeSize;
+  private final CounterHandle compressed;
+  private final CounterHandle skipped;
+  private final CounterHandle bytesSaved;
+  private final CounterHandle timeSaved;
+
+  /**
+   * Create an adaptive compression with the default settings, which does
+   * not report metrics.
+   */
+  public AdaptiveCompression() {
+    this(new NoopMetricCollector());
+  }
+
+  /**
+   * Create an adaptive compression with the default settings.
+   *
+   * @param collector the collector to report the compressed and skipped
+   *          values, the bytes saved by compression and the estimated
+   *          time saved by skipping it to
+   */
+  public AdaptiveCompression(MetricCollector collector) {
+    this(collector, DEFAULT_SAMPLE_RATE, DEFAULT_MAX_RATIO,
+      DEFAULT_PROBE_SIZE);
+  }
+
+  /**
+   * Create an adaptive compression.
+   *
+   * @param collector the collector to report metrics to
+   * @param rate compress one in this many values of groups which do not
+   *          compress well
+   * @param ratio compress groups of values which shrink to at most this
+   *          fraction of their size
+   * @param probe the size of the prefix large values are probed with, zero
+   *          to never probe
+   */
+  public AdaptiveCompression(MetricCollector collector, int rate,
+    double ratio, int probe) {
+    if (rate < 1) {
+      throw new IllegalArgumentException("Sample rate must be at least 1");
+    }
+    sampleRate = rate;
+    maxRatio = ratio;
+    probeSize = probe;
+    compressed = MetricHandles.counter(collector, COMPRESSED_METRIC);
+    skipped = MetricHandles.counter(collector, SKIPPED_METRIC);
+    bytesSaved = MetricHandles.counter(collector, BYTES_SAVED_METRIC);
+    timeSaved = MetricHandles.counter(collector, TIME_SAVED_METRIC);
+  }
+
+  /**
+   * Decide whether a value should be compressed.
+   *
+   * If true is returned, the caller must compress the value and report the
+   * result with {@link #compressed(Class, int, int, long)}.
+   *
+   * @param type the class of the value
+   * @param data the encoded value
+   * @param codec the codec the value would be compressed with
+   * @return true if the value should be compressed
+   */
+  public boolean shouldCompress(Class<?> type, byte[] data,
+    CompressionCodec codec) {
+    Group group = group(type, data.length);
+    boolean learned = group.samples >= MIN_SAMPLES;
+    if (learned && group.ratio <= maxRatio) {
+      return true;
+    }
+    if (learned && ++group.skips % sampleRate != 0) {
+      skip(group, data.length);
+      return false;
+    }
+    if (probeSize > 0 && data.length > 2 * probeSize) {
+      long start = System.nanoTime();
+      byte[] prefix = codec.compress(Arrays.copyOf(data, probeSize));
+      if ((double) prefix.length / probeSize > maxRatio) {
+        group.update((double) prefix.length / probeSize,
+          System.nanoTime() - start, probeSize);
+        skip(group, data.length);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Report the result of compressing a value.
+   *
+   * @param type the class of the value
+   * @param length the length of the encoded value
+   * @param compressedLength the length of the compressed value
+   * @param nanos the time it took to compress the value
+   */
+  public void compressed(Class<?> type, int length, int compressedLength,
+    long nanos) {
+    group(type, length).update((double) compressedLength / length, nanos,
+      length);
+    compressed.increment();
+    if (compressedLength < length) {
+      bytesSaved.increment(length - compressedLength);
+    }
+  }
+
+  private void skip(Group group, int length) {
+    skipped.increment();
+    timeSaved.increment((int) TimeUnit.NANOSECONDS.toMicros(
+      (long) (group.nanosPerByte * length)));
+  }
+
+  private Group group(Class<?> type, int length) {
+    Group[] sizes = groups.get(type);
+    if (sizes == null) {
+      sizes = new Group[SIZE_CLASSES];
+      for (int i = 0; i < sizes.length; i++) {
+        sizes[i] = new Group();
+      }
+      Group[] existing = groups.putIfAbsent(type, sizes);
+      if (existing != null) {
+        sizes = existing;
+      }
+    }
+    return sizes[31 - Integer.numberOfLeadingZeros(Math.max(1, length))];
+  }
+
+  /**
+   * The statistics of values of one class and size.
+   *
+   * Updates lost to races between threads only make the averages a little
+   * less precise, so they are not synchronized.
+   */
+  private static final class Group {
+    private volatile int samples;
+    private volatile double ratio;
+    private volatile double nanosPerByte;
+    private int skips;
+
+    void update(double r, long nanos, int length) {
+      double perByte = (double) nanos / length;
+      if (samples == 0) {
+        ratio = r;
+        nanosPerByte = perByte;
+      } else {
+        ratio += (r - ratio) * WEIGHT;
+        nanosPerByte += (perByte - nanosPerByte) * WEIGHT;
+      }
+      if (samples < MIN_SAMPLES) {
+        samples++;
+      }
+    }
+  }
+}
@@ -29,12 +29,11 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 import net.spy.memcached.CachedData;
 import net.spy.memcached.compat.CloseUtil;
 import net.spy.memcached.compat.SpyObject;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 /**
  * Base class for any transcoders that may want to work with serialized or
@@ -53,6 +52,7 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
   protected String charset = DEFAULT_CHARSET;
 
   private final int maxSize;
+  private final boolean streamSerialize;
 
   /**
    * Initialize a serializing transcoder with the given maximum data size.
@@ -60,6 +60,23 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
   public BaseSerializingTranscoder(int max) {
     super();
     maxSize = max;
+    // Subclasses which only override serialize(Object) have to be given
+    // the objects there.
+    streamSerialize = declaringClass("serialize", Object.class)
+      .isAssignableFrom(declaringClass("serialize", Object.class,
+        ByteBufferOutputStream.class));
+  }
+
+  Class<?> declaringClass(String name, Class<?>... params) {
+    for (Class<?> c = getClass(); c != null; c = c.getSuperclass()) {
+      try {
+        c.getDeclaredMethod(name, params);
+        return c;
+      } catch (NoSuchMethodException e) {
+        // Look further up
+      }
+    }
+    throw new IllegalStateException("No method " + name);
   }
 
   public boolean asyncDecode(CachedData d) {
@@ -115,6 +132,31 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
     return rv;
   }
 
+  /**
+   * Write the serialized form of the given object to a stream.
+   *
+   * <p>The bytes written must be the same as the ones returned by
+   * {@link #serialize(Object)}. Unless a subclass overrides only that
+   * method, the object is serialized straight into the stream.</p>
+   */
+  protected void serialize(Object o, ByteBufferOutputStream out) {
+    if (!streamSerialize) {
+      byte[] b = serialize(o);
+      out.write(b, 0, b.length);
+      return;
+    }
+    if (o == null) {
+      throw new NullPointerException("Can't serialize null");
+    }
+    try {
+      ObjectOutputStream os = new ObjectOutputStream(out);
+      os.writeObject(o);
+      os.flush();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Non-serializable object", e);
+    }
+  }
+
   /**
    * Get the object represented by the given serialized bytes.
    */
@@ -144,57 +186,21 @@ public abstract class BaseSerializingTranscoder extends SpyObject {
   }
 
   /**
-   * Compress the given array of bytes.
+   * Compress the given array of bytes in the GZIP format.
    */
   protected byte[] compress(byte[] in) {
-    if (in == null) {
-      throw new NullPointerException("Can't compress null");
-    }
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    GZIPOutputStream gz = null;
-    try {
-      gz = new GZIPOutputStream(bos);
-      gz.write(in);
-    } catch (IOException e) {
-      throw new RuntimeException("IO exception compressing data", e);
-    } finally {
-      CloseUtil.close(gz);
-      CloseUtil.close(bos);
-    }
-    byte[] rv = bos.toByteArray();
+    byte[] rv = GZIPCompressionCodec.INSTANCE.compress(in);
     getLogger().debug("Compressed %d bytes to %d", in.length, rv.length);
     return rv;
   }
 
   /**
-   * Decompress the given array of bytes.
+   * Decompress the given array of bytes in the GZIP format.
    *
    * @return null if the bytes cannot be decompressed
    */
   protected byte[] decompress(byte[] in) {
-    ByteArrayOutputStream bos = null;
-    if(in != null) {
-      ByteArrayInputStream bis = new ByteArrayInputStream(in);
-      bos = new ByteArrayOutputStream();
-      GZIPInputStream gis = null;
-      try {
-        gis = new GZIPInputStream(bis);
-
-        byte[] buf = new byte[8192];
-        int r = -1;
-        while ((r = gis.read(buf)) > 0) {
-          bos.write(buf, 0, r);
-        }
-      } catch (IOException e) {
-        getLogger().warn("Failed to decompress data", e);
-        bos = null;
-      } finally {
-        CloseUtil.close(gis);
-        CloseUtil.close(bis);
-        CloseUtil.close(bos);
-      }
-    }
-    return bos == null ? null : bos.toByteArray();
+    return GZIPCompressionCodec.INSTANCE.decompress(in);
   }
 
   /**
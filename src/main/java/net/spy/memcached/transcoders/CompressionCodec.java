@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+/**
+ * A compression format used by transcoders for large values.
+ *
+ * <p>The {@link SerializingTranscoder} stores the id of the codec a value
+ * was compressed with in the flags of the value, so values compressed with
+ * different codecs can be read by any transcoder which knows all of them.
+ * Ids 0 to 7 are reserved for the codecs of this library, custom codecs
+ * may use the ids up to {@link #MAX_ID}.</p>
+ *
+ * <p>Codecs are shared by all threads using a transcoder, so they must be
+ * thread safe.</p>
+ */
+public interface CompressionCodec {
+
+  /**
+   * The largest id a codec may have.
+   */
+  int MAX_ID = 15;
+
+  /**
+   * The id of this codec, stored with every value compressed by it.
+   */
+  int getId();
+
+  /**
+   * Compress the given array of bytes.
+   *
+   * @param in the bytes to compress
+   * @return the compressed bytes, which may be larger than the input
+   */
+  byte[] compress(byte[] in);
+
+  /**
+   * Decompress the given array of bytes.
+   *
+   * @param in bytes compressed by this codec
+   * @return the original bytes, or null if they cannot be decompressed
+   */
+  byte[] decompress(byte[] in);
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Compresses values in the raw deflate format, preceded by their length.
+ *
+ * <p>The compression is the same as the one of GZIP, but the native
+ * {@link Deflater} and {@link Inflater} instances are pooled instead of
+ * being created for every value, no streams or intermediate buffers are
+ * involved, and values are decompressed straight into an array of their
+ * exact size.</p>
+ */
+public class DeflateCompressionCodec extends SpyObject
+  implements CompressionCodec {
+
+  /**
+   * The id of this codec.
+   */
+  public static final int ID = 1;
+
+  /**
+   * The number of bytes of the length in front of the compressed data.
+   */
+  static final int HEADER_LENGTH = 4;
+
+  /**
+   * Deflate never compresses better than this.
+   */
+  private static final int MAX_RATIO = 1032;
+
+  /**
+   * Compression buffers up to this size are kept with their deflater.
+   */
+  private static final int MAX_POOLED_BUFFER = 256 * 1024;
+
+  private static final int POOL_SIZE =
+    Runtime.getRuntime().availableProcessors() * 2;
+
+  private final int level;
+  private final BlockingQueue<Compressor> compressors =
+    new ArrayBlockingQueue<Compressor>(POOL_SIZE);
+  private final BlockingQueue<Inflater> inflaters =
+    new ArrayBlockingQueue<Inflater>(POOL_SIZE);
+
+  /**
+   * Create a codec with the default compression level.
+   */
+  public DeflateCompressionCodec() {
+    this(Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Create a codec with the given compression level.
+   *
+   * @param lvl the level, between {@link Deflater#BEST_SPEED} and
+   *          {@link Deflater#BEST_COMPRESSION}
+   */
+  public DeflateCompressionCodec(int lvl) {
+    super();
+    if (lvl != Deflater.DEFAULT_COMPRESSION
+      && (lvl < Deflater.NO_COMPRESSION || lvl > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level " + lvl);
+    }
+    level = lvl;
+  }
+
+  public int getId() {
+    return ID;
+  }
+
+  public byte[] compress(byte[] in) {
+    return compress(in, null, 0);
+  }
+
+  public byte[] decompress(byte[] in) {
+    return decompress(in, 0, null);
+  }
+
+  /**
+   * Compress the given array of bytes with a preset dictionary.
+   *
+   * @param in the bytes to compress
+   * @param dictionary the dictionary, or null for none
+   * @param offset the number of bytes to leave free in front of the output
+   *          for the caller
+   * @return the compressed bytes
+   */
+  byte[] compress(byte[] in, byte[] dictionary, int offset) {
+    if (in == null) {
+      throw new NullPointerException("Can't compress null");
+    }
+    Compressor c = compressors.poll();
+    if (c == null) {
+      c = new Compressor(new Deflater(level, true));
+    }
+    try {
+      if (dictionary != null) {
+        c.deflater.setDictionary(dictionary);
+      }
+      c.deflater.setInput(in);
+      c.deflater.finish();
+      byte[] out = c.buffer(maxCompressedLength(in.length) + offset);
+      int size = offset + HEADER_LENGTH;
+      while (!c.deflater.finished()) {
+        if (size == out.length) {
+          out = Arrays.copyOf(out, out.length * 2);
+        }
+        size += c.deflater.deflate(out, size, out.length - size);
+      }
+      writeLength(out, offset, in.length);
+      return Arrays.copyOf(out, size);
+    } finally {
+      c.deflater.reset();
+      if (!compressors.offer(c)) {
+        c.deflater.end();
+      }
+    }
+  }
+
+  /**
+   * Decompress the given array of bytes with a preset dictionary.
+   *
+   * @param in bytes compressed with the same dictionary
+   * @param offset the number of bytes in front of the compressed data
+   * @param dictionary the dictionary, or null for none
+   * @return the original bytes, or null if they cannot be decompressed
+   */
+  byte[] decompress(byte[] in, int offset, byte[] dictionary) {
+    int start = offset + HEADER_LENGTH;
+    if (in == null || in.length < start) {
+      getLogger().warn("Failed to decompress data, too short");
+      return null;
+    }
+    int length = readLength(in, offset);
+    if (length < 0 || length > (long) (in.length - start + 1) * MAX_RATIO) {
+      getLogger().warn("Failed to decompress data, invalid length %d",
+        length);
+      return null;
+    }
+    Inflater inflater = inflaters.poll();
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    try {
+      byte[] out = new byte[length];
+      if (dictionary != null) {
+        inflater.setDictionary(dictionary);
+      }
+      inflater.setInput(in, start, in.length - start);
+      int size = 0;
+      while (size < length) {
+        int n = inflater.inflate(out, size, length - size);
+        if (n == 0 && (inflater.finished() || inflater.needsInput()
+          || inflater.needsDictionary())) {
+          break;
+        }
+        size += n;
+      }
+      if (size != length) {
+        getLogger().warn("Failed to decompress data, got %d of %d bytes",
+          size, length);
+        return null;
+      }
+      return out;
+    } catch (DataFormatException e) {
+      getLogger().warn("Failed to decompress data", e);
+      return null;
+    } finally {
+      inflater.reset();
+      if (!inflaters.offer(inflater)) {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * The most bytes deflate produces for the given number of bytes, plus
+   * the header.
+   */
+  static int maxCompressedLength(int length) {
+    return length + (length >> 12) + (length >> 14) + (length >> 25) + 13
+      + HEADER_LENGTH;
+  }
+
+  static void writeLength(byte[] out, int offset, int length) {
+    out[offset] = (byte) (length >>> 24);
+    out[offset + 1] = (byte) (length >>> 16);
+    out[offset + 2] = (byte) (length >>> 8);
+    out[offset + 3] = (byte) length;
+  }
+
+  static int readLength(byte[] in, int offset) {
+    return (in[offset] & 0xff) << 24 | (in[offset + 1] & 0xff) << 16
+      | (in[offset + 2] & 0xff) << 8 | (in[offset + 3] & 0xff);
+  }
+
+  /**
+   * A pooled deflater with the buffer it compresses into.
+   */
+  private static final class Compressor {
+    private final Deflater deflater;
+    private byte[] buffer = new byte[0];
+
+    Compressor(Deflater d) {
+      deflater = d;
+    }
+
+    byte[] buffer(int size) {
+      if (size > MAX_POOLED_BUFFER) {
+        return new byte[size];
+      }
+      if (buffer.length < size) {
+        buffer = new byte[size];
+      }
+      return buffer;
+    }
+  }
+}
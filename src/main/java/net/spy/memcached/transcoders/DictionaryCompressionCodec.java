@@ -0,0 +1,196 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Compresses values in the raw deflate format with a preset dictionary.
+ *
+ * <p>Small values compress poorly on their own, since deflate only finds
+ * repetitions within the value itself. With a dictionary of byte sequences
+ * common to many values, such as the field names and frequent values of
+ * JSON documents, even values of a few hundred bytes shrink to a fraction
+ * of their size. {@link DictionaryTrainer} builds such a dictionary from
+ * sampled values.</p>
+ *
+ * <p>Every compressed value starts with the id of its dictionary, followed
+ * by its length and the compressed data. Dictionaries are versioned through
+ * their ids: to replace a dictionary, add the new one under a new id and
+ * switch to it with {@link #useDictionary(int)}, but keep the old one
+ * registered as long as values compressed with it may be read. All clients
+ * reading the values must have the dictionaries added under the same ids.
+ * The content of an id must never change.</p>
+ *
+ * <p>Deflate can only refer back 32KB, so larger dictionaries are not
+ * useful. Since the dictionary is loaded for every value, compressing with
+ * a smaller one is faster.</p>
+ */
+public class DictionaryCompressionCodec extends SpyObject
+  implements CompressionCodec {
+
+  /**
+   * The id of this codec.
+   */
+  public static final int ID = 3;
+
+  /**
+   * The largest dictionary id.
+   */
+  public static final int MAX_DICTIONARY_ID = 0xffff;
+
+  /**
+   * The largest dictionary size.
+   */
+  public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+  private static final int DICTIONARY_ID_LENGTH = 2;
+
+  private final DeflateCompressionCodec deflate;
+  private final ConcurrentMap<Integer, byte[]> dictionaries =
+    new ConcurrentHashMap<Integer, byte[]>();
+  private volatile Dictionary current;
+
+  /**
+   * Create a codec compressing with the given dictionary.
+   *
+   * @param id the id of the dictionary
+   * @param dictionary the dictionary
+   */
+  public DictionaryCompressionCodec(int id, byte[] dictionary) {
+    this(new DeflateCompressionCodec());
+    addDictionary(id, dictionary);
+    useDictionary(id);
+  }
+
+  /**
+   * Create a codec without any dictionaries and the given compression level.
+   *
+   * A dictionary has to be added and chosen before values can be
+   * compressed.
+   *
+   * @param lvl the compression level, see {@link DeflateCompressionCodec}
+   */
+  public DictionaryCompressionCodec(int lvl) {
+    this(new DeflateCompressionCodec(lvl));
+  }
+
+  private DictionaryCompressionCodec(DeflateCompressionCodec codec) {
+    super();
+    deflate = codec;
+  }
+
+  /**
+   * Add a dictionary to decompress the values compressed with it.
+   *
+   * @param id the id of the dictionary
+   * @param dictionary the dictionary
+   * @throws IllegalArgumentException if the id or the size are invalid, or
+   *           another dictionary has been added under the id
+   */
+  public void addDictionary(int id, byte[] dictionary) {
+    if (id < 0 || id > MAX_DICTIONARY_ID) {
+      throw new IllegalArgumentException("Invalid dictionary id " + id);
+    }
+    if (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE) {
+      throw new IllegalArgumentException("Invalid dictionary size "
+        + dictionary.length);
+    }
+    byte[] copy = dictionary.clone();
+    byte[] existing = dictionaries.putIfAbsent(id, copy);
+    if (existing != null && !Arrays.equals(existing, copy)) {
+      throw new IllegalArgumentException("Dictionary " + id + " has already "
+        + "been added with a different content");
+    }
+  }
+
+  /**
+   * Compress new values with the dictionary of the given id.
+   *
+   * @param id the id of an added dictionary
+   */
+  public void useDictionary(int id) {
+    byte[] dictionary = dictionaries.get(id);
+    if (dictionary == null) {
+      throw new IllegalArgumentException("Unknown dictionary " + id);
+    }
+    current = new Dictionary(id, dictionary);
+  }
+
+  /**
+   * Get the id of the dictionary new values are compressed with, or -1 if
+   * none has been chosen yet.
+   */
+  public int getDictionaryId() {
+    Dictionary d = current;
+    return d == null ? -1 : d.id;
+  }
+
+  public int getId() {
+    return ID;
+  }
+
+  public byte[] compress(byte[] in) {
+    Dictionary d = current;
+    if (d == null) {
+      throw new IllegalStateException("No dictionary to compress with");
+    }
+    byte[] out = deflate.compress(in, d.data, DICTIONARY_ID_LENGTH);
+    out[0] = (byte) (d.id >>> 8);
+    out[1] = (byte) d.id;
+    return out;
+  }
+
+  public byte[] decompress(byte[] in) {
+    if (in == null || in.length < DICTIONARY_ID_LENGTH) {
+      getLogger().warn("Failed to decompress data, too short");
+      return null;
+    }
+    int id = (in[0] & 0xff) << 8 | (in[1] & 0xff);
+    byte[] dictionary = dictionaries.get(id);
+    if (dictionary == null) {
+      getLogger().warn("Failed to decompress data, unknown dictionary %d",
+        id);
+      return null;
+    }
+    return deflate.decompress(in, DICTIONARY_ID_LENGTH, dictionary);
+  }
+
+  /**
+   * The dictionary new values are compressed with.
+   */
+  private static final class Dictionary {
+    private final int id;
+    private final byte[] data;
+
+    Dictionary(int i, byte[] d) {
+      id = i;
+      data = d;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.MemcachedClientIF;
+
+/**
+ * Builds dictionaries for the {@link DictionaryCompressionCodec} from
+ * sample values.
+ *
+ * <p>The samples are cut into short segments, and the segments containing
+ * the most byte sequences which also occur in many other samples are
+ * picked until the dictionary is full. Sequences already covered by a
+ * picked segment do not count again, so the dictionary holds as many
+ * different common sequences as possible. The most valuable segments are
+ * placed at the end of the dictionary, where deflate refers to them with
+ * the shortest distances.</p>
+ *
+ * <p>Training is meant to run offline, for example in a small tool reading
+ * a few thousand keys of a running cache. A few hundred samples of typical
+ * values are usually enough, more samples mostly take more time.</p>
+ */
+public final class DictionaryTrainer {
+
+  /**
+   * The default size of trained dictionaries.
+   */
+  public static final int DEFAULT_DICTIONARY_SIZE = 16 * 1024;
+
+  /**
+   * The length of the byte sequences which are counted.
+   */
+  private static final int SEQUENCE_LENGTH = 8;
+
+  /**
+   * The length of the segments a dictionary is assembled from.
+   */
+  private static final int SEGMENT_LENGTH = 48;
+
+  /**
+   * The number of keys read at once when sampling from a cache.
+   */
+  private static final int BULK_SIZE = 1000;
+
+  private DictionaryTrainer() {
+    // Empty
+  }
+
+  /**
+   * Train a dictionary from the values of the given keys.
+   *
+   * <p>The values are read in batches with
+   * {@link MemcachedClientIF#getBulk(Collection, Transcoder)}. Values
+   * compressed by a codec without a dictionary are decompressed, values
+   * which cannot be decompressed are skipped.</p>
+   *
+   * @param client the client to read the values with
+   * @param keys the keys of the sample values
+   * @param size the size of the dictionary
+   * @return the dictionary, which may be shorter than requested if the
+   *         samples have little in common
+   */
+  public static byte[] train(MemcachedClientIF client, Collection<String> keys,
+    int size) {
+    Transcoder<byte[]> tc = new SampleTranscoder();
+    List<byte[]> samples = new ArrayList<byte[]>();
+    List<String> batch = new ArrayList<String>(BULK_SIZE);
+    Iterator<String> i = keys.iterator();
+    while (i.hasNext()) {
+      batch.add(i.next());
+      if (batch.size() == BULK_SIZE || !i.hasNext()) {
+        for (byte[] value : client.getBulk(batch, tc).values()) {
+          if (value != null) {
+            samples.add(value);
+          }
+        }
+        batch.clear();
+      }
+    }
+    return train(samples, size);
+  }
+
+  /**
+   * Train a dictionary from the given samples.
+   *
+   * @param samples the sample values
+   * @param size the size of the dictionary
+   * @return the dictionary, which may be shorter than requested if the
+   *         samples have little in common
+   */
+  public static byte[] train(Collection<byte[]> samples, int size) {
+    if (size <= 0 || size > DictionaryCompressionCodec.MAX_DICTIONARY_SIZE) {
+      throw new IllegalArgumentException("Invalid dictionary size " + size);
+    }
+
+    // Count the number of samples every sequence occurs in.
+    Map<Long, Integer> frequencies = new HashMap<Long, Integer>();
+    for (byte[] sample : samples) {
+      Set<Long> seen = new HashSet<Long>();
+      for (int i = 0; i + SEQUENCE_LENGTH <= sample.length; i++) {
+        Long sequence = sequenceAt(sample, i);
+        if (seen.add(sequence)) {
+          Integer f = frequencies.get(sequence);
+          frequencies.put(sequence, f == null ? 1 : f + 1);
+        }
+      }
+    }
+
+    PriorityQueue<Segment> candidates = new PriorityQueue<Segment>();
+    for (byte[] sample : samples) {
+      for (int i = 0; i < sample.length; i += SEGMENT_LENGTH / 2) {
+        Segment segment = new Segment(sample, i,
+          Math.min(sample.length, i + SEGMENT_LENGTH));
+        segment.score(frequencies);
+        if (segment.score > 0) {
+          candidates.add(segment);
+        }
+      }
+    }
+
+    // Pick the best segments, rescoring them lazily as sequences get
+    // covered by the picked ones.
+    List<Segment> picked = new ArrayList<Segment>();
+    int length = 0;
+    while (length < size && !candidates.isEmpty()) {
+      Segment best = candidates.poll();
+      best.score(frequencies);
+      if (best.score <= 0) {
+        continue;
+      }
+      Segment next = candidates.peek();
+      if (next != null && best.score < next.score) {
+        candidates.add(best);
+        continue;
+      }
+      for (int i = best.from; i + SEQUENCE_LENGTH <= best.to; i++) {
+        frequencies.remove(sequenceAt(best.sample, i));
+      }
+      picked.add(best);
+      length += best.to - best.from;
+    }
+
+    byte[] dictionary = new byte[Math.min(size, length)];
+    int end = dictionary.length;
+    for (Segment segment : picked) {
+      int n = Math.min(end, segment.to - segment.from);
+      System.arraycopy(segment.sample, segment.from, dictionary, end - n, n);
+      end -= n;
+    }
+    return dictionary;
+  }
+
+  private static Long sequenceAt(byte[] data, int offset) {
+    long rv = 0;
+    for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+      rv = rv << 8 | (data[offset + i] & 0xff);
+    }
+    return rv;
+  }
+
+  /**
+   * A part of a sample which may be picked for the dictionary.
+   */
+  private static final class Segment implements Comparable<Segment> {
+    private final byte[] sample;
+    private final int from;
+    private final int to;
+    private long score;
+
+    Segment(byte[] s, int f, int t) {
+      sample = s;
+      from = f;
+      to = t;
+    }
+
+    /**
+     * Score the segment by the number of other samples its sequences can
+     * be found in.
+     */
+    void score(Map<Long, Integer> frequencies) {
+      score = 0;
+      for (int i = from; i + SEQUENCE_LENGTH <= to; i++) {
+        Integer f = frequencies.get(sequenceAt(sample, i));
+        if (f != null && f > 1) {
+          score += f - 1;
+        }
+      }
+    }
+
+    public int compareTo(Segment o) {
+      return score > o.score ? -1 : score < o.score ? 1 : 0;
+    }
+  }
+
+  /**
+   * Reads the encoded bytes of values, decompressing them if necessary.
+   */
+  private static final class SampleTranscoder implements Transcoder<byte[]> {
+    private final SerializingTranscoder serializing =
+      new SerializingTranscoder();
+
+    public boolean asyncDecode(CachedData d) {
+      return false;
+    }
+
+    public CachedData encode(byte[] o) {
+      throw new UnsupportedOperationException("Only reads samples");
+    }
+
+    public byte[] decode(CachedData d) {
+      if ((d.getFlags() & SerializingTranscoder.COMPRESSED) == 0) {
+        return d.getData();
+      }
+      return serializing.decompress(d.getData(),
+        (d.getFlags() & SerializingTranscoder.CODEC_MASK)
+          >>> SerializingTranscoder.CODEC_SHIFT);
+    }
+
+    public int getMaxSize() {
+      return CachedData.MAX_SIZE;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.spy.memcached.compat.CloseUtil;
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Compresses values in the GZIP format.
+ *
+ * <p>This is the format all versions of this library, and many other
+ * memcached clients, have written compressed values in, so it stays the
+ * default. It is also the slowest of the built-in codecs, since every value
+ * gets its own streams and native zlib state.</p>
+ */
+public final class GZIPCompressionCodec extends SpyObject
+  implements CompressionCodec {
+
+  /**
+   * The id of this codec, which is also the one of values written before
+   * codecs could be chosen.
+   */
+  public static final int ID = 0;
+
+  /**
+   * The shared instance of this codec.
+   */
+  public static final GZIPCompressionCodec INSTANCE =
+    new GZIPCompressionCodec();
+
+  private GZIPCompressionCodec() {
+    super();
+  }
+
+  public int getId() {
+    return ID;
+  }
+
+  public byte[] compress(byte[] in) {
+    if (in == null) {
+      throw new NullPointerException("Can't compress null");
+    }
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    GZIPOutputStream gz = null;
+    try {
+      gz = new GZIPOutputStream(bos);
+      gz.write(in);
+    } catch (IOException e) {
+      throw new RuntimeException("IO exception compressing data", e);
+    } finally {
+      CloseUtil.close(gz);
+      CloseUtil.close(bos);
+    }
+    return bos.toByteArray();
+  }
+
+  public byte[] decompress(byte[] in) {
+    ByteArrayOutputStream bos = null;
+    if(in != null) {
+      ByteArrayInputStream bis = new ByteArrayInputStream(in);
+      bos = new ByteArrayOutputStream();
+      GZIPInputStream gis = null;
+      try {
+        gis = new GZIPInputStream(bis);
+
+        byte[] buf = new byte[8192];
+        int r = -1;
+        while ((r = gis.read(buf)) > 0) {
+          bos.write(buf, 0, r);
+        }
+      } catch (IOException e) {
+        getLogger().warn("Failed to decompress data", e);
+        bos = null;
+      } finally {
+        CloseUtil.close(gis);
+        CloseUtil.close(bis);
+        CloseUtil.close(bos);
+      }
+    }
+    return bos == null ? null : bos.toByteArray();
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.spy.memcached.compat.SpyObject;
+
+/**
+ * Compresses values in the LZ4 block format, preceded by their length.
+ *
+ * <p>LZ4 only replaces repeated sequences of bytes by references to their
+ * previous occurrence, without any entropy coding. It compresses text and
+ * serialized objects noticeably worse than deflate, but several times
+ * faster, and decompresses at close to memory speed. This implementation
+ * is written in plain Java, so it does not need any native libraries.</p>
+ */
+public final class LZ4CompressionCodec extends SpyObject
+  implements CompressionCodec {
+
+  /**
+   * The id of this codec.
+   */
+  public static final int ID = 2;
+
+  private static final int HEADER_LENGTH = 4;
+  private static final int MIN_MATCH = 4;
+  private static final int LAST_LITERALS = 5;
+  private static final int MATCH_FIND_LIMIT = 12;
+  private static final int MAX_DISTANCE = 0xffff;
+  private static final int HASH_BITS = 12;
+  private static final int SKIP_STRENGTH = 6;
+  private static final int RUN_MASK = 0x0f;
+
+  /**
+   * LZ4 never compresses better than this.
+   */
+  private static final int MAX_RATIO = 255;
+
+  private static final int POOL_SIZE =
+    Runtime.getRuntime().availableProcessors() * 2;
+
+  private final BlockingQueue<int[]> tables =
+    new ArrayBlockingQueue<int[]>(POOL_SIZE);
+
+  public int getId() {
+    return ID;
+  }
+
+  public byte[] compress(byte[] in) {
+    if (in == null) {
+      throw new NullPointerException("Can't compress null");
+    }
+    int[] table = tables.poll();
+    if (table == null) {
+      table = new int[1 << HASH_BITS];
+    } else {
+      Arrays.fill(table, 0);
+    }
+    try {
+      byte[] out = new byte[HEADER_LENGTH + in.length + in.length / 255 + 16];
+      DeflateCompressionCodec.writeLength(out, 0, in.length);
+      return Arrays.copyOf(out, compress(in, out, table));
+    } finally {
+      tables.offer(table);
+    }
+  }
+
+  /**
+   * Compress the input into the output behind its header.
+   *
+   * @return the end of the compressed data in the output
+   */
+  private static int compress(byte[] in, byte[] out, int[] table) {
+    int o = HEADER_LENGTH;
+    int anchor = 0;
+    int matchLimit = in.length - LAST_LITERALS;
+    int findLimit = in.length - MATCH_FIND_LIMIT;
+    int ip = 0;
+    while (ip < findLimit) {
+      int sequence = readInt(in, ip);
+      int h = hash(sequence);
+      // Positions are stored plus one, so zero means none.
+      int ref = table[h] - 1;
+      table[h] = ip + 1;
+      if (ref < 0 || ip - ref > MAX_DISTANCE
+        || readInt(in, ref) != sequence) {
+        ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+        continue;
+      }
+
+      while (ip > anchor && ref > 0 && in[ip - 1] == in[ref - 1]) {
+        ip--;
+        ref--;
+      }
+      int length = MIN_MATCH;
+      while (ip + length < matchLimit && in[ip + length] == in[ref + length]) {
+        length++;
+      }
+
+      int token = o++;
+      o = writeLiterals(in, anchor, ip - anchor, out, o, token);
+      int distance = ip - ref;
+      out[o++] = (byte) distance;
+      out[o++] = (byte) (distance >>> 8);
+      int matchRun = length - MIN_MATCH;
+      if (matchRun >= RUN_MASK) {
+        out[token] |= RUN_MASK;
+        o = writeRunLength(matchRun - RUN_MASK, out, o);
+      } else {
+        out[token] |= matchRun;
+      }
+      ip += length;
+      anchor = ip;
+    }
+    int token = o++;
+    return writeLiterals(in, anchor, in.length - anchor, out, o, token);
+  }
+
+  private static int writeLiterals(byte[] in, int from, int count,
+    byte[] out, int o, int token) {
+    if (count >= RUN_MASK) {
+      out[token] = (byte) (RUN_MASK << 4);
+      o = writeRunLength(count - RUN_MASK, out, o);
+    } else {
+      out[token] = (byte) (count << 4);
+    }
+    System.arraycopy(in, from, out, o, count);
+    return o + count;
+  }
+
+  private static int writeRunLength(int length, byte[] out, int o) {
+    while (length >= 0xff) {
+      out[o++] = (byte) 0xff;
+      length -= 0xff;
+    }
+    out[o++] = (byte) length;
+    return o;
+  }
+
+  public byte[] decompress(byte[] in) {
+    if (in == null || in.length < HEADER_LENGTH) {
+      getLogger().warn("Failed to decompress data, too short");
+      return null;
+    }
+    int length = DeflateCompressionCodec.readLength(in, 0);
+    if (length < 0
+      || length > (long) (in.length - HEADER_LENGTH + 1) * MAX_RATIO) {
+      getLogger().warn("Failed to decompress data, invalid length %d",
+        length);
+      return null;
+    }
+    byte[] out = new byte[length];
+    if (!decompress(in, out)) {
+      getLogger().warn("Failed to decompress data, corrupt input");
+      return null;
+    }
+    return out;
+  }
+
+  /**
+   * Decompress the input behind its header into the output, checking every
+   * access against the bounds of both.
+   *
+   * @return false if the input is corrupt
+   */
+  private static boolean decompress(byte[] in, byte[] out) {
+    int ip = HEADER_LENGTH;
+    int o = 0;
+    while (ip < in.length) {
+      int token = in[ip++] & 0xff;
+
+      int literals = token >>> 4;
+      if (literals == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= in.length) {
+            return false;
+          }
+          b = in[ip++] & 0xff;
+          literals += b;
+          if (literals > out.length) {
+            return false;
+          }
+        } while (b == 0xff);
+      }
+      if (literals > in.length - ip || literals > out.length - o) {
+        return false;
+      }
+      System.arraycopy(in, ip, out, o, literals);
+      ip += literals;
+      o += literals;
+      if (ip == in.length) {
+        break;
+      }
+
+      if (ip + 2 > in.length) {
+        return false;
+      }
+      int distance = (in[ip] & 0xff) | (in[ip + 1] & 0xff) << 8;
+      ip += 2;
+      if (distance == 0 || distance > o) {
+        return false;
+      }
+      int length = token & RUN_MASK;
+      if (length == RUN_MASK) {
+        int b;
+        do {
+          if (ip >= in.length) {
+            return false;
+          }
+          b = in[ip++] & 0xff;
+          length += b;
+          if (length > out.length) {
+            return false;
+          }
+        } while (b == 0xff);
+      }
+      length += MIN_MATCH;
+      if (length > out.length - o) {
+        return false;
+      }
+      int ref = o - distance;
+      if (distance >= length) {
+        System.arraycopy(out, ref, out, o, length);
+        o += length;
+      } else {
+        for (int end = o + length; o < end; o++) {
+          out[o] = out[ref++];
+        }
+      }
+    }
+    return o == out.length;
+  }
+
+  private static int readInt(byte[] in, int i) {
+    return (in[i] & 0xff) | (in[i + 1] & 0xff) << 8 | (in[i + 2] & 0xff) << 16
+      | (in[i + 3] & 0xff) << 24;
+  }
+
+  private static int hash(int sequence) {
+    return (sequence * -1640531535) >>> (32 - HASH_BITS);
+  }
+}
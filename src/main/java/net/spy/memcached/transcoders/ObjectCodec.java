@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Writes and reads the objects of one class for a
+ * {@link TypeRegistryTranscoder}.
+ *
+ * <p>Codecs write only the state of an object, without any class
+ * descriptions, so they are much more compact and faster than Java
+ * serialization. Objects referenced by the object can be written with
+ * {@link ObjectOutput#writeObject(Object)} and read with
+ * {@link ObjectInput#readObject()}, which encode them with their own
+ * codecs.</p>
+ *
+ * <p>Codecs are shared by all threads using a transcoder, so they must be
+ * thread safe.</p>
+ *
+ * @param <T> the class of the objects
+ */
+public interface ObjectCodec<T> {
+
+  /**
+   * Write an object.
+   *
+   * @param value the object, never null
+   * @param out the output to write it to
+   * @throws IOException if the object or one it references cannot be
+   *           written, in which case Java serialization is used instead
+   */
+  void encode(T value, ObjectOutput out) throws IOException;
+
+  /**
+   * Read an object written by {@link #encode(Object, ObjectOutput)}.
+   *
+   * @param in the input to read it from
+   * @return the object
+   * @throws IOException if the data is corrupt
+   * @throws ClassNotFoundException if a referenced object is of an unknown
+   *           type
+   */
+  T decode(ObjectInput in) throws IOException, ClassNotFoundException;
+}
@@ -23,20 +23,39 @@
 package net.spy.memcached.transcoders;
 
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import net.spy.memcached.CachedData;
+import net.spy.memcached.util.ByteBufferOutputStream;
 import net.spy.memcached.util.StringUtils;
 
 /**
  * Transcoder that serializes and compresses objects.
+ *
+ * <p>Values are compressed in the GZIP format by default, which all
+ * versions of this library can read. A faster {@link CompressionCodec} can
+ * be chosen with {@link #setCompressionCodec(CompressionCodec)} once all
+ * clients reading the values know it. The id of the codec is stored in the
+ * flags, so values written with any registered codec can be decoded,
+ * whichever one is used for new values.</p>
+ *
+ * <p>Values which are not compressed are encoded straight into the buffer
+ * of the store operation. Values above the compression threshold are
+ * copied once more, since the codecs compress byte arrays. Subclasses
+ * which override {@link #encode(Object)} are always given the values
+ * there.</p>
  */
 public class SerializingTranscoder extends BaseSerializingTranscoder implements
-    Transcoder<Object> {
+    StreamingTranscoder<Object> {
 
   // General flags
   static final int SERIALIZED = 1;
   static final int COMPRESSED = 2;
 
+  // The id of the compression codec of compressed values.
+  static final int CODEC_MASK = 0xf0;
+  static final int CODEC_SHIFT = 4;
+
   // Special flags for specially handled types.
   private static final int SPECIAL_MASK = 0xff00;
   static final int SPECIAL_BOOLEAN = (1 << 8);
@@ -50,6 +69,14 @@ public class SerializingTranscoder extends BaseSerializingTranscoder implements
 
   private final TranscoderUtils tu = new TranscoderUtils(true);
 
+  private final AtomicReferenceArray<CompressionCodec> codecs =
+    new AtomicReferenceArray<CompressionCodec>(CompressionCodec.MAX_ID + 1);
+  private volatile CompressionCodec compressionCodec =
+    GZIPCompressionCodec.INSTANCE;
+  private volatile boolean compressJson = false;
+  private volatile AdaptiveCompression adaptiveCompression = null;
+  private final boolean streamEncode;
+
   /**
    * Get a serializing transcoder with the default max data size.
    */
@@ -62,6 +89,76 @@ public class SerializingTranscoder extends BaseSerializingTranscoder implements
    */
   public SerializingTranscoder(int max) {
     super(max);
+    // Subclasses which override encode(Object) have to be given the
+    // objects there, encodeTo then only copies what it returns.
+    streamEncode = declaringClass("encode", Object.class)
+      == SerializingTranscoder.class;
+    registerCompressionCodec(GZIPCompressionCodec.INSTANCE);
+    registerCompressionCodec(new DeflateCompressionCodec());
+    registerCompressionCodec(new LZ4CompressionCodec());
+  }
+
+  /**
+   * Set the codec new values are compressed with and register it for
+   * decoding.
+   *
+   * @param codec the codec
+   */
+  public void setCompressionCodec(CompressionCodec codec) {
+    registerCompressionCodec(codec);
+    compressionCodec = codec;
+  }
+
+  /**
+   * Get the codec new values are compressed with.
+   */
+  public CompressionCodec getCompressionCodec() {
+    return compressionCodec;
+  }
+
+  /**
+   * If true, strings holding JSON objects are compressed like all other
+   * strings.
+   *
+   * <p>By default they are always stored as they are, so Couchbase Server
+   * can index them. Memcached does not look at the values, so there JSON
+   * documents can be compressed, typically with a
+   * {@link DictionaryCompressionCodec} and a low compression threshold.</p>
+   *
+   * @param to true to compress JSON objects
+   */
+  public void setCompressJson(boolean to) {
+    compressJson = to;
+  }
+
+  /**
+   * Skip compressing values similar to ones which did not compress well.
+   *
+   * <p>By default every value above the compression threshold is
+   * compressed, and stored uncompressed if that did not make it smaller.
+   * With an {@link AdaptiveCompression}, values which are unlikely to get
+   * smaller are not compressed in the first place.</p>
+   *
+   * @param to the adaptive compression, or null to compress all values
+   */
+  public void setAdaptiveCompression(AdaptiveCompression to) {
+    adaptiveCompression = to;
+  }
+
+  /**
+   * Register a codec to decode values compressed by it, replacing any
+   * codec with the same id.
+   *
+   * <p>The built-in codecs are registered by default.</p>
+   *
+   * @param codec the codec
+   */
+  public void registerCompressionCodec(CompressionCodec codec) {
+    if (codec.getId() < 0 || codec.getId() > CompressionCodec.MAX_ID) {
+      throw new IllegalArgumentException("Invalid compression codec id "
+        + codec.getId());
+    }
+    codecs.set(codec.getId(), codec);
   }
 
   @Override
@@ -81,7 +178,8 @@ public class SerializingTranscoder extends BaseSerializingTranscoder implements
     byte[] data = d.getData();
     Object rv = null;
     if ((d.getFlags() & COMPRESSED) != 0) {
-      data = decompress(d.getData());
+      data = decompress(d.getData(),
+        (d.getFlags() & CODEC_MASK) >>> CODEC_SHIFT);
     }
     int flags = d.getFlags() & SPECIAL_MASK;
     if ((d.getFlags() & SERIALIZED) != 0 && data != null) {
@@ -131,50 +229,160 @@ public class SerializingTranscoder extends BaseSerializingTranscoder implements
     int flags = 0;
     if (o instanceof String) {
       b = encodeString((String) o);
-      if (StringUtils.isJsonObject((String) o)) {
+      if (!compressJson && StringUtils.isJsonObject((String) o)) {
         return new CachedData(flags, b, getMaxSize());
       }
-    } else if (o instanceof Long) {
-      b = tu.encodeLong((Long) o);
-      flags |= SPECIAL_LONG;
-    } else if (o instanceof Integer) {
-      b = tu.encodeInt((Integer) o);
-      flags |= SPECIAL_INT;
-    } else if (o instanceof Boolean) {
-      b = tu.encodeBoolean((Boolean) o);
-      flags |= SPECIAL_BOOLEAN;
-    } else if (o instanceof Date) {
-      b = tu.encodeLong(((Date) o).getTime());
-      flags |= SPECIAL_DATE;
-    } else if (o instanceof Byte) {
-      b = tu.encodeByte((Byte) o);
-      flags |= SPECIAL_BYTE;
-    } else if (o instanceof Float) {
-      b = tu.encodeInt(Float.floatToRawIntBits((Float) o));
-      flags |= SPECIAL_FLOAT;
-    } else if (o instanceof Double) {
-      b = tu.encodeLong(Double.doubleToRawLongBits((Double) o));
-      flags |= SPECIAL_DOUBLE;
     } else if (o instanceof byte[]) {
       b = (byte[]) o;
       flags |= SPECIAL_BYTEARRAY;
     } else {
-      b = serialize(o);
-      flags |= SERIALIZED;
+      flags = specialFlags(o);
+      if (flags == 0) {
+        b = serialize(o);
+        flags = SERIALIZED;
+      } else {
+        b = encodeSpecial(o);
+      }
     }
     assert b != null;
-    if (b.length > compressionThreshold) {
-      byte[] compressed = compress(b);
-      if (compressed.length < b.length) {
-        getLogger().debug("Compressed %s from %d to %d",
-            o.getClass().getName(), b.length, compressed.length);
-        b = compressed;
-        flags |= COMPRESSED;
+    CompressionCodec codec = compressionCodec;
+    byte[] compressed = compress(o, b, codec);
+    if (compressed != null) {
+      b = compressed;
+      flags |= COMPRESSED | codec.getId() << CODEC_SHIFT;
+    }
+    return new CachedData(flags, b, getMaxSize());
+  }
+
+  public int encodeTo(Object o, ByteBufferOutputStream out) {
+    if (out.size() != 0) {
+      throw new IllegalArgumentException("Stream is not empty");
+    }
+    if (!streamEncode) {
+      CachedData cd = encode(o);
+      byte[] b = cd.getData();
+      out.write(b, 0, b.length);
+      return cd.getFlags();
+    }
+    int flags = 0;
+    boolean compressible = true;
+    if (o instanceof String) {
+      byte[] b = encodeString((String) o);
+      out.write(b, 0, b.length);
+      compressible = compressJson || !StringUtils.isJsonObject((String) o);
+    } else if (o instanceof byte[]) {
+      byte[] b = (byte[]) o;
+      out.write(b, 0, b.length);
+      flags |= SPECIAL_BYTEARRAY;
+    } else {
+      flags = specialFlags(o);
+      if (flags == 0) {
+        serialize(o, out);
+        flags = SERIALIZED;
       } else {
-        getLogger().info("Compression increased the size of %s from %d to %d",
-            o.getClass().getName(), b.length, compressed.length);
+        byte[] b = encodeSpecial(o);
+        out.write(b, 0, b.length);
       }
     }
-    return new CachedData(flags, b, getMaxSize());
+    if (compressible && out.size() > compressionThreshold) {
+      CompressionCodec codec = compressionCodec;
+      byte[] compressed = compress(o, out.toByteArray(), codec);
+      if (compressed != null) {
+        out.reset(0);
+        out.write(compressed, 0, compressed.length);
+        flags |= COMPRESSED | codec.getId() << CODEC_SHIFT;
+      }
+    }
+    if (out.size() > getMaxSize()) {
+      throw new IllegalArgumentException("Cannot cache data larger than "
+          + getMaxSize() + " bytes (you tried to cache a " + out.size()
+          + " byte object)");
+    }
+    return flags;
+  }
+
+  private int specialFlags(Object o) {
+    if (o instanceof Long) {
+      return SPECIAL_LONG;
+    } else if (o instanceof Integer) {
+      return SPECIAL_INT;
+    } else if (o instanceof Boolean) {
+      return SPECIAL_BOOLEAN;
+    } else if (o instanceof Date) {
+      return SPECIAL_DATE;
+    } else if (o instanceof Byte) {
+      return SPECIAL_BYTE;
+    } else if (o instanceof Float) {
+      return SPECIAL_FLOAT;
+    } else if (o instanceof Double) {
+      return SPECIAL_DOUBLE;
+    }
+    return 0;
+  }
+
+  private byte[] encodeSpecial(Object o) {
+    if (o instanceof Long) {
+      return tu.encodeLong((Long) o);
+    } else if (o instanceof Integer) {
+      return tu.encodeInt((Integer) o);
+    } else if (o instanceof Boolean) {
+      return tu.encodeBoolean((Boolean) o);
+    } else if (o instanceof Date) {
+      return tu.encodeLong(((Date) o).getTime());
+    } else if (o instanceof Byte) {
+      return tu.encodeByte((Byte) o);
+    } else if (o instanceof Float) {
+      return tu.encodeInt(Float.floatToRawIntBits((Float) o));
+    } else {
+      return tu.encodeLong(Double.doubleToRawLongBits((Double) o));
+    }
+  }
+
+  /**
+   * Compress an encoded value if it is above the compression threshold.
+   *
+   * @return null if the value was not compressed or did not get smaller
+   */
+  private byte[] compress(Object o, byte[] b, CompressionCodec codec) {
+    AdaptiveCompression adaptive = adaptiveCompression;
+    if (b.length <= compressionThreshold || (adaptive != null
+      && !adaptive.shouldCompress(o.getClass(), b, codec))) {
+      return null;
+    }
+    long start = adaptive == null ? 0 : System.nanoTime();
+    byte[] compressed = codec.getId() == GZIPCompressionCodec.ID
+      ? compress(b) : codec.compress(b);
+    if (adaptive != null) {
+      adaptive.compressed(o.getClass(), b.length, compressed.length,
+        System.nanoTime() - start);
+    }
+    if (compressed.length < b.length) {
+      getLogger().debug("Compressed %s from %d to %d",
+          o.getClass().getName(), b.length, compressed.length);
+      return compressed;
+    }
+    getLogger().info("Compression increased the size of %s from %d to %d",
+        o.getClass().getName(), b.length, compressed.length);
+    return null;
+  }
+
+  /**
+   * Decompress data with the codec of the given id.
+   *
+   * GZIP data goes through {@link #decompress(byte[])}, like before codecs
+   * could be chosen, so subclasses overriding it keep working.
+   *
+   * @return null if the codec is unknown or the data cannot be decompressed
+   */
+  byte[] decompress(byte[] in, int codecId) {
+    if (codecId == GZIPCompressionCodec.ID) {
+      return decompress(in);
+    }
+    CompressionCodec codec = codecs.get(codecId);
+    if (codec == null) {
+      getLogger().warn("Undecodeable with compression codec %d", codecId);
+      return null;
+    }
+    return codec.decompress(in);
   }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import net.spy.memcached.util.ByteBufferOutputStream;
+
+/**
+ * A transcoder which can encode objects straight into the buffer of a
+ * store operation.
+ *
+ * <p>{@link #encode(Object)} has to return the value as a byte array,
+ * which the operation then copies into its own buffer. Values encoded with
+ * {@link #encodeTo(Object, ByteBufferOutputStream)} are written where the
+ * operation sends them from, which saves copying large values.</p>
+ *
+ * @param <T> the class of the objects
+ */
+public interface StreamingTranscoder<T> extends Transcoder<T> {
+
+  /**
+   * Encode the given object for storage.
+   *
+   * <p>The encoded value must be the same as the data of the
+   * {@link net.spy.memcached.CachedData} returned by
+   * {@link #encode(Object)}.</p>
+   *
+   * @param o the object
+   * @param out an empty stream to write the value to
+   * @return the flags of the value
+   * @throws IllegalArgumentException if the object cannot be encoded or the
+   *           value is bigger than {@link #getMaxSize()}
+   */
+  int encodeTo(T o, ByteBufferOutputStream out);
+}
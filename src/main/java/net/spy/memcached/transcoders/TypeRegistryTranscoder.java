@@ -0,0 +1,731 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.util.ByteBufferOutputStream;
+
+/**
+ * A {@link SerializingTranscoder} writing objects with codecs registered
+ * per class instead of Java serialization.
+ *
+ * <p>Java serialization writes the full description of every class with
+ * every value and reflects on every field when reading it back. This
+ * transcoder writes an object as the id of its class followed by what its
+ * {@link ObjectCodec} writes. Codecs for the common JDK types are built in:
+ * the boxed primitives, {@link String}, {@link Date}, {@link UUID},
+ * {@link BigInteger}, {@link BigDecimal}, arrays of primitives and of
+ * strings, and the usual {@link java.util.Map}, {@link java.util.List} and
+ * {@link java.util.Set} implementations. Applications register codecs for
+ * their own classes with {@link #registerCodec(Class, int, ObjectCodec)}.
+ * </p>
+ *
+ * <p>Objects are looked up by their exact class. Values which are, or
+ * contain, objects of a class without a codec are written with Java
+ * serialization as before. Both kinds of values are flagged as serialized
+ * and told apart by their first byte, so this transcoder reads all values
+ * written by a {@link SerializingTranscoder}. Values written with codecs
+ * can only be read by a transcoder with the same codecs registered under
+ * the same ids.</p>
+ */
+public class TypeRegistryTranscoder extends SerializingTranscoder {
+
+  /**
+   * The smallest id of application codecs, the lower ones are reserved for
+   * the built-in codecs.
+   */
+  public static final int MIN_CUSTOM_ID = 64;
+
+  /**
+   * The largest id of application codecs.
+   */
+  public static final int MAX_CUSTOM_ID = 0x3fff;
+
+  /**
+   * The first byte of values written with codecs. Java serialization
+   * always starts with 0xAC.
+   */
+  static final byte MAGIC = (byte) 0xF1;
+
+  private static final int NULL_ID = 0;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final ConcurrentMap<Class<?>, Registration> byClass =
+    new ConcurrentHashMap<Class<?>, Registration>();
+  private final ConcurrentMap<Integer, Registration> byId =
+    new ConcurrentHashMap<Integer, Registration>();
+
+  /**
+   * Get a type registry transcoder with the default max data size.
+   */
+  public TypeRegistryTranscoder() {
+    this(CachedData.MAX_SIZE);
+  }
+
+  /**
+   * Get a type registry transcoder that specifies the max data size.
+   */
+  public TypeRegistryTranscoder(int max) {
+    super(max);
+    registerBuiltInCodecs();
+  }
+
+  /**
+   * Register the codec for the objects of a class.
+   *
+   * @param type the class, subclasses need codecs of their own
+   * @param id the id written with every object of the class, between
+   *          {@link #MIN_CUSTOM_ID} and {@link #MAX_CUSTOM_ID}
+   * @param codec the codec
+   * @throws IllegalArgumentException if the id is out of range, or the id
+   *           or class have already been registered
+   */
+  public <T> void registerCodec(Class<T> type, int id, ObjectCodec<T> codec) {
+    if (id < MIN_CUSTOM_ID || id > MAX_CUSTOM_ID) {
+      throw new IllegalArgumentException("Invalid codec id " + id);
+    }
+    register(type, id, codec);
+  }
+
+  private void register(Class<?> type, int id, ObjectCodec<?> codec) {
+    Registration r = new Registration(id, codec);
+    if (byId.putIfAbsent(id, r) != null) {
+      throw new IllegalArgumentException("Codec id " + id
+        + " has already been registered");
+    }
+    if (byClass.putIfAbsent(type, r) != null) {
+      byId.remove(id);
+      throw new IllegalArgumentException("A codec for " + type.getName()
+        + " has already been registered");
+    }
+  }
+
+  /**
+   * Write the object with codecs, or with Java serialization if it is or
+   * contains an object without a codec.
+   */
+  @Override
+  protected byte[] serialize(Object o) {
+    if (o != null && byClass.containsKey(o.getClass())) {
+      try {
+        Output out = new Output();
+        out.write(MAGIC);
+        out.writeObject(o);
+        return out.toByteArray();
+      } catch (UnregisteredTypeException e) {
+        getLogger().debug("No codec for %s in %s, using Java serialization",
+          e.getMessage(), o.getClass().getName());
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Failed to encode "
+          + o.getClass().getName(), e);
+      }
+    }
+    return super.serialize(o);
+  }
+
+  @Override
+  protected void serialize(Object o, ByteBufferOutputStream out) {
+    if (o != null && byClass.containsKey(o.getClass())) {
+      int start = out.size();
+      try {
+        Output output = new Output(out);
+        output.write(MAGIC);
+        output.writeObject(o);
+        output.flush();
+        return;
+      } catch (UnregisteredTypeException e) {
+        getLogger().debug("No codec for %s in %s, using Java serialization",
+          e.getMessage(), o.getClass().getName());
+        out.reset(start);
+      } catch (IOException e) {
+        throw new IllegalArgumentException("Failed to encode "
+          + o.getClass().getName(), e);
+      }
+    }
+    super.serialize(o, out);
+  }
+
+  @Override
+  protected Object deserialize(byte[] in) {
+    if (in == null || in.length == 0 || in[0] != MAGIC) {
+      return super.deserialize(in);
+    }
+    try {
+      Input input = new Input(in);
+      input.skipBytes(1);
+      return input.readObject();
+    } catch (IOException e) {
+      getLogger().warn("Caught IOException decoding %d bytes of data",
+          in.length, e);
+    } catch (ClassNotFoundException e) {
+      getLogger().warn("Caught CNFE decoding %d bytes of data", in.length, e);
+    }
+    return null;
+  }
+
+  /**
+   * Writes objects with the registered codecs.
+   */
+  private final class Output extends DataOutputStream implements ObjectOutput {
+
+    Output() {
+      this(new ByteArrayOutputStream(256));
+    }
+
+    Output(OutputStream os) {
+      super(os);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void writeObject(Object o) throws IOException {
+      if (o == null) {
+        writeVarInt(this, NULL_ID);
+        return;
+      }
+      Registration r = byClass.get(o.getClass());
+      if (r == null) {
+        throw new UnregisteredTypeException(o.getClass().getName());
+      }
+      writeVarInt(this, r.id);
+      ((ObjectCodec<Object>) r.codec).encode(o, this);
+    }
+
+    byte[] toByteArray() {
+      return ((ByteArrayOutputStream) out).toByteArray();
+    }
+  }
+
+  /**
+   * Reads objects with the registered codecs.
+   */
+  private final class Input extends DataInputStream implements ObjectInput {
+
+    Input(byte[] data) {
+      super(new ByteArrayInputStream(data));
+    }
+
+    public Object readObject() throws IOException, ClassNotFoundException {
+      int id = readVarInt(this);
+      if (id == NULL_ID) {
+        return null;
+      }
+      Registration r = byId.get(id);
+      if (r == null) {
+        throw new ClassNotFoundException("No codec registered for id " + id);
+      }
+      return r.codec.decode(this);
+    }
+  }
+
+  /**
+   * Thrown when an object without a codec is written.
+   */
+  private static final class UnregisteredTypeException extends IOException {
+    private static final long serialVersionUID = 4370281429283950517L;
+
+    UnregisteredTypeException(String type) {
+      super(type);
+    }
+  }
+
+  /**
+   * A codec with its id.
+   */
+  private static final class Registration {
+    private final int id;
+    private final ObjectCodec<?> codec;
+
+    Registration(int i, ObjectCodec<?> c) {
+      id = i;
+      codec = c;
+    }
+  }
+
+  static void writeVarInt(ObjectOutput out, int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  static int readVarInt(ObjectInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+  static void writeString(ObjectOutput out, String s) throws IOException {
+    byte[] b = s.getBytes(UTF8);
+    writeVarInt(out, b.length);
+    out.write(b);
+  }
+
+  static String readString(ObjectInput in) throws IOException {
+    byte[] b = new byte[readLength(in)];
+    in.readFully(b);
+    return new String(b, UTF8);
+  }
+
+  private static int readLength(ObjectInput in) throws IOException {
+    int length = readVarInt(in);
+    if (length < 0 || length > in.available()) {
+      throw new IOException("Invalid length " + length);
+    }
+    return length;
+  }
+
+  private void registerBuiltInCodecs() {
+    register(String.class, 1, new ObjectCodec<String>() {
+      public void encode(String value, ObjectOutput out) throws IOException {
+        writeString(out, value);
+      }
+
+      public String decode(ObjectInput in) throws IOException {
+        return readString(in);
+      }
+    });
+    register(Integer.class, 2, new ObjectCodec<Integer>() {
+      public void encode(Integer value, ObjectOutput out) throws IOException {
+        out.writeInt(value);
+      }
+
+      public Integer decode(ObjectInput in) throws IOException {
+        return in.readInt();
+      }
+    });
+    register(Long.class, 3, new ObjectCodec<Long>() {
+      public void encode(Long value, ObjectOutput out) throws IOException {
+        out.writeLong(value);
+      }
+
+      public Long decode(ObjectInput in) throws IOException {
+        return in.readLong();
+      }
+    });
+    register(Boolean.class, 4, new ObjectCodec<Boolean>() {
+      public void encode(Boolean value, ObjectOutput out) throws IOException {
+        out.writeBoolean(value);
+      }
+
+      public Boolean decode(ObjectInput in) throws IOException {
+        return in.readBoolean();
+      }
+    });
+    register(Double.class, 5, new ObjectCodec<Double>() {
+      public void encode(Double value, ObjectOutput out) throws IOException {
+        out.writeDouble(value);
+      }
+
+      public Double decode(ObjectInput in) throws IOException {
+        return in.readDouble();
+      }
+    });
+    register(Float.class, 6, new ObjectCodec<Float>() {
+      public void encode(Float value, ObjectOutput out) throws IOException {
+        out.writeFloat(value);
+      }
+
+      public Float decode(ObjectInput in) throws IOException {
+        return in.readFloat();
+      }
+    });
+    register(Short.class, 7, new ObjectCodec<Short>() {
+      public void encode(Short value, ObjectOutput out) throws IOException {
+        out.writeShort(value);
+      }
+
+      public Short decode(ObjectInput in) throws IOException {
+        return in.readShort();
+      }
+    });
+    register(Byte.class, 8, new ObjectCodec<Byte>() {
+      public void encode(Byte value, ObjectOutput out) throws IOException {
+        out.writeByte(value);
+      }
+
+      public Byte decode(ObjectInput in) throws IOException {
+        return in.readByte();
+      }
+    });
+    register(Character.class, 9, new ObjectCodec<Character>() {
+      public void encode(Character value, ObjectOutput out)
+        throws IOException {
+        out.writeChar(value);
+      }
+
+      public Character decode(ObjectInput in) throws IOException {
+        return in.readChar();
+      }
+    });
+    register(Date.class, 10, new ObjectCodec<Date>() {
+      public void encode(Date value, ObjectOutput out) throws IOException {
+        out.writeLong(value.getTime());
+      }
+
+      public Date decode(ObjectInput in) throws IOException {
+        return new Date(in.readLong());
+      }
+    });
+    register(UUID.class, 11, new ObjectCodec<UUID>() {
+      public void encode(UUID value, ObjectOutput out) throws IOException {
+        out.writeLong(value.getMostSignificantBits());
+        out.writeLong(value.getLeastSignificantBits());
+      }
+
+      public UUID decode(ObjectInput in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+      }
+    });
+    register(BigInteger.class, 12, new ObjectCodec<BigInteger>() {
+      public void encode(BigInteger value, ObjectOutput out)
+        throws IOException {
+        byte[] b = value.toByteArray();
+        writeVarInt(out, b.length);
+        out.write(b);
+      }
+
+      public BigInteger decode(ObjectInput in) throws IOException {
+        byte[] b = new byte[readLength(in)];
+        in.readFully(b);
+        return new BigInteger(b);
+      }
+    });
+    register(BigDecimal.class, 13, new ObjectCodec<BigDecimal>() {
+      public void encode(BigDecimal value, ObjectOutput out)
+        throws IOException {
+        byte[] b = value.unscaledValue().toByteArray();
+        writeVarInt(out, b.length);
+        out.write(b);
+        out.writeInt(value.scale());
+      }
+
+      public BigDecimal decode(ObjectInput in) throws IOException {
+        byte[] b = new byte[readLength(in)];
+        in.readFully(b);
+        return new BigDecimal(new BigInteger(b), in.readInt());
+      }
+    });
+
+    register(HashMap.class, 20, new MapCodec<HashMap<Object, Object>>() {
+      @Override
+      HashMap<Object, Object> create(int size) {
+        return new HashMap<Object, Object>(size * 4 / 3 + 1);
+      }
+    });
+    register(LinkedHashMap.class, 21,
+      new MapCodec<LinkedHashMap<Object, Object>>() {
+        @Override
+        LinkedHashMap<Object, Object> create(int size) {
+          return new LinkedHashMap<Object, Object>(size * 4 / 3 + 1);
+        }
+      });
+    register(TreeMap.class, 22, new MapCodec<TreeMap<Object, Object>>() {
+      @Override
+      public void encode(TreeMap<Object, Object> value, ObjectOutput out)
+        throws IOException {
+        if (value.comparator() != null) {
+          throw new UnregisteredTypeException(
+            value.comparator().getClass().getName());
+        }
+        super.encode(value, out);
+      }
+
+      @Override
+      TreeMap<Object, Object> create(int size) {
+        return new TreeMap<Object, Object>();
+      }
+    });
+    register(ArrayList.class, 23, new CollectionCodec<ArrayList<Object>>() {
+      @Override
+      ArrayList<Object> create(int size) {
+        return new ArrayList<Object>(size);
+      }
+    });
+    register(LinkedList.class, 24, new CollectionCodec<LinkedList<Object>>() {
+      @Override
+      LinkedList<Object> create(int size) {
+        return new LinkedList<Object>();
+      }
+    });
+    register(HashSet.class, 25, new CollectionCodec<HashSet<Object>>() {
+      @Override
+      HashSet<Object> create(int size) {
+        return new HashSet<Object>(size * 4 / 3 + 1);
+      }
+    });
+    register(LinkedHashSet.class, 26,
+      new CollectionCodec<LinkedHashSet<Object>>() {
+        @Override
+        LinkedHashSet<Object> create(int size) {
+          return new LinkedHashSet<Object>(size * 4 / 3 + 1);
+        }
+      });
+    register(TreeSet.class, 27, new CollectionCodec<TreeSet<Object>>() {
+      @Override
+      public void encode(TreeSet<Object> value, ObjectOutput out)
+        throws IOException {
+        if (value.comparator() != null) {
+          throw new UnregisteredTypeException(
+            value.comparator().getClass().getName());
+        }
+        super.encode(value, out);
+      }
+
+      @Override
+      TreeSet<Object> create(int size) {
+        return new TreeSet<Object>();
+      }
+    });
+
+    register(byte[].class, 40, new ObjectCodec<byte[]>() {
+      public void encode(byte[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        out.write(value);
+      }
+
+      public byte[] decode(ObjectInput in) throws IOException {
+        byte[] rv = new byte[readLength(in)];
+        in.readFully(rv);
+        return rv;
+      }
+    });
+    register(int[].class, 41, new ObjectCodec<int[]>() {
+      public void encode(int[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (int v : value) {
+          out.writeInt(v);
+        }
+      }
+
+      public int[] decode(ObjectInput in) throws IOException {
+        int[] rv = new int[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readInt();
+        }
+        return rv;
+      }
+    });
+    register(long[].class, 42, new ObjectCodec<long[]>() {
+      public void encode(long[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (long v : value) {
+          out.writeLong(v);
+        }
+      }
+
+      public long[] decode(ObjectInput in) throws IOException {
+        long[] rv = new long[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readLong();
+        }
+        return rv;
+      }
+    });
+    register(double[].class, 43, new ObjectCodec<double[]>() {
+      public void encode(double[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (double v : value) {
+          out.writeDouble(v);
+        }
+      }
+
+      public double[] decode(ObjectInput in) throws IOException {
+        double[] rv = new double[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readDouble();
+        }
+        return rv;
+      }
+    });
+    register(float[].class, 44, new ObjectCodec<float[]>() {
+      public void encode(float[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (float v : value) {
+          out.writeFloat(v);
+        }
+      }
+
+      public float[] decode(ObjectInput in) throws IOException {
+        float[] rv = new float[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readFloat();
+        }
+        return rv;
+      }
+    });
+    register(short[].class, 45, new ObjectCodec<short[]>() {
+      public void encode(short[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (short v : value) {
+          out.writeShort(v);
+        }
+      }
+
+      public short[] decode(ObjectInput in) throws IOException {
+        short[] rv = new short[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readShort();
+        }
+        return rv;
+      }
+    });
+    register(char[].class, 46, new ObjectCodec<char[]>() {
+      public void encode(char[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (char v : value) {
+          out.writeChar(v);
+        }
+      }
+
+      public char[] decode(ObjectInput in) throws IOException {
+        char[] rv = new char[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readChar();
+        }
+        return rv;
+      }
+    });
+    register(boolean[].class, 47, new ObjectCodec<boolean[]>() {
+      public void encode(boolean[] value, ObjectOutput out)
+        throws IOException {
+        writeVarInt(out, value.length);
+        for (boolean v : value) {
+          out.writeBoolean(v);
+        }
+      }
+
+      public boolean[] decode(ObjectInput in) throws IOException {
+        boolean[] rv = new boolean[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = in.readBoolean();
+        }
+        return rv;
+      }
+    });
+    register(String[].class, 48, new ObjectCodec<String[]>() {
+      public void encode(String[] value, ObjectOutput out) throws IOException {
+        writeVarInt(out, value.length);
+        for (String v : value) {
+          out.writeObject(v);
+        }
+      }
+
+      public String[] decode(ObjectInput in)
+        throws IOException, ClassNotFoundException {
+        String[] rv = new String[readLength(in)];
+        for (int i = 0; i < rv.length; i++) {
+          rv[i] = (String) in.readObject();
+        }
+        return rv;
+      }
+    });
+  }
+
+  /**
+   * Writes maps as their size followed by their keys and values.
+   */
+  private abstract static class MapCodec<M extends Map<Object, Object>>
+    implements ObjectCodec<M> {
+
+    public void encode(M value, ObjectOutput out) throws IOException {
+      writeVarInt(out, value.size());
+      for (Map.Entry<Object, Object> e : value.entrySet()) {
+        out.writeObject(e.getKey());
+        out.writeObject(e.getValue());
+      }
+    }
+
+    public M decode(ObjectInput in) throws IOException,
+      ClassNotFoundException {
+      int size = readLength(in);
+      M rv = create(size);
+      for (int i = 0; i < size; i++) {
+        rv.put(in.readObject(), in.readObject());
+      }
+      return rv;
+    }
+
+    abstract M create(int size);
+  }
+
+  /**
+   * Writes collections as their size followed by their elements.
+   */
+  private abstract static class CollectionCodec<C extends Collection<Object>>
+    implements ObjectCodec<C> {
+
+    public void encode(C value, ObjectOutput out) throws IOException {
+      writeVarInt(out, value.size());
+      for (Object o : value) {
+        out.writeObject(o);
+      }
+    }
+
+    public C decode(ObjectInput in) throws IOException,
+      ClassNotFoundException {
+      int size = readLength(in);
+      C rv = create(size);
+      for (int i = 0; i < size; i++) {
+        rv.add(in.readObject());
+      }
+      return rv;
+    }
+
+    abstract C create(int size);
+  }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of reusable {@link ByteBuffer}s used to encode operations.
+ *
+ * <p>Buffers are kept in power-of-two size classes, starting at
+ * {@link #MIN_BUFFER_SIZE} bytes. Every size class may hold up to its share
+ * of the configured byte budget. Requests larger than the biggest class are
+ * served by plain allocation and are never pooled.</p>
+ *
+ * <p>A borrowed buffer is cleared and limited to the requested size, so
+ * callers can fill it exactly like a freshly allocated one. It must be given
+ * back with {@link #release(ByteBuffer)} once it is no longer referenced;
+ * buffers that are never released are simply garbage collected.</p>
+ */
+public final class BufferPool {
+
+  /**
+   * The size of the smallest size class.
+   */
+  public static final int MIN_BUFFER_SIZE = 64;
+
+  /**
+   * The default size of the biggest size class.
+   */
+  public static final int DEFAULT_MAX_BUFFER_SIZE = 64 * 1024;
+
+  private static final int MIN_SHIFT =
+      Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+  private final boolean direct;
+  private final int maxBufferSize;
+  private final Queue<ByteBuffer>[] free;
+  private final AtomicInteger[] counts;
+  private final int[] limits;
+
+  /**
+   * Create a pool of heap buffers.
+   *
+   * @param poolSize the number of bytes each size class may hold
+   */
+  public BufferPool(int poolSize) {
+    this(poolSize, DEFAULT_MAX_BUFFER_SIZE, false);
+  }
+
+  /**
+   * Create a pool.
+   *
+   * @param poolSize the number of bytes each size class may hold
+   * @param maxBuffer the biggest buffer size to pool (rounded up to a power
+   *          of two)
+   * @param useDirect if true, direct buffers are pooled
+   */
+  public BufferPool(int poolSize, int maxBuffer, boolean useDirect) {
+    if (poolSize <= 0) {
+      throw new IllegalArgumentException("Pool size must be positive");
+    }
+    direct = useDirect;
+    maxBufferSize = sizeClassCapacity(sizeClass(Math.max(maxBuffer,
+        MIN_BUFFER_SIZE)));
+    int classes = sizeClass(maxBufferSize) + 1;
+    @SuppressWarnings("unchecked")
+    Queue<ByteBuffer>[] queues = (Queue<ByteBuffer>[]) new Queue<?>[classes];
+    free = queues;
+    counts = new AtomicInteger[classes];
+    limits = new int[classes];
+    for (int i = 0; i < classes; i++) {
+      free[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+      counts[i] = new AtomicInteger();
+      limits[i] = Math.max(1, poolSize / sizeClassCapacity(i));
+    }
+  }
+
+  /**
+   * Get a buffer with room for at least the given number of bytes.
+   *
+   * @param size the number of bytes needed
+   * @return a buffer whose position is zero and whose limit is size
+   */
+  public ByteBuffer allocate(int size) {
+    ByteBuffer b = null;
+    if (size <= maxBufferSize) {
+      int sc = sizeClass(size);
+      b = free[sc].poll();
+      if (b != null) {
+        counts[sc].decrementAndGet();
+        b.clear();
+      } else {
+        b = newBuffer(sizeClassCapacity(sc));
+      }
+    } else {
+      b = newBuffer(size);
+    }
+    b.limit(size);
+    return b;
+  }
+
+  /**
+   * Return a buffer previously obtained from {@link #allocate(int)}.
+   *
+   * <p>Buffers that do not belong to a size class, or that would exceed the
+   * budget of their class, are dropped.</p>
+   *
+   * @param b the buffer to return
+   */
+  public void release(ByteBuffer b) {
+    int cap = b.capacity();
+    if (b.isDirect() != direct || cap > maxBufferSize
+        || cap < MIN_BUFFER_SIZE || Integer.bitCount(cap) != 1) {
+      return;
+    }
+    int sc = sizeClass(cap);
+    if (counts[sc].incrementAndGet() <= limits[sc]) {
+      free[sc].offer(b);
+    } else {
+      counts[sc].decrementAndGet();
+    }
+  }
+
+  /**
+   * True if this pool hands out direct buffers.
+   */
+  public boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * The number of idle buffers currently held by the pool.
+   */
+  public int getIdleCount() {
+    int rv = 0;
+    for (AtomicInteger c : counts) {
+      rv += c.get();
+    }
+    return rv;
+  }
+
+  private ByteBuffer newBuffer(int capacity) {
+    return direct ? ByteBuffer.allocateDirect(capacity)
+        : ByteBuffer.allocate(capacity);
+  }
+
+  private static int sizeClass(int size) {
+    if (size <= MIN_BUFFER_SIZE) {
+      return 0;
+    }
+    return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  private static int sizeClassCapacity(int sizeClass) {
+    return MIN_BUFFER_SIZE << sizeClass;
+  }
+
+  @Override
+  public String toString() {
+    return "{BufferPool direct=" + direct + ", max buffer=" + maxBufferSize
+        + ", idle=" + getIdleCount() + "}";
+  }
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} writing into a growable {@link ByteBuffer}, with
+ * room kept free in front of the written data.
+ *
+ * <p>Values are encoded into it by a
+ * {@link net.spy.memcached.transcoders.StreamingTranscoder}, after which
+ * the store operation puts its request header into the free room in front
+ * and writes the buffer as it is. So the value does not have to be copied
+ * from the transcoder into the operation.</p>
+ *
+ * <p>Buffers are taken from a {@link BufferPool} if one is given. The
+ * buffer has to be given back with {@link #release()} once it is no longer
+ * used, otherwise it is simply garbage collected. Instances are not thread
+ * safe.</p>
+ */
+public final class ByteBufferOutputStream extends OutputStream {
+
+  /**
+   * The initial size of the buffer, unless a bigger one is asked for.
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  private final BufferPool pool;
+  private final int headroom;
+  private ByteBuffer buffer;
+
+  /**
+   * Create a stream.
+   *
+   * @param p the pool to take buffers from, or null to allocate them
+   * @param room the number of bytes to keep free in front of the data
+   * @param capacity the number of bytes of data expected
+   */
+  public ByteBufferOutputStream(BufferPool p, int room, int capacity) {
+    if (room < 0) {
+      throw new IllegalArgumentException("Invalid headroom " + room);
+    }
+    pool = p;
+    headroom = room;
+    buffer = allocate(room + Math.max(capacity, DEFAULT_CAPACITY));
+    buffer.position(room);
+  }
+
+  /**
+   * Create a stream allocating its buffers.
+   *
+   * @param room the number of bytes to keep free in front of the data
+   */
+  public ByteBufferOutputStream(int room) {
+    this(null, room, DEFAULT_CAPACITY);
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    buffer.put((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    ensureCapacity(len);
+    buffer.put(b, off, len);
+  }
+
+  /**
+   * Make sure the given number of bytes can be written without growing
+   * the buffer.
+   *
+   * @param bytes the number of bytes
+   */
+  public void ensureCapacity(int bytes) {
+    ByteBuffer b = getBuffer();
+    if (b.remaining() >= bytes) {
+      return;
+    }
+    long needed = (long) b.position() + bytes;
+    if (needed > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot grow buffer to " + needed
+        + " bytes");
+    }
+    ByteBuffer grown = allocate((int) Math.max(needed,
+      Math.min(Integer.MAX_VALUE, 2L * b.capacity())));
+    b.flip();
+    grown.put(b);
+    release(b);
+    buffer = grown;
+  }
+
+  /**
+   * The number of bytes written.
+   */
+  public int size() {
+    return getBuffer().position() - headroom;
+  }
+
+  /**
+   * Discard the bytes written after the given number of bytes.
+   *
+   * @param size the number of bytes to keep
+   */
+  public void reset(int size) {
+    if (size < 0 || size > size()) {
+      throw new IllegalArgumentException("Cannot reset " + size()
+        + " bytes to " + size);
+    }
+    buffer.position(headroom + size);
+  }
+
+  /**
+   * The number of bytes kept free in front of the data.
+   */
+  public int getHeadroom() {
+    return headroom;
+  }
+
+  /**
+   * Get the buffer the data is written to.
+   *
+   * <p>The data starts at {@link #getHeadroom()} and ends at the position
+   * of the buffer. The buffer is replaced when it grows.</p>
+   *
+   * @throws IllegalStateException if the buffer has been released
+   */
+  public ByteBuffer getBuffer() {
+    if (buffer == null) {
+      throw new IllegalStateException("Buffer has been released");
+    }
+    return buffer;
+  }
+
+  /**
+   * Get a copy of the bytes written.
+   */
+  public byte[] toByteArray() {
+    ByteBuffer b = getBuffer().duplicate();
+    b.flip();
+    b.position(headroom);
+    byte[] rv = new byte[b.remaining()];
+    b.get(rv);
+    return rv;
+  }
+
+  /**
+   * Give the buffer back to the pool. The stream cannot be used afterwards.
+   */
+  public void release() {
+    if (buffer != null) {
+      release(buffer);
+      buffer = null;
+    }
+  }
+
+  /**
+   * Does nothing, the data stays available until {@link #release()}.
+   */
+  @Override
+  public void close() {
+    // Empty
+  }
+
+  private ByteBuffer allocate(int size) {
+    if (pool == null) {
+      return ByteBuffer.allocate(size);
+    }
+    ByteBuffer b = pool.allocate(size);
+    b.limit(b.capacity());
+    return b;
+  }
+
+  private void release(ByteBuffer b) {
+    if (pool != null) {
+      pool.release(b);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "{ByteBufferOutputStream size=" + (buffer == null ? -1 : size())
+      + ", headroom=" + headroom + "}";
+  }
+}
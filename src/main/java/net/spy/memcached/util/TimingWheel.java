@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.util;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel, which collects items once their deadline has
+ * passed.
+ *
+ * <p>Deadlines are rounded up to the next tick and hashed into a ring of
+ * buckets, so scheduling and expiring are constant time no matter how many
+ * items are pending. Items may be scheduled from any thread, but only a
+ * single thread may call {@link #expire(long, Collection)}.</p>
+ *
+ * <p>A cancelled timeout only drops its reference to the item, the small
+ * timeout itself stays in its bucket until its deadline.</p>
+ *
+ * @param <T> the type of the scheduled items
+ */
+public final class TimingWheel<T> {
+
+  private final long tickNanos;
+  private final long start;
+  private final Timeout<T>[] buckets;
+  private final int mask;
+  private final Queue<Timeout<T>> added = new ConcurrentLinkedQueue<Timeout<T>>();
+  private long nextTick = 0;
+  private int size = 0;
+
+  /**
+   * Create a timing wheel.
+   *
+   * @param tick the length of a tick
+   * @param unit the unit of the tick length
+   * @param wheelSize the number of buckets (rounded up to a power of two)
+   */
+  @SuppressWarnings("unchecked")
+  public TimingWheel(long tick, TimeUnit unit, int wheelSize) {
+    assert tick > 0 : "Tick must be positive";
+    assert wheelSize > 0 : "Wheel size must be positive";
+    tickNanos = unit.toNanos(tick);
+    start = System.nanoTime();
+    int n = Integer.highestOneBit(wheelSize);
+    buckets = (Timeout<T>[]) new Timeout<?>[n < wheelSize ? n << 1 : n];
+    mask = buckets.length - 1;
+  }
+
+  /**
+   * Schedule an item.
+   *
+   * @param item the item to hand out once the deadline has passed
+   * @param deadline the deadline in {@link System#nanoTime()} terms
+   * @return the timeout, which can be used to cancel it
+   */
+  public Timeout<T> schedule(T item, long deadline) {
+    Timeout<T> timeout = new Timeout<T>(item, deadline);
+    added.offer(timeout);
+    return timeout;
+  }
+
+  /**
+   * Collect all items whose deadline has passed and that have not been
+   * cancelled.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @param expired the collection to add the expired items to
+   */
+  public void expire(long now, Collection<? super T> expired) {
+    Timeout<T> t;
+    while ((t = added.poll()) != null) {
+      if (t.item == null) {
+        continue;
+      }
+      long tick = Math.max(nextTick,
+          (t.deadline - start + tickNanos - 1) / tickNanos);
+      int i = (int) (tick & mask);
+      t.next = buckets[i];
+      buckets[i] = t;
+      size++;
+    }
+
+    long lastTick = (now - start) / tickNanos;
+    // after a full turn every bucket has been looked at
+    long ticks = Math.min(lastTick - nextTick + 1, buckets.length);
+    for (long tick = nextTick; tick < nextTick + ticks; tick++) {
+      expireBucket((int) (tick & mask), now, expired);
+    }
+    nextTick = Math.max(nextTick, lastTick + 1);
+  }
+
+  private void expireBucket(int i, long now, Collection<? super T> expired) {
+    Timeout<T> prev = null;
+    Timeout<T> t = buckets[i];
+    while (t != null) {
+      Timeout<T> next = t.next;
+      T item = t.item;
+      if (item == null || t.deadline - now <= 0) {
+        if (item != null) {
+          expired.add(item);
+          t.item = null;
+        }
+        if (prev == null) {
+          buckets[i] = next;
+        } else {
+          prev.next = next;
+        }
+        t.next = null;
+        size--;
+      } else {
+        prev = t;
+      }
+      t = next;
+    }
+  }
+
+  /**
+   * Check whether no timeouts are pending.
+   *
+   * Only accurate on the thread expiring the timeouts.
+   */
+  public boolean isEmpty() {
+    return size == 0 && added.isEmpty();
+  }
+
+  /**
+   * The time until the next tick is due.
+   *
+   * @param now the current {@link System#nanoTime()}
+   * @return the nanoseconds until the next tick, zero if it is overdue
+   */
+  public long nanosUntilNextTick(long now) {
+    return Math.max(0, start + nextTick * tickNanos - now);
+  }
+
+  /**
+   * A scheduled item.
+   *
+   * @param <T> the type of the item
+   */
+  public static final class Timeout<T> {
+    private volatile T item;
+    private final long deadline;
+    private Timeout<T> next;
+
+    private Timeout(T i, long d) {
+      item = i;
+      deadline = d;
+    }
+
+    /**
+     * Cancel this timeout, so its item is never handed out.
+     */
+    public void cancel() {
+      item = null;
+    }
+
+    /**
+     * Check if this timeout has been cancelled or has expired.
+     */
+    public boolean isDone() {
+      return item == null;
+    }
+  }
+}
@@ -25,6 +25,7 @@ package net.spy.memcached;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.concurrent.ExecutionException;
 
 import net.spy.memcached.internal.GetFuture;
@@ -105,6 +106,24 @@ public class AsciiClientTest extends ProtocolBaseCase {
     assertEquals(StatusCode.ERR_NOT_STORED, add.getStatus().getStatusCode());
   }
 
+  public void testSetBulk() throws Exception {
+    try {
+      client.setBulk(Collections.singletonMap("setbulk", "value"), 0);
+      fail("Expected an UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testHedgedGet() throws Exception {
+    try {
+      client.asyncGetHedged("hedged");
+      fail("Expected an UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
   public void testAsyncIncrementWithDefault() throws Exception {
     String k = "async-incr-with-default";
     try {
@@ -24,14 +24,20 @@
 package net.spy.memcached;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 
+import net.spy.memcached.internal.BulkWriteFuture;
 import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.OperationFuture;
 import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationException;
+import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.transcoders.SerializingTranscoder;
 
@@ -62,6 +68,39 @@ public class BinaryClientTest extends ProtocolBaseCase {
         TestConfig.PORT_NUMBER));
   }
 
+  public void testHedgedGet() throws Exception {
+    assertTrue(client.set("hedged", 0, "value").get());
+    assertEquals("value", client.asyncGetHedged("hedged").get());
+    assertNull(client.asyncGetHedged("hedged.missing").get());
+  }
+
+  public void testNearCache() throws Exception {
+    MemcachedClient near = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setNearCacheSize(1024 * 1024).setNearCacheTTL(60000).build(),
+      AddrUtil.getAddresses(TestConfig.IPV4_ADDR + ":"
+        + TestConfig.PORT_NUMBER));
+    try {
+      assertTrue(near.set("near", 0, "a").get());
+      assertEquals("a", near.get("near"));
+
+      // Writes from other clients are not seen until the entry expires...
+      assertTrue(client.set("near", 0, "b").get());
+      assertEquals("a", near.get("near"));
+      assertEquals("a", near.getBulk("near").get("near"));
+
+      // ...but writes through the same client are.
+      assertTrue(near.delete("near").get());
+      assertNull(near.get("near"));
+      assertTrue(client.set("near", 0, "c").get());
+      assertEquals("c", near.get("near"));
+      assertTrue(client.delete("near").get());
+      assertEquals("c", near.asyncGet("near").get());
+    } finally {
+      near.shutdown();
+    }
+  }
+
   public void testDeleteWithCAS() throws Exception {
     final String key = "delete.with.cas";
     final long wrongCAS = 1234;
@@ -203,6 +242,65 @@ public class BinaryClientTest extends ProtocolBaseCase {
     assertEquals(StatusCode.ERR_EXISTS, add.getStatus().getStatusCode());
   }
 
+  public void testSetBulk() throws Exception {
+    Map<String, String> items = new HashMap<String, String>();
+    for (int i = 0; i < 100; i++) {
+      items.put("setbulk" + i, "value" + i);
+    }
+    BulkWriteFuture f = client.setBulk(items, 0);
+    assertTrue(f.get().isEmpty());
+    assertTrue(f.isDone());
+    assertEquals(StatusCode.SUCCESS, f.getStatus().getStatusCode());
+    assertEquals(items, client.getBulk(items.keySet()));
+  }
+
+  public void testSetBulkNothing() throws Exception {
+    BulkWriteFuture f =
+      client.setBulk(Collections.<String, Object>emptyMap(), 0);
+    assertTrue(f.isDone());
+    assertTrue(f.get().isEmpty());
+  }
+
+  public void testAddBulkReportsExistingKeys() throws Exception {
+    assertTrue(client.set("addbulk3", 0, "old").get());
+    assertTrue(client.set("addbulk7", 0, "old").get());
+
+    Map<String, String> items = new HashMap<String, String>();
+    for (int i = 0; i < 10; i++) {
+      items.put("addbulk" + i, "new");
+    }
+    Map<String, OperationStatus> failures = client.addBulk(items, 0).get();
+    assertEquals(2, failures.size());
+    assertEquals(StatusCode.ERR_EXISTS,
+      failures.get("addbulk3").getStatusCode());
+    assertEquals(StatusCode.ERR_EXISTS,
+      failures.get("addbulk7").getStatusCode());
+    assertEquals("old", client.get("addbulk3"));
+    assertEquals("new", client.get("addbulk4"));
+  }
+
+  public void testDeleteBulk() throws Exception {
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 10; i++) {
+      keys.add("deletebulk" + i);
+      if (i % 2 == 0) {
+        assertTrue(client.set("deletebulk" + i, 0, "value").get());
+      }
+    }
+    Map<String, OperationStatus> failures = client.deleteBulk(keys).get();
+    assertEquals(5, failures.size());
+    for (int i = 0; i < 10; i++) {
+      String k = "deletebulk" + i;
+      assertNull(client.get(k));
+      if (i % 2 == 0) {
+        assertFalse(failures.containsKey(k));
+      } else {
+        assertEquals(StatusCode.ERR_NOT_FOUND,
+          failures.get(k).getStatusCode());
+      }
+    }
+  }
+
   public void testAsyncIncrementWithDefault() throws Exception {
     String k = "async-incr-with-default";
     OperationFuture<Long> f = client.asyncIncr(k, 1, 5);
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+/**
+ * Binary client test which encodes operations into pooled direct buffers
+ * and writes them with gathering writes.
+ */
+public class BinaryPooledBuffersClientTest extends BinaryClientTest {
+
+  @Override
+  protected void initClient() throws Exception {
+    initClient(new BinaryConnectionFactory() {
+      @Override
+      public long getOperationTimeout() {
+        return 15000;
+      }
+
+      @Override
+      public FailureMode getFailureMode() {
+        return FailureMode.Retry;
+      }
+
+      @Override
+      public boolean useGatheringWrites() {
+        return true;
+      }
+
+      @Override
+      public int getBufferPoolSize() {
+        return 256 * 1024;
+      }
+
+      @Override
+      public boolean useDirectBufferPool() {
+        return true;
+      }
+    });
+  }
+}
@@ -102,10 +102,28 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     assertFalse(f.shouldOptimize());
     assertFalse(f.useNagleAlgorithm());
     assertFalse(f.getKeepAlive());
+    assertFalse(f.useGatheringWrites());
+    assertEquals(0, f.getBufferPoolSize());
+    assertFalse(f.useDirectBufferPool());
+    assertEquals(0, f.getWriteBatchWindow());
+    assertEquals(0, f.getNearCacheSize());
+    assertEquals(DefaultConnectionFactory.DEFAULT_NEAR_CACHE_TTL,
+        f.getNearCacheTTL());
+    assertFalse(f.useDecodedNearCache());
+    assertFalse(f.shouldCoalesceGets());
+    assertEquals(DefaultConnectionFactory.DEFAULT_HEDGE_PERCENTILE,
+        f.getHedgePercentile(), 0);
+    assertEquals(DefaultConnectionFactory.DEFAULT_CONNECTIONS_PER_NODE,
+        f.getConnectionsPerNode());
+    assertTrue(f.getConnectionSelector()
+        instanceof LeastOutstandingBytesConnectionSelector);
+    assertEquals(0, f.getTimeoutTick());
     assertEquals(f.getOpQueueMaxBlockTime(),
         DefaultConnectionFactory.DEFAULT_OP_QUEUE_MAX_BLOCK_TIME);
     assertEquals(f.getAuthWaitTime(),
       DefaultConnectionFactory.DEFAULT_AUTH_WAIT_TIME);
+    assertEquals(DefaultConnectionFactory.DEFAULT_IO_THREAD_COUNT,
+      f.getIOThreadCount());
   }
 
   public void testModifications() throws Exception {
@@ -142,6 +160,19 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
         .setAuthDescriptor(anAuthDescriptor)
         .setAuthWaitTime(3000)
         .setKeepAlive(true)
+        .setIOThreadCount(4)
+        .setUseGatheringWrites(true)
+        .setBufferPoolSize(65536)
+        .setDirectBufferPool(true)
+        .setWriteBatchWindow(50)
+        .setNearCacheSize(1024 * 1024)
+        .setNearCacheTTL(250)
+        .setDecodedNearCache(true)
+        .setCoalesceGets(true)
+        .setHedgePercentile(99)
+        .setConnectionsPerNode(4)
+        .setConnectionSelector(new RoundRobinConnectionSelector())
+        .setTimeoutTick(10)
         .build();
 
     assertEquals(4225, f.getOperationTimeout());
@@ -159,9 +190,23 @@ public class ConnectionFactoryBuilderTest extends BaseMockCase {
     assertFalse(f.shouldOptimize());
     assertTrue(f.useNagleAlgorithm());
     assertTrue(f.getKeepAlive());
+    assertTrue(f.useGatheringWrites());
+    assertEquals(65536, f.getBufferPoolSize());
+    assertTrue(f.useDirectBufferPool());
+    assertEquals(50, f.getWriteBatchWindow());
+    assertEquals(1024 * 1024, f.getNearCacheSize());
+    assertEquals(250, f.getNearCacheTTL());
+    assertTrue(f.useDecodedNearCache());
+    assertTrue(f.shouldCoalesceGets());
+    assertEquals(99, f.getHedgePercentile(), 0);
+    assertEquals(4, f.getConnectionsPerNode());
+    assertTrue(f.getConnectionSelector()
+        instanceof RoundRobinConnectionSelector);
+    assertEquals(10, f.getTimeoutTick());
     assertEquals(f.getOpQueueMaxBlockTime(), 19);
     assertSame(anAuthDescriptor, f.getAuthDescriptor());
     assertEquals(f.getAuthWaitTime(), 3000);
+    assertEquals(4, f.getIOThreadCount());
 
     MemcachedNode n = new MockMemcachedNode(
         InetSocketAddress.createUnresolved("localhost",
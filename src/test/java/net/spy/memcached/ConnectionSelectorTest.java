@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.spy.memcached.ops.DeleteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.protocol.binary.BinaryOperationFactory;
+
+/**
+ * Test the ConnectionSelector implementations.
+ */
+public class ConnectionSelectorTest extends TestCase {
+
+  private final OperationFactory opFact = new BinaryOperationFactory();
+  private List<MemcachedNode> connections;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    connections = new ArrayList<MemcachedNode>();
+    for (int i = 0; i < 4; i++) {
+      connections.add(new TestNode(11211 + i));
+    }
+  }
+
+  public void testModificationsStayOnOneConnection() {
+    ConnectionSelector selector = new RoundRobinConnectionSelector();
+    for (int i = 0; i < 10; i++) {
+      Set<MemcachedNode> used = new HashSet<MemcachedNode>();
+      for (int j = 0; j < 10; j++) {
+        used.add(selector.select(connections, delete("key" + i)));
+      }
+      assertEquals(1, used.size());
+    }
+  }
+
+  public void testRoundRobinSpreadsReads() {
+    ConnectionSelector selector = new RoundRobinConnectionSelector();
+    Set<MemcachedNode> used = new HashSet<MemcachedNode>();
+    for (int i = 0; i < connections.size(); i++) {
+      used.add(selector.select(connections, get("key")));
+    }
+    assertEquals(connections.size(), used.size());
+  }
+
+  public void testInactiveConnectionsAreSkipped() {
+    ((TestNode) connections.get(1)).active = false;
+    ((TestNode) connections.get(2)).active = false;
+    ConnectionSelector selector = new RoundRobinConnectionSelector();
+    for (int i = 0; i < 20; i++) {
+      MemcachedNode node = selector.select(connections, get("key"));
+      assertTrue(node.isActive());
+      node = selector.select(connections, delete("key" + i));
+      assertTrue(node.isActive());
+    }
+  }
+
+  public void testLeastOutstandingBytes() {
+    ((TestNode) connections.get(0)).outstanding = 100;
+    ((TestNode) connections.get(1)).outstanding = 10;
+    ((TestNode) connections.get(2)).outstanding = 1000;
+    ((TestNode) connections.get(3)).outstanding = 5;
+    ConnectionSelector selector =
+      new LeastOutstandingBytesConnectionSelector();
+    assertSame(connections.get(3), selector.select(connections, get("key")));
+    ((TestNode) connections.get(3)).active = false;
+    assertSame(connections.get(1), selector.select(connections, get("key")));
+  }
+
+  public void testSizeSegregated() {
+    ConnectionSelector selector = new SizeSegregatedConnectionSelector(1024);
+    MemcachedNode large = connections.get(connections.size() - 1);
+    assertSame(large, selector.select(connections, store("key", 2048)));
+    for (int i = 0; i < 20; i++) {
+      assertNotSame(large, selector.select(connections, get("key")));
+      assertNotSame(large, selector.select(connections, store("key" + i, 10)));
+    }
+    ((TestNode) large).active = false;
+    assertNotSame(large, selector.select(connections, store("key", 2048)));
+  }
+
+  private Operation get(String key) {
+    return opFact.get(key, new GetOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // not used
+      }
+
+      public void gotData(String k, int flags, byte[] data) {
+        // not used
+      }
+
+      public void complete() {
+        // not used
+      }
+    });
+  }
+
+  private Operation delete(String key) {
+    return opFact.delete(key, new DeleteOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // not used
+      }
+
+      public void gotData(long cas) {
+        // not used
+      }
+
+      public void complete() {
+        // not used
+      }
+    });
+  }
+
+  private Operation store(String key, int size) {
+    Operation op = opFact.store(StoreType.set, key, 0, 0, new byte[size],
+      new NoopStoreCallback());
+    op.initialize();
+    return op;
+  }
+
+  private static class NoopStoreCallback implements StoreOperation.Callback {
+    public void receivedStatus(OperationStatus status) {
+      // not used
+    }
+
+    public void gotData(String key, long cas) {
+      // not used
+    }
+
+    public void complete() {
+      // not used
+    }
+  }
+
+  private static class TestNode extends MockMemcachedNode {
+    private boolean active = true;
+    private long outstanding = 0;
+
+    TestNode(int port) {
+      super(new InetSocketAddress("127.0.0.1", port));
+    }
+
+    @Override
+    public boolean isActive() {
+      return active;
+    }
+
+    @Override
+    public long getOutstandingBytes() {
+      return outstanding;
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.LeasedLoader.Loaded;
+import net.spy.memcached.LeasedLoader.LoadedTranscoder;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the bookkeeping of getOrLoad.
+ */
+public class LeasedLoaderTest extends TestCase {
+
+  private final Transcoder<Object> tc = new SerializingTranscoder();
+
+  public void testExpiredValuesNeedRefresh() {
+    long now = System.currentTimeMillis();
+    Loaded<String> value = new Loaded<String>("v", 0, now);
+    assertTrue(LeasedLoader.needsRefresh(value, now, LoadPolicy.DEFAULT));
+    assertFalse(LeasedLoader.needsRefresh(value, now - 1, LoadPolicy.DEFAULT));
+  }
+
+  public void testEarlyRefreshProbability() {
+    LoadPolicy policy = new LoadPolicy(10, 0, 1.0, 0);
+    long now = System.currentTimeMillis();
+    Loaded<String> near = new Loaded<String>("v", 1000, now + 1000);
+    Loaded<String> far = new Loaded<String>("v", 10, now + 1000);
+    int nearRefreshes = 0;
+    int farRefreshes = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (LeasedLoader.needsRefresh(near, now, policy)) {
+        nearRefreshes++;
+      }
+      if (LeasedLoader.needsRefresh(far, now, policy)) {
+        farRefreshes++;
+      }
+    }
+    // The chance is e^-(remaining / delta): e^-1 and e^-100.
+    assertTrue("Got " + nearRefreshes, nearRefreshes > 3000
+        && nearRefreshes < 4400);
+    assertEquals(0, farRefreshes);
+    assertFalse(LeasedLoader.needsRefresh(near, now, LoadPolicy.DEFAULT));
+  }
+
+  public void testExpirations() {
+    long now = 1400000000000L;
+    assertEquals(Long.MAX_VALUE, LeasedLoader.expiresAt(0, now));
+    assertEquals(now + 60000, LeasedLoader.expiresAt(60, now));
+    assertEquals(1500000000000L, LeasedLoader.expiresAt(1500000000, now));
+
+    LoadPolicy stale = new LoadPolicy(10, 30, 0, 0);
+    assertEquals(0, LeasedLoader.storageExpiration(0, stale, now));
+    assertEquals(60, LeasedLoader.storageExpiration(60, LoadPolicy.DEFAULT,
+        now));
+    assertEquals(90, LeasedLoader.storageExpiration(60, stale, now));
+    assertEquals(1500000030, LeasedLoader.storageExpiration(1500000000,
+        stale, now));
+    int month = 60 * 60 * 24 * 30;
+    assertEquals(1400000000 + month + 30,
+        LeasedLoader.storageExpiration(month, stale, now));
+  }
+
+  public void testTranscoder() {
+    LoadedTranscoder<Object> ltc = new LoadedTranscoder<Object>(tc);
+    CachedData encoded = ltc.encode(new Loaded<Object>("value", 42, 1234L));
+    assertEquals(LoadedTranscoder.LOADED, encoded.getFlags()
+        & LoadedTranscoder.LOADED);
+    Loaded<Object> decoded = ltc.decode(encoded);
+    assertEquals("value", decoded.getValue());
+    assertTrue(LeasedLoader.needsRefresh(decoded, 1234L, LoadPolicy.DEFAULT));
+    assertFalse(LeasedLoader.needsRefresh(decoded, 1233L, LoadPolicy.DEFAULT));
+  }
+
+  public void testPlainValues() {
+    LoadedTranscoder<Object> ltc = new LoadedTranscoder<Object>(tc);
+    Loaded<Object> decoded = ltc.decode(tc.encode("plain"));
+    assertEquals("plain", decoded.getValue());
+    assertFalse(LeasedLoader.needsRefresh(decoded,
+        System.currentTimeMillis(), new LoadPolicy(10, 0, 100, 0)));
+  }
+
+  public void testPlainValueLikeHeader() {
+    LoadedTranscoder<Object> ltc = new LoadedTranscoder<Object>(tc);
+    // Starts with 0xe1, like the old header, and is longer than it.
+    String plain = "\u10d0\u10d1\u10d2\u10d3\u10d4\u10d5";
+    Loaded<Object> decoded = ltc.decode(tc.encode(plain));
+    assertEquals(plain, decoded.getValue());
+    assertFalse(LeasedLoader.needsRefresh(decoded,
+        System.currentTimeMillis(), LoadPolicy.DEFAULT));
+  }
+
+  public void testUnknownHeader() {
+    LoadedTranscoder<Object> ltc = new LoadedTranscoder<Object>(tc);
+    CachedData encoded = ltc.encode(new Loaded<Object>("value", 42, 1234L));
+    byte[] data = encoded.getData();
+    data[0] = 2;
+    assertNull(ltc.decode(new CachedData(encoded.getFlags(), data,
+        ltc.getMaxSize())));
+  }
+}
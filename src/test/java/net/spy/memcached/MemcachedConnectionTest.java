@@ -22,13 +22,31 @@
 
 package net.spy.memcached;
 
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
+import net.spy.memcached.auth.AuthDescriptor;
+import net.spy.memcached.auth.PlainCallbackHandler;
+import net.spy.memcached.internal.GetCompletionListener;
+import net.spy.memcached.internal.GetFuture;
+import net.spy.memcached.internal.LatencyWindow;
+import net.spy.memcached.ops.StatusCode;
 import net.spy.memcached.protocol.binary.BinaryOperationFactory;
 
 /**
@@ -73,4 +91,223 @@ public class MemcachedConnectionTest extends TestCase {
     assertTrue(conn.belongsToCluster(node));
     assertFalse(conn.belongsToCluster(node2));
   }
+
+  public void testNodesAreSpreadAcrossIOThreads() throws Exception {
+    ConnectionFactory factory = new ConnectionFactoryBuilder()
+      .setIOThreadCount(2).build();
+    List<InetSocketAddress> addresses = AddrUtil.getAddresses(
+      TestConfig.IPV4_ADDR + ":11211 " + TestConfig.IPV4_ADDR + ":11212 "
+      + TestConfig.IPV4_ADDR + ":11213 " + TestConfig.IPV4_ADDR + ":11214");
+    MemcachedConnection conn = new MemcachedConnection(1024, factory,
+      addresses, new ArrayList<ConnectionObserver>(), FailureMode.Retry,
+      new BinaryOperationFactory());
+    try {
+      Set<Selector> selectors = new HashSet<Selector>();
+      for (MemcachedNode node : conn.getLocator().getAll()) {
+        selectors.add(node.getSk().selector());
+      }
+      assertEquals(2, selectors.size());
+    } finally {
+      conn.shutdown();
+    }
+  }
+
+  public void testOperationsExpireWithoutWaitingCaller() throws Exception {
+    // accepts connections, but never answers
+    ServerSocket silent = new ServerSocket(0);
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setOpTimeout(200).setTimeoutTick(10).build(),
+      AddrUtil.getAddresses("127.0.0.1:" + silent.getLocalPort()));
+    try {
+      final CountDownLatch expired = new CountDownLatch(10);
+      List<GetFuture<Object>> futures = new ArrayList<GetFuture<Object>>();
+      for (int i = 0; i < 10; i++) {
+        GetFuture<Object> f = client.asyncGet("expire" + i);
+        f.addListener(new GetCompletionListener() {
+          public void onComplete(GetFuture<?> future) {
+            expired.countDown();
+          }
+        });
+        futures.add(f);
+      }
+      assertTrue(expired.await(2, TimeUnit.SECONDS));
+      for (GetFuture<Object> f : futures) {
+        assertTrue(f.isDone());
+        assertEquals(StatusCode.TIMEDOUT, f.getStatus().getStatusCode());
+      }
+    } finally {
+      client.shutdown();
+      silent.close();
+    }
+  }
+
+  public void testConnectionsPerNode() throws Exception {
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setConnectionsPerNode(3)
+      .setConnectionSelector(new RoundRobinConnectionSelector()).build(),
+      AddrUtil.getAddresses(TestConfig.IPV4_ADDR + ":11211"));
+    try {
+      assertEquals(1, client.getNodeLocator().getAll().size());
+      for (int i = 0; i < 100; i++) {
+        client.set("connections" + i, 0, "value" + i);
+        client.delete("connections" + i);
+        client.set("connections" + i, 0, "value" + i);
+      }
+      for (int i = 0; i < 100; i++) {
+        assertEquals("value" + i, client.get("connections" + i));
+      }
+    } finally {
+      client.shutdown();
+    }
+  }
+
+  public void testAuthenticatesEveryConnectionPerNode() throws Exception {
+    FakeServer server = new FakeServer();
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setAuthDescriptor(new AuthDescriptor(new String[] { "PLAIN" },
+        new PlainCallbackHandler("user", "password")))
+      .setConnectionsPerNode(2)
+      .setConnectionSelector(new RoundRobinConnectionSelector())
+      .setOpTimeout(2000).build(),
+      AddrUtil.getAddresses(server.getAddress()));
+    try {
+      // The second connection only gets operations once it has been
+      // authenticated itself.
+      long deadline = System.currentTimeMillis() + 2000;
+      int i = 0;
+      while (server.sets.size() < 2 && System.currentTimeMillis() < deadline) {
+        assertTrue(client.set("auth" + i++, 0, "value").get(2,
+          TimeUnit.SECONDS));
+      }
+      assertEquals(2, server.accepted.size());
+      assertEquals(2, server.sets.size());
+    } finally {
+      client.shutdown();
+      server.close();
+    }
+  }
+
+  public void testCancelledPrimaryIsNoHedgeLatency() throws Exception {
+    FakeServer first = new FakeServer();
+    FakeServer second = new FakeServer();
+    MemcachedClient client = new MemcachedClient(new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setHedgePercentile(99).setOpTimeout(2000).build(),
+      AddrUtil.getAddresses(first.getAddress() + " " + second.getAddress()));
+    try {
+      for (int i = 0; i < 200; i++) {
+        assertEquals("value", client.asyncGetHedged("hedged").get());
+      }
+      // Let the last primary be sampled after its future completed.
+      Thread.sleep(100);
+      LatencyWindow latencies = client.getHedgeLatencies();
+      int recorded = latencies.getCount();
+      assertTrue(recorded >= 100);
+
+      // The primary stops answering, so the hedge to the replica wins.
+      FakeServer primary = first.gets.get() > 0 ? first : second;
+      primary.silent = true;
+      assertEquals("value", client.asyncGetHedged("hedged").get());
+      Thread.sleep(100);
+      assertEquals(recorded, latencies.getCount());
+    } finally {
+      client.shutdown();
+      first.close();
+      second.close();
+    }
+  }
+
+  /**
+   * Answers every binary request with an empty success response, and gets
+   * with a value, until told to be silent.
+   */
+  private static final class FakeServer extends Thread {
+    private final ServerSocket server = new ServerSocket(0);
+    private final List<Socket> accepted = new ArrayList<Socket>();
+    // Plain gets only; a hedge's replica read must not make a replica look
+    // like the primary.
+    private final AtomicInteger gets = new AtomicInteger();
+    // The sockets sets have been received on.
+    private final Set<Socket> sets =
+      Collections.synchronizedSet(new HashSet<Socket>());
+    private volatile boolean silent = false;
+
+    private FakeServer() throws IOException {
+      setDaemon(true);
+      start();
+    }
+
+    private String getAddress() {
+      return "127.0.0.1:" + server.getLocalPort();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket socket = server.accept();
+          synchronized (accepted) {
+            accepted.add(socket);
+          }
+          Thread t = new Thread() {
+            @Override
+            public void run() {
+              answer(socket);
+            }
+          };
+          t.setDaemon(true);
+          t.start();
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    private void answer(Socket socket) {
+      try {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        byte[] header = new byte[24];
+        while (true) {
+          in.readFully(header);
+          in.readFully(new byte[ByteBuffer.wrap(header).getInt(8)]);
+          if (silent) {
+            continue;
+          }
+          byte[] body = new byte[0];
+          if (header[1] == 0x01) {
+            sets.add(socket);
+          }
+          if (header[1] == 0x00) {
+            gets.incrementAndGet();
+          }
+          if (header[1] == 0x00 || header[1] == (byte) 0x83) {
+            // No flags, then the value
+            body = new byte[] { 0, 0, 0, 0, 'v', 'a', 'l', 'u', 'e' };
+          }
+          ByteBuffer response = ByteBuffer.allocate(24 + body.length);
+          response.put((byte) 0x81).put(header[1]).putShort((short) 0)
+            .put((byte) (body.length == 0 ? 0 : 4)).put((byte) 0)
+            .putShort((short) 0).putInt(body.length).put(header, 12, 4)
+            .putLong(0).put(body);
+          out.write(response.array());
+          out.flush();
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    }
+
+    private void close() throws IOException {
+      server.close();
+      synchronized (accepted) {
+        for (Socket socket : accepted) {
+          socket.close();
+        }
+      }
+    }
+  }
 }
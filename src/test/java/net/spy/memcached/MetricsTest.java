@@ -23,17 +23,35 @@
 
 package net.spy.memcached;
 
+import net.spy.memcached.metrics.CounterHandle;
 import net.spy.memcached.metrics.DefaultMetricCollector;
 import net.spy.memcached.metrics.DummyMetricCollector;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.LatencyHistogram;
+import net.spy.memcached.metrics.MeterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricHandles;
 import net.spy.memcached.metrics.MetricType;
 import net.spy.memcached.metrics.NoopMetricCollector;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 /**
  * Tests the initialization and measurement of Metrics.
@@ -92,4 +110,227 @@ public class MetricsTest {
     client.shutdown();
   }
 
+  @Test
+  public void recordsLatenciesPerNodeAndType() throws Exception {
+    DummyMetricCollector collector = new DummyMetricCollector();
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setEnableMetrics(MetricType.PERFORMANCE)
+      .setMetricCollector(collector)
+      .build();
+
+    MemcachedClient client = new MemcachedClient(cf,
+      AddrUtil.getAddresses(TestConfig.IPV4_ADDR + ":"
+        + TestConfig.PORT_NUMBER));
+
+    assertTrue(client.set("metrics:latency", 0, "value").get());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("value", client.get("metrics:latency"));
+    }
+
+    Map<String, LatencyHistogram.Snapshot> latencies =
+      client.getConnection().getLatencies();
+    String node = client.getConnection().getLocator().getAll().iterator()
+      .next().getSocketAddress().toString();
+    assertEquals(1, latencies.get(node + " store wire").getCount());
+    assertEquals(10, latencies.get(node + " get queue").getCount());
+    assertEquals(10, latencies.get(node + " get wire").getCount());
+    assertEquals(10, latencies.get(node + " get read").getCount());
+    assertEquals(6, latencies.size());
+
+    Map<String, LatencyHistogram> histograms =
+      collector.getLatencyHistograms();
+    assertEquals(6, histograms.size());
+    assertEquals(10, histograms.get("[MEM] Latency (us) " + node + " get wire")
+      .snapshot().getCount());
+
+    client.shutdown();
+  }
+
+  @Test
+  public void handlesUpdateTheirMetrics() throws Exception {
+    DummyMetricCollector collector = new DummyMetricCollector();
+    CounterHandle counter = collector.counter("counter");
+    MeterHandle meter = collector.meter("meter");
+    HistogramHandle histogram = collector.histogram("histogram");
+    HistogramHandle sampled = collector.histogram("sampled", 4);
+
+    counter.increment(5);
+    counter.decrement();
+    for (int i = 0; i < 8; i++) {
+      meter.mark();
+      histogram.update(1);
+      sampled.update(1);
+    }
+
+    HashMap<String, Integer> metrics = collector.getMetrics();
+    assertEquals(4, (int) metrics.get("counter"));
+    assertEquals(8, (int) metrics.get("meter"));
+    assertEquals(8, (int) metrics.get("histogram"));
+    assertEquals(2, (int) metrics.get("sampled"));
+
+    NoopMetricCollector noop = new NoopMetricCollector();
+    assertSame(NoopMetricCollector.NOOP_COUNTER, noop.counter("counter"));
+    assertSame(NoopMetricCollector.NOOP_HISTOGRAM,
+      noop.histogram("histogram", 4));
+  }
+
+  @Test
+  public void plainCollectorsGetHandlesByName() throws Exception {
+    // A collector implementing only the interface, recording every call.
+    final List<String> calls = new ArrayList<String>();
+    MetricCollector collector = (MetricCollector) Proxy.newProxyInstance(
+      MetricCollector.class.getClassLoader(),
+      new Class<?>[] { MetricCollector.class }, new InvocationHandler() {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+          calls.add(method.getName() + " " + Arrays.toString(args));
+          return null;
+        }
+      });
+
+    MetricHandles.counter(collector, "counter").increment(5);
+    MetricHandles.meter(collector, "meter").mark();
+    HistogramHandle sampled = MetricHandles.histogram(collector, "sampled", 2);
+    sampled.update(3);
+    sampled.update(4);
+
+    assertEquals(Arrays.asList("addCounter [counter]",
+      "incrementCounter [counter, 5]", "addMeter [meter]",
+      "markMeter [meter]", "addHistogram [sampled]",
+      "updateHistogram [sampled, 4]"), calls);
+    assertSame(NoopMetricCollector.NOOP_COUNTER,
+      MetricHandles.counter(new NoopMetricCollector(), "counter"));
+  }
+
+  @Test
+  public void countsCoalescedWakeups() throws Exception {
+    DummyMetricCollector collector = new DummyMetricCollector();
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setEnableMetrics(MetricType.DEBUG)
+      .setMetricCollector(collector)
+      .setWriteBatchWindow(2000)
+      .build();
+
+    MemcachedClient client = new MemcachedClient(cf,
+      AddrUtil.getAddresses(TestConfig.IPV4_ADDR + ":"
+        + TestConfig.PORT_NUMBER));
+
+    int ops = 500;
+    List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < ops; i++) {
+      futures.add(client.set("metrics:wakeup:" + i, 0, "value"));
+    }
+    for (Future<Boolean> f : futures) {
+      assertTrue(f.get());
+    }
+
+    int wakeups = collector.getMetrics().get("[MEM] Selector Wakeups");
+    assertTrue(wakeups > 0);
+    assertTrue("Expected coalesced wakeups, got " + wakeups, wakeups < ops);
+
+    client.shutdown();
+  }
+
+  @Test
+  public void countsHedgedReads() throws Exception {
+    DummyMetricCollector collector = new DummyMetricCollector();
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setProtocol(ConnectionFactoryBuilder.Protocol.BINARY)
+      .setEnableMetrics(MetricType.DEBUG)
+      .setMetricCollector(collector)
+      .setHedgePercentile(1)
+      .build();
+
+    // Two nodes, so there is somewhere to send the hedge to.
+    String server = TestConfig.IPV4_ADDR + ":" + TestConfig.PORT_NUMBER;
+    MemcachedClient client = new MemcachedClient(cf,
+      AddrUtil.getAddresses(server + " " + server));
+
+    assertTrue(client.set("metrics:hedged", 0, "value").get());
+    int reads = 300;
+    for (int i = 0; i < reads; i++) {
+      assertEquals("value", client.asyncGetHedged("metrics:hedged").get());
+    }
+
+    HashMap<String, Integer> metrics = collector.getMetrics();
+    assertEquals(reads, (int) metrics.get("[MEM] Hedged Reads"));
+    int hedges = metrics.get("[MEM] Hedged Reads: Hedges Sent");
+    assertTrue("Expected hedges, got " + hedges, hedges > 0);
+
+    client.shutdown();
+  }
+
+  @Test
+  public void countsCoalescedGets() throws Exception {
+    DummyMetricCollector collector = new DummyMetricCollector();
+    ConnectionFactory cf = new ConnectionFactoryBuilder()
+      .setEnableMetrics(MetricType.DEBUG)
+      .setMetricCollector(collector)
+      .setCoalesceGets(true)
+      .build();
+
+    MemcachedClient client = new MemcachedClient(cf,
+      AddrUtil.getAddresses(TestConfig.IPV4_ADDR + ":"
+        + TestConfig.PORT_NUMBER));
+
+    assertTrue(client.set("metrics:coalesced", 0, "value").get());
+    int gets = 200;
+    List<Future<Object>> futures = new ArrayList<Future<Object>>();
+    for (int i = 0; i < gets; i++) {
+      futures.add(client.asyncGet("metrics:coalesced"));
+    }
+    Object previous = null;
+    for (Future<Object> f : futures) {
+      Object value = f.get();
+      assertEquals("value", value);
+      assertNotSame(previous, value);
+      previous = value;
+    }
+
+    int coalesced = collector.getMetrics().get("[MEM] Coalesced Gets");
+    assertTrue("Expected coalesced gets, got " + coalesced, coalesced > 0);
+
+    // A get issued after a write must not wait for one issued before it.
+    Future<Object> before = client.asyncGet("metrics:coalesced");
+    client.set("metrics:coalesced", 0, "changed");
+    assertEquals("changed", client.get("metrics:coalesced"));
+    assertNotNull(before.get());
+
+    // First callers for a missing key share one get as well.
+    final MemcachedClient c = client;
+    final CyclicBarrier barrier = new CyclicBarrier(8);
+    final List<Future<Object>> missing = new ArrayList<Future<Object>>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+          } catch (Exception e) {
+            throw new RuntimeException(e);
+          }
+          for (int j = 0; j < 10; j++) {
+            Future<Object> f = c.asyncGet("metrics:coalesced:missing");
+            synchronized (missing) {
+              missing.add(f);
+            }
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    for (Future<Object> f : missing) {
+      assertNull(f.get());
+    }
+    assertTrue(collector.getMetrics().get("[MEM] Coalesced Gets")
+      > coalesced);
+
+    client.shutdown();
+  }
+
 }
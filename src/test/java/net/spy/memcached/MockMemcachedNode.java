@@ -79,6 +79,10 @@ public class MockMemcachedNode implements MemcachedNode {
     // noop
   }
 
+  public int purgeWriteQueue() {
+    return 0;
+  }
+
   public void fillWriteBuffer(boolean optimizeGets) {
     // noop
   }
@@ -171,6 +175,10 @@ public class MockMemcachedNode implements MemcachedNode {
     return 0;
   }
 
+  public long getOutstandingBytes() {
+    return 0;
+  }
+
   public int writeSome() throws IOException {
     return 0;
   }
@@ -29,15 +29,21 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
@@ -46,6 +52,10 @@ import net.spy.memcached.compat.SyncThread;
 import net.spy.memcached.internal.BulkFuture;
 import net.spy.memcached.internal.BulkGetFuture;
 import net.spy.memcached.internal.BulkGetCompletionListener;
+import net.spy.memcached.internal.BulkGetConsumer;
+import net.spy.memcached.internal.BulkGetIterator;
+import net.spy.memcached.internal.BulkStreamFuture;
+import net.spy.memcached.internal.CompletionCallback;
 import net.spy.memcached.internal.GetFuture;
 import net.spy.memcached.internal.GetCompletionListener;
 import net.spy.memcached.internal.OperationFuture;
@@ -54,6 +64,10 @@ import net.spy.memcached.ops.OperationErrorType;
 import net.spy.memcached.ops.OperationException;
 import net.spy.memcached.ops.OperationStatus;
 import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.reactive.ReactiveMemcachedClient;
+import net.spy.memcached.reactive.Subscriber;
+import net.spy.memcached.reactive.Subscription;
+import net.spy.memcached.transcoders.DictionaryTrainer;
 import net.spy.memcached.transcoders.SerializingTranscoder;
 import net.spy.memcached.transcoders.Transcoder;
 
@@ -429,6 +443,277 @@ public abstract class ProtocolBaseCase extends ClientBaseCase {
     assertEquals("val2", vals.get("test2"));
   }
 
+  public void testAsyncGetBulkStream() throws Exception {
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 50; i++) {
+      keys.add("stream" + i);
+      if (i % 5 != 0) {
+        assertTrue(client.set("stream" + i, 5, "val" + i).get());
+      }
+    }
+    final Map<String, Object> vals = new ConcurrentHashMap<String, Object>();
+    final AtomicInteger nodes = new AtomicInteger();
+    BulkStreamFuture f = client.asyncGetBulkStream(keys,
+      client.getTranscoder(), new BulkGetConsumer<Object>() {
+        public void gotValue(String key, Object value) {
+          vals.put(key, value);
+        }
+
+        public void nodeComplete(MemcachedNode node, OperationStatus status) {
+          if (status.isSuccess()) {
+            nodes.incrementAndGet();
+          }
+        }
+      });
+    assertTrue(f.get(5, TimeUnit.SECONDS));
+    assertTrue(f.getStatus().isSuccess());
+    assertEquals(client.getNodeLocator().getAll().size(), nodes.get());
+    assertEquals(40, vals.size());
+    assertEquals("val1", vals.get("stream1"));
+    assertFalse(vals.containsKey("stream5"));
+  }
+
+  public void testGetBulkIterator() throws Exception {
+    List<String> keys = new ArrayList<String>();
+    Map<String, Object> expected = new HashMap<String, Object>();
+    for (int i = 0; i < 200; i++) {
+      keys.add("iter" + i);
+      if (i % 3 != 0) {
+        expected.put("iter" + i, "val" + i);
+        assertTrue(client.set("iter" + i, 5, "val" + i).get());
+      }
+    }
+    BulkGetIterator<Object> it = client.getBulkIterator(keys.iterator(), 8);
+    Map<String, Object> vals = new HashMap<String, Object>();
+    while (it.hasNext()) {
+      Map.Entry<String, Object> e = it.next();
+      assertNull(vals.put(e.getKey(), e.getValue()));
+    }
+    assertEquals(expected, vals);
+    assertFalse(it.hasNext());
+  }
+
+  public void testGetBulkIteratorNothing() throws Exception {
+    BulkGetIterator<Object> it = client.getBulkIterator(
+      Arrays.asList("iternone1", "iternone2").iterator(), 8);
+    assertFalse(it.hasNext());
+    assertFalse(client.getBulkIterator(
+      Collections.<String>emptyList().iterator(), 8).hasNext());
+  }
+
+  public void testGetOrLoad() throws Throwable {
+    final AtomicInteger loads = new AtomicInteger();
+    final Callable<Object> loader = new Callable<Object>() {
+      public Object call() throws Exception {
+        loads.incrementAndGet();
+        Thread.sleep(200);
+        return "loaded";
+      }
+    };
+    Collection<SyncThread<Object>> threads =
+      SyncThread.getCompletedThreads(10, new Callable<Object>() {
+        public Object call() throws Exception {
+          return client.getOrLoad("loadme", 60, loader);
+        }
+      });
+    for (SyncThread<Object> t : threads) {
+      assertEquals("loaded", t.getResult());
+    }
+    assertEquals(1, loads.get());
+    assertEquals("loaded", client.getOrLoad("loadme", 60, loader));
+    assertEquals(1, loads.get());
+    assertNull(client.get("loadme" + LeasedLoader.LEASE_SUFFIX));
+  }
+
+  public void testGetOrLoadServesStaleWhileLeased() throws Exception {
+    LoadPolicy policy = new LoadPolicy(10, 30, 0, 2000);
+    Callable<String> loader = new Callable<String>() {
+      public String call() {
+        return "fresh";
+      }
+    };
+    Transcoder<String> t = new TestTranscoder();
+    assertEquals("fresh", client.getOrLoad("stale", 1, loader, t, policy));
+    Thread.sleep(2000);
+
+    // Someone else is reloading the value, so the stale one is served.
+    assertTrue(client.add("stale" + LeasedLoader.LEASE_SUFFIX, 10, "").get());
+    Callable<String> failing = new Callable<String>() {
+      public String call() {
+        throw new IllegalStateException("Should not be loaded");
+      }
+    };
+    assertEquals("fresh", client.getOrLoad("stale", 1, failing, t, policy));
+
+    assertTrue(client.delete("stale" + LeasedLoader.LEASE_SUFFIX).get());
+    try {
+      client.getOrLoad("stale", 1, failing, t, policy);
+      fail("Expected the loader to be called");
+    } catch (IllegalStateException e) {
+      assertEquals("Should not be loaded", e.getMessage());
+    }
+    assertNull(client.get("stale" + LeasedLoader.LEASE_SUFFIX));
+  }
+
+  public void testAsyncClient() throws Exception {
+    AsyncMemcachedClientIF async = new AsyncMemcachedClient(client);
+    assertNull(async.get("asyncKey").get());
+    assertTrue(async.set("asyncKey", 60, "v1").get());
+    assertFalse(async.add("asyncKey", 60, "v2").get());
+    assertEquals("v1", async.get("asyncKey").get());
+
+    CASValue<Object> cv = async.gets("asyncKey").get();
+    assertEquals("v1", cv.getValue());
+    assertEquals(CASResponse.OK,
+      async.cas("asyncKey", cv.getCas(), "v3").get());
+    assertEquals(CASResponse.EXISTS,
+      async.cas("asyncKey", cv.getCas(), "v4").get());
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    final List<Object> results = new ArrayList<Object>();
+    async.get("asyncKey").addCallback(new CompletionCallback<Object>() {
+      public void onSuccess(Object result) {
+        results.add(result);
+        latch.countDown();
+      }
+
+      public void onFailure(Throwable cause) {
+        results.add(cause);
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("v3"), results);
+
+    assertTrue(async.set("asyncNum", 60, "10").get());
+    assertEquals(15, (long) async.incr("asyncNum", 5).get());
+    assertEquals(12, (long) async.decr("asyncNum", 3).get());
+    assertTrue(async.append("asyncNum", "0").get());
+    assertEquals("120", async.get("asyncNum").get());
+
+    Map<String, Object> vals = async.getBulk(
+      Arrays.asList("asyncKey", "asyncNum", "asyncNone")).get();
+    assertEquals(2, vals.size());
+    assertEquals("v3", vals.get("asyncKey"));
+    assertEquals("120", vals.get("asyncNum"));
+    assertTrue(async.getBulk(Collections.<String>emptyList()).get().isEmpty());
+
+    assertTrue(async.delete("asyncKey").get());
+    assertFalse(async.delete("asyncKey").get());
+    assertNull(async.get("asyncKey").get());
+  }
+
+  public void testAsyncClientWithExecutor() throws Exception {
+    final AtomicInteger tasks = new AtomicInteger();
+    final ExecutorService pool = Executors.newSingleThreadExecutor();
+    Executor executor = new Executor() {
+      public void execute(Runnable command) {
+        tasks.incrementAndGet();
+        pool.execute(command);
+      }
+    };
+    try {
+      AsyncMemcachedClientIF async = new AsyncMemcachedClient(client,
+        executor);
+      assertTrue(async.set("asyncExec", 60, "value").get());
+      assertEquals("value", async.get("asyncExec").get());
+      assertEquals(1, async.getBulk(Arrays.asList("asyncExec")).get().size());
+      assertEquals(3, tasks.get());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  public void testReactiveSetAndGetAll() throws Exception {
+    ReactiveMemcachedClient reactive = new ReactiveMemcachedClient(client, 4);
+    Map<String, Object> items = new HashMap<String, Object>();
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 200; i++) {
+      items.put("reactive" + i, "value" + i);
+      keys.add("reactive" + i);
+      keys.add("reactiveMissing" + i);
+    }
+
+    StreamRecorder<Boolean> stored = new StreamRecorder<Boolean>(16);
+    reactive.setAll(items.entrySet().iterator(), 60).subscribe(stored);
+    assertTrue(stored.await());
+    assertEquals(200, stored.items.size());
+    for (Boolean b : stored.items.values()) {
+      assertTrue(b);
+    }
+
+    StreamRecorder<Object> got = new StreamRecorder<Object>(16);
+    reactive.getAll(keys.iterator()).subscribe(got);
+    assertTrue(got.await());
+    assertEquals(items, got.items);
+  }
+
+  public void testTrainDictionaryFromCache() throws Exception {
+    SerializingTranscoder tc = new SerializingTranscoder();
+    tc.setCompressionThreshold(64);
+    tc.setCompressJson(true);
+    List<String> keys = new ArrayList<String>();
+    for (int i = 0; i < 50; i++) {
+      String value = "{\"id\":" + i + ",\"name\":\"user" + i
+        + "\",\"state\":\"active\",\"timezone\":\"Europe/Berlin\"}";
+      assertTrue(client.set("dict" + i, 60, value).get());
+      keys.add("dict" + i);
+      // Compressed values are sampled too.
+      assertTrue(client.set("dictCompressed" + i, 60, value + value, tc).get());
+      keys.add("dictCompressed" + i);
+    }
+    keys.add("dictMissing");
+
+    byte[] dictionary = DictionaryTrainer.train(client, keys, 1024);
+    assertTrue(new String(dictionary).contains("Europe/Berlin"));
+  }
+
+  /**
+   * Collects the items of a stream, asking for them in batches.
+   */
+  private static final class StreamRecorder<T>
+    implements Subscriber<Map.Entry<String, T>> {
+    private final Map<String, T> items = new ConcurrentHashMap<String, T>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final int batch;
+    private Subscription subscription;
+    private int received;
+    private volatile Throwable error;
+
+    private StreamRecorder(int b) {
+      batch = b;
+    }
+
+    public void onSubscribe(Subscription s) {
+      subscription = s;
+      s.request(batch);
+    }
+
+    public void onNext(Map.Entry<String, T> item) {
+      items.put(item.getKey(), item.getValue());
+      if (++received % batch == 0) {
+        subscription.request(batch);
+      }
+    }
+
+    public void onError(Throwable t) {
+      error = t;
+      done.countDown();
+    }
+
+    public void onComplete() {
+      done.countDown();
+    }
+
+    boolean await() throws Exception {
+      boolean rv = done.await(10, TimeUnit.SECONDS);
+      if (error != null) {
+        throw new Exception(error);
+      }
+      return rv;
+    }
+  }
+
   public void testGetBulkVarargWithTranscoder() throws Exception {
     Transcoder<String> t = new TestTranscoder();
     assertEquals(0, client.getBulk(t, "test1", "test2", "test3").size());
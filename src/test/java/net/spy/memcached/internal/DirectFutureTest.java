@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the completion of a DirectFuture.
+ */
+public class DirectFutureTest extends TestCase {
+
+  private static final class Recorder implements CompletionCallback<Object> {
+    private final List<Object> results = new ArrayList<Object>();
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    public void onSuccess(Object result) {
+      results.add(result);
+      threads.add(Thread.currentThread());
+    }
+
+    public void onFailure(Throwable cause) {
+      results.add(cause);
+      threads.add(Thread.currentThread());
+    }
+  }
+
+  public void testCallbacksRunOnCompletingThread() throws Exception {
+    DirectFuture<Object> f = new DirectFuture<Object>(1000, null);
+    Recorder r = new Recorder();
+    assertSame(f, f.addCallback(r));
+    assertFalse(f.isDone());
+    assertTrue(r.results.isEmpty());
+
+    f.set("value", null);
+    f.signalComplete();
+    assertTrue(f.isDone());
+    assertEquals("value", f.get());
+    assertEquals(1, r.results.size());
+    assertEquals("value", r.results.get(0));
+    assertSame(Thread.currentThread(), r.threads.get(0));
+
+    // Later completions and callbacks see the first result.
+    f.set("other", null);
+    f.signalComplete();
+    Recorder late = new Recorder();
+    f.addCallback(late);
+    assertEquals(1, r.results.size());
+    assertEquals("value", late.results.get(0));
+  }
+
+  public void testFailure() throws Exception {
+    DirectFuture<Object> f = new DirectFuture<Object>(1000, null);
+    Recorder r = new Recorder();
+    f.addCallback(r);
+    IllegalStateException cause = new IllegalStateException("broken");
+    f.fail(cause);
+    assertSame(cause, r.results.get(0));
+    try {
+      f.get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertSame(cause, e.getCause());
+    }
+  }
+
+  public void testDecodeOnExecutor() throws Exception {
+    final List<Runnable> tasks = new ArrayList<Runnable>();
+    Executor executor = new Executor() {
+      public void execute(Runnable command) {
+        tasks.add(command);
+      }
+    };
+    Transcoder<Object> tc = new SerializingTranscoder();
+    DirectFuture<Object> f = new DirectFuture<Object>(1000, executor);
+    Recorder r = new Recorder();
+    f.addCallback(r);
+    f.set(tc.encode("encoded"), tc);
+    f.signalComplete();
+    assertFalse(f.isDone());
+    assertEquals(1, tasks.size());
+
+    tasks.get(0).run();
+    assertTrue(f.isDone());
+    assertEquals("encoded", r.results.get(0));
+    assertEquals("encoded", f.get(0, TimeUnit.MILLISECONDS));
+  }
+}
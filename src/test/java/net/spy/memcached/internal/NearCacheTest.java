@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.internal;
+
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.metrics.DummyMetricCollector;
+import net.spy.memcached.metrics.MetricType;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.TranscodeService;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Test the near cache.
+ */
+public class NearCacheTest extends TestCase {
+
+  private TranscodeService tcService;
+  private Transcoder<Object> tc;
+  private DummyMetricCollector metrics;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tcService = new TranscodeService(true);
+    tc = new SerializingTranscoder();
+    metrics = new DummyMetricCollector();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    tcService.shutdown();
+    super.tearDown();
+  }
+
+  private NearCache createCache(long size, boolean decoded) {
+    return new NearCache(size, 60000, decoded, tcService, metrics,
+        MetricType.DEBUG);
+  }
+
+  private void read(NearCache cache, String key, Object value) {
+    long generation = cache.generation(key);
+    assertNull(cache.get(key, tc));
+    CachedData data = tc.encode(value);
+    cache.putIfUnchanged(key, generation, data, tcService.decode(tc, data),
+        tc);
+  }
+
+  public void testMissThenHit() throws Exception {
+    NearCache cache = createCache(1024 * 1024, false);
+    read(cache, "key", "value");
+    assertEquals("value", cache.get("key", tc).get());
+    assertEquals(1, (int) metrics.getMetrics().get(NearCache.HIT_METRIC));
+    assertEquals(1, (int) metrics.getMetrics().get(NearCache.MISS_METRIC));
+  }
+
+  public void testInvalidate() throws Exception {
+    NearCache cache = createCache(1024 * 1024, false);
+    read(cache, "key", "value");
+    cache.invalidate("key");
+    assertNull(cache.get("key", tc));
+
+    cache.put("key", 0, tc.encode("other"), tc);
+    assertEquals("other", cache.get("key", tc).get());
+    cache.clear();
+    assertNull(cache.get("key", tc));
+  }
+
+  public void testReadRacingWriteIsNotCached() {
+    NearCache cache = createCache(1024 * 1024, false);
+    long generation = cache.generation("key");
+    cache.invalidate("key");
+    CachedData data = tc.encode("stale");
+    cache.putIfUnchanged("key", generation, data, tcService.decode(tc, data),
+        tc);
+    assertNull(cache.get("key", tc));
+  }
+
+  public void testExpiration() throws Exception {
+    NearCache cache = createCache(1024 * 1024, false);
+    int past = (int) (System.currentTimeMillis() / 1000) - 10;
+    cache.put("expired", past, tc.encode("value"), tc);
+    assertNull(cache.get("expired", tc));
+    cache.put("negative", -1, tc.encode("value"), tc);
+    assertNull(cache.get("negative", tc));
+
+    NearCache shortLived = new NearCache(1024 * 1024, 1, false, tcService,
+        metrics, MetricType.DEBUG);
+    shortLived.put("key", 0, tc.encode("value"), tc);
+    Thread.sleep(10);
+    assertNull(shortLived.get("key", tc));
+    assertEquals(0, shortLived.size());
+  }
+
+  public void testAdmission() throws Exception {
+    NearCache cache = createCache(4096, false);
+    byte[] value = new byte[1000];
+    for (int i = 0; i < 3; i++) {
+      cache.put("key" + i, 0, tc.encode(value), tc);
+    }
+    assertEquals(3, cache.size());
+
+    // A key nobody asked for does not displace the cached ones.
+    cache.put("cold", 0, tc.encode(value), tc);
+    assertEquals(3, cache.size());
+    assertNull(cache.get("cold", tc));
+
+    // One that has been asked for more often does.
+    for (int i = 0; i < 3; i++) {
+      assertNull(cache.get("hot", tc));
+    }
+    cache.put("hot", 0, tc.encode(value), tc);
+    assertEquals(3, cache.size());
+    assertNotNull(cache.get("hot", tc));
+    assertNull(cache.get("key0", tc));
+    assertEquals(1, (int) metrics.getMetrics().get(NearCache.EVICTION_METRIC));
+  }
+
+  public void testTooLarge() {
+    NearCache cache = createCache(4096, false);
+    cache.put("key", 0, tc.encode(new byte[8192]), tc);
+    assertEquals(0, cache.size());
+  }
+
+  public void testDecoded() throws Exception {
+    NearCache cache = createCache(1024 * 1024, true);
+    read(cache, "key", "value");
+    Future<Object> first = cache.get("key", tc);
+    Future<Object> second = cache.get("key", tc);
+    assertEquals("value", first.get());
+    assertSame(first.get(), second.get());
+    assertNull(cache.get("key", new SerializingTranscoder()));
+  }
+}
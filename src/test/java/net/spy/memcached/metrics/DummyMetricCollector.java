@@ -24,16 +24,20 @@
 package net.spy.memcached.metrics;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A dummy {@link MetricCollector} to measure executions.
  */
-public class DummyMetricCollector implements MetricCollector {
+public class DummyMetricCollector extends AbstractMetricCollector {
 
   private HashMap<String, Integer> metrics;
+  private ConcurrentHashMap<String, LatencyHistogram> latencyHistograms;
 
   public DummyMetricCollector() {
     metrics = new HashMap<String, Integer>();
+    latencyHistograms = new ConcurrentHashMap<String, LatencyHistogram>();
   }
 
   @Override
@@ -96,8 +100,17 @@ public class DummyMetricCollector implements MetricCollector {
     metrics.put(name, metrics.get(name) + amount);
   }
 
+  @Override
+  public void addLatencyHistogram(String name, LatencyHistogram histogram) {
+    latencyHistograms.put(name, histogram);
+  }
+
   public HashMap<String, Integer> getMetrics() {
     return metrics;
   }
 
+  public Map<String, LatencyHistogram> getLatencyHistograms() {
+    return latencyHistograms;
+  }
+
 }
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the functionality of the {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void shouldCoverAllValuesWithoutGaps() {
+    for (int i = 0; i < LatencyHistogram.index(LatencyHistogram.MAX_VALUE);
+      i++) {
+      assertEquals(i + 1, LatencyHistogram.index(
+        LatencyHistogram.highestValue(i) + 1));
+      assertEquals(i, LatencyHistogram.index(LatencyHistogram.highestValue(i)));
+    }
+  }
+
+  @Test
+  public void shouldReportPercentilesWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 10000; i++) {
+      histogram.record(i * 100L);
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(10000, snapshot.getCount());
+    assertEquals(1000000, snapshot.getMax());
+    assertWithin(500000, snapshot.getValueAtPercentile(50));
+    assertWithin(990000, snapshot.getValueAtPercentile(99));
+    assertWithin(999000, snapshot.getValueAtPercentile(99.9));
+    assertEquals(1000000, snapshot.getValueAtPercentile(100));
+    assertWithin(500050, (long) snapshot.getMean());
+  }
+
+  @Test
+  public void shouldRecordValuesExactlyBelowSubBuckets() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(3);
+    histogram.record(63);
+
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(0, snapshot.getValueAtPercentile(0));
+    assertEquals(3, snapshot.getValueAtPercentile(50));
+    assertEquals(63, snapshot.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void shouldClampLargeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(Long.MAX_VALUE);
+    assertEquals(LatencyHistogram.MAX_VALUE, histogram.snapshot().getMax());
+  }
+
+  @Test
+  public void shouldReportIntervals() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(100000);
+    LatencyHistogram.Snapshot first = histogram.snapshot();
+    histogram.record(10);
+    histogram.record(20);
+
+    LatencyHistogram.Snapshot interval = histogram.snapshot().since(first);
+    assertEquals(2, interval.getCount());
+    assertEquals(20, interval.getMax());
+    assertEquals(10, interval.getValueAtPercentile(50));
+  }
+
+  @Test
+  public void shouldBeEmptyWithoutValues() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getValueAtPercentile(99));
+    assertEquals(0, snapshot.getMean(), 0);
+  }
+
+  private static void assertWithin(long expected, long actual) {
+    assertTrue("Expected about " + expected + ", got " + actual,
+      Math.abs(expected - actual) <= expected / 32);
+  }
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.ops;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Test the lock-free multi-producer, single-consumer operation queue.
+ */
+public class MPSCOperationQueueTest extends TestCase {
+
+  private final OperationFactory opFact = new AsciiOperationFactory();
+
+  private Operation newOp() {
+    return opFact.noop(null);
+  }
+
+  public void testCapacityIsRoundedUp() {
+    assertEquals(2, new MPSCOperationQueue(1).remainingCapacity());
+
+    BlockingQueue<Operation> q = new MPSCOperationQueueFactory(5).create();
+    assertEquals(8, q.remainingCapacity());
+    for (int i = 0; i < 8; i++) {
+      assertTrue(q.offer(newOp()));
+    }
+    assertFalse(q.offer(newOp()));
+    assertEquals(8, q.size());
+    assertEquals(0, q.remainingCapacity());
+  }
+
+  public void testFifoOrder() {
+    BlockingQueue<Operation> q = new MPSCOperationQueue(4);
+    List<Operation> ops = new ArrayList<Operation>();
+    // go around the ring a few times
+    for (int round = 0; round < 5; round++) {
+      ops.clear();
+      for (int i = 0; i < 3; i++) {
+        Operation op = newOp();
+        ops.add(op);
+        q.add(op);
+      }
+      assertSame(ops.get(0), q.peek());
+      int i = 0;
+      for (Operation op : q) {
+        assertSame(ops.get(i++), op);
+      }
+      for (Operation op : ops) {
+        assertSame(op, q.poll());
+      }
+      assertNull(q.poll());
+      assertTrue(q.isEmpty());
+    }
+  }
+
+  public void testDrainTo() {
+    BlockingQueue<Operation> q = new MPSCOperationQueue(16);
+    BlockingQueue<Operation> target = new MPSCOperationQueue(4);
+    for (int i = 0; i < 10; i++) {
+      q.add(newOp());
+    }
+    assertEquals(4, q.drainTo(target, target.remainingCapacity()));
+    assertEquals(6, q.size());
+    assertEquals(4, target.size());
+    List<Operation> rest = new ArrayList<Operation>();
+    assertEquals(6, q.drainTo(rest));
+    assertTrue(q.isEmpty());
+  }
+
+  public void testTimedOfferWaitsForSpace() throws Exception {
+    final BlockingQueue<Operation> q = new MPSCOperationQueue(2);
+    q.add(newOp());
+    q.add(newOp());
+    assertFalse(q.offer(newOp(), 10, TimeUnit.MILLISECONDS));
+
+    Thread consumer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          // proceed
+        }
+        q.poll();
+      }
+    };
+    consumer.start();
+    assertTrue(q.offer(newOp(), 5, TimeUnit.SECONDS));
+    consumer.join();
+    assertEquals(2, q.size());
+  }
+
+  public void testConcurrentProducers() throws Exception {
+    final BlockingQueue<Operation> q = new MPSCOperationQueue(64);
+    final int producers = 8;
+    final int perProducer = 10000;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int i = 0; i < producers; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < perProducer; j++) {
+              q.put(newOp());
+            }
+          } catch (InterruptedException e) {
+            fail("Interrupted");
+          }
+        }
+      };
+      threads[i].start();
+    }
+    start.countDown();
+
+    List<Operation> drained = new ArrayList<Operation>();
+    while (drained.size() < producers * perProducer) {
+      if (q.drainTo(drained) == 0) {
+        Operation op = q.poll(1, TimeUnit.SECONDS);
+        assertNotNull("Producers stalled", op);
+        drained.add(op);
+      }
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertTrue(q.isEmpty());
+    assertEquals(producers * perProducer, drained.size());
+    Set<Operation> unique = Collections.newSetFromMap(
+        new IdentityHashMap<Operation, Boolean>());
+    unique.addAll(drained);
+    assertEquals(drained.size(), unique.size());
+  }
+}
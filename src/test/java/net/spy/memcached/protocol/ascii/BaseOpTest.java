@@ -23,11 +23,14 @@
 package net.spy.memcached.protocol.ascii;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import net.spy.memcached.compat.BaseMockCase;
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 /**
  * Test the basic operation buffer handling stuff.
@@ -103,6 +106,65 @@ public class BaseOpTest extends BaseMockCase {
     assertEquals("this is a test", op.getCurrentLine());
   }
 
+  public void testIndexOfLineFeed() throws Exception {
+    byte[] input = "0123456789abcdefghij".getBytes();
+    for (int lf = 0; lf < input.length; lf++) {
+      byte[] copy = input.clone();
+      copy[lf] = '\n';
+      for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+        ByteOrder.LITTLE_ENDIAN }) {
+        ByteBuffer b = ByteBuffer.wrap(copy).order(order);
+        assertEquals(lf, OperationImpl.indexOfLineFeed(b, 0, copy.length));
+        assertEquals(-1, OperationImpl.indexOfLineFeed(b, lf + 1,
+            copy.length));
+        assertEquals(-1, OperationImpl.indexOfLineFeed(b, 0, lf));
+      }
+    }
+    // bytes next to \n (0x0a) must not be mistaken for it
+    byte[] neighbours = { 0x0b, 0x09, 0x0b, 0x0b, 0x01, 0x0b, (byte) 0x8a,
+      0x0b, 0x0a };
+    assertEquals(8, OperationImpl.indexOfLineFeed(ByteBuffer.wrap(neighbours),
+        0, neighbours.length));
+  }
+
+  public void testLinesSplitAcrossReads() throws Exception {
+    String input = "first line\r\nsecond\r\nthe third line is long\r\n";
+    for (int chunk = 1; chunk < input.length(); chunk++) {
+      SimpleOp op = new SimpleOp(OperationReadType.LINE);
+      op.linesToRead = 3;
+      byte[] bytes = input.getBytes();
+      for (int i = 0; i < bytes.length; i += chunk) {
+        op.readFromBuffer(ByteBuffer.wrap(bytes, i,
+            Math.min(chunk, bytes.length - i)));
+      }
+      assertEquals(Arrays.asList("first line", "second",
+          "the third line is long"), op.getLines());
+    }
+  }
+
+  private static byte[] bufferBytes(OperationImpl op) {
+    op.initialize();
+    ByteBuffer b = op.getBuffer().duplicate();
+    byte[] rv = new byte[b.remaining()];
+    b.get(rv);
+    return rv;
+  }
+
+  public void testStreamedStore() throws Exception {
+    byte[] data = "some value".getBytes();
+    for (int headroom : new int[] { 64, 8 }) {
+      ByteBufferOutputStream out = new ByteBufferOutputStream(headroom);
+      out.write(data, 0, data.length);
+      StoreOperationImpl streamed = new StoreOperationImpl(StoreType.add,
+          "key", 5, 10, out, null);
+      assertEquals("add key 5 10 10\r\nsome value\r\n",
+          new String(bufferBytes(streamed)));
+      assertEquals("add key 5 10 10\r\nsome value\r\n",
+          new String(bufferBytes(streamed)));
+      assertTrue(Arrays.equals(data, streamed.getData()));
+    }
+  }
+
   private static class SimpleOp extends OperationImpl {
 
     private final LinkedList<String> lines = new LinkedList<String>();
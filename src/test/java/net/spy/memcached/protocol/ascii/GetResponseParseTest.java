@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.ascii;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.GetsOperation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+
+/**
+ * Test the parsing of get responses, fed in chunks of varying size.
+ */
+public class GetResponseParseTest extends TestCase {
+
+  private final Map<String, String> values =
+    new LinkedHashMap<String, String>();
+  private final Map<String, Long> cas = new LinkedHashMap<String, Long>();
+  private OperationStatus status;
+
+  public void testMultiGet() throws Exception {
+    String response = "VALUE a 1 3\r\nabc\r\n"
+      + "VALUE kéy 4294967295 0\r\n\r\n"
+      + "VALUE c 3 11\r\nwith\r\nin it\r\n"
+      + "END\r\n";
+    for (int chunk = 1; chunk <= response.length(); chunk++) {
+      values.clear();
+      GetOperationImpl op = new GetOperationImpl(Arrays.asList("a",
+          "kéy", "c"), new GetOperation.Callback() {
+            public void gotData(String k, int flags, byte[] data) {
+              values.put(k, flags + ":" + new String(data));
+            }
+
+            public void receivedStatus(OperationStatus s) {
+              status = s;
+            }
+
+            public void complete() {
+              // nothing
+            }
+          });
+      feed(op, response.getBytes("UTF-8"), chunk);
+      assertEquals("{a=1:abc, kéy=-1:, c=3:with\r\nin it}",
+          values.toString());
+      assertTrue(status.isSuccess());
+      assertSame(OperationState.COMPLETE, op.getState());
+    }
+  }
+
+  public void testGets() throws Exception {
+    GetsOperationImpl op = new GetsOperationImpl("key",
+        new GetsOperation.Callback() {
+          public void gotData(String k, int flags, long casValue,
+              byte[] data) {
+            values.put(k, new String(data));
+            cas.put(k, casValue);
+          }
+
+          public void receivedStatus(OperationStatus s) {
+            status = s;
+          }
+
+          public void complete() {
+            // nothing
+          }
+        });
+    feed(op, "VALUE key 0 5 123456789012\r\nhello\r\nEND\r\n".getBytes(), 7);
+    assertEquals("hello", values.get("key"));
+    assertEquals(Long.valueOf(123456789012L), cas.get("key"));
+  }
+
+  public void testMiss() throws Exception {
+    GetOperationImpl op = new GetOperationImpl("a",
+        new GetOperation.Callback() {
+          public void gotData(String k, int flags, byte[] data) {
+            fail("Unexpected value for " + k);
+          }
+
+          public void receivedStatus(OperationStatus s) {
+            status = s;
+          }
+
+          public void complete() {
+            // nothing
+          }
+        });
+    feed(op, "END\r\n".getBytes(), 2);
+    assertFalse(status.isSuccess());
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  private static void feed(OperationImpl op, byte[] data, int chunk)
+    throws Exception {
+    for (int i = 0; i < data.length; i += chunk) {
+      op.readFromBuffer(ByteBuffer.wrap(data, i,
+          Math.min(chunk, data.length - i)));
+    }
+  }
+}
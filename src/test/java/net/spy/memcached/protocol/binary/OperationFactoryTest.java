@@ -22,10 +22,22 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.spy.memcached.CachedData;
 import net.spy.memcached.OperationFactory;
 import net.spy.memcached.OperationFactoryTestBase;
+import net.spy.memcached.ops.BulkDeleteOperation;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkWriteOperation;
 import net.spy.memcached.ops.GetAndTouchOperation;
+import net.spy.memcached.ops.Operation;
 import net.spy.memcached.ops.OperationCallback;
+import net.spy.memcached.ops.StoreType;
 import net.spy.memcached.ops.TouchOperation;
 
 /**
@@ -59,4 +71,48 @@ public class OperationFactoryTest extends OperationFactoryTestBase {
     assertSame(callback, op2.getCallback());
   }
 
+
+  public void testBulkStoreOperationCloning() {
+    BulkWriteOperation.Callback callback = (BulkWriteOperation.Callback)
+      mock(BulkWriteOperation.Callback.class).proxy();
+    Map<String, CachedData> items = new HashMap<String, CachedData>();
+    for (String k : Arrays.asList("k1", "k2", "k3")) {
+      items.put(k, new CachedData(7735, new byte[64], CachedData.MAX_SIZE));
+    }
+    BulkStoreOperation op = ofact.storeBulk(StoreType.add, items, 823862,
+      callback);
+
+    Collection<Operation> ops = ofact.clone(op);
+    assertEquals(3, ops.size());
+    Collection<String> keys = new ArrayList<String>(items.keySet());
+    for (Operation o : ops) {
+      BulkStoreOperation so = (BulkStoreOperation) o;
+      assertEquals(1, so.getKeys().size());
+      String k = so.getKeys().iterator().next();
+      assertTrue(keys.remove(k));
+      assertSame(items.get(k), so.getItems().get(k));
+      assertSame(StoreType.add, so.getStoreType());
+      assertEquals(823862, so.getExpiration());
+      assertSame(callback, so.getCallback());
+    }
+    assertTrue(keys.isEmpty());
+  }
+
+  public void testBulkDeleteOperationCloning() {
+    BulkWriteOperation.Callback callback = (BulkWriteOperation.Callback)
+      mock(BulkWriteOperation.Callback.class).proxy();
+    Collection<String> keys = new ArrayList<String>(
+      Arrays.asList("k1", "k2", "k3"));
+    BulkDeleteOperation op = ofact.deleteBulk(keys, callback);
+
+    Collection<Operation> ops = ofact.clone(op);
+    assertEquals(3, ops.size());
+    for (Operation o : ops) {
+      BulkDeleteOperation d = (BulkDeleteOperation) o;
+      assertEquals(1, d.getKeys().size());
+      assertTrue(keys.remove(d.getKeys().iterator().next()));
+      assertSame(callback, d.getCallback());
+    }
+    assertTrue(keys.isEmpty());
+  }
 }
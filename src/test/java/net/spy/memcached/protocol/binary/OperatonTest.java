@@ -22,11 +22,19 @@
 
 package net.spy.memcached.protocol.binary;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import junit.framework.TestCase;
 
+import net.spy.memcached.ops.StoreType;
+import net.spy.memcached.util.ByteBufferOutputStream;
+
 import static net.spy.memcached.protocol.binary.OperationImpl.decodeInt;
 import static net.spy.memcached.protocol.binary.OperationImpl.decodeLong;
 import static net.spy.memcached.protocol.binary.OperationImpl.decodeUnsignedInt;
+import static net.spy.memcached.protocol.binary.OperationImpl.generateOpaque;
+import static net.spy.memcached.protocol.binary.OperationImpl.generateOpaques;
 
 /**
  * Test operation stuff.
@@ -64,4 +72,42 @@ public class OperatonTest extends TestCase {
     String s = String.valueOf(OperationImpl.STATUS_OK);
     assertEquals("{OperationStatus success=true:  OK}", s);
   }
+
+  public void testOpaqueRange() {
+    int first = generateOpaques(100);
+    assertTrue(first > 0);
+    assertEquals(first + 100, generateOpaque());
+  }
+
+  private static byte[] bufferBytes(OperationImpl op) {
+    op.initialize();
+    ByteBuffer b = op.getBuffer().duplicate();
+    byte[] rv = new byte[b.remaining()];
+    b.get(rv);
+    // Blank out the opaque, which differs for every operation
+    for (int i = 12; i < 16; i++) {
+      rv[i] = 0;
+    }
+    return rv;
+  }
+
+  public void testStreamedStore() {
+    byte[] data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    for (int headroom : new int[] { 64, 8 }) {
+      ByteBufferOutputStream out = new ByteBufferOutputStream(headroom);
+      out.write(data, 0, data.length);
+      StoreOperationImpl streamed = new StoreOperationImpl(StoreType.set,
+          "key", 5, 10, out, 0, null);
+      StoreOperationImpl copied = new StoreOperationImpl(StoreType.set,
+          "key", 5, 10, data, 0, null);
+      assertTrue(Arrays.equals(bufferBytes(copied),
+          bufferBytes(streamed)));
+      assertTrue(Arrays.equals(bufferBytes(copied),
+          bufferBytes(streamed)));
+      assertTrue(Arrays.equals(data, streamed.getData()));
+    }
+  }
 }
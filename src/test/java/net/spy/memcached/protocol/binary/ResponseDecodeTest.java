@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.protocol.binary;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.ops.BulkStoreOperation;
+import net.spy.memcached.ops.BulkWriteOperation;
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationState;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StatusCode;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Test the decoding of binary responses, fed in chunks of varying size.
+ */
+public class ResponseDecodeTest extends TestCase {
+
+  private final Map<String, byte[]> values = new HashMap<String, byte[]>();
+  private OperationStatus status;
+
+  private final GetOperation.Callback callback = new GetOperation.Callback() {
+    public void gotData(String key, int flags, byte[] data) {
+      assertEquals(42, flags);
+      values.put(key, data);
+    }
+
+    public void receivedStatus(OperationStatus s) {
+      status = s;
+    }
+
+    public void complete() {
+      // nothing
+    }
+  };
+
+  public void testGetInSingleBytes() throws Exception {
+    byte[] value = "some value".getBytes();
+    for (int chunk : new int[] { 1, 3, 24, 1024 }) {
+      values.clear();
+      GetOperationImpl op = new GetOperationImpl("k", callback);
+      feed(op, response(GetOperationImpl.GET_CMD, op.opaque, 42, value, 0),
+          chunk);
+      assertTrue(Arrays.equals(value, values.get("k")));
+      assertTrue(status.isSuccess());
+      assertSame(OperationState.COMPLETE, op.getState());
+    }
+  }
+
+  public void testGetEmptyValue() throws Exception {
+    GetOperationImpl op = new GetOperationImpl("k", callback);
+    feed(op, response(GetOperationImpl.GET_CMD, op.opaque, 42, new byte[0],
+        0), 1);
+    assertEquals(0, values.get("k").length);
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testGetNotFound() throws Exception {
+    GetOperationImpl op = new GetOperationImpl("k", callback);
+    ByteBuffer res = ByteBuffer.allocate(24 + 9);
+    res.put((byte) 0x81).put(GetOperationImpl.GET_CMD).putShort((short) 0)
+      .put((byte) 0).put((byte) 0).putShort((short) 1).putInt(9).putInt(op.opaque)
+      .putLong(0).put("Not found".getBytes());
+    feed(op, res.array(), 5);
+    assertTrue(values.isEmpty());
+    assertFalse(status.isSuccess());
+    assertEquals("Not found", status.getMessage());
+  }
+
+  public void testMultiGet() throws Exception {
+    MultiGetOperationImpl op =
+      new MultiGetOperationImpl(Arrays.asList("a", "b", "c"), callback);
+    op.initialize();
+
+    // Answer every getq but "b", then the terminating noop
+    ByteBuffer req = op.getBuffer();
+    ByteBuffer res = ByteBuffer.allocate(1024);
+    int terminal = 0;
+    while (req.hasRemaining()) {
+      byte opcode = req.get(req.position() + 1);
+      int keyLen = req.getShort(req.position() + 2);
+      int opaque = req.getInt(req.position() + 12);
+      req.position(req.position() + 24);
+      byte[] key = new byte[keyLen];
+      req.get(key);
+      if (opcode == NoopOperationImpl.CMD) {
+        terminal = opaque;
+      } else if (!"b".equals(new String(key))) {
+        res.put(response(opcode, opaque, 42, ("v" + new String(key))
+            .getBytes(), 0));
+      }
+    }
+    res.put(response(NoopOperationImpl.CMD, terminal, 0, null, 0));
+
+    feed(op, Arrays.copyOf(res.array(), res.position()), 7);
+    assertEquals(2, values.size());
+    assertEquals("va", new String(values.get("a")));
+    assertEquals("vc", new String(values.get("c")));
+    assertSame(OperationState.COMPLETE, op.getState());
+  }
+
+  public void testMultiGetSendsEachKeyOnce() throws Exception {
+    MultiGetOperationImpl op = new MultiGetOperationImpl(
+      Arrays.asList("a", "b", "a", "c", "b"), callback);
+    op.initialize();
+    assertEquals(3, op.getKeys().size());
+
+    // Three getqs with consecutive opaques, then the noop
+    ByteBuffer req = op.getBuffer();
+    int first = req.getInt(12);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(first + i, req.getInt(req.position() + 12));
+      req.position(req.position() + 24 + req.getInt(req.position() + 8));
+    }
+    assertEquals(NoopOperationImpl.CMD, req.get(req.position() + 1));
+  }
+
+  private final List<String> reported = new ArrayList<String>();
+  private final Map<String, OperationStatus> keyStatus =
+    new HashMap<String, OperationStatus>();
+
+  private final BulkWriteOperation.Callback bulkCallback =
+    new BulkWriteOperation.Callback() {
+      public void gotStatus(String key, OperationStatus s) {
+        reported.add(key);
+        keyStatus.put(key, s);
+      }
+
+      public void receivedStatus(OperationStatus s) {
+        status = s;
+      }
+
+      public void complete() {
+        // nothing
+      }
+    };
+
+  private BulkStoreOperationImpl bulkStore(String... keys) {
+    Map<String, CachedData> items = new HashMap<String, CachedData>();
+    for (String k : keys) {
+      items.put(k, new CachedData(0, k.getBytes(), CachedData.MAX_SIZE));
+    }
+    return new BulkStoreOperationImpl(StoreType.add, items, 0, bulkCallback);
+  }
+
+  /**
+   * Get the opaque the given key was sent with.
+   */
+  private static int opaqueOf(ByteBuffer req, String key) {
+    ByteBuffer bb = req.duplicate();
+    while (bb.hasRemaining()) {
+      int keyLen = bb.getShort(bb.position() + 2);
+      int extraLen = bb.get(bb.position() + 4);
+      int bodyLen = bb.getInt(bb.position() + 8);
+      int opaque = bb.getInt(bb.position() + 12);
+      byte[] k = new byte[keyLen];
+      bb.position(bb.position() + 24 + extraLen);
+      bb.get(k);
+      if (key.equals(new String(k))) {
+        return opaque;
+      }
+      bb.position(bb.position() + bodyLen - extraLen - keyLen);
+    }
+    throw new AssertionError("Key " + key + " was not sent");
+  }
+
+  public void testBulkWriteRedistributesPendingKeys() throws Exception {
+    BulkStoreOperationImpl op = bulkStore("a", "b", "c");
+    op.initialize();
+    feed(op, errorResponse(StoreOperationImpl.ADDQ,
+      opaqueOf(op.getBuffer(), "b"), 2, "Exists"), 5);
+    assertEquals(Arrays.asList("b"), reported);
+    assertFalse(keyStatus.get("b").isSuccess());
+
+    Collection<Operation> clones = new BinaryOperationFactory().clone(op);
+    List<String> cloned = new ArrayList<String>();
+    for (Operation o : clones) {
+      cloned.addAll(((BulkStoreOperation) o).getKeys());
+      op.addClone(o);
+    }
+    assertEquals(2, cloned.size());
+    assertTrue(cloned.containsAll(Arrays.asList("a", "c")));
+
+    // Timing out the original times out the clones, which report the
+    // remaining keys, so every key is reported exactly once.
+    op.timeOut();
+    assertEquals(3, reported.size());
+    assertTrue(reported.containsAll(Arrays.asList("a", "b", "c")));
+    assertEquals(StatusCode.TIMEDOUT, keyStatus.get("a").getStatusCode());
+    assertFalse(keyStatus.get("b").getStatusCode() == StatusCode.TIMEDOUT);
+  }
+
+  public void testBulkWriteReportsPendingKeysOnTimeout() throws Exception {
+    BulkStoreOperationImpl op = bulkStore("a", "b");
+    op.initialize();
+    feed(op, errorResponse(StoreOperationImpl.ADDQ,
+      opaqueOf(op.getBuffer(), "a"), 2, "Exists"), 24);
+    op.timeOut();
+    assertEquals(Arrays.asList("a", "b"), reported);
+    assertEquals(StatusCode.TIMEDOUT, keyStatus.get("b").getStatusCode());
+    assertEquals(StatusCode.TIMEDOUT, status.getStatusCode());
+    op.timeOut();
+    assertEquals(2, reported.size());
+  }
+
+  public void testBulkWriteIgnoresUnknownOpaques() throws Exception {
+    BulkStoreOperationImpl op = bulkStore("a");
+    op.initialize();
+    int opaque = opaqueOf(op.getBuffer(), "a");
+    // Decoded the way a build without assertions would.
+    op.errorCode = 2;
+    op.responseOpaque = opaque + 1000;
+    op.finishedPayload(new byte[0]);
+    assertTrue(reported.isEmpty());
+    op.responseOpaque = opaque;
+    op.finishedPayload(new byte[0]);
+    op.finishedPayload(new byte[0]);
+    assertEquals(Arrays.asList("a"), reported);
+  }
+
+  private static byte[] errorResponse(byte cmd, int opaque, int errorCode,
+      String message) {
+    byte[] msg = message.getBytes();
+    ByteBuffer bb = ByteBuffer.allocate(24 + msg.length);
+    bb.put((byte) 0x81).put(cmd).putShort((short) 0).put((byte) 0)
+      .put((byte) 0).putShort((short) errorCode).putInt(msg.length)
+      .putInt(opaque).putLong(0).put(msg);
+    return bb.array();
+  }
+
+  private static byte[] response(byte cmd, int opaque, int flags,
+      byte[] value, long cas) {
+    int extraLen = value == null ? 0 : 4;
+    int valueLen = value == null ? 0 : value.length;
+    ByteBuffer bb = ByteBuffer.allocate(24 + extraLen + valueLen);
+    bb.put((byte) 0x81).put(cmd).putShort((short) 0).put((byte) extraLen)
+      .put((byte) 0).putShort((short) 0).putInt(extraLen + valueLen)
+      .putInt(opaque).putLong(cas);
+    if (value != null) {
+      bb.putInt(flags).put(value);
+    }
+    return bb.array();
+  }
+
+  private static void feed(OperationImpl op, byte[] data, int chunk)
+    throws Exception {
+    for (int i = 0; i < data.length; i += chunk) {
+      ByteBuffer bb = ByteBuffer.wrap(data, i, Math.min(chunk, data.length - i));
+      while (bb.hasRemaining() && op.getState() != OperationState.COMPLETE) {
+        op.readFromBuffer(bb);
+      }
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.reactive;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import net.spy.memcached.ArrayModNodeLocator;
+import net.spy.memcached.DefaultHashAlgorithm;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.MockMemcachedNode;
+import net.spy.memcached.NodeLocator;
+import net.spy.memcached.internal.DirectFuture;
+
+/**
+ * Test how demand and node credits limit the operations sent by an
+ * OperationPublisher.
+ */
+public class OperationPublisherTest extends TestCase {
+
+  private NodeLocator locator;
+  private Map<String, DirectFuture<String>> sent;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    List<MemcachedNode> nodes = Arrays.<MemcachedNode>asList(
+      new MockMemcachedNode(InetSocketAddress.createUnresolved("a", 11211)),
+      new MockMemcachedNode(InetSocketAddress.createUnresolved("b", 11211)));
+    locator = new ArrayModNodeLocator(nodes, DefaultHashAlgorithm.NATIVE_HASH);
+    sent = new HashMap<String, DirectFuture<String>>();
+  }
+
+  private OperationPublisher<String, String> publisher(List<String> keys,
+      int credits) {
+    return new OperationPublisher<String, String>(keys.iterator(), locator,
+        credits) {
+      @Override
+      String keyOf(String key) {
+        return key;
+      }
+
+      @Override
+      DirectFuture<String> send(String key) {
+        DirectFuture<String> f = new DirectFuture<String>(1000, null);
+        sent.put(key, f);
+        return f;
+      }
+
+      @Override
+      boolean emits(String value) {
+        return value != null;
+      }
+    };
+  }
+
+  private void complete(String key, String value) {
+    DirectFuture<String> f = sent.remove(key);
+    f.set(value, null);
+    f.signalComplete();
+  }
+
+  private static List<String> keys(int n) {
+    List<String> rv = new ArrayList<String>();
+    for (int i = 0; i < n; i++) {
+      rv.add("key" + i);
+    }
+    return rv;
+  }
+
+  public void testDemandLimitsOperations() {
+    Recorder r = new Recorder();
+    publisher(keys(10), 100).subscribe(r);
+    assertTrue(sent.isEmpty());
+
+    r.subscription.request(3);
+    assertEquals(3, sent.size());
+    complete("key0", "v0");
+    assertEquals(2, sent.size());
+    assertEquals(1, r.items.size());
+
+    // A miss gives its demand back, so another key is sent.
+    complete("key1", null);
+    assertEquals(2, sent.size());
+    assertTrue(sent.containsKey("key3"));
+    assertEquals(1, r.items.size());
+  }
+
+  public void testCreditsPerNode() {
+    Recorder r = new Recorder();
+    List<String> keys = keys(100);
+    publisher(keys, 2).subscribe(r);
+    r.subscription.request(Long.MAX_VALUE);
+    // Taking keys stops at the first one whose node is out of credit.
+    assertTrue(sent.size() >= 2 && sent.size() <= 4);
+    Map<MemcachedNode, Integer> perNode = new HashMap<MemcachedNode, Integer>();
+    for (String k : sent.keySet()) {
+      MemcachedNode n = locator.getPrimary(k);
+      perNode.put(n, perNode.containsKey(n) ? perNode.get(n) + 1 : 1);
+    }
+    for (int n : perNode.values()) {
+      assertTrue(n <= 2);
+    }
+
+    while (!sent.isEmpty()) {
+      complete(sent.keySet().iterator().next(), "v");
+    }
+    assertEquals(100, r.items.size());
+    assertTrue(r.completed);
+    assertNull(r.error);
+  }
+
+  public void testFailureStopsStream() {
+    Recorder r = new Recorder();
+    publisher(keys(10), 100).subscribe(r);
+    r.subscription.request(2);
+    DirectFuture<String> f = sent.remove("key0");
+    IllegalStateException cause = new IllegalStateException("broken");
+    f.fail(cause);
+    assertSame(cause, r.error);
+    complete("key1", "v1");
+    assertTrue(r.items.isEmpty());
+    assertFalse(r.completed);
+  }
+
+  public void testInvalidRequestAndResubscribe() {
+    OperationPublisher<String, String> p = publisher(keys(10), 100);
+    Recorder r = new Recorder();
+    p.subscribe(r);
+    r.subscription.request(0);
+    assertTrue(r.error instanceof IllegalArgumentException);
+
+    Recorder again = new Recorder();
+    p.subscribe(again);
+    assertTrue(again.error instanceof IllegalStateException);
+  }
+
+  public void testEmptyStreamCompletes() {
+    Recorder r = new Recorder();
+    publisher(keys(0), 100).subscribe(r);
+    assertTrue(r.completed);
+  }
+
+  private static final class Recorder
+    implements Subscriber<Map.Entry<String, String>> {
+    private Subscription subscription;
+    private final List<Map.Entry<String, String>> items =
+      new ArrayList<Map.Entry<String, String>>();
+    private Throwable error;
+    private boolean completed;
+
+    public void onSubscribe(Subscription s) {
+      subscription = s;
+    }
+
+    public void onNext(Map.Entry<String, String> item) {
+      items.add(item);
+    }
+
+    public void onError(Throwable t) {
+      error = t;
+    }
+
+    public void onComplete() {
+      completed = true;
+    }
+  }
+}
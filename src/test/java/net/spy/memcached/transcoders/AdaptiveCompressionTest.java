@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CachedData;
+import net.spy.memcached.metrics.DummyMetricCollector;
+
+/**
+ * Tests the adaptive compression of the {@link SerializingTranscoder}.
+ */
+public class AdaptiveCompressionTest extends TestCase {
+
+  private DummyMetricCollector collector;
+  private SerializingTranscoder tc;
+  private Random random;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    collector = new DummyMetricCollector();
+    tc = new SerializingTranscoder();
+    tc.setCompressionThreshold(100);
+    random = new Random(42);
+  }
+
+  public void testSkipsIncompressibleValues() {
+    tc.setAdaptiveCompression(new AdaptiveCompression(collector, 4, 0.9, 0));
+    for (int i = 0; i < 40; i++) {
+      byte[] value = randomBytes(1000);
+      CachedData cd = tc.encode(value);
+      assertEquals(SerializingTranscoder.SPECIAL_BYTEARRAY, cd.getFlags());
+      assertTrue(Arrays.equals(value, (byte[]) tc.decode(cd)));
+    }
+    // 8 to learn, then one in 4 of the remaining 32.
+    assertEquals(16, metric(AdaptiveCompression.COMPRESSED_METRIC));
+    assertEquals(24, metric(AdaptiveCompression.SKIPPED_METRIC));
+  }
+
+  public void testCompressesCompressibleValues() {
+    tc.setAdaptiveCompression(new AdaptiveCompression(collector));
+    String value = "";
+    for (int i = 0; i < 40; i++) {
+      value = value + "compressible " + i + " ";
+      CachedData cd = tc.encode(value);
+      if (value.length() > 100) {
+        assertEquals(SerializingTranscoder.COMPRESSED, cd.getFlags());
+      }
+      assertEquals(value, tc.decode(cd));
+    }
+    assertEquals(0, metric(AdaptiveCompression.SKIPPED_METRIC));
+    assertTrue(metric(AdaptiveCompression.BYTES_SAVED_METRIC) > 0);
+  }
+
+  public void testGroupsByClassAndSize() {
+    tc.setAdaptiveCompression(new AdaptiveCompression(collector, 1000, 0.9,
+      0));
+    for (int i = 0; i < 10; i++) {
+      tc.encode(randomBytes(1000));
+    }
+    int skipped = metric(AdaptiveCompression.SKIPPED_METRIC);
+    assertEquals(2, skipped);
+
+    // Other sizes and classes are learned separately.
+    byte[] large = new byte[5000];
+    assertTrue(tc.encode(large).getFlags() != 0);
+    char[] chars = new char[1000];
+    Arrays.fill(chars, 'x');
+    assertEquals(SerializingTranscoder.COMPRESSED,
+      tc.encode(new String(chars)).getFlags());
+    assertEquals(skipped, metric(AdaptiveCompression.SKIPPED_METRIC));
+  }
+
+  public void testProbesLargeValues() {
+    tc.setAdaptiveCompression(new AdaptiveCompression(collector, 64, 0.9,
+      1024));
+    byte[] value = randomBytes(100000);
+    CachedData cd = tc.encode(value);
+    assertEquals(SerializingTranscoder.SPECIAL_BYTEARRAY, cd.getFlags());
+    assertEquals(0, metric(AdaptiveCompression.COMPRESSED_METRIC));
+    assertEquals(1, metric(AdaptiveCompression.SKIPPED_METRIC));
+
+    // A compressible prefix lets the whole value be compressed.
+    Arrays.fill(value, (byte) 0);
+    cd = tc.encode(value);
+    assertEquals(SerializingTranscoder.SPECIAL_BYTEARRAY
+      | SerializingTranscoder.COMPRESSED, cd.getFlags());
+    assertEquals(1, metric(AdaptiveCompression.COMPRESSED_METRIC));
+  }
+
+  private int metric(String name) {
+    return collector.getMetrics().get(name);
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] rv = new byte[length];
+    random.nextBytes(rv);
+    return rv;
+  }
+}
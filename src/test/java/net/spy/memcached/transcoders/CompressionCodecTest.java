@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Round trips of the built-in compression codecs.
+ */
+public class CompressionCodecTest extends TestCase {
+
+  private static final int[] SIZES = { 0, 1, 4, 12, 13, 100, 4096, 65536,
+    70000, 1 << 20 };
+
+  private final CompressionCodec[] codecs = { GZIPCompressionCodec.INSTANCE,
+    new DeflateCompressionCodec(), new DeflateCompressionCodec(1),
+    new LZ4CompressionCodec() };
+
+  public void testRepetitiveData() {
+    for (int size : SIZES) {
+      byte[] data = new byte[size];
+      for (int i = 0; i < size; i++) {
+        data[i] = (byte) ("abcdefgh".charAt(i % 8) + i / 1000 % 3);
+      }
+      for (CompressionCodec codec : codecs) {
+        byte[] compressed = roundTrip(codec, data);
+        if (size >= 4096) {
+          assertTrue(codec + " did not compress " + size + " bytes",
+            compressed.length < size / 4);
+        }
+      }
+    }
+  }
+
+  public void testRandomData() {
+    Random random = new Random(42);
+    for (int size : SIZES) {
+      byte[] data = new byte[size];
+      random.nextBytes(data);
+      for (CompressionCodec codec : codecs) {
+        roundTrip(codec, data);
+      }
+    }
+  }
+
+  public void testRunLengthsEndingOnOutputLength() {
+    Random random = new Random(42);
+    for (int size = 15 + 255; size <= 15 + 255 * 11; size += 255) {
+      byte[] data = new byte[size];
+      random.nextBytes(data);
+      for (CompressionCodec codec : codecs) {
+        roundTrip(codec, data);
+      }
+    }
+  }
+
+  public void testLongMatchesAndOverlaps() {
+    byte[] data = new byte[100000];
+    Arrays.fill(data, 0, 50000, (byte) 'x');
+    for (int i = 50000; i < data.length; i++) {
+      data[i] = (byte) (i % 3);
+    }
+    for (CompressionCodec codec : codecs) {
+      roundTrip(codec, data);
+    }
+  }
+
+  public void testCorruptData() {
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 100);
+    }
+    Random random = new Random(42);
+    for (CompressionCodec codec : codecs) {
+      byte[] compressed = codec.compress(data);
+      assertNull(codec.decompress(Arrays.copyOf(compressed,
+        compressed.length / 2)));
+      assertNull(codec.decompress(new byte[] { 1 }));
+      for (int i = 0; i < 100; i++) {
+        byte[] corrupt = compressed.clone();
+        corrupt[random.nextInt(corrupt.length)] ^= 1 + random.nextInt(255);
+        byte[] rv = codec.decompress(corrupt);
+        assertTrue(rv == null || rv.length <= 2 * data.length);
+      }
+    }
+  }
+
+  public void testCompressNull() {
+    for (CompressionCodec codec : codecs) {
+      try {
+        codec.compress(null);
+        fail("Expected a NullPointerException from " + codec);
+      } catch (NullPointerException e) {
+        // pass
+      }
+    }
+  }
+
+  public void testInvalidLevel() {
+    try {
+      new DeflateCompressionCodec(10);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  private static byte[] roundTrip(CompressionCodec codec, byte[] data) {
+    byte[] compressed = codec.compress(data);
+    assertTrue(codec + " failed on " + data.length + " bytes",
+      Arrays.equals(data, codec.decompress(compressed)));
+    return compressed;
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import net.spy.memcached.CachedData;
+
+/**
+ * Tests the dictionary compression codec and the dictionary trainer.
+ */
+public class DictionaryCompressionCodecTest extends TestCase {
+
+  private static final String[] STATES = { "active", "suspended", "pending" };
+
+  private final Random random = new Random(42);
+
+  public void testTrainedDictionaryCompressesSmallDocuments() {
+    List<byte[]> samples = new ArrayList<byte[]>();
+    for (int i = 0; i < 500; i++) {
+      samples.add(document());
+    }
+    byte[] dictionary = DictionaryTrainer.train(samples,
+      DictionaryTrainer.DEFAULT_DICTIONARY_SIZE);
+    assertTrue(dictionary.length > 0);
+    assertTrue(dictionary.length <= DictionaryTrainer.DEFAULT_DICTIONARY_SIZE);
+
+    DictionaryCompressionCodec codec =
+      new DictionaryCompressionCodec(1, dictionary);
+    DeflateCompressionCodec plain = new DeflateCompressionCodec();
+    long original = 0;
+    long withDictionary = 0;
+    long withoutDictionary = 0;
+    for (int i = 0; i < 100; i++) {
+      byte[] doc = document();
+      byte[] compressed = codec.compress(doc);
+      assertTrue(Arrays.equals(doc, codec.decompress(compressed)));
+      original += doc.length;
+      withDictionary += compressed.length;
+      withoutDictionary += plain.compress(doc).length;
+    }
+    assertTrue("Dictionary compressed " + original + " bytes to "
+      + withDictionary + ", deflate to " + withoutDictionary,
+      withDictionary * 2 < withoutDictionary);
+  }
+
+  public void testDictionaryVersions() {
+    byte[] doc = document();
+    DictionaryCompressionCodec codec =
+      new DictionaryCompressionCodec(1, "\"state\":\"active\"".getBytes());
+    byte[] first = codec.compress(doc);
+
+    codec.addDictionary(2, "\"email\":\"user".getBytes());
+    codec.useDictionary(2);
+    assertEquals(2, codec.getDictionaryId());
+    byte[] second = codec.compress(doc);
+    assertTrue(Arrays.equals(doc, codec.decompress(first)));
+    assertTrue(Arrays.equals(doc, codec.decompress(second)));
+
+    DictionaryCompressionCodec reader =
+      new DictionaryCompressionCodec(2, "\"email\":\"user".getBytes());
+    assertTrue(Arrays.equals(doc, reader.decompress(second)));
+    assertNull(reader.decompress(first));
+
+    try {
+      codec.addDictionary(1, "other".getBytes());
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    try {
+      codec.useDictionary(3);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  public void testCompressWithoutDictionary() {
+    try {
+      new DictionaryCompressionCodec(6).compress(document());
+      fail("Expected an IllegalStateException");
+    } catch (IllegalStateException e) {
+      // pass
+    }
+  }
+
+  public void testTranscoderCompressesJson() {
+    List<byte[]> samples = new ArrayList<byte[]>();
+    for (int i = 0; i < 100; i++) {
+      samples.add(document());
+    }
+    SerializingTranscoder tc = new SerializingTranscoder();
+    tc.setCompressionCodec(new DictionaryCompressionCodec(7,
+      DictionaryTrainer.train(samples, 4096)));
+    tc.setCompressionThreshold(64);
+    String json = new String(document());
+
+    CachedData cd = tc.encode(json);
+    assertEquals(0, cd.getFlags());
+    tc.setCompressJson(true);
+    cd = tc.encode(json);
+    assertEquals(SerializingTranscoder.COMPRESSED
+      | DictionaryCompressionCodec.ID << SerializingTranscoder.CODEC_SHIFT,
+      cd.getFlags());
+    assertEquals(json, tc.decode(cd));
+  }
+
+  private byte[] document() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"id\":").append(random.nextInt(1000000))
+      .append(",\"email\":\"user").append(random.nextInt(100000))
+      .append("@example.com\",\"state\":\"")
+      .append(STATES[random.nextInt(STATES.length)])
+      .append("\",\"created\":\"2013-0").append(1 + random.nextInt(9))
+      .append("-1").append(random.nextInt(10)).append("T12:")
+      .append(10 + random.nextInt(50)).append(":00Z\",\"preferences\":{")
+      .append("\"newsletter\":").append(random.nextBoolean())
+      .append(",\"language\":\"en\",\"timezone\":\"Europe/Berlin\"},")
+      .append("\"orders\":[");
+    int orders = 1 + random.nextInt(5);
+    for (int i = 0; i < orders; i++) {
+      sb.append(i == 0 ? "" : ",").append("{\"orderId\":")
+        .append(random.nextInt(10000000)).append(",\"amount\":")
+        .append(random.nextInt(50000) / 100.0)
+        .append(",\"currency\":\"EUR\",\"status\":\"shipped\"}");
+    }
+    return sb.append("]}").toString().getBytes();
+  }
+}
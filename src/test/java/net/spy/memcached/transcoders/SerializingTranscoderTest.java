@@ -24,8 +24,10 @@ package net.spy.memcached.transcoders;
 
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Date;
 
 import net.spy.memcached.CachedData;
+import net.spy.memcached.util.ByteBufferOutputStream;
 
 /**
  * Test the serializing transcoder.
@@ -52,6 +54,69 @@ public class SerializingTranscoderTest extends BaseTranscoderCase {
     }
   }
 
+  private void assertEncodeTo(SerializingTranscoder t, Object o) {
+    CachedData cd = t.encode(o);
+    ByteBufferOutputStream out = new ByteBufferOutputStream(8);
+    assertEquals(cd.getFlags(), t.encodeTo(o, out));
+    assertTrue(Arrays.equals(cd.getData(), out.toByteArray()));
+  }
+
+  public void testEncodeTo() throws Exception {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      large.append("compressible ");
+    }
+    Object[] values = { "a string", large.toString(), "{\"a\":1}", 1, 2L,
+      true, new Date(), (byte) 3, 4.0f, 5.0d, new byte[] { 6, 7 },
+      Arrays.asList(8, 9), new StringBuilder(large) };
+    tc.setAdaptiveCompression(null);
+    for (Object o : values) {
+      assertEncodeTo(tc, o);
+    }
+    tc.setCompressionThreshold(8);
+    tc.setCompressionCodec(new LZ4CompressionCodec());
+    for (Object o : values) {
+      assertEncodeTo(tc, o);
+    }
+
+    tc.setCompressionThreshold(Integer.MAX_VALUE);
+    SerializingTranscoder small = new SerializingTranscoder(100);
+    small.setCompressionThreshold(Integer.MAX_VALUE);
+    try {
+      small.encodeTo(large.toString(), new ByteBufferOutputStream(0));
+      fail("Encoded a value above the max size");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  public void testEncodeToWithOverriddenSerialize() throws Exception {
+    SerializingTranscoder t = new SerializingTranscoder() {
+      @Override
+      protected byte[] serialize(Object o) {
+        return new byte[] { 42 };
+      }
+    };
+    ByteBufferOutputStream out = new ByteBufferOutputStream(0);
+    assertEquals(SerializingTranscoder.SERIALIZED,
+        t.encodeTo(new StringBuilder("x"), out));
+    assertTrue(Arrays.equals(new byte[] { 42 }, out.toByteArray()));
+  }
+
+  public void testEncodeToWithOverriddenEncode() throws Exception {
+    SerializingTranscoder t = new SerializingTranscoder() {
+      @Override
+      public CachedData encode(Object o) {
+        return new CachedData(SPECIAL_BYTEARRAY, new byte[] { 42 },
+          getMaxSize());
+      }
+    };
+    ByteBufferOutputStream out = new ByteBufferOutputStream(0);
+    assertEquals(SerializingTranscoder.SPECIAL_BYTEARRAY,
+        t.encodeTo("a string", out));
+    assertTrue(Arrays.equals(new byte[] { 42 }, out.toByteArray()));
+  }
+
   public void testJsonObject() {
     String json = "{\"aaaaaaaaaaaaaaaaaaaaaaaaa\":"
         + "\"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"}";
@@ -85,6 +150,46 @@ public class SerializingTranscoderTest extends BaseTranscoderCase {
     assertEquals(s1, tc.decode(cd));
   }
 
+  public void testCompressionCodecs() throws Exception {
+    String s1 = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+    tc.setCompressionThreshold(8);
+    SerializingTranscoder reader = new SerializingTranscoder();
+    CompressionCodec[] codecs = { new DeflateCompressionCodec(),
+      new LZ4CompressionCodec(), GZIPCompressionCodec.INSTANCE };
+    for (CompressionCodec codec : codecs) {
+      tc.setCompressionCodec(codec);
+      CachedData cd = tc.encode(s1);
+      assertEquals(SerializingTranscoder.COMPRESSED
+          | codec.getId() << SerializingTranscoder.CODEC_SHIFT, cd.getFlags());
+      assertEquals(s1, reader.decode(cd));
+    }
+  }
+
+  public void testUnknownCompressionCodec() throws Exception {
+    CachedData cd = new CachedData(SerializingTranscoder.COMPRESSED
+        | 9 << SerializingTranscoder.CODEC_SHIFT, tu.encodeInt(1),
+        tc.getMaxSize());
+    assertNull(tc.decode(cd));
+    try {
+      tc.registerCompressionCodec(new CompressionCodec() {
+        public int getId() {
+          return CompressionCodec.MAX_ID + 1;
+        }
+
+        public byte[] compress(byte[] in) {
+          return in;
+        }
+
+        public byte[] decompress(byte[] in) {
+          return in;
+        }
+      });
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
   public void testObject() throws Exception {
     Calendar c = Calendar.getInstance();
     CachedData cd = tc.encode(c);
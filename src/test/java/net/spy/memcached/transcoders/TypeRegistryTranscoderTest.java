@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.transcoders;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.util.ByteBufferOutputStream;
+
+/**
+ * Test the type registry transcoder.
+ */
+public class TypeRegistryTranscoderTest extends BaseTranscoderCase {
+
+  private TypeRegistryTranscoder tc;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    tc = new TypeRegistryTranscoder();
+    setTranscoder(tc);
+  }
+
+  @Override
+  protected int getStringFlags() {
+    return 0;
+  }
+
+  private Object roundTrip(Object o) {
+    CachedData cd = tc.encode(o);
+    assertEquals(SerializingTranscoder.SERIALIZED, cd.getFlags());
+    assertEquals(TypeRegistryTranscoder.MAGIC, cd.getData()[0]);
+    return tc.decode(cd);
+  }
+
+  public void testBuiltInTypes() throws Exception {
+    Map<Object, Object> m = new LinkedHashMap<Object, Object>();
+    m.put("uuid", UUID.randomUUID());
+    m.put("decimal", new BigDecimal("-1234567890.0987654321"));
+    m.put("integer", new BigInteger("123456789012345678901234567890"));
+    m.put("date", new Date());
+    m.put("nothing", null);
+    m.put(1, 2L);
+    m.put('c', (short) 3);
+    m.put((byte) 4, 5.5f);
+    m.put(6.6d, Boolean.TRUE);
+    m.put("list", new ArrayList<Object>(Arrays.asList("a", "b", null)));
+    m.put("linked", new LinkedList<Object>(Arrays.asList(1, 2, 3)));
+    m.put("set", new HashSet<Object>(Arrays.asList("x", "y")));
+    m.put("sorted", new TreeMap<String, Integer>(
+        Collections.singletonMap("k", 1)));
+    m.put("tree", new TreeSet<String>(Arrays.asList("b", "a")));
+    m.put("nested", new HashMap<Object, Object>(
+        Collections.singletonMap("k", new ArrayList<Object>())));
+    assertEquals(m, roundTrip(m));
+    assertEquals(new ArrayList<Object>(m.keySet()),
+        new ArrayList<Object>(((Map<?, ?>) roundTrip(m)).keySet()));
+  }
+
+  public void testArrays() throws Exception {
+    assertTrue(Arrays.equals(new int[] { 1, -2, Integer.MAX_VALUE },
+        (int[]) roundTrip(new int[] { 1, -2, Integer.MAX_VALUE })));
+    assertTrue(Arrays.equals(new long[] { 1, Long.MIN_VALUE },
+        (long[]) roundTrip(new long[] { 1, Long.MIN_VALUE })));
+    assertTrue(Arrays.equals(new double[] { 1.5, Double.NaN },
+        (double[]) roundTrip(new double[] { 1.5, Double.NaN })));
+    assertTrue(Arrays.equals(new char[] { 'a', '\u2013' },
+        (char[]) roundTrip(new char[] { 'a', '\u2013' })));
+    assertTrue(Arrays.equals(new boolean[] { true, false },
+        (boolean[]) roundTrip(new boolean[] { true, false })));
+    assertTrue(Arrays.equals(new String[] { "a", null, "\u00f3" },
+        (String[]) roundTrip(new String[] { "a", null, "\u00f3" })));
+  }
+
+  public void testCustomCodec() throws Exception {
+    tc.registerCodec(Point.class, 100, new PointCodec());
+    List<Point> points = new ArrayList<Point>();
+    for (int i = 0; i < 10; i++) {
+      points.add(new Point(i, -i));
+    }
+    assertEquals(points, roundTrip(points));
+
+    TypeRegistryTranscoder other = new TypeRegistryTranscoder();
+    assertNull(other.decode(tc.encode(points)));
+  }
+
+  public void testInvalidRegistrations() throws Exception {
+    try {
+      tc.registerCodec(Point.class, TypeRegistryTranscoder.MIN_CUSTOM_ID - 1,
+          new PointCodec());
+      fail("Registered a reserved id");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    tc.registerCodec(Point.class, 100, new PointCodec());
+    try {
+      tc.registerCodec(Point.class, 101, new PointCodec());
+      fail("Registered a class twice");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    try {
+      tc.registerCodec(SubPoint.class, 100, new SubPointCodec());
+      fail("Registered an id twice");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+    tc.registerCodec(SubPoint.class, 101, new SubPointCodec());
+  }
+
+  public void testUnregisteredTypesAreSerialized() throws Exception {
+    List<Object> l = new ArrayList<Object>();
+    l.add("a");
+    l.add(new Point(1, 2));
+    CachedData cd = tc.encode(l);
+    assertEquals(SerializingTranscoder.SERIALIZED, cd.getFlags());
+    assertFalse(TypeRegistryTranscoder.MAGIC == cd.getData()[0]);
+    assertEquals(l, tc.decode(cd));
+
+    TreeSet<String> reversed =
+      new TreeSet<String>(Collections.reverseOrder());
+    reversed.add("a");
+    reversed.add("b");
+    cd = tc.encode(reversed);
+    assertFalse(TypeRegistryTranscoder.MAGIC == cd.getData()[0]);
+    assertEquals(reversed, tc.decode(cd));
+  }
+
+  public void testEncodeTo() throws Exception {
+    tc.registerCodec(Point.class, 100, new PointCodec());
+    List<Object> registered = new ArrayList<Object>();
+    registered.add(new Point(1, 2));
+    registered.add(UUID.randomUUID());
+    List<Object> unregistered = new ArrayList<Object>(registered);
+    unregistered.add(new StringBuilder("not registered"));
+    for (Object o : new Object[] { registered, unregistered }) {
+      ByteBufferOutputStream out = new ByteBufferOutputStream(0);
+      assertEquals(SerializingTranscoder.SERIALIZED, tc.encodeTo(o, out));
+      assertTrue(Arrays.equals(tc.encode(o).getData(), out.toByteArray()));
+    }
+  }
+
+  public void testReadsSerializedValues() throws Exception {
+    Map<String, Object> m = new HashMap<String, Object>();
+    m.put("a", Arrays.asList(1, 2, 3));
+    m.put("b", new Date());
+    assertEquals(m, tc.decode(new SerializingTranscoder().encode(m)));
+  }
+
+  public void testSmallerThanSerialization() throws Exception {
+    Map<String, Object> m = new HashMap<String, Object>();
+    for (int i = 0; i < 10; i++) {
+      m.put("key" + i, new ArrayList<Object>(Arrays.asList(i, (long) i,
+          UUID.randomUUID())));
+    }
+    SerializingTranscoder st = new SerializingTranscoder();
+    st.setCompressionThreshold(Integer.MAX_VALUE);
+    tc.setCompressionThreshold(Integer.MAX_VALUE);
+    int serialized = st.encode(m).getData().length;
+    int registered = tc.encode(m).getData().length;
+    assertTrue(registered + " >= " + serialized, registered < serialized / 2);
+  }
+
+  public void testCorruptData() throws Exception {
+    byte[] data = tc.encode(new int[] { 1, 2, 3 }).getData();
+    assertNull(tc.decode(new CachedData(SerializingTranscoder.SERIALIZED,
+        Arrays.copyOf(data, data.length - 1), tc.getMaxSize())));
+    data[1] = 0x7f;
+    assertNull(tc.decode(new CachedData(SerializingTranscoder.SERIALIZED,
+        data, tc.getMaxSize())));
+  }
+
+  static class Point implements Serializable {
+    private static final long serialVersionUID = -5186744235498637455L;
+    final int x;
+    final int y;
+
+    Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * x + y;
+    }
+  }
+
+  static class SubPoint extends Point {
+    private static final long serialVersionUID = 1729837417240298340L;
+
+    SubPoint(int x, int y) {
+      super(x, y);
+    }
+  }
+
+  static class PointCodec implements ObjectCodec<Point> {
+    public void encode(Point value, ObjectOutput out) throws IOException {
+      out.writeInt(value.x);
+      out.writeInt(value.y);
+    }
+
+    public Point decode(ObjectInput in) throws IOException {
+      return new Point(in.readInt(), in.readInt());
+    }
+  }
+
+  static class SubPointCodec implements ObjectCodec<SubPoint> {
+    public void encode(SubPoint value, ObjectOutput out) throws IOException {
+      out.writeInt(value.x);
+      out.writeInt(value.y);
+    }
+
+    public SubPoint decode(ObjectInput in) throws IOException {
+      return new SubPoint(in.readInt(), in.readInt());
+    }
+  }
+}
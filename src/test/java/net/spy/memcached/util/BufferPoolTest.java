@@ -0,0 +1,79 @@
+package net.spy.memcached.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the correct functionality of the {@link BufferPool} class.
+ */
+public class BufferPoolTest {
+
+  @Test
+  public void shouldRoundUpToSizeClass() {
+    BufferPool pool = new BufferPool(4096);
+    ByteBuffer b = pool.allocate(100);
+    assertEquals(128, b.capacity());
+    assertEquals(0, b.position());
+    assertEquals(100, b.limit());
+
+    assertEquals(BufferPool.MIN_BUFFER_SIZE, pool.allocate(1).capacity());
+    assertEquals(256, pool.allocate(256).capacity());
+  }
+
+  @Test
+  public void shouldReuseReleasedBuffers() {
+    BufferPool pool = new BufferPool(4096);
+    ByteBuffer b = pool.allocate(100);
+    b.put(new byte[100]);
+    pool.release(b);
+    assertEquals(1, pool.getIdleCount());
+
+    ByteBuffer again = pool.allocate(80);
+    assertSame(b, again);
+    assertEquals(0, again.position());
+    assertEquals(80, again.limit());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test
+  public void shouldNotPoolOversizedBuffers() {
+    BufferPool pool = new BufferPool(1024 * 1024, 1024, false);
+    ByteBuffer b = pool.allocate(2000);
+    assertEquals(2000, b.capacity());
+    pool.release(b);
+    assertEquals(0, pool.getIdleCount());
+    assertNotSame(b, pool.allocate(2000));
+  }
+
+  @Test
+  public void shouldBoundEachSizeClass() {
+    BufferPool pool = new BufferPool(256);
+    for (int i = 0; i < 10; i++) {
+      pool.release(ByteBuffer.allocate(64));
+    }
+    assertEquals(4, pool.getIdleCount());
+  }
+
+  @Test
+  public void shouldIgnoreForeignBuffers() {
+    BufferPool pool = new BufferPool(4096);
+    pool.release(ByteBuffer.allocate(100));
+    pool.release(ByteBuffer.allocateDirect(128));
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test
+  public void shouldHandOutDirectBuffers() {
+    BufferPool pool = new BufferPool(4096, 1024, true);
+    assertTrue(pool.isDirect());
+    assertTrue(pool.allocate(10).isDirect());
+    assertFalse(new BufferPool(4096).allocate(10).isDirect());
+  }
+}
@@ -0,0 +1,92 @@
+package net.spy.memcached.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Verifies the correct functionality of the {@link ByteBufferOutputStream}
+ * class.
+ */
+public class ByteBufferOutputStreamTest {
+
+  @Test
+  public void shouldWriteBehindHeadroom() {
+    ByteBufferOutputStream out = new ByteBufferOutputStream(10);
+    out.write(1);
+    out.write(new byte[] { 2, 3, 4 }, 1, 2);
+    assertEquals(3, out.size());
+    assertEquals(10, out.getHeadroom());
+    assertEquals(13, out.getBuffer().position());
+    assertArrayEquals(new byte[] { 1, 3, 4 }, out.toByteArray());
+  }
+
+  @Test
+  public void shouldGrowKeepingTheData() {
+    ByteBufferOutputStream out = new ByteBufferOutputStream(null, 4, 0);
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) i;
+    }
+    for (int i = 0; i < data.length; i += 100) {
+      out.write(data, i, 100);
+    }
+    assertEquals(data.length, out.size());
+    assertArrayEquals(data, out.toByteArray());
+
+    out.ensureCapacity(1000);
+    assertEquals(data.length, out.size());
+    assertTrue(out.getBuffer().remaining() >= 1000);
+  }
+
+  @Test
+  public void shouldResetToSize() {
+    ByteBufferOutputStream out = new ByteBufferOutputStream(0);
+    out.write(new byte[] { 1, 2, 3 }, 0, 3);
+    out.reset(1);
+    out.write(4);
+    assertArrayEquals(new byte[] { 1, 4 }, out.toByteArray());
+    try {
+      out.reset(3);
+      fail("Reset beyond the data");
+    } catch (IllegalArgumentException e) {
+      // pass
+    }
+  }
+
+  @Test
+  public void shouldUseAndReleasePooledBuffers() {
+    BufferPool pool = new BufferPool(64 * 1024);
+    ByteBufferOutputStream out = new ByteBufferOutputStream(pool, 16, 100);
+    ByteBuffer first = out.getBuffer();
+    assertEquals(512, first.capacity());
+    out.write(new byte[600], 0, 600);
+    assertNotSame(first, out.getBuffer());
+    assertEquals(1, pool.getIdleCount());
+
+    out.release();
+    assertEquals(2, pool.getIdleCount());
+    try {
+      out.getBuffer();
+      fail("Used a released buffer");
+    } catch (IllegalStateException e) {
+      // pass
+    }
+    out.release();
+    assertEquals(2, pool.getIdleCount());
+
+    ByteBufferOutputStream again = new ByteBufferOutputStream(pool, 16, 100);
+    assertSame(first, again.getBuffer());
+    assertEquals(16, again.getBuffer().position());
+    assertEquals(first.capacity(), again.getBuffer().limit());
+    assertEquals(0, again.size());
+    assertArrayEquals(new byte[0], again.toByteArray());
+  }
+}
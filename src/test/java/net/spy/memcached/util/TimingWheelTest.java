@@ -0,0 +1,98 @@
+package net.spy.memcached.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the correct functionality of the {@link TimingWheel} class.
+ */
+public class TimingWheelTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void shouldExpireItemsOnceTheirDeadlineHasPassed() {
+    long now = System.nanoTime();
+    TimingWheel<String> wheel =
+      new TimingWheel<String>(10, TimeUnit.MILLISECONDS, 8);
+    wheel.schedule("a", now + 25 * MS);
+    wheel.schedule("b", now + 55 * MS);
+    List<String> expired = new ArrayList<String>();
+
+    wheel.expire(now + 20 * MS, expired);
+    assertTrue(expired.isEmpty());
+    assertFalse(wheel.isEmpty());
+
+    wheel.expire(now + 40 * MS, expired);
+    assertEquals(Arrays.asList("a"), expired);
+
+    wheel.expire(now + 70 * MS, expired);
+    assertEquals(Arrays.asList("a", "b"), expired);
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test
+  public void shouldKeepItemsBeyondOneTurn() {
+    long now = System.nanoTime();
+    TimingWheel<String> wheel =
+      new TimingWheel<String>(10, TimeUnit.MILLISECONDS, 4);
+    wheel.schedule("late", now + 125 * MS);
+    List<String> expired = new ArrayList<String>();
+
+    for (int i = 1; i <= 12; i++) {
+      wheel.expire(now + i * 10 * MS, expired);
+      assertTrue(expired.isEmpty());
+    }
+    wheel.expire(now + 140 * MS, expired);
+    assertEquals(Arrays.asList("late"), expired);
+  }
+
+  @Test
+  public void shouldNotHandOutCancelledItems() {
+    long now = System.nanoTime();
+    TimingWheel<String> wheel =
+      new TimingWheel<String>(10, TimeUnit.MILLISECONDS, 8);
+    TimingWheel.Timeout<String> t = wheel.schedule("a", now + 15 * MS);
+    wheel.schedule("b", now + 15 * MS);
+    t.cancel();
+    assertTrue(t.isDone());
+
+    List<String> expired = new ArrayList<String>();
+    wheel.expire(now + 30 * MS, expired);
+    assertEquals(Arrays.asList("b"), expired);
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test
+  public void shouldCatchUpAfterLongPauses() {
+    long now = System.nanoTime();
+    TimingWheel<Integer> wheel =
+      new TimingWheel<Integer>(1, TimeUnit.MILLISECONDS, 16);
+    for (int i = 0; i < 100; i++) {
+      wheel.schedule(i, now + i * MS);
+    }
+    List<Integer> expired = new ArrayList<Integer>();
+    wheel.expire(now + TimeUnit.SECONDS.toNanos(10), expired);
+    assertEquals(100, expired.size());
+    assertTrue(wheel.isEmpty());
+  }
+
+  @Test
+  public void shouldReportTheNextTick() {
+    long now = System.nanoTime();
+    TimingWheel<String> wheel =
+      new TimingWheel<String>(10, TimeUnit.MILLISECONDS, 8);
+    wheel.expire(now + 15 * MS, new ArrayList<String>());
+    long next = wheel.nanosUntilNextTick(now + 15 * MS);
+    assertTrue(next > 0 && next <= 10 * MS);
+    assertEquals(0, wheel.nanosUntilNextTick(now + 50 * MS));
+  }
+}
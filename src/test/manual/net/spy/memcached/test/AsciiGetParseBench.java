@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Compares parsing an ascii multi-get response with the get operation
+ * against the former line scanner, which went through the response one
+ * byte at a time and split every VALUE line into Strings.
+ */
+public final class AsciiGetParseBench {
+
+  private static int consumed;
+
+  private AsciiGetParseBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      args = new String[] { "100", "32", "20000" };
+      System.out.println("Usage: java " + AsciiGetParseBench.class.getName()
+          + " <keys> <value size> <iterations>");
+    }
+    int keys = Integer.parseInt(args[0]);
+    int valueSize = Integer.parseInt(args[1]);
+    int iterations = Integer.parseInt(args[2]);
+
+    List<String> keyList = new ArrayList<String>();
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    for (int i = 0; i < keys; i++) {
+      String key = "some:application:key:" + i;
+      keyList.add(key);
+      response.write(("VALUE " + key + " " + i + " " + valueSize + "\r\n")
+          .getBytes());
+      response.write(new byte[valueSize]);
+      response.write("\r\n".getBytes());
+    }
+    response.write("END\r\n".getBytes());
+    byte[] bytes = response.toByteArray();
+
+    for (int round = 0; round < 5; round++) {
+      long legacy = 0;
+      long current = 0;
+      for (int i = 0; i < iterations; i++) {
+        long start = System.nanoTime();
+        legacyParse(ByteBuffer.wrap(bytes));
+        legacy += System.nanoTime() - start;
+
+        Operation op = new AsciiOperationFactory().get(keyList, CALLBACK);
+        start = System.nanoTime();
+        op.readFromBuffer(ByteBuffer.wrap(bytes));
+        current += System.nanoTime() - start;
+      }
+      System.out.println("ns per value: former " + legacy / iterations / keys
+          + ", current " + current / iterations / keys);
+    }
+    System.out.println(consumed);
+  }
+
+  private static final GetOperation.Callback CALLBACK =
+    new GetOperation.Callback() {
+      public void gotData(String key, int flags, byte[] data) {
+        consumed += data.length;
+      }
+
+      public void receivedStatus(OperationStatus status) {
+        // ignored
+      }
+
+      public void complete() {
+        // ignored
+      }
+    };
+
+  /**
+   * The former parser: lines are scanned byte by byte into a stream,
+   * decoded to a String and split.
+   */
+  private static void legacyParse(ByteBuffer data) throws Exception {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    while (data.hasRemaining()) {
+      byte b = data.get();
+      if (b == '\r') {
+        continue;
+      } else if (b != '\n') {
+        line.write(b);
+        continue;
+      }
+      String str = new String(line.toByteArray(), "UTF-8");
+      line.reset();
+      if (str.equals("END")) {
+        return;
+      }
+      String[] stuff = str.split(" ");
+      String key = stuff[1];
+      int flags = Integer.parseInt(stuff[2]);
+      byte[] value = new byte[Integer.parseInt(stuff[3])];
+      data.get(value);
+      data.position(data.position() + 2);
+      CALLBACK.gotData(key, flags, value);
+    }
+  }
+}
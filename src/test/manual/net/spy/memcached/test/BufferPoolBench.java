@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+
+/**
+ * Compares the set throughput and the bytes allocated per operation with
+ * and without pooled operation buffers.
+ *
+ * <p>The allocation figure covers every thread of the process, so it
+ * includes the futures and callbacks of each operation as well as the
+ * encode buffers.</p>
+ */
+public final class BufferPoolBench {
+
+  private BufferPoolBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      args = new String[] { "200000", "1024" };
+      System.out.println("Usage: java " + BufferPoolBench.class.getName()
+          + " <ops per run> <value size>");
+    }
+    int ops = Integer.parseInt(args[0]);
+    byte[] value = new byte[Integer.parseInt(args[1])];
+
+    IOThreadScalingBench.MockServer server =
+        new IOThreadScalingBench.MockServer(new byte[0]);
+    server.start();
+    List<InetSocketAddress> addrs = Arrays.asList(
+        new InetSocketAddress("127.0.0.1", server.getPort()));
+
+    System.out.println("Mode\t\t\tops/s\tbytes/op");
+    run("unpooled", new ConnectionFactoryBuilder(), addrs, ops, value);
+    run("pooled heap", new ConnectionFactoryBuilder()
+        .setBufferPoolSize(1024 * 1024), addrs, ops, value);
+    run("pooled direct", new ConnectionFactoryBuilder()
+        .setBufferPoolSize(1024 * 1024).setDirectBufferPool(true)
+        .setUseGatheringWrites(true), addrs, ops, value);
+    server.close();
+  }
+
+  private static void run(String mode, ConnectionFactoryBuilder builder,
+      List<InetSocketAddress> addrs, int ops, byte[] value) throws Exception {
+    MemcachedClient client = new MemcachedClient(
+        builder.setProtocol(Protocol.BINARY).setDaemon(true).build(), addrs);
+    sets(client, ops / 10, value);
+
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    sets(client, ops, value);
+    long elapsed = System.nanoTime() - start;
+    allocated = allocatedBytes() - allocated;
+
+    System.out.println(mode + "\t\t" + (ops * TimeUnit.SECONDS.toNanos(1)
+        / elapsed) + "\t" + (allocated / ops));
+    client.shutdown();
+  }
+
+  private static void sets(MemcachedClient client, int ops, byte[] value)
+    throws Exception {
+    List<Future<Boolean>> pending = new ArrayList<Future<Boolean>>();
+    for (int i = 0; i < ops; i++) {
+      pending.add(client.set("key" + (i % 1000), 0, value));
+      if (pending.size() == 100) {
+        for (Future<Boolean> f : pending) {
+          f.get(5, TimeUnit.SECONDS);
+        }
+        pending.clear();
+      }
+    }
+    for (Future<Boolean> f : pending) {
+      f.get(5, TimeUnit.SECONDS);
+    }
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean bean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long rv = 0;
+    for (long b : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+      if (b > 0) {
+        rv += b;
+      }
+    }
+    return rv;
+  }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.transcoders.CompressionCodec;
+import net.spy.memcached.transcoders.DeflateCompressionCodec;
+import net.spy.memcached.transcoders.GZIPCompressionCodec;
+import net.spy.memcached.transcoders.LZ4CompressionCodec;
+
+/**
+ * Compares the compression ratio and throughput of the built-in
+ * compression codecs for values of growing size.
+ *
+ * <p>The values are JSON-like documents built from a small vocabulary with
+ * random numbers, which compress about as well as typical cached data.</p>
+ */
+public final class CompressionBench {
+
+  private static final String[] WORDS = { "\"id\":", "\"name\":", "\"user\"",
+    "\"created\":", "\"tags\":[", "],", "\"active\":true,", "\"score\":",
+    "{", "},", "\"description\":\"", "lorem ", "ipsum ", "dolor ", "sit " };
+
+  private CompressionBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      args = new String[] { "256,1024,4096,16384,131072", "64" };
+      System.out.println("Usage: java " + CompressionBench.class.getName()
+          + " <value sizes> <MB per run>");
+    }
+    long bytesPerRun = Long.parseLong(args[1]) * 1024 * 1024;
+    CompressionCodec[] codecs = { GZIPCompressionCodec.INSTANCE,
+      new DeflateCompressionCodec(), new DeflateCompressionCodec(1),
+      new LZ4CompressionCodec() };
+    String[] names = { "gzip", "deflate", "deflate-1", "lz4" };
+
+    System.out.println("Size\tCodec\t\tRatio\tCompress MB/s\tDecompress MB/s");
+    for (String size : args[0].split(",")) {
+      byte[] value = createValue(Integer.parseInt(size.trim()));
+      int iterations = (int) Math.max(1, bytesPerRun / value.length);
+      for (int i = 0; i < codecs.length; i++) {
+        CompressionCodec codec = codecs[i];
+        byte[] compressed = codec.compress(value);
+
+        // warm up
+        run(codec, value, compressed, iterations / 10 + 1);
+        long start = System.nanoTime();
+        run(codec, value, null, iterations);
+        long compressTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        run(codec, null, compressed, iterations);
+        long decompressTime = System.nanoTime() - start;
+
+        System.out.printf("%d\t%-10s\t%.2f\t%.0f\t\t%.0f%n", value.length,
+            names[i], (double) value.length / compressed.length,
+            throughput(value.length, iterations, compressTime),
+            throughput(value.length, iterations, decompressTime));
+      }
+    }
+  }
+
+  private static void run(CompressionCodec codec, byte[] value,
+      byte[] compressed, int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      if (value != null) {
+        codec.compress(value);
+      }
+      if (compressed != null) {
+        codec.decompress(compressed);
+      }
+    }
+  }
+
+  private static double throughput(int size, int iterations, long nanos) {
+    return (double) size * iterations / (1024 * 1024)
+        / ((double) nanos / TimeUnit.SECONDS.toNanos(1));
+  }
+
+  private static byte[] createValue(int size) {
+    Random random = new Random(size);
+    StringBuilder sb = new StringBuilder(size + 32);
+    while (sb.length() < size) {
+      sb.append(WORDS[random.nextInt(WORDS.length)]);
+      if (random.nextInt(4) == 0) {
+        sb.append(random.nextInt(100000)).append(',');
+      }
+    }
+    sb.setLength(size);
+    return sb.toString().getBytes();
+  }
+}
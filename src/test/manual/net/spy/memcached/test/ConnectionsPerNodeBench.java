@@ -0,0 +1,256 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.ConnectionSelector;
+import net.spy.memcached.LeastOutstandingBytesConnectionSelector;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.RoundRobinConnectionSelector;
+import net.spy.memcached.SizeSegregatedConnectionSelector;
+
+/**
+ * Measures the latency of small gets while large values are read and
+ * written over the same node, with one and with several connections.
+ *
+ * <p>The client talks to a mock binary protocol server running in the same
+ * process. Gets for keys starting with "L" return a large value, all other
+ * gets a small one, and sets are acknowledged once their value has been
+ * read.</p>
+ */
+public final class ConnectionsPerNodeBench {
+
+  private ConnectionsPerNodeBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      args = new String[] { "4", "8", "1048576", "5" };
+      System.out.println("Usage: java "
+          + ConnectionsPerNodeBench.class.getName()
+          + " <connections> <small get threads> <large size> <seconds>");
+    }
+    int connections = Integer.parseInt(args[0]);
+    int smallThreads = Integer.parseInt(args[1]);
+    int largeSize = Integer.parseInt(args[2]);
+    long seconds = Long.parseLong(args[3]);
+
+    MixedServer server = new MixedServer(largeSize);
+    server.start();
+    List<InetSocketAddress> addrs = Arrays.asList(
+        new InetSocketAddress("127.0.0.1", server.getPort()));
+
+    System.out.println("Variant\t\t\tsmall p50 us\tp99 us\tsmall/s\tlarge/s");
+    run("1 connection\t", 1, new RoundRobinConnectionSelector(), addrs,
+        smallThreads, largeSize, seconds);
+    run(connections + " round-robin\t", connections,
+        new RoundRobinConnectionSelector(), addrs, smallThreads, largeSize,
+        seconds);
+    run(connections + " least-bytes\t", connections,
+        new LeastOutstandingBytesConnectionSelector(), addrs, smallThreads,
+        largeSize, seconds);
+    run(connections + " size-segregated", connections,
+        new SizeSegregatedConnectionSelector(), addrs, smallThreads,
+        largeSize, seconds);
+    server.close();
+  }
+
+  private static void run(String name, int connections,
+      ConnectionSelector selector, List<InetSocketAddress> addrs,
+      int smallThreads, int largeSize, long seconds) throws Exception {
+    final MemcachedClient client = new MemcachedClient(
+        new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+          .setConnectionsPerNode(connections).setConnectionSelector(selector)
+          .setOpTimeout(10000).setDaemon(true).build(), addrs);
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong largeOps = new AtomicLong();
+    final byte[] largeValue = new byte[largeSize];
+
+    Thread[] large = new Thread[3];
+    for (int i = 0; i < large.length; i++) {
+      final boolean writer = i == 0;
+      large[i] = new Thread() {
+        @Override
+        public void run() {
+          int n = 0;
+          while (running.get()) {
+            if (writer) {
+              client.set("L" + n++, 0, largeValue);
+            } else {
+              client.get("L" + n++);
+            }
+            largeOps.incrementAndGet();
+          }
+        }
+      };
+    }
+
+    final long[][] latencies = new long[smallThreads][];
+    final int[] counts = new int[smallThreads];
+    Thread[] small = new Thread[smallThreads];
+    for (int i = 0; i < smallThreads; i++) {
+      final int id = i;
+      latencies[i] = new long[1000000];
+      small[i] = new Thread() {
+        @Override
+        public void run() {
+          int n = 0;
+          while (running.get() && n < latencies[id].length) {
+            long start = System.nanoTime();
+            client.get("small" + n);
+            latencies[id][n++] = System.nanoTime() - start;
+          }
+          counts[id] = n;
+        }
+      };
+    }
+
+    for (Thread t : large) {
+      t.start();
+    }
+    for (Thread t : small) {
+      t.start();
+    }
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    running.set(false);
+    for (Thread t : small) {
+      t.join();
+    }
+    for (Thread t : large) {
+      t.join();
+    }
+    client.shutdown();
+
+    int total = 0;
+    for (int c : counts) {
+      total += c;
+    }
+    long[] all = new long[total];
+    int pos = 0;
+    for (int i = 0; i < smallThreads; i++) {
+      System.arraycopy(latencies[i], 0, all, pos, counts[i]);
+      pos += counts[i];
+    }
+    Arrays.sort(all);
+    System.out.println(name + "\t" + all[total / 2] / 1000 + "\t\t"
+        + all[(int) (total * 0.99)] / 1000 + "\t" + total / seconds + "\t"
+        + largeOps.get() / seconds);
+  }
+
+  /**
+   * A binary protocol server answering gets for keys starting with "L" with
+   * a large value and all others with a small one.
+   */
+  static final class MixedServer extends Thread {
+    private final ServerSocket socket;
+    private final byte[] small = new byte[100];
+    private final byte[] large;
+
+    MixedServer(int largeSize) throws IOException {
+      socket = new ServerSocket(0);
+      large = new byte[largeSize];
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return socket.getLocalPort();
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket s = socket.accept();
+          s.setTcpNoDelay(true);
+          Thread t = new Thread() {
+            @Override
+            public void run() {
+              try {
+                serve(s);
+              } catch (IOException e) {
+                // connection closed
+              }
+            }
+          };
+          t.setDaemon(true);
+          t.start();
+        }
+      } catch (IOException e) {
+        // server closed
+      }
+    }
+
+    private void serve(Socket s) throws IOException {
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      OutputStream out = s.getOutputStream();
+      byte[] header = new byte[24];
+      byte[] body = new byte[large.length + 1024];
+      ByteBuffer res = ByteBuffer.allocate(24 + 4 + large.length);
+      while (true) {
+        in.readFully(header);
+        ByteBuffer req = ByteBuffer.wrap(header);
+        byte opcode = req.get(1);
+        int keyLen = req.getShort(2);
+        int extLen = req.get(4);
+        int bodyLen = req.getInt(8);
+        int opaque = req.getInt(12);
+        in.readFully(body, 0, bodyLen);
+
+        boolean isGet = opcode == 0x00;
+        byte[] value = isGet && keyLen > 0 && body[extLen] == 'L'
+            ? large : small;
+        int extraLen = isGet ? 4 : 0;
+        int valueLen = isGet ? value.length : 0;
+        res.clear();
+        res.put((byte) 0x81).put(opcode).putShort((short) 0)
+          .put((byte) extraLen).put((byte) 0).putShort((short) 0)
+          .putInt(extraLen + valueLen).putInt(opaque).putLong(1);
+        if (isGet) {
+          res.putInt(0).put(value);
+        }
+        out.write(res.array(), 0, res.position());
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.spy.memcached.AddrUtil;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.LoadPolicy;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.transcoders.Transcoder;
+
+/**
+ * Measures the load on a slow backend while a set of hot keys expires.
+ *
+ * <p>All keys are loaded at the same time and expire together. Reader
+ * threads keep reading random keys across the expiration, through a
+ * hand-rolled get/load/set, through getOrLoad waiting for the lease holder,
+ * and through getOrLoad serving stale values and refreshing early. For
+ * every variant, the number of backend calls and the highest number of
+ * concurrent backend calls are printed.</p>
+ */
+public final class GetOrLoadStampedeBench {
+
+  private static final int EXP = 3;
+
+  private GetOrLoadStampedeBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      args = new String[] { "localhost:11211", "50", "32", "8" };
+      System.out.println("Usage: java "
+          + GetOrLoadStampedeBench.class.getName()
+          + " <server> <keys> <threads> <seconds>");
+    }
+    MemcachedClient client = new MemcachedClient(
+        new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+          .setDaemon(true).build(), AddrUtil.getAddresses(args[0]));
+    int keys = Integer.parseInt(args[1]);
+    int threads = Integer.parseInt(args[2]);
+    long duration = TimeUnit.SECONDS.toMillis(Integer.parseInt(args[3]));
+
+    System.out.println("Variant\t\tloads\tpeak concurrent loads");
+    run("get/load/set", new Naive(client), keys, threads, duration);
+    run("wait", new Leased(client, LoadPolicy.DEFAULT), keys, threads,
+        duration);
+    run("stale+early", new Leased(client, new LoadPolicy(10, 30, 1.0, 2000)),
+        keys, threads, duration);
+    client.shutdown();
+  }
+
+  private static void run(String name, final Reader reader, final int keys,
+      int threads, final long duration) throws Exception {
+    final String prefix = "stampede:" + name + ":"
+        + System.currentTimeMillis() + ":";
+    for (int i = 0; i < keys; i++) {
+      reader.read(prefix + i);
+    }
+    reader.backend.reset();
+
+    final long end = System.currentTimeMillis() + duration;
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          Random random = new Random();
+          while (System.currentTimeMillis() < end) {
+            reader.read(prefix + random.nextInt(keys));
+          }
+        }
+      };
+      workers[i].start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+    System.out.println(name + "\t" + reader.backend.calls.get() + "\t"
+        + reader.backend.peak.get());
+  }
+
+  /**
+   * A backend taking a while for every value and counting its callers.
+   */
+  static final class Backend implements Callable<Object> {
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger peak = new AtomicInteger();
+
+    public Object call() throws Exception {
+      calls.incrementAndGet();
+      int now = active.incrementAndGet();
+      int max;
+      do {
+        max = peak.get();
+      } while (now > max && !peak.compareAndSet(max, now));
+      try {
+        Thread.sleep(100);
+        return "value";
+      } finally {
+        active.decrementAndGet();
+      }
+    }
+
+    void reset() {
+      calls.set(0);
+      peak.set(0);
+    }
+  }
+
+  abstract static class Reader {
+    protected final MemcachedClient client;
+    protected final Backend backend = new Backend();
+
+    Reader(MemcachedClient c) {
+      client = c;
+    }
+
+    abstract void read(String key);
+  }
+
+  static final class Naive extends Reader {
+    Naive(MemcachedClient c) {
+      super(c);
+    }
+
+    @Override
+    void read(String key) {
+      if (client.get(key) == null) {
+        try {
+          client.set(key, EXP, backend.call());
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }
+  }
+
+  static final class Leased extends Reader {
+    private final LoadPolicy policy;
+    private final Transcoder<Object> tc;
+
+    Leased(MemcachedClient c, LoadPolicy p) {
+      super(c);
+      policy = p;
+      tc = c.getTranscoder();
+    }
+
+    @Override
+    void read(String key) {
+      client.getOrLoad(key, EXP, backend, tc, policy);
+    }
+  }
+}
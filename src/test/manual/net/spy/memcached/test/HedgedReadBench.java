@@ -0,0 +1,225 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+
+/**
+ * Compares the latency of plain and hedged gets when one node stalls now
+ * and then.
+ *
+ * <p>Two mock binary protocol servers answer gets and replica gets with a
+ * fixed value. One of them stops answering for a while at a fixed interval,
+ * like a node with long garbage collection pauses.</p>
+ */
+public final class HedgedReadBench {
+
+  private HedgedReadBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      args = new String[] { "20000", "8", "200", "30" };
+      System.out.println("Usage: java " + HedgedReadBench.class.getName()
+          + " <gets> <threads> <stall interval ms> <stall ms>");
+    }
+    int gets = Integer.parseInt(args[0]);
+    int threads = Integer.parseInt(args[1]);
+    long interval = Long.parseLong(args[2]);
+    long stall = Long.parseLong(args[3]);
+
+    StallingServer slow = new StallingServer(interval, stall);
+    StallingServer fast = new StallingServer(0, 0);
+    slow.start();
+    fast.start();
+    List<InetSocketAddress> addrs = Arrays.asList(
+        new InetSocketAddress("127.0.0.1", slow.getPort()),
+        new InetSocketAddress("127.0.0.1", fast.getPort()));
+    MemcachedClient client = new MemcachedClient(
+        new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+          .setDaemon(true).build(), addrs);
+
+    // warm up, which also fills the latency window of hedged reads
+    run(client, threads, gets / 10, true);
+    System.out.println("Variant\tp50 us\tp99 us\tp99.9 us\tmax us");
+    report("get", run(client, threads, gets, false));
+    report("hedged", run(client, threads, gets, true));
+    client.shutdown();
+    slow.close();
+    fast.close();
+  }
+
+  private static long[] run(final MemcachedClient client, int threads,
+      final int gets, final boolean hedged) throws InterruptedException {
+    final int perThread = gets / threads;
+    final long[] latencies = new long[perThread * threads];
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final int base = i * perThread;
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < perThread; j++) {
+            String key = "hedge" + (base + j);
+            long start = System.nanoTime();
+            Future<Object> f = hedged ? client.asyncGetHedged(key)
+                : client.asyncGet(key);
+            try {
+              f.get(5, TimeUnit.SECONDS);
+            } catch (Exception e) {
+              throw new RuntimeException(e);
+            }
+            latencies[base + j] = System.nanoTime() - start;
+          }
+        }
+      };
+      workers[i].start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+    return latencies;
+  }
+
+  private static void report(String name, long[] latencies) {
+    Arrays.sort(latencies);
+    System.out.println(name + "\t" + micros(latencies, 0.5) + "\t"
+        + micros(latencies, 0.99) + "\t" + micros(latencies, 0.999) + "\t\t"
+        + latencies[latencies.length - 1] / 1000);
+  }
+
+  private static long micros(long[] sorted, double pct) {
+    return sorted[(int) (sorted.length * pct)] / 1000;
+  }
+
+  /**
+   * A binary protocol server answering gets and replica gets, which stops
+   * answering for a while at a fixed interval.
+   */
+  static final class StallingServer extends Thread {
+    private final ServerSocket socket;
+    private final long interval;
+    private final long stall;
+    private final List<Socket> clients = new ArrayList<Socket>();
+
+    StallingServer(long i, long s) throws IOException {
+      socket = new ServerSocket(0);
+      interval = i;
+      stall = s;
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return socket.getLocalPort();
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket s = socket.accept();
+          s.setTcpNoDelay(true);
+          Thread t = new Thread() {
+            @Override
+            public void run() {
+              try {
+                serve(s);
+              } catch (Exception e) {
+                // connection closed
+              }
+            }
+          };
+          t.setDaemon(true);
+          t.start();
+        }
+      } catch (IOException e) {
+        // server closed
+      }
+    }
+
+    private void serve(Socket s) throws Exception {
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      OutputStream out = s.getOutputStream();
+      byte[] header = new byte[24];
+      byte[] value = new byte[100];
+      ByteBuffer res = ByteBuffer.allocate(64 * 1024);
+      long nextStall = System.currentTimeMillis() + interval;
+      while (true) {
+        in.readFully(header);
+        ByteBuffer req = ByteBuffer.wrap(header);
+        byte opcode = req.get(1);
+        int bodyLen = req.getInt(8);
+        int opaque = req.getInt(12);
+        in.skipBytes(bodyLen);
+
+        if (interval > 0 && System.currentTimeMillis() >= nextStall) {
+          Thread.sleep(stall);
+          nextStall = System.currentTimeMillis() + interval;
+        }
+
+        boolean isGet = opcode == 0x00 || opcode == (byte) 0x83;
+        int extraLen = isGet ? 4 : 0;
+        int valueLen = isGet ? value.length : 0;
+        if (res.remaining() < 24 + extraLen + valueLen) {
+          flush(res, out);
+        }
+        res.put((byte) 0x81).put(opcode).putShort((short) 0)
+          .put((byte) extraLen).put((byte) 0).putShort((short) 0)
+          .putInt(extraLen + valueLen).putInt(opaque).putLong(1);
+        if (isGet) {
+          res.putInt(0).put(value);
+        }
+        if (in.available() == 0) {
+          flush(res, out);
+        }
+      }
+    }
+
+    private void flush(ByteBuffer res, OutputStream out) throws IOException {
+      out.write(res.array(), 0, res.position());
+      out.flush();
+      res.clear();
+    }
+  }
+}
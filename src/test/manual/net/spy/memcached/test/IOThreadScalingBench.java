@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+
+/**
+ * Measures the get throughput for a growing number of IO threads.
+ *
+ * <p>The client talks to a mock binary protocol server running in the same
+ * process, which answers every get with a fixed value. Every node is a
+ * separate connection to that server, so the nodes can be spread across
+ * the IO threads.</p>
+ */
+public final class IOThreadScalingBench {
+
+  private IOThreadScalingBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      args = new String[] { "16", "32", "200000", "1,2,4,8" };
+      System.out.println("Usage: java " + IOThreadScalingBench.class.getName()
+          + " <nodes> <app threads> <ops per run> <io thread counts>");
+    }
+
+    final int nodes = Integer.parseInt(args[0]);
+    final int appThreads = Integer.parseInt(args[1]);
+    final int ops = Integer.parseInt(args[2]);
+
+    MockServer server = new MockServer(new byte[100]);
+    server.start();
+
+    List<InetSocketAddress> addrs = new ArrayList<InetSocketAddress>();
+    for (int i = 0; i < nodes; i++) {
+      addrs.add(new InetSocketAddress("127.0.0.1", server.getPort()));
+    }
+
+    System.out.println("IO Threads\tops/s");
+    for (String count : args[3].split(",")) {
+      int ioThreads = Integer.parseInt(count.trim());
+      MemcachedClient client = new MemcachedClient(
+          new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+            .setIOThreadCount(ioThreads).setDaemon(true).build(), addrs);
+
+      // warm up
+      run(client, appThreads, ops / 10);
+      long elapsed = run(client, appThreads, ops);
+      System.out.println(ioThreads + "\t\t"
+          + (ops * TimeUnit.SECONDS.toNanos(1) / elapsed));
+      client.shutdown();
+    }
+    server.close();
+  }
+
+  private static long run(final MemcachedClient client, int threads,
+      int ops) throws InterruptedException {
+    final int perThread = ops / threads;
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final int base = i * perThread;
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          List<Future<Object>> pending = new ArrayList<Future<Object>>();
+          for (int j = 0; j < perThread; j++) {
+            pending.add(client.asyncGet("key" + (base + j)));
+            if (pending.size() == 100) {
+              drain(pending);
+            }
+          }
+          drain(pending);
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread t : workers) {
+      t.start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void drain(List<Future<Object>> pending) {
+    for (Future<Object> f : pending) {
+      try {
+        f.get(5, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * A minimal binary protocol server answering every request successfully.
+   */
+  static final class MockServer extends Thread {
+    private final ServerSocket socket;
+    private final byte[] value;
+
+    MockServer(byte[] v) throws IOException {
+      socket = new ServerSocket(0);
+      value = v;
+      setDaemon(true);
+    }
+
+    int getPort() {
+      return socket.getLocalPort();
+    }
+
+    void close() throws IOException {
+      socket.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final Socket s = socket.accept();
+          s.setTcpNoDelay(true);
+          Thread t = new Thread() {
+            @Override
+            public void run() {
+              try {
+                serve(s);
+              } catch (IOException e) {
+                // connection closed
+              }
+            }
+          };
+          t.setDaemon(true);
+          t.start();
+        }
+      } catch (IOException e) {
+        // server closed
+      }
+    }
+
+    private void serve(Socket s) throws IOException {
+      DataInputStream in = new DataInputStream(s.getInputStream());
+      OutputStream out = s.getOutputStream();
+      byte[] header = new byte[24];
+      ByteBuffer res = ByteBuffer.allocate(64 * 1024);
+      while (true) {
+        in.readFully(header);
+        ByteBuffer req = ByteBuffer.wrap(header);
+        byte opcode = req.get(1);
+        int bodyLen = req.getInt(8);
+        int opaque = req.getInt(12);
+        in.skipBytes(bodyLen);
+
+        boolean isGet = opcode == 0x00;
+        int extraLen = isGet ? 4 : 0;
+        int valueLen = isGet ? value.length : 0;
+        if (res.remaining() < 24 + extraLen + valueLen) {
+          flush(res, out);
+        }
+        res.put((byte) 0x81).put(opcode).putShort((short) 0)
+          .put((byte) extraLen).put((byte) 0).putShort((short) 0)
+          .putInt(extraLen + valueLen).putInt(opaque).putLong(1);
+        if (isGet) {
+          res.putInt(0).put(value);
+        }
+        if (in.available() == 0) {
+          flush(res, out);
+        }
+      }
+    }
+
+    private void flush(ByteBuffer res, OutputStream out) throws IOException {
+      out.write(res.array(), 0, res.position());
+      out.flush();
+      res.clear();
+    }
+  }
+}
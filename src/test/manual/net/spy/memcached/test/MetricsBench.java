@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.metrics.DefaultMetricCollector;
+import net.spy.memcached.metrics.HistogramHandle;
+import net.spy.memcached.metrics.MeterHandle;
+import net.spy.memcached.metrics.MetricCollector;
+import net.spy.memcached.metrics.MetricHandles;
+import net.spy.memcached.metrics.NoopMetricCollector;
+
+/**
+ * Compares the cost of the metrics an IO thread updates per response, with
+ * metrics off, updated by name and updated through handles.
+ *
+ * <p>Every simulated response updates two histograms and marks two meters,
+ * like MemcachedConnection does for a successful read.</p>
+ */
+public final class MetricsBench {
+
+  private static final String WIRE = "wire";
+  private static final String READ = "read";
+  private static final String RESPONSES = "responses";
+  private static final String SUCCESS = "success";
+
+  private MetricsBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      args = new String[] { "4", "5000000" };
+      System.out.println("Usage: java " + MetricsBench.class.getName()
+          + " <threads> <responses per thread>");
+    }
+    int threads = Integer.parseInt(args[0]);
+    int responses = Integer.parseInt(args[1]);
+    System.setProperty("net.spy.metrics.reporter.interval", "3600");
+
+    Variant[] variants = {
+      new ByName("off", new NoopMetricCollector()),
+      new ByName("by name", new DefaultMetricCollector()),
+      new ByHandle("handles", new DefaultMetricCollector(), 1),
+      new ByHandle("handles, 1/16", new DefaultMetricCollector(), 16),
+    };
+
+    System.out.println("Variant\t\tresponses/s");
+    for (Variant v : variants) {
+      // warm up
+      run(v, threads, responses / 10);
+      long elapsed = run(v, threads, responses);
+      System.out.println(v.name + "\t\t" + ((long) threads * responses
+          * TimeUnit.SECONDS.toNanos(1) / elapsed));
+    }
+    System.exit(0);
+  }
+
+  private static long run(final Variant v, int threads, final int responses)
+    throws InterruptedException {
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < responses; j++) {
+            v.response(j & 1023);
+          }
+        }
+      };
+    }
+    long start = System.nanoTime();
+    for (Thread t : workers) {
+      t.start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private abstract static class Variant {
+    private final String name;
+
+    Variant(String n) {
+      name = n;
+    }
+
+    abstract void response(int amount);
+  }
+
+  private static final class ByName extends Variant {
+    private final MetricCollector metrics;
+
+    ByName(String n, MetricCollector m) {
+      super(n);
+      metrics = m;
+      metrics.addHistogram(WIRE);
+      metrics.addHistogram(READ);
+      metrics.addMeter(RESPONSES);
+      metrics.addMeter(SUCCESS);
+    }
+
+    @Override
+    void response(int amount) {
+      metrics.updateHistogram(READ, amount);
+      metrics.updateHistogram(WIRE, amount);
+      metrics.markMeter(RESPONSES);
+      metrics.markMeter(SUCCESS);
+    }
+  }
+
+  private static final class ByHandle extends Variant {
+    private final HistogramHandle wire;
+    private final HistogramHandle read;
+    private final MeterHandle responses;
+    private final MeterHandle success;
+
+    ByHandle(String n, MetricCollector m, int sampleRate) {
+      super(n);
+      wire = MetricHandles.histogram(m, WIRE, sampleRate);
+      read = MetricHandles.histogram(m, READ, sampleRate);
+      responses = MetricHandles.meter(m, RESPONSES);
+      success = MetricHandles.meter(m, SUCCESS);
+    }
+
+    @Override
+    void response(int amount) {
+      read.update(amount);
+      wire.update(amount);
+      responses.mark();
+      success.mark();
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.spy.memcached.ops.GetOperation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.protocol.binary.MultiGetOperationImpl;
+
+/**
+ * Measures the bytes allocated and the time taken by a binary multi-get of
+ * many keys, from creating the operation to decoding its responses.
+ *
+ * <p>Only the operation itself is measured: the response of each batch is
+ * built from the opaques of the encoded request before the decoding is
+ * timed. Every other key is a hit.</p>
+ */
+public final class MultiGetAllocationBench {
+
+  private static final byte[] VALUE = new byte[16];
+
+  private MultiGetAllocationBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      args = new String[] { "1000", "2000" };
+      System.out.println("Usage: java "
+          + MultiGetAllocationBench.class.getName()
+          + " <keys per get> <gets per run>");
+    }
+    int keyCount = Integer.parseInt(args[0]);
+    int gets = Integer.parseInt(args[1]);
+
+    List<String> keys = new ArrayList<String>(keyCount);
+    for (int i = 0; i < keyCount; i++) {
+      keys.add("multiget:key:" + i);
+    }
+
+    // warm up
+    run(keys, gets / 4);
+    long[] rv = run(keys, gets);
+    System.out.println("keys/get\tbytes/get\tns/get");
+    System.out.println(keyCount + "\t\t" + rv[0] / gets + "\t\t"
+        + rv[1] / gets);
+  }
+
+  private static long[] run(List<String> keys, int gets) throws Exception {
+    GetOperation.Callback cb = new GetOperation.Callback() {
+      public void receivedStatus(OperationStatus status) {
+        // Nothing
+      }
+
+      public void gotData(String key, int flags, byte[] data) {
+        // Nothing
+      }
+
+      public void complete() {
+        // Nothing
+      }
+    };
+
+    long allocated = 0;
+    long elapsed = 0;
+    for (int i = 0; i < gets; i++) {
+      long a = allocatedBytes();
+      long start = System.nanoTime();
+      MultiGetOperationImpl op = new MultiGetOperationImpl(keys, cb);
+      op.initialize();
+      elapsed += System.nanoTime() - start;
+      allocated += allocatedBytes() - a;
+
+      ByteBuffer response = respond(op.getBuffer());
+
+      a = allocatedBytes();
+      start = System.nanoTime();
+      op.readFromBuffer(response);
+      elapsed += System.nanoTime() - start;
+      allocated += allocatedBytes() - a;
+    }
+    return new long[] { allocated, elapsed };
+  }
+
+  /**
+   * Build the responses for the given request, answering every other key.
+   */
+  private static ByteBuffer respond(ByteBuffer request) {
+    ByteBuffer rv = ByteBuffer.allocate(request.remaining() * 4
+        + 1024 * 1024);
+    boolean hit = false;
+    while (request.hasRemaining()) {
+      int start = request.position();
+      byte opcode = request.get(start + 1);
+      int bodyLen = request.getInt(start + 8);
+      int opaque = request.getInt(start + 12);
+      request.position(start + 24 + bodyLen);
+
+      if (opcode == 0x0a) {
+        rv.put((byte) 0x81).put(opcode).putShort((short) 0).put((byte) 0)
+          .put((byte) 0).putShort((short) 0).putInt(0).putInt(opaque)
+          .putLong(0);
+      } else if (hit) {
+        rv.put((byte) 0x81).put(opcode).putShort((short) 0).put((byte) 4)
+          .put((byte) 0).putShort((short) 0).putInt(4 + VALUE.length)
+          .putInt(opaque).putLong(1).putInt(0).put(VALUE);
+      }
+      hit = !hit;
+    }
+    rv.flip();
+    return rv;
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean bean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}
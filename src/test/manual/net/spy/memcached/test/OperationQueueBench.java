@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.ops.ArrayOperationQueueFactory;
+import net.spy.memcached.ops.LinkedOperationQueueFactory;
+import net.spy.memcached.ops.MPSCOperationQueueFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationQueueFactory;
+import net.spy.memcached.protocol.ascii.AsciiOperationFactory;
+
+/**
+ * Measures how fast many producer threads can hand operations to a single
+ * consumer draining them in bulk, like application threads feeding the
+ * input queue of a node.
+ */
+public final class OperationQueueBench {
+
+  private OperationQueueBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      args = new String[] { "1,4,16,64", "2000000" };
+      System.out.println("Usage: java " + OperationQueueBench.class.getName()
+          + " <producer counts> <ops per run>");
+    }
+    int ops = Integer.parseInt(args[1]);
+    OperationQueueFactory[] factories = new OperationQueueFactory[] {
+      new ArrayOperationQueueFactory(16384),
+      new LinkedOperationQueueFactory(),
+      new MPSCOperationQueueFactory(16384),
+    };
+
+    System.out.println("Producers\tArray\t\tLinked\t\tMPSC (ops/s)");
+    for (String count : args[0].split(",")) {
+      int producers = Integer.parseInt(count.trim());
+      StringBuilder sb = new StringBuilder().append(producers);
+      for (OperationQueueFactory f : factories) {
+        run(f.create(), producers, ops / 10);
+        long elapsed = run(f.create(), producers, ops);
+        sb.append("\t\t").append(ops * TimeUnit.SECONDS.toNanos(1) / elapsed);
+      }
+      System.out.println(sb);
+    }
+  }
+
+  private static long run(final BlockingQueue<Operation> q, int producers,
+      int ops) throws Exception {
+    final Operation op = new AsciiOperationFactory().noop(null);
+    final int perProducer = ops / producers;
+    final CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[producers];
+    for (int i = 0; i < producers; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int j = 0; j < perProducer; j++) {
+              q.offer(op, 10, TimeUnit.SECONDS);
+            }
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+
+    List<Operation> sink = new ArrayList<Operation>(16384);
+    long begin = System.nanoTime();
+    start.countDown();
+    int consumed = 0;
+    while (consumed < perProducer * producers) {
+      int n = q.drainTo(sink, 16384);
+      if (n == 0) {
+        Thread.yield();
+      }
+      consumed += n;
+      sink.clear();
+    }
+    long elapsed = System.nanoTime() - begin;
+    for (Thread t : threads) {
+      t.join();
+    }
+    return elapsed;
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import net.spy.memcached.transcoders.Transcoder;
+import net.spy.memcached.transcoders.TypeRegistryTranscoder;
+
+/**
+ * Compares the encoded size and the encode and decode throughput of Java
+ * serialization and the type registry transcoder.
+ *
+ * <p>The values are maps of the kind typically cached for a user session or
+ * an entity: strings, numbers, dates, ids and nested lists and maps.
+ * Compression is disabled so only the object encoding is measured.</p>
+ */
+public final class TranscoderBench {
+
+  private TranscoderBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 2) {
+      args = new String[] { "1,10,100", "200000" };
+      System.out.println("Usage: java " + TranscoderBench.class.getName()
+          + " <entries per value> <values per run>");
+    }
+    int values = Integer.parseInt(args[1]);
+
+    SerializingTranscoder serializing = new SerializingTranscoder();
+    serializing.setCompressionThreshold(Integer.MAX_VALUE);
+    TypeRegistryTranscoder registry = new TypeRegistryTranscoder();
+    registry.setCompressionThreshold(Integer.MAX_VALUE);
+    List<Transcoder<Object>> transcoders = new ArrayList<Transcoder<Object>>();
+    transcoders.add(serializing);
+    transcoders.add(registry);
+    String[] names = { "serializing", "registry" };
+
+    System.out.println("Entries\tTranscoder\tBytes\tEncode/s\tDecode/s");
+    for (String entries : args[0].split(",")) {
+      Object value = createValue(Integer.parseInt(entries.trim()));
+      for (int i = 0; i < transcoders.size(); i++) {
+        Transcoder<Object> tc = transcoders.get(i);
+        CachedData cd = tc.encode(value);
+        if (!value.equals(tc.decode(cd))) {
+          throw new AssertionError(names[i] + " changed the value");
+        }
+        int iterations = Math.max(1, values / Integer.parseInt(entries.trim()));
+
+        // warm up
+        run(tc, value, cd, iterations / 10 + 1);
+        long start = System.nanoTime();
+        run(tc, value, null, iterations);
+        long encodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        run(tc, null, cd, iterations);
+        long decodeTime = System.nanoTime() - start;
+
+        System.out.printf("%s\t%-12s\t%d\t%d\t\t%d%n", entries, names[i],
+            cd.getData().length, perSecond(iterations, encodeTime),
+            perSecond(iterations, decodeTime));
+      }
+    }
+  }
+
+  private static Object createValue(int entries) {
+    Random random = new Random(entries);
+    Map<String, Object> value = new HashMap<String, Object>();
+    for (int i = 0; i < entries; i++) {
+      Map<String, Object> entry = new HashMap<String, Object>();
+      entry.put("id", UUID.randomUUID());
+      entry.put("name", "user" + random.nextInt(100000));
+      entry.put("created", new Date(random.nextLong() >>> 24));
+      entry.put("visits", random.nextInt(1000));
+      entry.put("balance", BigDecimal.valueOf(random.nextInt(1000000), 2));
+      entry.put("active", random.nextBoolean());
+      List<Object> tags = new ArrayList<Object>();
+      for (int j = 0; j < 4; j++) {
+        tags.add("tag" + random.nextInt(20));
+      }
+      entry.put("tags", tags);
+      value.put("entry" + i, entry);
+    }
+    return value;
+  }
+
+  private static void run(Transcoder<Object> tc, Object value, CachedData cd,
+      int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      if (value != null) {
+        tc.encode(value);
+      }
+      if (cd != null) {
+        tc.decode(cd);
+      }
+    }
+  }
+
+  private static long perSecond(int iterations, long nanos) {
+    return iterations * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+  }
+}
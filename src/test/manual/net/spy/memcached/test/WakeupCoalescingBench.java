@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedClient;
+import net.spy.memcached.metrics.AbstractMetricCollector;
+import net.spy.memcached.metrics.MetricType;
+
+/**
+ * Measures the get throughput and the number of selector wakeups per
+ * operation for different write batch windows, with many application
+ * threads adding operations to a single node.
+ */
+public final class WakeupCoalescingBench {
+
+  private WakeupCoalescingBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      args = new String[] { "32", "200000", "0,20,100" };
+      System.out.println("Usage: java " + WakeupCoalescingBench.class.getName()
+          + " <app threads> <ops per run> <batch windows (us)>");
+    }
+    int appThreads = Integer.parseInt(args[0]);
+    int ops = Integer.parseInt(args[1]);
+
+    IOThreadScalingBench.MockServer server =
+        new IOThreadScalingBench.MockServer(new byte[100]);
+    server.start();
+    List<InetSocketAddress> addrs = Arrays.asList(
+        new InetSocketAddress("127.0.0.1", server.getPort()));
+
+    System.out.println("Window (us)\tops/s\twakeups/op");
+    for (String window : args[2].split(",")) {
+      WakeupCounter counter = new WakeupCounter();
+      MemcachedClient client = new MemcachedClient(
+          new ConnectionFactoryBuilder().setProtocol(Protocol.BINARY)
+            .setEnableMetrics(MetricType.PERFORMANCE)
+            .setMetricCollector(counter)
+            .setWriteBatchWindow(Long.parseLong(window.trim()))
+            .setDaemon(true).build(), addrs);
+
+      run(client, appThreads, ops / 10);
+      counter.wakeups.set(0);
+      long elapsed = run(client, appThreads, ops);
+      System.out.println(window + "\t\t"
+          + (ops * TimeUnit.SECONDS.toNanos(1) / elapsed) + "\t"
+          + ((double) counter.wakeups.get() / ops));
+      client.shutdown();
+    }
+    server.close();
+  }
+
+  private static long run(final MemcachedClient client, int threads,
+      int ops) throws InterruptedException {
+    final int perThread = ops / threads;
+    Thread[] workers = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      workers[i] = new Thread() {
+        @Override
+        public void run() {
+          List<Future<Object>> pending = new ArrayList<Future<Object>>();
+          for (int j = 0; j < perThread; j++) {
+            pending.add(client.asyncGet("key" + j));
+            if (pending.size() == 10) {
+              drain(pending);
+            }
+          }
+          drain(pending);
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread t : workers) {
+      t.start();
+    }
+    for (Thread t : workers) {
+      t.join();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static void drain(List<Future<Object>> pending) {
+    for (Future<Object> f : pending) {
+      try {
+        f.get(5, TimeUnit.SECONDS);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * Counts the selector wakeups and ignores every other metric.
+   */
+  static final class WakeupCounter extends AbstractMetricCollector {
+    private final AtomicLong wakeups = new AtomicLong();
+
+    public void incrementCounter(String name, int amount) {
+      if (name.contains("Wakeups")) {
+        wakeups.addAndGet(amount);
+      }
+    }
+
+    public void addCounter(String name) {
+      // ignored
+    }
+
+    public void removeCounter(String name) {
+      // ignored
+    }
+
+    public void decrementCounter(String name, int amount) {
+      // ignored
+    }
+
+    public void addMeter(String name) {
+      // ignored
+    }
+
+    public void removeMeter(String name) {
+      // ignored
+    }
+
+    public void markMeter(String name) {
+      // ignored
+    }
+
+    public void addHistogram(String name) {
+      // ignored
+    }
+
+    public void removeHistogram(String name) {
+      // ignored
+    }
+
+    public void updateHistogram(String name, int amount) {
+      // ignored
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2006-2009 Dustin Sallings
+ * Copyright (C) 2009-2013 Couchbase, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALING
+ * IN THE SOFTWARE.
+ */
+
+package net.spy.memcached.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import net.spy.memcached.ConnectionFactory;
+import net.spy.memcached.ConnectionFactoryBuilder;
+import net.spy.memcached.ConnectionFactoryBuilder.Protocol;
+import net.spy.memcached.MemcachedNode;
+import net.spy.memcached.OperationFactory;
+import net.spy.memcached.ops.Operation;
+import net.spy.memcached.ops.OperationStatus;
+import net.spy.memcached.ops.StoreOperation;
+import net.spy.memcached.ops.StoreType;
+
+/**
+ * Compares the copying and the gathering write path of a node.
+ *
+ * <p>Store operations are written through a real node to a local socket
+ * which discards everything it reads. For every value size the throughput
+ * and the bytes allocated by the writing thread per operation are
+ * reported. Operation creation is not part of the measurement.</p>
+ */
+public final class WriteBufferBench {
+
+  private static final int BATCH = 1000;
+
+  private WriteBufferBench() {
+    // Empty
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      args = new String[] { "200", "100,4096,65536,524288" };
+      System.out.println("Usage: java " + WriteBufferBench.class.getName()
+          + " <batches> <value sizes>");
+    }
+    int batches = Integer.parseInt(args[0]);
+
+    final ServerSocket sink = new ServerSocket(0);
+    Thread drainer = new Thread() {
+      @Override
+      public void run() {
+        byte[] b = new byte[256 * 1024];
+        try {
+          while (true) {
+            final Socket s = sink.accept();
+            while (s.getInputStream().read(b) >= 0) {
+              // discard
+            }
+          }
+        } catch (Exception e) {
+          // done
+        }
+      }
+    };
+    drainer.setDaemon(true);
+    drainer.start();
+
+    System.out.println("Mode\t\tValue size\tops/s\t\tbytes allocated/op");
+    for (String size : args[1].split(",")) {
+      byte[] value = new byte[Integer.parseInt(size.trim())];
+      for (boolean gather : new boolean[] {false, true}) {
+        ConnectionFactory cf = new ConnectionFactoryBuilder()
+          .setProtocol(Protocol.BINARY).setUseGatheringWrites(gather).build();
+        SocketChannel ch = SocketChannel.open(
+          new InetSocketAddress("127.0.0.1", sink.getLocalPort()));
+        MemcachedNode node = cf.createMemcachedNode(
+          ch.socket().getRemoteSocketAddress(), ch, cf.getReadBufSize());
+
+        // warm up
+        run(node, cf.getOperationFactory(), value, batches / 10);
+        writeNanos = 0;
+        writeAllocated = 0;
+        long ops = run(node, cf.getOperationFactory(), value, batches);
+
+        System.out.println((gather ? "gathering" : "copying") + "\t"
+            + value.length + "\t\t" + (ops * 1000000000L / writeNanos)
+            + "\t\t" + (writeAllocated / ops));
+        ch.close();
+      }
+    }
+    sink.close();
+  }
+
+  private static long writeNanos;
+  private static long writeAllocated;
+
+  /**
+   * Writes the given number of batches and returns the number of operations
+   * written. Only the writing itself is measured, the operations of a batch
+   * are created upfront.
+   */
+  private static long run(MemcachedNode node, OperationFactory of,
+      byte[] value, int batches) throws Exception {
+    Operation[] ops = new Operation[BATCH];
+    for (int b = 0; b < batches; b++) {
+      for (int i = 0; i < BATCH; i++) {
+        ops[i] = of.store(StoreType.set, "key" + i, 0, 0, value,
+          new StoreOperation.Callback() {
+            public void receivedStatus(OperationStatus status) {
+              // not read
+            }
+
+            public void gotData(String key, long cas) {
+              // not read
+            }
+
+            public void complete() {
+              // not read
+            }
+          });
+        ops[i].initialize();
+        node.addOp(ops[i]);
+      }
+      node.copyInputQueue();
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+
+      node.fillWriteBuffer(false);
+      while (node.getBytesRemainingToWrite() > 0) {
+        node.writeSome();
+        node.fillWriteBuffer(false);
+      }
+      while (node.hasReadOp()) {
+        node.removeCurrentReadOp();
+      }
+      writeNanos += System.nanoTime() - start;
+      writeAllocated += allocatedBytes() - allocated;
+    }
+    return (long) batches * BATCH;
+  }
+
+  private static long allocatedBytes() {
+    com.sun.management.ThreadMXBean bean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+}